@@ -0,0 +1,411 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command line entry point for batch jobs that run without a display.
+ * Usage: {@code App merge [--sort name|rollno] [--dedupe] [--memory <MB>] [--spill-dir <dir>] -o <output.csv> <input.csv>...}
+ * or {@code App convert <input> <output>} or {@code App serve [--port <port>] [--watch <dir>] [--replicate <port>] <roster>}
+ * or {@code App follow [--port <port>] <host>:<port>}
+ * or {@code App duplicates [--threshold <t>] [-o <output>] <roster>}
+ * or {@code App query [--rollno <low>-<high>] [--name <text>] [--address <text>] [--class <name>]... <roster>}.
+ */
+public class App {
+    private static final int DEFAULT_PORT = 8080; // Port the roster service listens on unless told otherwise
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: App merge [options] -o <output.csv> <input.csv>...",
+            "  Merges roster CSV files into one, streaming them so they may be larger than memory.",
+            "  --sort name|rollno   sort the students of each class; classes are written in alphabetical order",
+            "  --dedupe             keep only the last student with each roll number in a class",
+            "  --memory <MB>        memory to sort in before spilling to disk (default: a quarter of the heap)",
+            "  --spill-dir <dir>    directory for temporary sort files (default: the system temporary directory)",
+            "       App convert <input> <output>",
+            "  Converts a roster between CSV and the binary format; files ending in " + BinaryRoster.EXTENSION + " are binary.",
+            "       App serve [--port <port>] [--watch <dir>] [--replicate <port>] <roster>",
+            "  Serves the roster over HTTP/JSON on the loopback interface (default port " + DEFAULT_PORT + "), saving changes to its journal.",
+            "  --watch <dir>        merge the roster CSV files of a directory into the roster, and again each time one changes",
+            "  --replicate <port>   stream every change to followers that connect to this port",
+            "       App follow [--port <port>] <host>:<port>",
+            "  Serves a read-only copy of the roster of a primary started with serve --replicate, kept up to date as it changes.",
+            "       App duplicates [--threshold <t>] [-o <output>] <roster>",
+            "  Prints students with equal or similar names and addresses, in this or other classes, as CSV lines of",
+            "  cluster,class,rollno,name,address; with -o, also writes the roster with each cluster merged into its first student.",
+            "  --threshold <t>      least similarity of duplicates, above 0 and at most 1 (default " + DuplicateFinder.DEFAULT_THRESHOLD + ")",
+            "       App query [--rollno <low>-<high>] [--name|--name-starts <text>] [--address|--address-starts <text>] [--class <name>]... <roster>",
+            "  Prints the students meeting every condition as CSV lines of class,rollno,name,address; text is matched ignoring case.",
+            "  --rollno <low>-<high> roll numbers in a range; either end may be left out",
+            "  --name <text>        names containing the text; --name-starts for names starting with it",
+            "  --address <text>     addresses containing the text; --address-starts for addresses starting with it",
+            "  --class <name>       query this class; repeat for more (default: every class)");
+
+    /**
+     * Main method to run a batch command.
+     * @param args Command line arguments.
+     */
+    public static void main(String[] args) {
+        if (args.length == 0 || !(args[0].equals("merge") || args[0].equals("convert") || args[0].equals("serve") || args[0].equals("follow") || args[0].equals("duplicates") || args[0].equals("query"))) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        try {
+            List<String> commandArgs = Arrays.asList(args).subList(1, args.length);
+            switch (args[0]) {
+                case "merge":
+                    merge(commandArgs);
+                    break;
+                case "convert":
+                    convert(commandArgs);
+                    break;
+                case "duplicates":
+                    duplicates(commandArgs);
+                    break;
+                case "query":
+                    query(commandArgs);
+                    break;
+                case "follow":
+                    follow(commandArgs);
+                    break;
+                default:
+                    serve(commandArgs);
+            }
+        } catch (IllegalArgumentException e) { // Bad command line
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        } catch (IOException e) { // Catch IO exception
+            System.err.println("Failed to " + args[0] + " rosters: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the merge command.
+     * @param args The arguments after the command name.
+     * @throws IOException If a file cannot be read or written.
+     */
+    private static void merge(List<String> args) throws IOException {
+        RosterPipeline pipeline = new RosterPipeline().reader(newReader());
+        Path output = null; // File to write
+        List<Path> inputs = new ArrayList<>(); // Files to read, in order
+        for (int i = 0; i < args.size(); i++) {
+            String arg = args.get(i);
+            switch (arg) {
+                case "--sort":
+                    pipeline.sortBy(RosterEngine.comparator(value(args, ++i, arg)));
+                    break;
+                case "--dedupe":
+                    pipeline.dedupe(true);
+                    break;
+                case "--memory":
+                    pipeline.memoryBudget(Long.parseLong(value(args, ++i, arg)) << 20);
+                    break;
+                case "--spill-dir":
+                    pipeline.spillDirectory(Paths.get(value(args, ++i, arg)));
+                    break;
+                case "-o":
+                    output = Paths.get(value(args, ++i, arg));
+                    break;
+                default:
+                    if (arg.startsWith("-")) {
+                        throw new IllegalArgumentException("Unknown option: " + arg);
+                    }
+                    inputs.add(Paths.get(arg));
+            }
+        }
+        if (output == null || inputs.isEmpty()) {
+            throw new IllegalArgumentException("An output file and at least one input file are required");
+        }
+        for (Path path : inputs) {
+            if (BinaryRoster.isBinary(path)) { // The merge streams CSV lines
+                throw new IllegalArgumentException("Cannot merge binary roster " + path + "; convert it to CSV first");
+            }
+        }
+        if (BinaryRoster.isBinary(output)) {
+            throw new IllegalArgumentException("Cannot merge into binary roster " + output + "; merge to CSV and convert it");
+        }
+        long start = System.nanoTime();
+        RosterPipeline.Result result = pipeline.run(inputs, output);
+        System.out.println(result + " to " + output + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    /**
+     * Runs the convert command.
+     * @param args The arguments after the command name.
+     * @throws IOException If a file cannot be read or written.
+     */
+    private static void convert(List<String> args) throws IOException {
+        if (args.size() != 2) {
+            throw new IllegalArgumentException("An input file and an output file are required");
+        }
+        Path input = Paths.get(args.get(0));
+        Path output = Paths.get(args.get(1));
+        long start = System.nanoTime();
+        long converted = RosterEngine.convert(input, output, newReader());
+        System.out.println("Converted " + converted + " students to " + output + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    /**
+     * Runs the serve command. The service keeps running until the process is stopped, closing the journal on the way out.
+     * @param args The arguments after the command name.
+     * @throws IOException If the roster cannot be loaded or the port cannot be bound.
+     */
+    private static void serve(List<String> args) throws IOException {
+        int port = DEFAULT_PORT;
+        Path roster = null; // Base file of the journal to serve
+        Path watched = null; // Directory of roster files to merge as they change, or null
+        int replicationPort = -1; // Port followers connect to, or -1
+        for (int i = 0; i < args.size(); i++) {
+            String arg = args.get(i);
+            if (arg.equals("--port")) {
+                port = Integer.parseInt(value(args, ++i, arg));
+            } else if (arg.equals("--watch")) {
+                watched = Paths.get(value(args, ++i, arg));
+            } else if (arg.equals("--replicate")) {
+                replicationPort = Integer.parseInt(value(args, ++i, arg));
+            } else if (arg.startsWith("-") || roster != null) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            } else {
+                roster = Paths.get(arg);
+            }
+        }
+        if (roster == null) {
+            throw new IllegalArgumentException("A roster file is required");
+        }
+        RosterJournal journal = new RosterJournal(roster);
+        RosterReader reader = newReader();
+        RosterService service = new RosterService(journal.open(reader, RosterReader.MalformedLineHandler.LOG)); // Log lines that cannot be parsed
+        RosterPrimary primary = replicationPort >= 0 ? new RosterPrimary(service.snapshot(), replicationPort) : null; // Before any write is accepted
+        service.onCommit((changes, snapshot) -> {
+            journal.append(changes); // One synced write per batch
+            if (journal.needsCompaction()) { // Published stores never change, so the snapshot can be written as it is
+                journal.compact(snapshot.getClasses());
+            }
+            if (primary != null) { // Followers only see saved changes
+                primary.committed(changes, snapshot);
+            }
+        }).start(port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> { // Finish queued writes and compaction on Ctrl+C
+            service.close();
+            if (primary != null) {
+                try {
+                    primary.close();
+                } catch (IOException e) {
+                    System.err.println("Failed to stop replication: " + e.getMessage());
+                }
+            }
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close journal: " + e.getMessage());
+            }
+        }, "roster-shutdown"));
+        System.out.println("Serving " + service.snapshot().getClasses().size() + " classes from " + roster + " on http://"
+                + InetAddress.getLoopbackAddress().getHostAddress() + ":" + service.getPort() + "/classes");
+        if (primary != null) {
+            System.out.println("Replicating to followers on port " + primary.getPort());
+        }
+        if (watched != null) {
+            new RosterWatcher(watched)
+                    .onChanges((file, changes) -> { // Journaled and published like any other batch
+                        service.apply(changes);
+                        System.out.println("Merged " + changes.size() + " changes from " + file.getFileName());
+                    })
+                    .onMalformedLine(RosterReader.MalformedLineHandler.LOG) // Log lines that cannot be parsed
+                    .onError((file, failure) -> System.err.println("Failed to read " + file + ": " + failure.getMessage()))
+                    .start(); // Stops with the process
+            System.out.println("Watching " + watched + " for roster files");
+        }
+    }
+
+    /**
+     * Runs the follow command. The follower serves reads until the process is stopped, reconnecting to the primary
+     * whenever the connection is lost.
+     * @param args The arguments after the command name.
+     * @throws IOException If the port cannot be bound.
+     */
+    private static void follow(List<String> args) throws IOException {
+        int port = DEFAULT_PORT;
+        String primary = null; // Host and port of the primary
+        for (int i = 0; i < args.size(); i++) {
+            String arg = args.get(i);
+            if (arg.equals("--port")) {
+                port = Integer.parseInt(value(args, ++i, arg));
+            } else if (arg.startsWith("-") || primary != null) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            } else {
+                primary = arg;
+            }
+        }
+        int colon = primary == null ? -1 : primary.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("The primary's <host>:<port> is required");
+        }
+        RosterService service = new RosterService(new LinkedHashMap<>()).readOnly(true).start(port); // Filled in by the first snapshot
+        RosterFollower follower = new RosterFollower(primary.substring(0, colon), Integer.parseInt(primary.substring(colon + 1)))
+                .onSnapshot(service::replace) // The service takes over the new roster
+                .onChanges(service::apply) // Applied in batches, copying only the classes they change
+                .start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> { // Stop following and finish queued changes on Ctrl+C
+            follower.close();
+            service.close();
+        }, "roster-shutdown"));
+        System.out.println("Following " + primary + ", serving its roster on http://"
+                + InetAddress.getLoopbackAddress().getHostAddress() + ":" + service.getPort() + "/classes");
+    }
+
+    /**
+     * Runs the duplicates command. The clusters go to standard output and the summary to standard error, so the
+     * output can be redirected to a CSV file.
+     * @param args The arguments after the command name.
+     * @throws IOException If a file cannot be read or written.
+     */
+    private static void duplicates(List<String> args) throws IOException {
+        DuplicateFinder finder = new DuplicateFinder();
+        Path output = null; // File to write the merged roster to, or null
+        Path roster = null; // File to search
+        for (int i = 0; i < args.size(); i++) {
+            String arg = args.get(i);
+            if (arg.equals("--threshold")) {
+                finder.threshold(Double.parseDouble(value(args, ++i, arg)));
+            } else if (arg.equals("-o")) {
+                output = Paths.get(value(args, ++i, arg));
+            } else if (arg.startsWith("-") || roster != null) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            } else {
+                roster = Paths.get(arg);
+            }
+        }
+        if (roster == null) {
+            throw new IllegalArgumentException("A roster file is required");
+        }
+        long start = System.nanoTime();
+        Map<String, StudentStore> classMap = RosterEngine.load(roster, newReader());
+        List<DuplicateFinder.Cluster> clusters = finder.find(classMap);
+        int students = 0; // Students in clusters
+        for (int i = 0; i < clusters.size(); i++) {
+            for (DuplicateFinder.Member member : clusters.get(i).getMembers()) {
+                System.out.println(CsvCodec.join(String.valueOf(i + 1), member.getClassName(), String.valueOf(member.getRollno()),
+                        member.getName(), member.getAddress()));
+                students++;
+            }
+        }
+        System.err.println("Found " + clusters.size() + " clusters of " + students + " students among "
+                + RosterEngine.countStudents(classMap) + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        if (output != null) {
+            long changes = 0;
+            for (DuplicateFinder.Cluster cluster : clusters) {
+                for (RosterChange change : cluster.mergeChanges()) {
+                    change.applyTo(classMap);
+                    changes++;
+                }
+            }
+            RosterEngine.save(output, classMap);
+            System.err.println("Wrote the roster with " + changes + " changes to " + output);
+        }
+    }
+
+    /**
+     * Runs the query command. The students go to standard output and the summary to standard error, so the output
+     * can be redirected to a CSV file.
+     * @param args The arguments after the command name.
+     * @throws IOException If a file cannot be read or written.
+     */
+    private static void query(List<String> args) throws IOException {
+        List<StudentPredicate> conditions = new ArrayList<>(); // Conditions in the order given
+        List<String> classes = new ArrayList<>(); // Classes to query, none for all
+        Path roster = null; // File to query
+        for (int i = 0; i < args.size(); i++) {
+            String arg = args.get(i);
+            switch (arg) {
+                case "--rollno":
+                    conditions.add(0, rollnoRange(value(args, ++i, arg))); // Cheapest, so checked first
+                    break;
+                case "--name":
+                    conditions.add(StudentPredicate.nameContains(value(args, ++i, arg)));
+                    break;
+                case "--name-starts":
+                    conditions.add(StudentPredicate.nameStartsWith(value(args, ++i, arg)));
+                    break;
+                case "--address":
+                    conditions.add(StudentPredicate.addressContains(value(args, ++i, arg)));
+                    break;
+                case "--address-starts":
+                    conditions.add(StudentPredicate.addressStartsWith(value(args, ++i, arg)));
+                    break;
+                case "--class":
+                    classes.add(value(args, ++i, arg));
+                    break;
+                default:
+                    if (arg.startsWith("-") || roster != null) {
+                        throw new IllegalArgumentException("Unexpected argument: " + arg);
+                    }
+                    roster = Paths.get(arg);
+            }
+        }
+        if (roster == null) {
+            throw new IllegalArgumentException("A roster file is required");
+        }
+        long start = System.nanoTime();
+        Map<String, StudentStore> classMap = RosterEngine.load(roster, newReader());
+        long queryStart = System.nanoTime();
+        StudentQuery.Result result = new StudentQuery()
+                .where(StudentPredicate.and(conditions.toArray(new StudentPredicate[0])))
+                .inClasses(classes.isEmpty() ? null : classes)
+                .run(classMap);
+        long queryNanos = System.nanoTime() - queryStart;
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16); // Millions of lines may be printed
+        for (int row = 0; row < result.size(); row++) {
+            StudentStore students = result.getStudents(row);
+            int position = result.getPosition(row);
+            out.write(CsvCodec.join(result.getClassName(row), String.valueOf(students.getRollno(position)),
+                    students.getName(position), students.getAddress(position)));
+            out.write(System.lineSeparator());
+        }
+        out.flush();
+        System.err.println("Found " + result.size() + " of " + result.getScanned() + " students in " + (System.nanoTime() - start) / 1_000_000
+                + " ms, querying in " + queryNanos / 1_000_000 + " ms with " + QueryKernels.get().getName() + " kernels");
+    }
+
+    /**
+     * Parses a roll number range of the query command, such as 100-200, 100- or -200.
+     */
+    private static StudentPredicate rollnoRange(String range) {
+        int dash = range.indexOf('-', 1); // A leading dash is the sign of the low end, or an open low end
+        if (range.startsWith("-") && dash < 0) { // Only a high end
+            dash = 0;
+        }
+        if (dash < 0) {
+            throw new IllegalArgumentException("Roll number range must be <low>-<high>: " + range);
+        }
+        String low = range.substring(0, dash).trim(), high = range.substring(dash + 1).trim();
+        return StudentPredicate.rollnoBetween(low.isEmpty() ? Integer.MIN_VALUE : Integer.parseInt(low),
+                high.isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(high));
+    }
+
+    /**
+     * Creates a roster reader that logs lines that cannot be parsed.
+     */
+    private static RosterReader newReader() {
+        return new RosterReader().onMalformedLine(RosterReader.MalformedLineHandler.LOG); // Log lines that cannot be parsed
+    }
+
+    /**
+     * Returns the value of an option.
+     */
+    private static String value(List<String> args, int index, String option) {
+        if (index >= args.size()) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args.get(index);
+    }
+}
@@ -0,0 +1,902 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.zip.CRC32C;
+
+/**
+ * A class roster in a compact binary file that opens without parsing and loads each class only when it is needed.
+ * <p>
+ * The file starts with a header: the magic bytes {@code SRST}, a format version, reserved flags, the number of classes,
+ * the length of the class table and a CRC32C of the header and the table. The table lists each class with its name,
+ * the offset and length of its data, its number of students and a CRC32C of its data. The data of a class holds its
+ * students back to back, each as a zigzag varint roll number followed by the name and the address, each as a varint
+ * length and UTF-8 bytes. Names and addresses are laid out as in a {@link StringArena}, so a loaded class keeps the
+ * bytes as its arena without decoding a single string. Numbers in the header and the table are big-endian.
+ * <p>
+ * {@link #open} reads and checks only the header and the table and maps the class data into memory;
+ * {@link #load} copies out and checks the data of one class. {@link #classMap} wraps an open roster in a map that
+ * loads classes on first access, and that a {@link ClassResidency} can unload again.
+ */
+public class BinaryRoster {
+    public static final String EXTENSION = ".roster"; // File name extension of binary rosters
+    private static final int MAGIC = 0x53525354; // "SRST"
+    private static final short VERSION = 1; // Format version written and understood
+    private static final int HEADER_LENGTH = 20; // Bytes before the class table, the last four being the checksum
+    private static final int TABLE_ENTRY_LENGTH = 20; // Bytes of a table entry after the class name
+    private static final long MAX_SEGMENT = 1L << 30; // Largest region of the file mapped at once
+    private static final int MAX_CLASS_LENGTH = Integer.MAX_VALUE - 8; // Largest class data that fits in an arena
+    private static final int BUFFER_SIZE = 1 << 16; // Bytes written at once
+    private static final int CANCEL_CHECK_INTERVAL = 4096; // Students written between checks for cancellation, a power of two
+
+    private final Path path; // File the roster was opened from
+    private final String[] names; // Class names in file order
+    private final int[] counts; // Students per class
+    private final int[] checksums; // CRC32C of each class's data
+    private final ByteBuffer[] regions; // Mapped data of each class
+
+    private BinaryRoster(Path path, String[] names, int[] counts, int[] checksums, ByteBuffer[] regions) {
+        this.path = path;
+        this.names = names;
+        this.counts = counts;
+        this.checksums = checksums;
+        this.regions = regions;
+    }
+
+    /**
+     * Checks whether a path names a binary roster, which is decided by its extension.
+     * @param path The path of the roster file.
+     * @return True if the file is a binary roster, false if it is a CSV file.
+     */
+    public static boolean isBinary(Path path) {
+        return path.getFileName().toString().endsWith(EXTENSION);
+    }
+
+    /**
+     * Opens a binary roster. Only the header and the class table are read; the class data is mapped into memory and
+     * stays readable after the file is replaced or deleted.
+     * @param path The path of the roster file.
+     * @return The open roster.
+     * @throws IOException If the file cannot be read, is not a binary roster or is damaged.
+     */
+    public static BinaryRoster open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) { // Mappings outlive the channel
+            long fileSize = channel.size();
+            if (fileSize < HEADER_LENGTH) {
+                throw new IOException(path + " is not a binary roster");
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            readFully(channel, header, 0, path);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException(path + " is not a binary roster");
+            }
+            short version = header.getShort();
+            if (version != VERSION) {
+                throw new IOException(path + " has unsupported binary roster version " + version);
+            }
+            header.getShort(); // Flags, none defined yet
+            int classCount = header.getInt();
+            int tableLength = header.getInt();
+            int checksum = header.getInt();
+            if (classCount < 0 || tableLength < 0 || HEADER_LENGTH + (long) tableLength > fileSize) {
+                throw damaged(path, "class table out of bounds");
+            }
+            ByteBuffer table = ByteBuffer.allocate(tableLength);
+            readFully(channel, table, HEADER_LENGTH, path);
+            table.flip();
+            CRC32C crc = new CRC32C();
+            crc.update(header.array(), 0, HEADER_LENGTH - 4); // Everything but the checksum itself
+            crc.update(table.array(), 0, tableLength);
+            if ((int) crc.getValue() != checksum) {
+                throw damaged(path, "header checksum mismatch");
+            }
+
+            String[] names = new String[classCount];
+            long[] offsets = new long[classCount];
+            int[] lengths = new int[classCount];
+            int[] counts = new int[classCount];
+            int[] checksums = new int[classCount];
+            try {
+                for (int i = 0; i < classCount; i++) {
+                    byte[] name = new byte[readVarint(table)];
+                    table.get(name);
+                    names[i] = new String(name, StandardCharsets.UTF_8);
+                    offsets[i] = table.getLong();
+                    lengths[i] = table.getInt();
+                    counts[i] = table.getInt();
+                    checksums[i] = table.getInt();
+                    if (offsets[i] < HEADER_LENGTH + tableLength || lengths[i] < 0 || offsets[i] + lengths[i] > fileSize || counts[i] < 0) {
+                        throw damaged(path, "class " + names[i] + " out of bounds");
+                    }
+                }
+            } catch (BufferUnderflowException e) { // The checksum matched, so the table was written wrongly
+                throw damaged(path, "class table truncated");
+            }
+
+            ByteBuffer[] regions = new ByteBuffer[classCount];
+            ByteBuffer segment = null; // Mapping the current classes lie in
+            long segmentStart = 0; // File offset of the mapping
+            for (int i = 0; i < classCount; i++) {
+                if (lengths[i] == 0) { // Nothing to map
+                    regions[i] = ByteBuffer.allocate(0);
+                    continue;
+                }
+                if (segment == null || offsets[i] < segmentStart || offsets[i] + lengths[i] > segmentStart + segment.capacity()) { // Map the next segment, starting at this class
+                    segmentStart = offsets[i];
+                    long segmentLength = Math.max(lengths[i], Math.min(fileSize - segmentStart, MAX_SEGMENT)); // At least the whole class
+                    segment = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, segmentLength);
+                }
+                regions[i] = segment.slice((int) (offsets[i] - segmentStart), lengths[i]);
+            }
+            return new BinaryRoster(path, names, counts, checksums, regions);
+        }
+    }
+
+    /**
+     * Returns the path the roster was opened from.
+     * @return The path of the roster file.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the number of classes in the roster.
+     * @return The number of classes.
+     */
+    public int classCount() {
+        return names.length;
+    }
+
+    /**
+     * Returns the name of a class.
+     * @param classIndex The position of the class in the file.
+     * @return The class name.
+     */
+    public String className(int classIndex) {
+        return names[classIndex];
+    }
+
+    /**
+     * Returns the number of students of a class without loading it.
+     * @param classIndex The position of the class in the file.
+     * @return The number of students.
+     */
+    public int studentCount(int classIndex) {
+        return counts[classIndex];
+    }
+
+    /**
+     * Loads the students of a class. The data is copied out of the mapping in one piece, checked against its
+     * checksum and used as the arena of the new store. Safe to call from several threads.
+     * @param classIndex The position of the class in the file.
+     * @return A new store holding the students of the class.
+     * @throws IOException If the data of the class is damaged.
+     */
+    public StudentStore load(int classIndex) throws IOException {
+        try (RosterMetrics.Sample sample = RosterMetrics.LOAD_CLASS.start(names[classIndex])) {
+            StudentStore students = decode(classIndex);
+            sample.rows(students.size()).bytes(regions[classIndex].capacity());
+            return students;
+        }
+    }
+
+    /**
+     * Copies a class out of the mapping, checks it and wraps it in a store, see {@link #load}.
+     */
+    private StudentStore decode(int classIndex) throws IOException {
+        ByteBuffer region = regions[classIndex];
+        byte[] bytes = new byte[region.capacity()];
+        region.get(0, bytes); // Absolute, so concurrent loads do not disturb each other
+        CRC32C crc = new CRC32C();
+        crc.update(bytes);
+        if ((int) crc.getValue() != checksums[classIndex]) {
+            throw damaged(path, "checksum mismatch in class " + names[classIndex]);
+        }
+        int count = counts[classIndex];
+        int[] rollnos = new int[count];
+        int[] nameRefs = new int[count];
+        int[] addressRefs = new int[count];
+        int pos = 0; // Start of the current field
+        try {
+            for (int i = 0; i < count; i++) {
+                int zigzag = 0;
+                for (int shift = 0; ; shift += 7) { // Read the roll number varint
+                    byte b = bytes[pos++];
+                    zigzag |= (b & 0x7f) << shift;
+                    if (b >= 0) {
+                        break;
+                    }
+                }
+                rollnos[i] = (zigzag >>> 1) ^ -(zigzag & 1);
+                nameRefs[i] = pos;
+                pos = skipString(bytes, pos);
+                addressRefs[i] = pos;
+                pos = skipString(bytes, pos);
+            }
+        } catch (ArrayIndexOutOfBoundsException e) { // The checksum matched, so the class was written wrongly
+            throw damaged(path, "class " + names[classIndex] + " truncated");
+        }
+        if (pos != bytes.length) {
+            throw damaged(path, "class " + names[classIndex] + " has trailing data");
+        }
+        return StudentStore.wrap(StringArena.wrap(bytes, bytes.length), rollnos, nameRefs, addressRefs, count);
+    }
+
+    /**
+     * Returns a map of the classes of this roster that loads each class on first access.
+     * @return A new map over the roster.
+     */
+    public ClassMap classMap() {
+        ClassMap classMap = new ClassMap();
+        for (int i = 0; i < names.length; i++) {
+            classMap.slots.put(names[i], new Slot(this, i));
+        }
+        return classMap;
+    }
+
+    /**
+     * Writes a roster to a binary file, replacing it atomically.
+     * @param path The path of the roster file.
+     * @param roster The roster to write, mapping class names to students.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void write(Path path, Map<String, ? extends List<Student>> roster) throws IOException {
+        write(path, roster, () -> false);
+    }
+
+    /**
+     * Writes a roster to a binary file, replacing it atomically unless the write is cancelled first.
+     * Classes of a {@link ClassMap} that were never loaded are copied from their file without decoding them.
+     * @param path The path of the roster file.
+     * @param roster The roster to write, mapping class names to students.
+     * @param cancelled Checked every few thousand students; once it returns true the write stops and the file is left unchanged.
+     * @throws IOException If the file cannot be written.
+     * @throws CancellationException If the write was cancelled.
+     */
+    public static void write(Path path, Map<String, ? extends List<Student>> roster, BooleanSupplier cancelled) throws IOException {
+        Path target = path.toAbsolutePath(); // Resolve so the temporary file lands in the same directory
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        List<String> classNames = new ArrayList<>(roster.keySet());
+        int classCount = classNames.size();
+        byte[][] encodedNames = new byte[classCount][];
+        int tableLength = 0;
+        for (int i = 0; i < classCount; i++) {
+            encodedNames[i] = classNames.get(i).getBytes(StandardCharsets.UTF_8);
+            tableLength += varintLength(encodedNames[i].length) + encodedNames[i].length + TABLE_ENTRY_LENGTH;
+        }
+        long[] offsets = new long[classCount];
+        int[] lengths = new int[classCount];
+        int[] counts = new int[classCount];
+        int[] checksums = new int[classCount];
+        ClassMap classMap = roster instanceof ClassMap ? (ClassMap) roster : null; // Source of classes to copy as they are
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                Output out = new Output(channel, HEADER_LENGTH + tableLength); // Class data follows the table
+                for (int i = 0; i < classCount; i++) {
+                    String className = classNames.get(i);
+                    offsets[i] = out.position;
+                    out.startClass();
+                    Slot slot = classMap != null ? classMap.slots.get(className) : null;
+                    if (slot != null && slot.students == null) { // Never loaded, so copy its data unchanged
+                        slot.source.copyClass(slot.classIndex, out);
+                        counts[i] = slot.source.counts[slot.classIndex];
+                    } else {
+                        counts[i] = writeClass(roster.get(className), out, cancelled);
+                    }
+                    if (out.position - offsets[i] > MAX_CLASS_LENGTH) {
+                        throw new IOException("Class " + className + " is too large for a binary roster");
+                    }
+                    lengths[i] = (int) (out.position - offsets[i]);
+                    checksums[i] = (int) out.crc.getValue();
+                }
+                out.flush();
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH + tableLength);
+                header.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putInt(classCount).putInt(tableLength).putInt(0); // Checksum filled in below
+                for (int i = 0; i < classCount; i++) {
+                    putVarint(header, encodedNames[i].length);
+                    header.put(encodedNames[i]).putLong(offsets[i]).putInt(lengths[i]).putInt(counts[i]).putInt(checksums[i]);
+                }
+                CRC32C crc = new CRC32C();
+                crc.update(header.array(), 0, HEADER_LENGTH - 4);
+                crc.update(header.array(), HEADER_LENGTH, tableLength);
+                header.putInt(HEADER_LENGTH - 4, (int) crc.getValue());
+                header.flip();
+                long position = 0;
+                while (header.hasRemaining()) {
+                    position += channel.write(header, position);
+                }
+            }
+            RosterWriter.replace(temp, target);
+        } finally {
+            Files.deleteIfExists(temp); // Only left behind if the write failed
+        }
+    }
+
+    /**
+     * Appends the data of one class to a file, as a binary roster lays it out, and maps it back into memory, for
+     * spilling a class that is evicted from memory. The file holds no header or table; the returned roster stands in
+     * for them.
+     * @param channel The file to append to, open for reading and writing.
+     * @param path The path of the file, for error messages.
+     * @param className The name of the class.
+     * @param students The students of the class.
+     * @return A roster of the one class, to load it back from with {@link #load}{@code (0)}.
+     * @throws IOException If the file cannot be written or the class is too large.
+     */
+    static BinaryRoster appendClass(FileChannel channel, Path path, String className, StudentStore students) throws IOException {
+        long offset = channel.size();
+        Output out = new Output(channel, offset);
+        out.startClass();
+        int count = writeClass(students, out, () -> false);
+        out.flush();
+        long length = out.position - offset;
+        if (length > MAX_CLASS_LENGTH) {
+            throw new IOException("Class " + className + " is too large for a binary roster");
+        }
+        ByteBuffer region = length == 0 ? ByteBuffer.allocate(0) : channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        return new BinaryRoster(path, new String[] {className}, new int[] {count}, new int[] {(int) out.crc.getValue()}, new ByteBuffer[] {region});
+    }
+
+    /**
+     * Writes the students of a class.
+     * @return The number of students written.
+     */
+    private static int writeClass(List<Student> students, Output out, BooleanSupplier cancelled) throws IOException {
+        int count = students.size();
+        for (int i = 0; i < count; i++) {
+            if ((i & (CANCEL_CHECK_INTERVAL - 1)) == CANCEL_CHECK_INTERVAL - 1 && cancelled.getAsBoolean()) { // Give up without touching the target
+                throw new CancellationException("Saving the roster was cancelled");
+            }
+            if (students instanceof StudentStore) { // Copy the encoded text straight out of the arena
+                StudentStore store = (StudentStore) students;
+                StringArena arena = store.arena();
+                int rollno = store.getRollno(i);
+                out.putVarint((rollno << 1) ^ (rollno >> 31));
+                int nameRef = store.nameRef(i);
+                out.put(arena.bytes(), nameRef, arena.encodedLength(nameRef));
+                int addressRef = store.addressRef(i);
+                out.put(arena.bytes(), addressRef, arena.encodedLength(addressRef));
+            } else {
+                Student student = students.get(i);
+                out.putVarint((student.getRollno() << 1) ^ (student.getRollno() >> 31));
+                out.putString(student.getName());
+                out.putString(student.getAddress());
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Copies the data of a class without decoding it, checking it against its checksum on the way.
+     */
+    private void copyClass(int classIndex, Output out) throws IOException {
+        ByteBuffer region = regions[classIndex];
+        byte[] chunk = new byte[Math.min(region.capacity(), BUFFER_SIZE)];
+        for (int pos = 0; pos < region.capacity(); pos += chunk.length) {
+            int length = Math.min(chunk.length, region.capacity() - pos);
+            region.get(pos, chunk, 0, length);
+            out.put(chunk, 0, length);
+        }
+        if ((int) out.crc.getValue() != checksums[classIndex]) { // Never pass on damaged data under a fresh checksum
+            throw damaged(path, "checksum mismatch in class " + names[classIndex]);
+        }
+    }
+
+    /**
+     * Returns the position after the string at the given position.
+     */
+    private static int skipString(byte[] bytes, int pos) {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) { // Read the length varint
+            byte b = bytes[pos++];
+            length |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        if (length < 0 || length > bytes.length - pos) {
+            throw new ArrayIndexOutOfBoundsException(pos + length);
+        }
+        return pos + length;
+    }
+
+    private static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte) (value | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int varintLength(int value) {
+        int length = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position, Path path) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of " + path);
+            }
+            position += read;
+        }
+    }
+
+    private static IOException damaged(Path path, String reason) {
+        return new IOException(path + " is damaged: " + reason);
+    }
+
+    /**
+     * Buffered output of class data that tracks the file position and the checksum of the current class.
+     */
+    private static class Output {
+        private final FileChannel channel; // File being written
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE); // Bytes not yet written
+        private final CRC32C crc = new CRC32C(); // Checksum of the current class
+        private long position; // File position of the next byte
+        private long flushed; // File position of the first buffered byte
+
+        Output(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+            this.flushed = position;
+        }
+
+        void startClass() {
+            crc.reset();
+        }
+
+        void put(byte[] source, int offset, int length) throws IOException {
+            crc.update(source, offset, length);
+            position += length;
+            while (length > 0) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                int chunk = Math.min(length, buffer.remaining());
+                buffer.put(source, offset, chunk);
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+
+        void putVarint(int value) throws IOException {
+            if (buffer.remaining() < 5) { // A varint needs at most 5 bytes
+                flush();
+            }
+            int start = buffer.position();
+            BinaryRoster.putVarint(buffer, value);
+            int length = buffer.position() - start;
+            crc.update(buffer.array(), start, length);
+            position += length;
+        }
+
+        void putString(String value) throws IOException {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            putVarint(utf8.length);
+            put(utf8, 0, utf8.length);
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                flushed += channel.write(buffer, flushed);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * A class in a {@link ClassMap}: its loaded students, where to load them from, or both while the loaded students
+     * are unchanged.
+     */
+    private static class Slot {
+        private BinaryRoster source; // Roster holding the class's data, or null if it is only in memory
+        private int classIndex; // Position of the class in the source
+        private StudentStore students; // Loaded students, or null until first access or once evicted
+        private long sourceVersion; // Version of the students when loaded; the source holds them while it is unchanged
+
+        Slot(BinaryRoster source, int classIndex) {
+            this.source = source;
+            this.classIndex = classIndex;
+        }
+
+        Slot(StudentStore students) {
+            this.classIndex = -1;
+            this.students = students;
+        }
+
+        StudentStore load() {
+            if (students == null) {
+                loaded(read());
+            }
+            return students;
+        }
+
+        /**
+         * Returns the loaded students, or loads them without keeping them.
+         */
+        StudentStore read() {
+            if (students != null) {
+                return students;
+            }
+            try {
+                return source.load(classIndex);
+            } catch (IOException e) { // Map lookups cannot throw checked exceptions
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void loaded(StudentStore students) {
+            this.students = students;
+            this.sourceVersion = students.getVersion();
+        }
+
+        /**
+         * Checks whether the source holds the students as they are in memory, so they can be dropped without writing them.
+         */
+        boolean isClean() {
+            return source != null && students.getVersion() == sourceVersion;
+        }
+    }
+
+    /**
+     * A load of a class of a {@link ClassMap} that runs apart from the map, see {@link ClassMap#loader}.
+     */
+    private static final class Loader implements Callable<StudentStore> {
+        private final Slot slot; // Slot the class is loaded for
+        private final BinaryRoster source; // Roster holding the class's data
+        private final int classIndex; // Position of the class in the source
+
+        Loader(Slot slot) {
+            this.slot = slot;
+            this.source = slot.source;
+            this.classIndex = slot.classIndex;
+        }
+
+        @Override
+        public StudentStore call() throws IOException {
+            return source.load(classIndex);
+        }
+    }
+
+    /**
+     * A map of class names to students, in file order, that loads each class of a binary roster the first time it is
+     * read. Listing the class names loads nothing; classes that are put into the map replace the file's.
+     * With a {@link ClassResidency}, classes read or put are reported to it, and it unloads the least recently used
+     * ones again to keep the map within its budget; a class that is read after that is loaded back from the roster
+     * file if it is unchanged, and from the residency's spill file otherwise.
+     * Like the stores it holds, the map must only be used by one thread at a time; {@link #snapshot} gives a copy for
+     * another thread, which loads a class afresh each time it is read, so it never holds more than its readers do.
+     * A class that cannot be loaded because its data is damaged throws an {@link UncheckedIOException}.
+     */
+    public static class ClassMap extends AbstractMap<String, StudentStore> {
+        private final Map<String, Slot> slots = new LinkedHashMap<>(); // Classes in order
+        private ClassResidency residency; // Told of the classes used, or null to keep every class loaded once read
+        private boolean keepsLoads = true; // Whether classes read stay loaded, false for snapshots
+
+        private ClassMap() {
+        }
+
+        /**
+         * Creates a map holding classes that are already in memory, such as those read from a CSV file, so that a
+         * {@link ClassResidency} can unload them.
+         * @param roster The classes, in the order to keep them in.
+         * @return The new map, taking over the stores.
+         */
+        public static ClassMap of(Map<String, StudentStore> roster) {
+            ClassMap classMap = new ClassMap();
+            for (Map.Entry<String, StudentStore> entry : roster.entrySet()) {
+                classMap.put(entry.getKey(), entry.getValue());
+            }
+            return classMap;
+        }
+
+        /**
+         * Sets the residency that keeps the loaded classes of this map within a budget. The classes loaded so far are
+         * counted as used in file order.
+         * @param residency The residency, used for this map only, or null to keep every class loaded once read.
+         */
+        public void setResidency(ClassResidency residency) {
+            this.residency = residency;
+            if (residency != null) {
+                residency.attach(this);
+                for (Map.Entry<String, Slot> entry : slots.entrySet()) {
+                    if (entry.getValue().students != null) {
+                        residency.used(entry.getKey());
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns a task that loads a class that is not in memory without changing the map, so that it can run on
+         * another thread while the map is in use. Pass the students it returns to {@link #putLoaded}.
+         * @param className The name of the class.
+         * @return The task, or null if the class is in memory or not in the map.
+         */
+        public Callable<StudentStore> loader(String className) {
+            Slot slot = slots.get(className);
+            return slot == null || slot.students != null ? null : new Loader(slot);
+        }
+
+        /**
+         * Puts the students a {@link #loader} loaded into the map, unless the class was loaded, replaced or removed
+         * in the meantime.
+         * @param className The name of the class.
+         * @param loader The task that loaded the students.
+         * @param students The students it returned.
+         * @return True if the students were put into the map, false if it has moved on.
+         */
+        public boolean putLoaded(String className, Callable<StudentStore> loader, StudentStore students) {
+            Slot slot = slots.get(className);
+            if (!(loader instanceof Loader) || ((Loader) loader).slot != slot || slot.students != null || slot.source != ((Loader) loader).source) {
+                return false;
+            }
+            slot.loaded(students);
+            if (residency != null) {
+                residency.used(className);
+            }
+            return true;
+        }
+
+        /**
+         * Checks whether a class has been loaded, or was put into the map.
+         * @param className The name of the class.
+         * @return True if the class's students are in memory.
+         */
+        public boolean isLoaded(String className) {
+            Slot slot = slots.get(className);
+            return slot != null && slot.students != null;
+        }
+
+        /**
+         * Estimates the heap used by a loaded class.
+         * @param className The name of the class.
+         * @return Its size in bytes, see {@link StudentStore#estimatedBytes}, or 0 if it is not loaded.
+         */
+        long loadedBytes(String className) {
+            Slot slot = slots.get(className);
+            return slot == null || slot.students == null ? 0 : slot.students.estimatedBytes();
+        }
+
+        /**
+         * Returns the students of a loaded class that changed since the roster file or spill file stored them, or were
+         * never stored, so that the residency can spill them before the class is unloaded.
+         * @param className The name of the class.
+         * @return The students, or null if the class is not loaded or is unchanged.
+         */
+        StudentStore changedStudents(String className) {
+            Slot slot = slots.get(className);
+            return slot == null || slot.students == null || slot.isClean() ? null : slot.students;
+        }
+
+        /**
+         * Unloads a class that the roster file or spill file it was loaded from still holds, dropping its students.
+         * @param className The name of the class.
+         * @return The students unloaded, or null if the class was not loaded or has changed.
+         */
+        StudentStore unloadClean(String className) {
+            Slot slot = slots.get(className);
+            if (slot == null || slot.students == null || !slot.isClean()) {
+                return null;
+            }
+            StudentStore students = slot.students;
+            slot.students = null;
+            return students;
+        }
+
+        /**
+         * Unloads a class whose students were written to the residency's spill file, unless they were changed,
+         * replaced or removed since.
+         * @param className The name of the class.
+         * @param students The students written.
+         * @param version Their version when they were written.
+         * @param spilled The roster of the one class written, to load it back from.
+         * @return True if the class was unloaded.
+         */
+        boolean unloadSpilled(String className, StudentStore students, long version, BinaryRoster spilled) {
+            Slot slot = slots.get(className);
+            if (slot == null || slot.students != students || students.getVersion() != version) {
+                return false;
+            }
+            slot.source = spilled;
+            slot.classIndex = 0;
+            slot.students = null;
+            return true;
+        }
+
+        /**
+         * Copies the map so that it can be read or written in the background while the original keeps changing.
+         * Loaded classes are copied as by {@link StudentStore#copy}; classes that are not loaded stay unloaded, and
+         * the copy loads them again each time they are read without keeping them, so a reader that goes through the
+         * classes one at a time, such as a save, holds one at a time whatever the size of the roster.
+         * @return The copy, to be read only.
+         */
+        public ClassMap snapshot() {
+            ClassMap copy = new ClassMap();
+            copy.keepsLoads = false;
+            for (Map.Entry<String, Slot> entry : slots.entrySet()) {
+                Slot slot = entry.getValue();
+                copy.slots.put(entry.getKey(), slot.students == null ? new Slot(slot.source, slot.classIndex) : new Slot(slot.students.copy()));
+            }
+            return copy;
+        }
+
+        /**
+         * Counts the students of all classes without loading any.
+         * @return The number of students.
+         */
+        public long studentCount() {
+            long count = 0;
+            for (Slot slot : slots.values()) {
+                count += slot.students == null ? slot.source.studentCount(slot.classIndex) : slot.students.size();
+            }
+            return count;
+        }
+
+        @Override
+        public StudentStore get(Object key) {
+            Slot slot = slots.get(key);
+            if (slot == null) {
+                return null;
+            }
+            StudentStore students = keepsLoads ? slot.load() : slot.read();
+            if (residency != null) {
+                residency.used((String) key);
+            }
+            return students;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return slots.containsKey(key);
+        }
+
+        @Override
+        public StudentStore put(String key, StudentStore value) {
+            Objects.requireNonNull(value);
+            StudentStore previous = get(key);
+            slots.put(key, new Slot(value));
+            if (residency != null) {
+                residency.used(key);
+            }
+            return previous;
+        }
+
+        @Override
+        public StudentStore remove(Object key) {
+            StudentStore previous = get(key); // Load first, so a damaged class stays in the map
+            slots.remove(key);
+            if (residency != null) {
+                residency.removed((String) key);
+            }
+            return previous;
+        }
+
+        @Override
+        public int size() {
+            return slots.size();
+        }
+
+        @Override
+        public void clear() {
+            slots.clear();
+            if (residency != null) {
+                residency.removed(null);
+            }
+        }
+
+        @Override
+        public Set<Map.Entry<String, StudentStore>> entrySet() {
+            return new AbstractSet<Map.Entry<String, StudentStore>>() {
+                @Override
+                public Iterator<Map.Entry<String, StudentStore>> iterator() {
+                    Iterator<Map.Entry<String, Slot>> iterator = slots.entrySet().iterator();
+                    return new Iterator<Map.Entry<String, StudentStore>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return iterator.hasNext();
+                        }
+
+                        @Override
+                        public Map.Entry<String, StudentStore> next() {
+                            return new Entry(iterator.next());
+                        }
+
+                        @Override
+                        public void remove() {
+                            iterator.remove();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return slots.size();
+                }
+            };
+        }
+
+        /**
+         * An entry whose value is loaded when it is first read.
+         */
+        private class Entry implements Map.Entry<String, StudentStore> {
+            private final Map.Entry<String, Slot> entry; // Entry of the slot map
+
+            Entry(Map.Entry<String, Slot> entry) {
+                this.entry = entry;
+            }
+
+            @Override
+            public String getKey() {
+                return entry.getKey();
+            }
+
+            @Override
+            public StudentStore getValue() {
+                StudentStore students = keepsLoads ? entry.getValue().load() : entry.getValue().read();
+                if (residency != null) {
+                    residency.used(entry.getKey());
+                }
+                return students;
+            }
+
+            @Override
+            public StudentStore setValue(StudentStore value) {
+                Objects.requireNonNull(value);
+                StudentStore previous = getValue();
+                entry.setValue(new Slot(value));
+                return previous;
+            }
+
+            @Override
+            public boolean equals(Object other) {
+                return other instanceof Map.Entry && getKey().equals(((Map.Entry<?, ?>) other).getKey())
+                        && getValue().equals(((Map.Entry<?, ?>) other).getValue());
+            }
+
+            @Override
+            public int hashCode() {
+                return getKey().hashCode() ^ getValue().hashCode();
+            }
+        }
+    }
+}
@@ -0,0 +1,285 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Keeps the loaded classes of a {@link BinaryRoster.ClassMap} within a budget of heap bytes, so that a roster far
+ * larger than the heap can be worked on a few classes at a time.
+ * The map reports each class it hands out or is given, and the residency keeps the classes in order of last use. Once
+ * the loaded classes take more than the budget, the least recently used ones are unloaded until the rest fit: a class
+ * unchanged since it was loaded is simply dropped, since the roster file still holds it, and a changed or new class
+ * is first appended to a spill file in the binary roster layout and mapped back, so it loads again as fast as from the
+ * roster file. Spills can be written on another thread, see {@link #spillOn}: a copy of the class is written there
+ * and the class is only dropped once the write is done, unless it changed or got pinned in the meantime. The map loads an unloaded class the next time it is read, or on another thread with
+ * {@link BinaryRoster.ClassMap#loader}.
+ * Classes are unloaded by {@link #trim}, which the map never runs itself, since a caller may still hold a class it got
+ * from the map while it reads another; the residency schedules it on an executor that runs it after the current
+ * operation, such as the event queue. Pinned classes, such as the one shown in a table, are never unloaded, even if
+ * they alone take more than the budget.
+ * The spill file is deleted when the residency is closed. The space of a class that is changed and spilled again is
+ * not reused, so the file grows with the changes made until the roster is replaced. Must be used on the map's thread.
+ */
+public class ClassResidency implements Closeable {
+    private final long maxBytes; // Most bytes of loaded classes kept
+    private final Path spillDirectory; // Directory of the spill file
+    private final Executor trimmer; // Runs trims after the current operation
+    private Executor spiller = Runnable::run; // Writes classes to the spill file, on the map's thread by default
+    private final Set<String> spilling = new HashSet<>(); // Classes being written to the spill file
+    private final LinkedHashMap<String, Boolean> used = new LinkedHashMap<>(16, 0.75f, true); // Classes used, least recently first; some may have been removed since
+    private Predicate<String> pinned = className -> false; // Classes never unloaded
+    private BiConsumer<String, StudentStore> evictionListener = (className, students) -> { }; // Ignore evictions by default
+    private BinaryRoster.ClassMap classMap; // Map whose classes are kept, or null until attached
+    private Path spillPath; // Spill file, or null until a class is first spilled
+    private FileChannel spill; // Open spill file, or null
+    private boolean spillClosed; // Whether the residency was closed, so no spill file is created any more
+    private boolean trimScheduled; // Whether a trim is waiting to run
+    private long evictions; // Classes unloaded so far
+    private long spilledClasses; // Classes written to the spill file so far
+
+    /**
+     * Constructor to create a residency for one class map, see {@link BinaryRoster.ClassMap#setResidency}.
+     * @param maxBytes The most bytes of loaded classes to keep, see {@link StudentStore#estimatedBytes}.
+     * @param spillDirectory The directory to create the spill file in.
+     * @param trimmer Runs {@link #trim} on the map's thread after the operation that used a class, such as
+     *                {@code SwingUtilities::invokeLater}.
+     */
+    public ClassResidency(long maxBytes, Path spillDirectory, Executor trimmer) {
+        this.maxBytes = maxBytes;
+        this.spillDirectory = spillDirectory;
+        this.trimmer = trimmer;
+    }
+
+    /**
+     * Sets the classes that are never unloaded.
+     * @param pinned Returns true for the name of a class to keep loaded, such as the one being shown.
+     * @return This residency.
+     */
+    public ClassResidency pinned(Predicate<String> pinned) {
+        this.pinned = pinned;
+        return this;
+    }
+
+    /**
+     * Sets the listener that is told of each class unloaded, to drop what was computed from its students.
+     * @param listener Called with the name of the class and the students unloaded, which the map no longer holds; it
+     *                 must not use the map.
+     * @return This residency.
+     */
+    public ClassResidency onEvict(BiConsumer<String, StudentStore> listener) {
+        this.evictionListener = listener;
+        return this;
+    }
+
+    /**
+     * Sets the executor that writes changed classes to the spill file, so that unloading them does not hold up the
+     * map's thread. The class is dropped on the map's thread, through the trimmer, once its write is done.
+     * @param spiller Runs each write, one at a time and in order, such as a background task queue.
+     * @return This residency.
+     */
+    public ClassResidency spillOn(Executor spiller) {
+        this.spiller = spiller;
+        return this;
+    }
+
+    // Getters for the budget and the counts of classes unloaded
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getSpilledClasses() {
+        return spilledClasses;
+    }
+
+    /**
+     * Estimates the heap used by the loaded classes.
+     * @return The sum of their sizes in bytes.
+     */
+    public long residentBytes() {
+        long bytes = 0;
+        if (classMap != null) {
+            for (String className : used.keySet()) {
+                bytes += classMap.loadedBytes(className);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Unloads the least recently used classes that are not pinned until the loaded classes fit in the budget.
+     * Unchanged classes are dropped at once, and changed ones are spilled first, see {@link #spillOn}.
+     * Runs on its own after classes are used; call it directly only where no class got from the map is still held.
+     */
+    public void trim() {
+        trimScheduled = false;
+        if (classMap == null) {
+            return;
+        }
+        long bytes = residentBytes();
+        for (String className : spilling) { // Freed once their writes are done
+            bytes -= classMap.loadedBytes(className);
+        }
+        for (Iterator<String> iterator = used.keySet().iterator(); iterator.hasNext() && bytes > maxBytes; ) {
+            String className = iterator.next();
+            long classBytes = classMap.loadedBytes(className);
+            if (classBytes == 0) { // Removed, or unloaded with the map's roster replaced
+                iterator.remove();
+                continue;
+            }
+            if (pinned.test(className) || spilling.contains(className)) {
+                continue;
+            }
+            StudentStore changed = classMap.changedStudents(className);
+            if (changed != null) { // Written first, then dropped by spilled()
+                spilling.add(className);
+                startSpill(className, changed);
+                bytes -= classBytes;
+                continue;
+            }
+            StudentStore students;
+            try (RosterMetrics.Sample sample = RosterMetrics.EVICT.start(className)) {
+                students = classMap.unloadClean(className);
+                sample.rows(students.size()).bytes(classBytes);
+            }
+            iterator.remove();
+            bytes -= classBytes;
+            evicted(className, students);
+        }
+    }
+
+    /**
+     * Writes a copy of a changed class to the spill file on the spiller, and hands the result back to the map's thread.
+     */
+    private void startSpill(String className, StudentStore students) {
+        long version = students.getVersion();
+        StudentStore copy = students.copy(); // The map's thread may change the class while it is written
+        spiller.execute(() -> {
+            BinaryRoster spilled = null;
+            IOException failure = null;
+            try (RosterMetrics.Sample sample = RosterMetrics.EVICT.start(className)) {
+                spilled = spill(className, copy);
+                sample.rows(copy.size()).bytes(copy.estimatedBytes());
+            } catch (IOException e) {
+                failure = e;
+            }
+            BinaryRoster result = spilled;
+            IOException error = failure;
+            trimmer.execute(() -> spilled(className, students, version, result, error));
+        });
+    }
+
+    /**
+     * Drops a class whose spill was written, on the map's thread, unless it changed or got pinned in the meantime.
+     */
+    private void spilled(String className, StudentStore students, long version, BinaryRoster spilled, IOException failure) {
+        spilling.remove(className);
+        if (classMap == null) { // Closed meanwhile
+            return;
+        }
+        if (failure != null) { // The class stays loaded and is tried again on a later trim
+            System.err.println("Failed to spill class " + className + ": " + failure.getMessage());
+            return;
+        }
+        spilledClasses++;
+        if (!pinned.test(className) && classMap.unloadSpilled(className, students, version, spilled)) {
+            used.remove(className);
+            evicted(className, students);
+        }
+        scheduleTrim(); // Still over the budget if the class was kept
+    }
+
+    /**
+     * Counts an unloaded class and tells the listener.
+     */
+    private void evicted(String className, StudentStore students) {
+        evictions++;
+        evictionListener.accept(className, students);
+    }
+
+    /**
+     * Stops unloading classes and deletes the spill file. Classes already spilled stay readable while the map that
+     * holds them is in use.
+     * @throws IOException If the spill file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        used.clear();
+        classMap = null; // Nothing is unloaded any more, and spills still being written are ignored
+        synchronized (this) { // A spill may be being written
+            spillClosed = true;
+            if (spill != null) {
+                spill.close(); // Deletes the file; its mappings stay valid
+                spill = null;
+            }
+        }
+    }
+
+    /**
+     * Starts keeping the classes of a map, once.
+     */
+    void attach(BinaryRoster.ClassMap classMap) {
+        if (this.classMap != null && this.classMap != classMap) {
+            throw new IllegalStateException("Residency already keeps another class map");
+        }
+        this.classMap = classMap;
+    }
+
+    /**
+     * Marks a class as just used, and schedules a trim if none is waiting.
+     */
+    void used(String className) {
+        used.put(className, Boolean.TRUE);
+        scheduleTrim();
+    }
+
+    /**
+     * Schedules a trim if none is waiting.
+     */
+    private void scheduleTrim() {
+        if (!trimScheduled) {
+            trimScheduled = true;
+            trimmer.execute(this::trim);
+        }
+    }
+
+    /**
+     * Forgets a class removed from the map, or every class if the name is null.
+     */
+    void removed(String className) {
+        if (className == null) {
+            used.clear();
+        } else {
+            used.remove(className);
+        }
+    }
+
+    /**
+     * Appends a class to the spill file, creating it first if needed. Runs on the spiller, so it is synchronized with
+     * {@link #close}.
+     * @return A roster of the one class, to load it back from.
+     */
+    private synchronized BinaryRoster spill(String className, StudentStore students) throws IOException {
+        if (spillClosed) {
+            throw new IOException("The residency is closed");
+        }
+        if (spill == null) {
+            spillPath = Files.createTempFile(spillDirectory, "roster-", ".spill");
+            spill = FileChannel.open(spillPath, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        }
+        return BinaryRoster.appendClass(spill, spillPath, className, students);
+    }
+}
@@ -0,0 +1,81 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A comparator that compares students by several keys in turn, for example by name and then by roll number.
+ * Later keys are only consulted when all earlier keys compare equal.
+ */
+public class ComparatorChain implements Comparator<Student> {
+    private final List<Comparator<Student>> keys; // Keys in order of significance
+
+    /**
+     * Constructor to initialize the chain with the given keys.
+     * @param keys The comparators to apply, most significant first.
+     */
+    @SafeVarargs
+    public ComparatorChain(Comparator<Student>... keys) {
+        ArrayList<Comparator<Student>> flat = new ArrayList<>(); // Flatten nested chains; the array is read here, never passed on
+        for (Comparator<Student> key : keys) {
+            flat.addAll(keysOf(key));
+        }
+        this.keys = unmodifiableKeys(flat);
+    }
+
+    private ComparatorChain(ArrayList<Comparator<Student>> flat) {
+        this.keys = unmodifiableKeys(flat);
+    }
+
+    /**
+     * Checks that a chain has a key and wraps its flattened keys.
+     */
+    private static List<Comparator<Student>> unmodifiableKeys(ArrayList<Comparator<Student>> flat) {
+        if (flat.isEmpty()) { // A chain needs at least one key
+            throw new IllegalArgumentException("A comparator chain needs at least one key");
+        }
+        return Collections.unmodifiableList(flat);
+    }
+
+    /**
+     * Returns a new chain that compares by this chain's keys and then by the given key.
+     * @param key The comparator to apply when all current keys compare equal.
+     * @return The extended chain.
+     */
+    public ComparatorChain then(Comparator<Student> key) {
+        ArrayList<Comparator<Student>> extended = new ArrayList<>(keys); // Copy the current keys
+        extended.addAll(keysOf(key)); // Append the new key, flattened
+        return new ComparatorChain(extended);
+    }
+
+    /**
+     * Returns the keys of this chain, most significant first.
+     * @return An unmodifiable list of the keys.
+     */
+    public List<Comparator<Student>> getKeys() {
+        return keys;
+    }
+
+    @Override
+    public int compare(Student o1, Student o2) { // Compare key by key until one differs
+        for (Comparator<Student> key : keys) {
+            int result = key.compare(o1, o2);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the individual keys of a comparator, unpacking it if it is a chain.
+     * @param comparator The comparator to unpack.
+     * @return The keys of the comparator, most significant first.
+     */
+    static List<Comparator<Student>> keysOf(Comparator<Student> comparator) {
+        if (comparator instanceof ComparatorChain) { // Chains are already flat
+            return ((ComparatorChain) comparator).keys;
+        }
+        return List.of(comparator); // A plain comparator is a single key
+    }
+}
@@ -0,0 +1,175 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Utility methods for reading and writing the fields of a roster CSV line.
+ * Fields that contain commas, quotes or line breaks are enclosed in double quotes, with embedded quotes doubled.
+ * Roster files and the journal are still split into lines before their quotes are looked at, so the fields stored in
+ * them must not contain line breaks, see {@link #checkNoLineBreak}.
+ */
+public class CsvCodec {
+    /**
+     * Escapes a single field so that it can be written to a CSV line.
+     * @param field The field to escape.
+     * @return The field, quoted if necessary.
+     */
+    public static String escape(String field) {
+        boolean quote = !field.isEmpty() && (field.charAt(0) <= ' ' || field.charAt(field.length() - 1) <= ' '); // Quote to keep surrounding spaces
+        for (int i = 0; i < field.length() && !quote; i++) { // Quote if the field contains a special character
+            char c = field.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) { // Plain fields are written as they are
+            return field;
+        }
+        return '"' + field.replace("\"", "\"\"") + '"'; // Enclose in quotes and double embedded quotes
+    }
+
+    /**
+     * Checks that a field can be stored in a roster file or the journal, whose readers would cut a line break in two.
+     * @param field The class name, name or address to check.
+     * @param what What the field holds, for the message.
+     * @return The field.
+     * @throws IllegalArgumentException If the field contains a line break.
+     */
+    public static String checkNoLineBreak(String field, String what) {
+        if (field.indexOf('\n') >= 0 || field.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("The " + what + " cannot contain a line break: " + field.replace("\r", "\\r").replace("\n", "\\n"));
+        }
+        return field;
+    }
+
+    /**
+     * Joins the given fields into one CSV line, escaping each of them.
+     * @param fields The fields to join.
+     * @return The CSV line, without a line terminator.
+     */
+    public static String join(String... fields) {
+        StringBuilder line = new StringBuilder(); // Line being built
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                line.append(','); // Separate the fields with commas
+            }
+            line.append(escape(fields[i]));
+        }
+        return line.toString();
+    }
+
+    /**
+     * Splits one CSV line held in a byte array into fields without decoding them.
+     * The bounds of field i are stored at {@code bounds[2 * i]} (inclusive) and {@code bounds[2 * i + 1]} (exclusive).
+     * Unquoted fields are trimmed; quoted fields span exactly the text between the quotes.
+     * If a quoted field contains doubled quotes its end bound is stored bitwise inverted, see {@link #field}.
+     * Fields beyond the capacity of the bounds array are counted but not stored.
+     * @param line The UTF-8 bytes of the line, without a line terminator.
+     * @param from The index of the first byte of the line.
+     * @param to The index after the last byte of the line.
+     * @param bounds The array to store the field bounds in.
+     * @return The number of fields in the line, or -1 if a quoted field is not terminated.
+     */
+    public static int split(byte[] line, int from, int to, int[] bounds) {
+        int count = 0; // Number of fields found
+        int pos = from; // Current position in the line
+        while (true) {
+            while (pos < to && line[pos] == ' ') { // Skip leading spaces
+                pos++;
+            }
+            int start, end; // Bounds of the field content
+            if (pos < to && line[pos] == '"') { // Quoted field
+                start = ++pos; // Content starts after the opening quote
+                end = -1; // Index of the closing quote
+                boolean escaped = false; // Whether the content contains doubled quotes
+                while (pos < to) {
+                    if (line[pos] == '"') {
+                        if (pos + 1 < to && line[pos + 1] == '"') { // Doubled quote inside the field
+                            escaped = true;
+                            pos += 2;
+                            continue;
+                        }
+                        end = pos; // Closing quote
+                        break;
+                    }
+                    pos++;
+                }
+                if (end < 0) { // The line ended inside the quotes
+                    return -1;
+                }
+                pos = end + 1; // Skip the closing quote
+                while (pos < to && line[pos] != ',') { // Ignore anything between the closing quote and the comma
+                    pos++;
+                }
+                if (escaped) { // Tell field() to undouble the quotes
+                    end = ~end;
+                }
+            } else { // Unquoted field
+                start = pos;
+                while (pos < to && line[pos] != ',') { // Read up to the next comma
+                    pos++;
+                }
+                end = pos;
+                while (end > start && (line[end - 1] & 0xff) <= ' ') { // Trim trailing whitespace
+                    end--;
+                }
+                while (start < end && (line[start] & 0xff) <= ' ') { // Trim leading whitespace such as tabs
+                    start++;
+                }
+            }
+            if (2 * count + 1 < bounds.length) { // Store the bounds if there is room for them
+                bounds[2 * count] = start;
+                bounds[2 * count + 1] = end;
+            }
+            count++;
+            if (pos >= to) { // End of the line
+                return count;
+            }
+            pos++; // Skip the comma
+        }
+    }
+
+    /**
+     * Decodes a field found by {@link #split}.
+     * @param line The bytes the line was split from.
+     * @param bounds The bounds filled in by split.
+     * @param index The index of the field.
+     * @return The field as a string.
+     */
+    public static String field(byte[] line, int[] bounds, int index) {
+        int start = bounds[2 * index];
+        int end = bounds[2 * index + 1];
+        if (end >= 0) { // Plain field
+            return new String(line, start, end - start, StandardCharsets.UTF_8);
+        }
+        return new String(line, start, ~end - start, StandardCharsets.UTF_8).replace("\"\"", "\""); // Undouble the quotes
+    }
+
+    /**
+     * Parses a field found by {@link #split} as a decimal int without creating a string.
+     * @param line The bytes the line was split from.
+     * @param bounds The bounds filled in by split.
+     * @param index The index of the field.
+     * @return The value of the field.
+     * @throws NumberFormatException If the field is not a decimal int.
+     */
+    public static int parseInt(byte[] line, int[] bounds, int index) {
+        int start = bounds[2 * index];
+        int end = bounds[2 * index + 1];
+        if (end < 0 || start == end) { // Escaped or empty fields are never numbers
+            throw new NumberFormatException("For input string: \"" + (end < 0 ? field(line, bounds, index) : "") + "\"");
+        }
+        boolean negative = line[start] == '-'; // Optional sign
+        int pos = negative || line[start] == '+' ? start + 1 : start;
+        if (pos == end) { // A sign on its own
+            throw new NumberFormatException("For input string: \"" + field(line, bounds, index) + "\"");
+        }
+        long value = 0; // Accumulate in a long to detect overflow
+        for (; pos < end; pos++) {
+            int digit = line[pos] - '0';
+            if (digit < 0 || digit > 9 || (value = value * 10 + digit) > (long) Integer.MAX_VALUE + 1) { // Not a digit, or out of range
+                throw new NumberFormatException("For input string: \"" + field(line, bounds, index) + "\"");
+            }
+        }
+        if (!negative && value > Integer.MAX_VALUE) { // Only the negative range reaches 2^31
+            throw new NumberFormatException("For input string: \"" + field(line, bounds, index) + "\"");
+        }
+        return (int) (negative ? -value : value);
+    }
+}
@@ -0,0 +1,670 @@
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Finds students that appear more than once in a roster, in the same class or in different classes, with names and
+ * addresses that are equal or nearly equal.
+ * Names and addresses are normalized first: case, accents and punctuation are dropped, the words of a name are put in
+ * order, so "Smith, John" matches "John Smith", and common address words are abbreviated, so "Main Street" matches
+ * "Main St". Each student is then summarized by a MinHash signature over the character trigrams of its name and
+ * address, and the signature is cut into bands. Students that share a band are candidates, and only candidates are
+ * compared, by the Jaccard similarity of their trigrams, so the work grows with the number of students rather than
+ * with its square. Signatures are computed and candidates compared in parallel on a fork-join pool.
+ * Students whose names and addresses hold different numbers, such as house numbers, are never duplicates: neighbours
+ * with the same name differ only in their numbers, which a typo seldom changes.
+ * Pairs at or above the threshold are joined into clusters, which can be merged with {@link Cluster#mergeChanges}.
+ * Students with the same name and address in different classes are one student taking both, so clusters of only
+ * such students, which have nothing to merge, are left out.
+ * With 16 bands of 4 hashes, a pair with the default similarity of 0.76 is a candidate with a probability of over
+ * 99.8%, and one of 0.3 with about 12%.
+ */
+public class DuplicateFinder {
+    public static final double DEFAULT_THRESHOLD = 0.76; // Least similarity of duplicates unless told otherwise, passing a typo in a short name but not another first name at one address
+    private static final int BANDS = 16; // Bands of a signature; a pair is a candidate if any band is equal
+    private static final int ROWS = 4; // Hashes per band
+    private static final int HASHES = BANDS * ROWS; // Hashes per signature
+    private static final int MAX_BUCKET = 64; // Students sharing a band beyond which each is compared with the first only
+    private static final int BLOCK = 8192; // Students per task computing signatures
+    private static final int PARTITION_BITS = 16; // Top bits of a band hash that choose its partition
+    private static final int PARTITIONS = 1 << PARTITION_BITS; // Partitions of a band, sorted separately
+    private static final int PARTITIONS_PER_TASK = 256; // Partitions per task comparing candidates
+    private static final int[] MULTIPLIERS = new int[HASHES]; // Odd multipliers of the hash functions
+    private static final int[] ADDENDS = new int[HASHES]; // Addends of the hash functions
+    private static final Map<String, String> ABBREVIATIONS = new HashMap<>(); // Address words and their abbreviations
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x5EEDL); // Fixed, so results are the same from run to run
+        for (int i = 0; i < HASHES; i++) {
+            MULTIPLIERS[i] = random.nextInt() | 1;
+            ADDENDS[i] = random.nextInt();
+        }
+        String[][] abbreviations = {{"street", "st"}, {"avenue", "ave"}, {"av", "ave"}, {"road", "rd"}, {"lane", "ln"},
+                {"drive", "dr"}, {"boulevard", "blvd"}, {"court", "ct"}, {"place", "pl"}, {"square", "sq"},
+                {"terrace", "ter"}, {"highway", "hwy"}, {"parkway", "pkwy"}, {"circle", "cir"}, {"apartment", "apt"},
+                {"suite", "ste"}, {"north", "n"}, {"south", "s"}, {"east", "e"}, {"west", "w"}};
+        for (String[] abbreviation : abbreviations) {
+            ABBREVIATIONS.put(abbreviation[0], abbreviation[1]);
+        }
+    }
+
+    /**
+     * Receives the progress of a search.
+     */
+    public interface ProgressListener {
+        /**
+         * Called from the worker threads as signatures are computed and candidates compared.
+         * @param percent The share of the work done, from 0 to 100.
+         */
+        void progress(int percent);
+    }
+
+    private final ForkJoinPool pool; // Pool the work runs on
+    private double threshold = DEFAULT_THRESHOLD; // Least similarity of duplicates
+    private ProgressListener progressListener = percent -> { }; // Ignore progress by default
+    private BooleanSupplier cancelled = () -> false; // Never cancelled by default
+
+    /**
+     * Constructor to create a finder that runs on the common fork-join pool.
+     */
+    public DuplicateFinder() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor to create a finder that runs on the given pool.
+     * @param pool The pool to compute signatures and compare candidates on.
+     */
+    public DuplicateFinder(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Sets the least similarity of two students that are duplicates.
+     * @param threshold The Jaccard similarity of the trigrams of their normalized names and addresses, above 0 and at most 1.
+     * @return This finder.
+     */
+    public DuplicateFinder threshold(double threshold) {
+        if (!(threshold > 0 && threshold <= 1)) {
+            throw new IllegalArgumentException("Threshold must be above 0 and at most 1: " + threshold);
+        }
+        this.threshold = threshold;
+        return this;
+    }
+
+    /**
+     * Sets the listener that is told how much of the search is done.
+     * @param listener The listener to report progress to; it must be thread-safe.
+     * @return This finder.
+     */
+    public DuplicateFinder onProgress(ProgressListener listener) {
+        this.progressListener = listener;
+        return this;
+    }
+
+    /**
+     * Sets the condition under which a search is abandoned, checked between blocks of students.
+     * @param cancelled Returns true once the search should stop with a {@link CancellationException}.
+     * @return This finder.
+     */
+    public DuplicateFinder cancelWhen(BooleanSupplier cancelled) {
+        this.cancelled = cancelled;
+        return this;
+    }
+
+    /**
+     * Finds the duplicate students of a roster. The roster must not change during the search; pass a copy, see
+     * {@link RosterJournal#copyOf}, if it may. Classes of a binary roster are loaded first, on the calling thread, and
+     * held until the search ends, since any two students may have to be compared.
+     * @param roster The roster to search.
+     * @return The clusters of duplicates, each with at least two students and something to merge, ordered by their first student in roster order.
+     * @throws CancellationException If the search was cancelled.
+     */
+    public List<Cluster> find(Map<String, StudentStore> roster) {
+        try (RosterMetrics.Sample sample = RosterMetrics.DUPLICATES.start(roster.size() + " classes")) {
+            Students students = new Students(roster);
+            sample.rows(students.count);
+            Search search = new Search(students);
+            pool.invoke(search);
+            return search.clusters;
+        }
+    }
+
+    /**
+     * Returns the normalized name and address of a student, as compared by the finder.
+     * @param name The name of the student.
+     * @param address The address of the student.
+     * @return The name with its words in order and the address with its words abbreviated, in lower case without
+     *         accents or punctuation, separated by a vertical bar.
+     */
+    public static String normalize(String name, String address) {
+        String[] nameWords = words(name);
+        Arrays.sort(nameWords); // Word order of names varies, as in "Smith, John"
+        String[] addressWords = words(address);
+        for (int i = 0; i < addressWords.length; i++) {
+            addressWords[i] = ABBREVIATIONS.getOrDefault(addressWords[i], addressWords[i]);
+        }
+        return String.join(" ", nameWords) + "|" + String.join(" ", addressWords);
+    }
+
+    /**
+     * Splits text into lower-case words of letters and digits without accents.
+     */
+    private static String[] words(String text) {
+        boolean ascii = true; // Most text needs no decomposition, which is slow
+        for (int i = 0; i < text.length() && ascii; i++) {
+            ascii = text.charAt(i) < 0x80;
+        }
+        if (!ascii) {
+            text = Normalizer.normalize(text, Normalizer.Form.NFD); // Split accented letters into letter and accent
+        }
+        StringBuilder word = new StringBuilder();
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (Character.getType(c) != Character.NON_SPACING_MARK && word.length() > 0) { // Accents are dropped
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        return words.toArray(new String[0]);
+    }
+
+    /**
+     * Returns the distinct trigrams of a normalized name and address, hashed and in ascending order. The text is
+     * padded at both ends so short names still have trigrams.
+     */
+    static int[] shingles(String normalized) {
+        if (normalized.length() == 1) { // Neither a name nor an address
+            return new int[0];
+        }
+        int[] shingles = new int[normalized.length()]; // One per character, with the padding
+        char previous = '^', current = normalized.charAt(0);
+        for (int i = 0; i < shingles.length; i++) {
+            char next = i + 1 < normalized.length() ? normalized.charAt(i + 1) : '$';
+            shingles[i] = mix(((long) previous << 32) | ((long) current << 16) | next);
+            previous = current;
+            current = next;
+        }
+        Arrays.sort(shingles);
+        int distinct = 0;
+        for (int i = 0; i < shingles.length; i++) {
+            if (i == 0 || shingles[i] != shingles[i - 1]) {
+                shingles[distinct++] = shingles[i];
+            }
+        }
+        return Arrays.copyOf(shingles, distinct);
+    }
+
+    /**
+     * Returns a hash of the runs of digits in a normalized name and address, in order.
+     */
+    static int numbers(String normalized) {
+        int hash = 0;
+        boolean inNumber = false; // Whether the previous character was a digit
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            boolean digit = c >= '0' && c <= '9';
+            if (digit) {
+                hash = 31 * hash + c;
+            } else if (inNumber) { // Separate the numbers, so 12 3 differs from 1 23
+                hash = 31 * hash + ' ';
+            }
+            inNumber = digit;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the Jaccard similarity of two sets of trigrams from {@link #shingles}.
+     */
+    static double similarity(int[] a, int[] b) {
+        if (a.length == 0 || b.length == 0) {
+            return 0;
+        }
+        int common = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] == b[j]) {
+                common++;
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return common / (double) (a.length + b.length - common);
+    }
+
+    /**
+     * Scrambles a value into a 32-bit hash, with the finalizer of MurmurHash3.
+     */
+    private static int mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return (int) value;
+    }
+
+    /**
+     * A student that is a duplicate of other students, as it was when found.
+     */
+    public static class Member {
+        private final String className; // Class of the student
+        private final int position; // Position of the student in its class
+        private final int rollno; // Roll number of the student
+        private final String name; // Name of the student
+        private final String address; // Address of the student
+        private final boolean firstWithRollno; // Whether no earlier student of the class has the roll number, so changes reach this one
+
+        Member(String className, int position, int rollno, String name, String address, boolean firstWithRollno) {
+            this.className = className;
+            this.position = position;
+            this.rollno = rollno;
+            this.name = name;
+            this.address = address;
+            this.firstWithRollno = firstWithRollno;
+        }
+
+        // Getters for the class, position, roll number, name and address
+
+        public String getClassName() {
+            return className;
+        }
+
+        public int getPosition() {
+            return position;
+        }
+
+        public int getRollno() {
+            return rollno;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        @Override
+        public String toString() {
+            return className + " #" + rollno + " " + name + ", " + address;
+        }
+    }
+
+    /**
+     * Students that are duplicates of each other, in roster order.
+     */
+    public static class Cluster {
+        private final List<Member> members; // Students of the cluster, the first one first in the roster
+
+        Cluster(List<Member> members) {
+            this.members = Collections.unmodifiableList(members);
+        }
+
+        public List<Member> getMembers() {
+            return members;
+        }
+
+        /**
+         * Returns the changes that merge the cluster into its first student: the other students of the first student's
+         * class are deleted, and the students in other classes take its name and address, so each class keeps one
+         * copy of the student. Changes find the first student of a class with a roll number, so students that share
+         * their roll number with an earlier student of their class are left as they are.
+         * @return The changes, to apply to the roster and record in its journal.
+         */
+        public List<RosterChange> mergeChanges() {
+            Member kept = members.get(0);
+            Map<String, Member> keptByClass = new HashMap<>(); // Student kept in each class
+            keptByClass.put(kept.className, kept);
+            List<RosterChange> changes = new ArrayList<>();
+            for (Member member : members.subList(1, members.size())) {
+                if (!member.firstWithRollno) { // A change would reach the earlier student instead
+                    continue;
+                }
+                if (keptByClass.putIfAbsent(member.className, member) == null) { // First copy in its class, so keep it under the first student's name and address
+                    if (!member.name.equals(kept.name) || !member.address.equals(kept.address)) {
+                        changes.add(RosterChange.editStudent(member.className, new Student(member.rollno, kept.name, kept.address)));
+                    }
+                } else { // Reaches this student, even if the copy kept has the same roll number, since that one is not first
+                    changes.add(RosterChange.deleteStudent(member.className, member.rollno));
+                }
+            }
+            return changes;
+        }
+
+        @Override
+        public String toString() {
+            return members.toString();
+        }
+    }
+
+    /**
+     * The students of a roster numbered in roster order, so they can be held in arrays of ints.
+     */
+    private static final class Students {
+        final String[] classNames; // Name of each class
+        final StudentStore[] stores; // Students of each class
+        final int[] offsets; // Number of the first student of each class, and the number of students at the end
+        final int count; // Number of students
+        private final IntIntHashMap[] firstPositions; // Roll number to first position, per class, built for the classes of clusters
+
+        Students(Map<String, StudentStore> roster) {
+            classNames = roster.keySet().toArray(new String[0]);
+            stores = new StudentStore[classNames.length];
+            offsets = new int[classNames.length + 1];
+            firstPositions = new IntIntHashMap[classNames.length];
+            long total = 0;
+            for (int i = 0; i < classNames.length; i++) {
+                stores[i] = roster.get(classNames[i]); // Loads the classes of a binary roster before the workers read them
+                offsets[i] = (int) total;
+                total += stores[i].size();
+                if (total > Integer.MAX_VALUE / BANDS) {
+                    throw new IllegalArgumentException("Too many students to search: over " + Integer.MAX_VALUE / BANDS);
+                }
+            }
+            offsets[classNames.length] = (int) total;
+            count = (int) total;
+        }
+
+        /**
+         * Returns the class of a student.
+         */
+        int classOf(int id) {
+            int index = Arrays.binarySearch(offsets, id);
+            if (index < 0) {
+                return -index - 2;
+            }
+            while (offsets[index + 1] == id) { // Skip empty classes
+                index++;
+            }
+            return index;
+        }
+
+        /**
+         * Returns the normalized name and address of a student.
+         */
+        String normalized(int id) {
+            int c = classOf(id);
+            int position = id - offsets[c];
+            return normalize(stores[c].getName(position), stores[c].getAddress(position));
+        }
+
+        /**
+         * Returns a student as a member of a cluster; called on one thread.
+         */
+        Member member(int id) {
+            int c = classOf(id);
+            int position = id - offsets[c];
+            StudentStore store = stores[c];
+            if (firstPositions[c] == null) {
+                IntIntHashMap first = new IntIntHashMap(store.size());
+                int[] rollnos = store.rollnoColumn();
+                for (int i = store.size() - 1; i >= 0; i--) { // Backwards, so the first position of a roll number is put last
+                    first.put(rollnos[i], i);
+                }
+                firstPositions[c] = first;
+            }
+            int rollno = store.getRollno(position);
+            return new Member(classNames[c], position, rollno, store.getName(position), store.getAddress(position), firstPositions[c].get(rollno) == position);
+        }
+    }
+
+    /**
+     * The whole search, run on the pool so that the tasks it forks run there.
+     */
+    private final class Search extends RecursiveAction {
+        private final Students students; // Students to search
+        private final int[] bandKeys; // Hash of each band of each student, band by band; students without trigrams are skipped
+        private final boolean[] empty; // Whether each student has no trigrams
+        private final int[] numbers; // Hash of the numbers in each student's name and address
+        private final AtomicIntegerArray parents; // Union-find forest of the clusters; the root is the first student
+        private final AtomicLong done = new AtomicLong(); // Units of work done, a student per signature and per band
+        private final long total; // Units of work
+        private List<Cluster> clusters; // Result
+
+        Search(Students students) {
+            this.students = students;
+            this.bandKeys = new int[students.count * BANDS];
+            this.empty = new boolean[students.count];
+            this.numbers = new int[students.count];
+            this.parents = new AtomicIntegerArray(students.count);
+            this.total = (long) students.count * (BANDS + 1);
+        }
+
+        @Override
+        protected void compute() {
+            int n = students.count;
+            for (int i = 0; i < n; i++) {
+                parents.set(i, i);
+            }
+            invokeAll(blocks(n, BLOCK, this::signatures));
+            long[] entries = new long[n]; // Band hash in the high half and student in the low half, so sorting groups the buckets
+            int[] starts = new int[PARTITIONS + 1]; // First entry of each partition
+            int[] next = new int[PARTITIONS]; // Next free entry of each partition
+            for (int band = 0; band < BANDS; band++) { // Partition the entries by the top bits of their hash in linear time
+                int base = band * n;
+                Arrays.fill(starts, 0);
+                for (int id = 0; id < n; id++) {
+                    if (!empty[id]) {
+                        starts[(bandKeys[base + id] >>> (32 - PARTITION_BITS)) + 1]++;
+                    }
+                }
+                for (int partition = 0; partition < PARTITIONS; partition++) {
+                    starts[partition + 1] += starts[partition];
+                }
+                System.arraycopy(starts, 0, next, 0, PARTITIONS);
+                for (int id = 0; id < n; id++) {
+                    if (!empty[id]) {
+                        int key = bandKeys[base + id];
+                        entries[next[key >>> (32 - PARTITION_BITS)]++] = ((long) key << 32) | id;
+                    }
+                }
+                invokeAll(blocks(PARTITIONS, PARTITIONS_PER_TASK, (from, to) -> buckets(entries, starts, from, to)));
+                progress(n - starts[PARTITIONS]); // Skipped students count as done
+            }
+            clusters = clusters();
+        }
+
+        /**
+         * Splits a range of students or partitions into tasks of a block each.
+         */
+        private List<RecursiveAction> blocks(int count, int blockSize, BlockAction action) {
+            List<RecursiveAction> tasks = new ArrayList<>();
+            for (int from = 0; from < count; from += blockSize) {
+                int start = from, end = Math.min(count, from + blockSize);
+                tasks.add(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        if (cancelled.getAsBoolean()) {
+                            throw new CancellationException("Duplicate search cancelled");
+                        }
+                        action.run(start, end);
+                    }
+                });
+            }
+            return tasks;
+        }
+
+        /**
+         * Computes the band hashes of a block of students.
+         */
+        private void signatures(int from, int to) {
+            int n = students.count;
+            int[] minimums = new int[HASHES];
+            for (int id = from; id < to; id++) {
+                String normalized = students.normalized(id);
+                numbers[id] = numbers(normalized);
+                int[] shingles = shingles(normalized);
+                if (shingles.length == 0) {
+                    empty[id] = true;
+                    continue;
+                }
+                Arrays.fill(minimums, Integer.MAX_VALUE);
+                for (int shingle : shingles) { // Trigram hashes are well mixed, so a multiply-add permutes them well enough
+                    for (int k = 0; k < HASHES; k++) { // In ints, so the loop runs in vector registers
+                        minimums[k] = Math.min(minimums[k], shingle * MULTIPLIERS[k] + ADDENDS[k]);
+                    }
+                }
+                for (int band = 0; band < BANDS; band++) {
+                    long hash = band;
+                    for (int row = band * ROWS; row < (band + 1) * ROWS; row++) {
+                        hash = hash * 0x9E3779B97F4A7C15L + minimums[row];
+                    }
+                    bandKeys[band * n + id] = mix(hash);
+                }
+            }
+            progress(to - from);
+        }
+
+        /**
+         * Sorts a range of partitions of a band and compares the candidates of their buckets, runs of entries with the
+         * same band hash; a bucket lies in one partition.
+         */
+        private void buckets(long[] entries, int[] starts, int fromPartition, int toPartition) {
+            for (int partition = fromPartition; partition < toPartition; partition++) {
+                int end = starts[partition + 1];
+                Arrays.sort(entries, starts[partition], end); // A few hundred entries even for the largest rosters
+                for (int start = starts[partition]; start < end; ) {
+                    int hash = (int) (entries[start] >>> 32);
+                    int bucketEnd = start + 1;
+                    while (bucketEnd < end && (int) (entries[bucketEnd] >>> 32) == hash) {
+                        bucketEnd++;
+                    }
+                    if (bucketEnd - start > 1) {
+                        compare(entries, start, bucketEnd);
+                    }
+                    start = bucketEnd;
+                }
+            }
+            progress(starts[toPartition] - starts[fromPartition]);
+        }
+
+        /**
+         * Compares the students of a bucket in pairs, or each with the first if the bucket is large, skipping pairs
+         * that are already in one cluster.
+         */
+        private void compare(long[] entries, int start, int end) {
+            int size = end - start;
+            int[][] shingles = new int[size][]; // Computed when first needed
+            int pivots = size <= MAX_BUCKET ? size - 1 : 1; // Students compared with all later ones
+            for (int i = 0; i < pivots; i++) {
+                int a = (int) entries[start + i];
+                for (int j = i + 1; j < size; j++) {
+                    int b = (int) entries[start + j];
+                    if (numbers[a] != numbers[b] || find(a) == find(b)) {
+                        continue;
+                    }
+                    if (shingles[i] == null) {
+                        shingles[i] = shingles(students.normalized(a));
+                    }
+                    if (shingles[j] == null) {
+                        shingles[j] = shingles(students.normalized(b));
+                    }
+                    if (similarity(shingles[i], shingles[j]) >= threshold) {
+                        union(a, b);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the root of a student's cluster, halving the path to it.
+         */
+        private int find(int id) {
+            int parent = parents.get(id);
+            while (parent != id) {
+                int grandparent = parents.get(parent);
+                parents.compareAndSet(id, parent, grandparent); // Another thread may have done it already
+                id = grandparent;
+                parent = parents.get(id);
+            }
+            return id;
+        }
+
+        /**
+         * Joins the clusters of two students under the earlier root.
+         */
+        private void union(int a, int b) {
+            while (true) {
+                a = find(a);
+                b = find(b);
+                if (a == b) {
+                    return;
+                }
+                if (a > b) {
+                    int t = a;
+                    a = b;
+                    b = t;
+                }
+                if (parents.compareAndSet(b, b, a)) { // Fails if b was joined to another cluster meanwhile
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Gathers the students into clusters by their roots.
+         */
+        private List<Cluster> clusters() {
+            Map<Integer, List<Member>> byRoot = new TreeMap<>(); // Clusters in order of their first students
+            for (int id = 0; id < students.count; id++) {
+                int root = find(id);
+                if (root != id) { // The root is the first member, so it was seen already
+                    List<Member> members = byRoot.get(root);
+                    if (members == null) {
+                        members = new ArrayList<>();
+                        members.add(students.member(root));
+                        byRoot.put(root, members);
+                    }
+                    members.add(students.member(id));
+                }
+            }
+            List<Cluster> clusters = new ArrayList<>(byRoot.size());
+            for (List<Member> members : byRoot.values()) {
+                Cluster cluster = new Cluster(members);
+                if (!cluster.mergeChanges().isEmpty()) { // Otherwise one student in several classes
+                    clusters.add(cluster);
+                }
+            }
+            return clusters;
+        }
+
+        /**
+         * Adds units of work done and reports the share done.
+         */
+        private void progress(long units) {
+            long before = done.getAndAdd(units);
+            int percent = (int) ((before + units) * 100 / Math.max(total, 1));
+            if (percent != (int) (before * 100 / Math.max(total, 1))) { // Report each percent once
+                progressListener.progress(percent);
+            }
+        }
+    }
+
+    /**
+     * Work on a block of students or partitions.
+     */
+    private interface BlockAction {
+        void run(int from, int to);
+    }
+}
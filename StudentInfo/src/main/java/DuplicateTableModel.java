@@ -0,0 +1,112 @@
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Table model for the duplicates dialog that shows the clusters found by a {@link DuplicateFinder}, one row per
+ * student, with the students of a cluster in consecutive rows.
+ */
+public class DuplicateTableModel extends AbstractTableModel {
+    private static final String[] COLUMN_NAMES = {"Cluster", "Class", "Roll Number", "Name", "Address"}; // Column headers
+
+    private final List<DuplicateFinder.Cluster> clusters = new ArrayList<>(); // Clusters being shown
+    private final List<DuplicateFinder.Member> members = new ArrayList<>(); // Student shown in each row
+    private final List<Integer> clusterOfRow = new ArrayList<>(); // Index in clusters of each row
+
+    /**
+     * Constructor to show the given clusters.
+     * @param clusters The clusters of duplicates.
+     */
+    public DuplicateTableModel(List<DuplicateFinder.Cluster> clusters) {
+        this.clusters.addAll(clusters);
+        rebuild();
+    }
+
+    /**
+     * Returns the clusters of the given rows, each once.
+     * @param rows The rows of the model.
+     * @return The clusters in the order they are shown.
+     */
+    public List<DuplicateFinder.Cluster> clustersOf(int[] rows) {
+        boolean[] selected = new boolean[clusters.size()];
+        for (int row : rows) {
+            selected[clusterOfRow.get(row)] = true;
+        }
+        List<DuplicateFinder.Cluster> result = new ArrayList<>();
+        for (int i = 0; i < selected.length; i++) {
+            if (selected[i]) {
+                result.add(clusters.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns every cluster being shown.
+     * @return The clusters in the order they are shown.
+     */
+    public List<DuplicateFinder.Cluster> getClusters() {
+        return new ArrayList<>(clusters);
+    }
+
+    /**
+     * Stops showing clusters, once they are merged.
+     * @param merged The clusters to remove.
+     */
+    public void remove(List<DuplicateFinder.Cluster> merged) {
+        clusters.removeAll(merged);
+        rebuild();
+        fireTableDataChanged();
+    }
+
+    /**
+     * Lays the students of the clusters out in rows.
+     */
+    private void rebuild() {
+        members.clear();
+        clusterOfRow.clear();
+        for (int i = 0; i < clusters.size(); i++) {
+            for (DuplicateFinder.Member member : clusters.get(i).getMembers()) {
+                members.add(member);
+                clusterOfRow.add(i);
+            }
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        return members.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == 0 || column == 2 ? Integer.class : String.class;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        DuplicateFinder.Member member = members.get(row);
+        switch (column) {
+            case 0:
+                return clusterOfRow.get(row) + 1;
+            case 1:
+                return member.getClassName();
+            case 2:
+                return member.getRollno();
+            case 3:
+                return member.getName();
+            default:
+                return member.getAddress();
+        }
+    }
+}
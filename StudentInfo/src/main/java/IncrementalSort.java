@@ -0,0 +1,331 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The students of a {@link StudentStore} in the order of a comparator, sorted only as far as rows are asked for.
+ * A table showing a large class reads the rows in view and a few pages around them, so {@link #position} sorts just
+ * those: the first rows are picked with a bounded heap in one pass over the class, and rows further down are found by
+ * quickselect, which partitions only the part of the class holding the rows asked for. Every pivot lands in its final
+ * row and stays there, so the parts left to partition shrink as the user scrolls and the work done for one page is
+ * never repeated for the next. A part that partitions badly is heap sorted instead, so no part costs more than
+ * O(m log m).
+ * Names are compared in the store's arena and roll numbers in its column, without decoding a student. Equal students
+ * keep their insertion order, as after a stable sort, so the rows are those {@link SelectionSort#order} would give.
+ * The store must not change while the sort is in use; sort a {@link StudentStore#copy} of a class that may change.
+ * Must be used on one thread.
+ */
+public class IncrementalSort {
+    private static final int PREFETCH_ROWS = 512; // Rows sorted before and after the row asked for
+    private static final int INSERTION_SORT_THRESHOLD = 16; // Parts at most this long are insertion sorted
+    private static final int OTHER = 0, NAME = 1, ROLLNO = 2; // How students are compared: decoded, by name in the arena, by roll number column
+
+    private final StudentStore store; // Students being sorted, unchanged while the sort is in use
+    private final Comparator<Student> comparator; // Order of the rows
+    private final long version; // Version of the class the store is a copy of, when the sort was started
+    private final int[] order; // Positions, in their final rows where fixed and partitioned around them elsewhere
+    private final BitSet fixed = new BitSet(); // Rows whose position is final
+    private final int key; // How students are compared, OTHER, NAME or ROLLNO
+    private final int[] rollnos; // Roll number column, for comparing by roll number
+    private final int[] names; // Name column, for comparing by name
+    private final StringArena arena; // Text of the names
+
+    /**
+     * Constructor to sort the students of a store lazily.
+     * @param store The students to sort; they must not change while the sort is in use.
+     * @param comparator The order to sort them in.
+     * @param version The version of the class the store is a copy of, see {@link #getVersion}.
+     */
+    public IncrementalSort(StudentStore store, Comparator<Student> comparator, long version) {
+        this.store = store;
+        this.comparator = comparator;
+        this.version = version;
+        this.order = new int[store.size()];
+        for (int i = 0; i < order.length; i++) { // Start from insertion order
+            order[i] = i;
+        }
+        List<Comparator<Student>> keys = ComparatorChain.keysOf(comparator); // A single key can be compared in place
+        Class<?> keyClass = keys.size() == 1 ? keys.get(0).getClass() : null;
+        this.key = keyClass == NameComparator.class ? NAME : keyClass == RollnoComparator.class ? ROLLNO : OTHER;
+        this.rollnos = store.rollnoColumn();
+        this.names = store.nameColumn();
+        this.arena = store.arena();
+    }
+
+    // Getters for the size, the order and the version of the sort
+
+    public int size() {
+        return order.length;
+    }
+
+    public Comparator<Student> getComparator() {
+        return comparator;
+    }
+
+    /**
+     * Returns the version the class had when the sort was started. The rows are those of the class while its version
+     * is the same, and must not be used once it has changed.
+     * @return The version of the class, see {@link StudentStore#getVersion}.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the position of the student in a row, sorting the row and the rows around it first if needed.
+     * @param row The row.
+     * @return The position of the student in the store.
+     */
+    public int position(int row) {
+        if (row < 0 || row >= order.length) {
+            throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + order.length);
+        }
+        if (!fixed.get(row)) {
+            sortRows(row - PREFETCH_ROWS, row + PREFETCH_ROWS + 1);
+        }
+        return order[row];
+    }
+
+    /**
+     * Checks whether every row is sorted.
+     * @return True if the order is complete.
+     */
+    public boolean isComplete() {
+        return fixed.nextClearBit(0) >= order.length;
+    }
+
+    /**
+     * Sorts a range of rows, so that each holds the student it has in the sorted order.
+     * @param from The first row to sort; clamped to the rows of the store.
+     * @param to The row after the last one to sort; clamped to the rows of the store.
+     */
+    public void sortRows(int from, int to) {
+        from = Math.max(from, 0);
+        to = Math.min(to, order.length);
+        if (from >= to || fixed.nextClearBit(from) >= to) { // Sorted already
+            return;
+        }
+        try (RosterMetrics.Sample sample = RosterMetrics.SORT_ROWS.start(null)) {
+            sample.rows(to - from);
+            if (fixed.isEmpty() && from == 0 && to < order.length / 2) { // The first rows, picked in one pass
+                selectFirst(to);
+                return;
+            }
+            for (int row = fixed.nextClearBit(from); row < to; row = fixed.nextClearBit(row)) {
+                int lo = fixed.previousSetBit(row) + 1; // Part of unsorted rows holding the row
+                int hi = fixed.nextSetBit(row);
+                if (hi < 0) {
+                    hi = order.length;
+                }
+                select(lo, hi, from, to);
+                row = Math.min(hi, to);
+            }
+        }
+    }
+
+    /**
+     * Moves the first rows to the front in order with a bounded max-heap, in one pass of mostly one compare per
+     * student, and leaves the other students after them unsorted. Only called before any row has moved.
+     */
+    private void selectFirst(int count) {
+        int[] heap = new int[count]; // Smallest students seen so far, largest first
+        for (int i = 0; i < count; i++) {
+            heap[i] = order[i];
+            siftUp(heap, i);
+        }
+        for (int i = count; i < order.length; i++) {
+            if (compare(order[i], heap[0]) < 0) { // Belongs among the first rows, in place of the largest
+                heap[0] = order[i];
+                siftDown(heap, 0, count);
+            }
+        }
+        int[] chosen = heap.clone(); // Positions of the first rows; no row has moved yet, so each is also its row
+        Arrays.sort(chosen);
+        sortHeap(heap, count); // The first rows, in order
+        int displaced = 0; // Next row before count whose student was not chosen
+        int c = 0; // Next chosen position before count
+        for (int position : chosen) {
+            if (position < count) {
+                continue;
+            }
+            while (c < count && chosen[c] == displaced) { // Skip the rows whose students stay among the first
+                c++;
+                displaced++;
+            }
+            order[position] = displaced++; // The displaced student takes the chosen one's row
+        }
+        System.arraycopy(heap, 0, order, 0, count);
+        fixed.set(0, count);
+    }
+
+    /**
+     * Partitions a part of unsorted rows until the rows of it that fall in [from, to) are fixed.
+     * Only the sides holding rows asked for are partitioned further, and pivots are fixed as they land.
+     */
+    private void select(int lo, int hi, int from, int to) {
+        int depthLimit = 2 * (32 - Integer.numberOfLeadingZeros(hi - lo)); // Partitions before a part is heap sorted
+        int[] stack = new int[3 * (depthLimit + 2)]; // Parts still to partition, as lo, hi and depth left
+        int top = 0;
+        stack[top++] = lo;
+        stack[top++] = hi;
+        stack[top++] = depthLimit;
+        while (top > 0) {
+            int depth = stack[--top];
+            hi = stack[--top];
+            lo = stack[--top];
+            if (hi - lo <= INSERTION_SORT_THRESHOLD) {
+                insertionSort(lo, hi);
+                fixed.set(lo, hi);
+                continue;
+            }
+            if (depth == 0) { // Badly partitioned, so sort the whole part
+                heapSort(lo, hi);
+                fixed.set(lo, hi);
+                continue;
+            }
+            int pivot = partition(lo, hi);
+            fixed.set(pivot);
+            if (lo < pivot && lo < to && pivot > from) { // Left side holds rows asked for
+                stack[top++] = lo;
+                stack[top++] = pivot;
+                stack[top++] = depth - 1;
+            }
+            if (pivot + 1 < hi && pivot + 1 < to && hi > from) { // Right side holds rows asked for
+                stack[top++] = pivot + 1;
+                stack[top++] = hi;
+                stack[top++] = depth - 1;
+            }
+        }
+    }
+
+    /**
+     * Partitions a part around the median of its first, middle and last students.
+     * @return The row the pivot landed in, its final row.
+     */
+    private int partition(int lo, int hi) {
+        int last = hi - 1, mid = (lo + last) >>> 1;
+        if (compare(order[mid], order[lo]) < 0) { // Order the three so the median is in the middle
+            swap(mid, lo);
+        }
+        if (compare(order[last], order[mid]) < 0) {
+            swap(last, mid);
+            if (compare(order[mid], order[lo]) < 0) {
+                swap(mid, lo);
+            }
+        }
+        swap(mid, last); // Keep the pivot at the end while partitioning
+        int pivot = order[last];
+        int i = lo;
+        for (int j = lo; j < last; j++) {
+            if (compare(order[j], pivot) < 0) {
+                swap(i++, j);
+            }
+        }
+        swap(i, last);
+        return i;
+    }
+
+    /**
+     * Sorts a short part by insertion.
+     */
+    private void insertionSort(int lo, int hi) {
+        for (int i = lo + 1; i < hi; i++) {
+            int position = order[i];
+            int j = i - 1;
+            while (j >= lo && compare(order[j], position) > 0) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = position;
+        }
+    }
+
+    /**
+     * Sorts a part with a heap sort, for parts quickselect partitions badly.
+     */
+    private void heapSort(int lo, int hi) {
+        int[] part = new int[hi - lo];
+        System.arraycopy(order, lo, part, 0, part.length);
+        for (int i = 1; i < part.length; i++) {
+            siftUp(part, i);
+        }
+        sortHeap(part, part.length);
+        System.arraycopy(part, 0, order, lo, part.length);
+    }
+
+    /**
+     * Turns a max-heap into ascending order by moving its largest student to the end repeatedly.
+     */
+    private void sortHeap(int[] heap, int count) {
+        for (int end = count - 1; end > 0; end--) {
+            int largest = heap[0];
+            heap[0] = heap[end];
+            heap[end] = largest;
+            siftDown(heap, 0, end);
+        }
+    }
+
+    /**
+     * Moves a new entry of a max-heap up to its place.
+     */
+    private void siftUp(int[] heap, int i) {
+        int position = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (compare(heap[parent], position) >= 0) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = position;
+    }
+
+    /**
+     * Moves an entry of a max-heap down to its place.
+     */
+    private void siftDown(int[] heap, int i, int count) {
+        int position = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= count) {
+                break;
+            }
+            if (child + 1 < count && compare(heap[child + 1], heap[child]) > 0) { // The larger child
+                child++;
+            }
+            if (compare(heap[child], position) <= 0) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = position;
+    }
+
+    private void swap(int i, int j) {
+        int position = order[i];
+        order[i] = order[j];
+        order[j] = position;
+    }
+
+    /**
+     * Compares two students by the comparator, and equal students by position, so that no two students are equal and
+     * the order is that of a stable sort.
+     */
+    private int compare(int a, int b) {
+        int cmp;
+        switch (key) {
+            case NAME:
+                cmp = StringArena.compare(arena, names[a], arena, names[b]);
+                break;
+            case ROLLNO:
+                cmp = Integer.compare(rollnos[a], rollnos[b]);
+                break;
+            default:
+                cmp = comparator.compare(store.get(a), store.get(b));
+        }
+        return cmp != 0 ? cmp : Integer.compare(a, b);
+    }
+}
@@ -0,0 +1,206 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A hash map from int keys to non-negative int values, without boxing.
+ * Keys and values are kept in two parallel arrays with open addressing and linear probing, so a lookup touches one or
+ * two cache lines and a map of a million entries costs 16 MB instead of the ~80 MB of a {@code HashMap<Integer, Integer>}.
+ */
+public class IntIntHashMap {
+    public static final int MISSING = -1; // Value returned for keys that are not in the map
+
+    private static final int INITIAL_CAPACITY = 16; // Slots allocated for a new map, a power of two
+    private static final int MAX_CAPACITY = 1 << 30; // Largest power of two an array can hold
+
+    private int[] keys; // Key of each slot
+    private int[] values; // Value of each slot, or MISSING if the slot is empty
+    private int size; // Number of entries
+    private int mask; // Slots minus one, for wrapping around
+
+    /**
+     * Constructor to create an empty map.
+     */
+    public IntIntHashMap() {
+        this(INITIAL_CAPACITY / 2);
+    }
+
+    /**
+     * Constructor to create an empty map with room for the given number of entries.
+     * @param expectedSize The number of entries the map should hold without growing.
+     */
+    public IntIntHashMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Copies this map.
+     * @return A map with the same entries, which changes independently.
+     */
+    public IntIntHashMap copy() {
+        IntIntHashMap copy = new IntIntHashMap(0);
+        copy.keys = keys.clone();
+        copy.values = values.clone();
+        copy.size = size;
+        copy.mask = mask;
+        return copy;
+    }
+
+    /**
+     * Returns the value of a key.
+     * @param key The key to look up.
+     * @return The value, or {@link #MISSING} if the key is not in the map.
+     */
+    public int get(int key) {
+        for (int slot = slotOf(key); ; slot = (slot + 1) & mask) {
+            if (values[slot] == MISSING) {
+                return MISSING;
+            }
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+        }
+    }
+
+    /**
+     * Sets the value of a key.
+     * @param key The key to set.
+     * @param value The value, which must not be negative.
+     * @return The previous value, or {@link #MISSING} if the key was not in the map.
+     */
+    public int put(int key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Value must not be negative: " + value);
+        }
+        int slot = slotOf(key);
+        while (values[slot] != MISSING) {
+            if (keys[slot] == key) {
+                int previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > maxSize()) { // Keep the table at most half full
+            rehash(values.length * 2);
+        }
+        return MISSING;
+    }
+
+    /**
+     * Removes a key.
+     * @param key The key to remove.
+     * @return The value it had, or {@link #MISSING} if the key was not in the map.
+     */
+    public int remove(int key) {
+        int slot = slotOf(key);
+        while (values[slot] != MISSING) {
+            if (keys[slot] == key) {
+                int previous = values[slot];
+                deleteSlot(slot);
+                size--;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    /**
+     * Replaces every value with the result of a function, for example to renumber positions after a reorder.
+     * @param function Maps an old value to its new, non-negative value.
+     */
+    public void replaceValues(IntUnaryOperator function) {
+        for (int slot = 0; slot < values.length; slot++) {
+            if (values[slot] != MISSING) {
+                values[slot] = function.applyAsInt(values[slot]);
+            }
+        }
+    }
+
+    /**
+     * Calls an action for every key, in no particular order; the map must not change meanwhile.
+     * @param action The action to call with each key.
+     */
+    public void forEachKey(IntConsumer action) {
+        for (int slot = 0; slot < values.length; slot++) {
+            if (values[slot] != MISSING) {
+                action.accept(keys[slot]);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of entries.
+     * @return The size of the map.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        Arrays.fill(values, MISSING);
+        size = 0;
+    }
+
+    /**
+     * Empties a slot and moves later entries of its probe run back so that lookups still find them.
+     */
+    private void deleteSlot(int slot) {
+        int hole = slot;
+        for (int next = (hole + 1) & mask; values[next] != MISSING; next = (next + 1) & mask) {
+            int home = slotOf(keys[next]); // Where the entry would like to be
+            if (((next - home) & mask) >= ((next - hole) & mask)) { // The hole lies on its probe path, so fill it
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+        }
+        values[hole] = MISSING;
+    }
+
+    private int slotOf(int key) {
+        int hash = key * 0x9E3779B9; // Fibonacci hashing spreads consecutive roll numbers
+        return (hash ^ hash >>> 16) & mask; // Fold the high bits in, since the mask keeps only the low ones
+    }
+
+    private int maxSize() {
+        return values.length >> 1;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int slot = 0; slot < oldValues.length; slot++) {
+            if (oldValues[slot] != MISSING) {
+                int newSlot = slotOf(oldKeys[slot]);
+                while (values[newSlot] != MISSING) {
+                    newSlot = (newSlot + 1) & mask;
+                }
+                keys[newSlot] = oldKeys[slot];
+                values[newSlot] = oldValues[slot];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        if (capacity > MAX_CAPACITY) {
+            throw new IllegalStateException("Map is full");
+        }
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, MISSING);
+        mask = capacity - 1;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        long needed = Math.max(2L * expectedSize, INITIAL_CAPACITY); // At most half full
+        return (int) Math.min(MAX_CAPACITY, Long.highestOneBit(needed - 1) << 1);
+    }
+}
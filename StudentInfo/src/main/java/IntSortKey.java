@@ -0,0 +1,12 @@
+/**
+ * A sort key that maps a student to a primitive int.
+ * Comparators implementing this interface can be sorted with a radix sort instead of comparisons.
+ */
+public interface IntSortKey {
+    /**
+     * Returns the int key of the given student. Students are ordered by ascending key.
+     * @param student The student to extract the key from.
+     * @return The int key of the student.
+     */
+    int key(Student student);
+}
@@ -0,0 +1,186 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Utility methods for the JSON spoken by the {@link RosterService}.
+ * Responses are built with a StringBuilder; requests are flat objects whose values are strings, numbers, booleans or
+ * null, which is all the service accepts, so no general JSON library is needed.
+ */
+public class JsonCodec {
+    /**
+     * Appends a string as a JSON string literal.
+     * @param out The builder to append to.
+     * @param value The string to quote.
+     * @return The builder.
+     */
+    public static StringBuilder appendString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) { // Other control characters must be escaped
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.append('"');
+    }
+
+    /**
+     * Appends a student as a JSON object with rollno, name and address members.
+     * @param out The builder to append to.
+     * @param rollno The roll number of the student.
+     * @param name The name of the student.
+     * @param address The address of the student.
+     * @return The builder.
+     */
+    public static StringBuilder appendStudent(StringBuilder out, int rollno, String name, String address) {
+        out.append("{\"rollno\":").append(rollno).append(",\"name\":");
+        appendString(out, name).append(",\"address\":");
+        return appendString(out, address).append('}');
+    }
+
+    /**
+     * Parses a flat JSON object.
+     * @param json The JSON text.
+     * @return The members in order; strings are unquoted, numbers and booleans are kept as written and null is null.
+     * @throws IllegalArgumentException If the text is not a flat JSON object.
+     */
+    public static Map<String, String> parseObject(String json) {
+        Parser parser = new Parser(json);
+        Map<String, String> members = new LinkedHashMap<>();
+        parser.expect('{');
+        if (!parser.consume('}')) {
+            do {
+                String key = parser.string();
+                parser.expect(':');
+                members.put(key, parser.value());
+            } while (parser.consume(','));
+            parser.expect('}');
+        }
+        parser.skipWhitespace();
+        if (parser.pos < json.length()) {
+            throw new IllegalArgumentException("Unexpected text after JSON object at " + parser.pos);
+        }
+        return members;
+    }
+
+    /**
+     * A cursor over JSON text.
+     */
+    private static class Parser {
+        private final String json; // Text being parsed
+        private int pos; // Index of the next character
+
+        Parser(String json) {
+            this.json = json;
+        }
+
+        void skipWhitespace() {
+            while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        boolean consume(char c) {
+            skipWhitespace();
+            if (pos < json.length() && json.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(char c) {
+            if (!consume(c)) {
+                throw new IllegalArgumentException("Expected '" + c + "' at " + pos);
+            }
+        }
+
+        String value() {
+            skipWhitespace();
+            if (pos < json.length() && json.charAt(pos) == '"') {
+                return string();
+            }
+            int start = pos;
+            while (pos < json.length() && ",}] \t\r\n".indexOf(json.charAt(pos)) < 0) { // A number, boolean or null
+                pos++;
+            }
+            String literal = json.substring(start, pos);
+            if (literal.isEmpty() || literal.startsWith("{") || literal.startsWith("[")) {
+                throw new IllegalArgumentException("Expected a string, number, boolean or null at " + start);
+            }
+            return literal.equals("null") ? null : literal;
+        }
+
+        String string() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                if (pos >= json.length()) {
+                    throw new IllegalArgumentException("Unterminated string");
+                }
+                char c = json.charAt(pos++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (pos >= json.length()) {
+                    throw new IllegalArgumentException("Unterminated string");
+                }
+                char escaped = json.charAt(pos++);
+                switch (escaped) {
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'f':
+                        value.append('\f');
+                        break;
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'u':
+                        if (pos + 4 > json.length()) {
+                            throw new IllegalArgumentException("Incomplete unicode escape at " + pos);
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("Invalid unicode escape at " + pos);
+                        }
+                        pos += 4;
+                        break;
+                    default: // Quote, backslash and slash stand for themselves
+                        value.append(escaped);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,328 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A minimal HTTP/1.1 server on the loopback interface for small JSON requests and responses.
+ * Every connection gets its own virtual thread, which reads a request, calls the handler and writes the response,
+ * then waits for the next request on the same connection. Blocking I/O on virtual threads costs no platform thread
+ * while it waits, so thousands of clients are cheap, and a request is handled without any hand-off between threads.
+ * Only what the roster service needs is supported: bodies with a Content-Length, keep-alive and
+ * {@code Expect: 100-continue}; chunked request bodies are refused.
+ */
+public class LoopbackHttpServer implements Closeable {
+    private static final int MAX_LINE = 8192; // Longest request or header line
+    private static final int MAX_HEADERS = 100; // Most header lines of a request
+    private static final int MAX_BODY = 1 << 20; // Largest request body
+    private static final int IDLE_TIMEOUT = 30000; // Milliseconds an idle keep-alive connection is kept open
+    private static final int BACKLOG = 1024; // Connections waiting to be accepted, so bursts of new clients are not refused
+
+    /**
+     * Handles requests; called on the connection's virtual thread, so it may block.
+     */
+    @FunctionalInterface
+    public interface Handler {
+        /**
+         * Handles a request.
+         * @param request The request.
+         * @return The response.
+         */
+        Response handle(Request request);
+    }
+
+    /**
+     * A request: method, raw path and query, and body.
+     */
+    public static final class Request {
+        private final String method; // Request method, such as GET
+        private final String rawPath; // Path, still percent-encoded
+        private final String rawQuery; // Query after the '?', still percent-encoded, or null
+        private final byte[] body; // Request body, empty if none
+
+        Request(String method, String rawPath, String rawQuery, byte[] body) {
+            this.method = method;
+            this.rawPath = rawPath;
+            this.rawQuery = rawQuery;
+            this.body = body;
+        }
+
+        // Getters for the parts of the request
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getRawPath() {
+            return rawPath;
+        }
+
+        public String getRawQuery() {
+            return rawQuery;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+    }
+
+    /**
+     * A response with a JSON body.
+     */
+    public static final class Response {
+        private final int status; // HTTP status code
+        private final String json; // Body
+
+        /**
+         * Constructor to create a response.
+         * @param status The HTTP status code.
+         * @param json The JSON body.
+         */
+        public Response(int status, String json) {
+            this.status = status;
+            this.json = json;
+        }
+
+        // Getters for the status and the body
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getJson() {
+            return json;
+        }
+    }
+
+    private final ServerSocket serverSocket; // Listening socket
+    private final Handler handler; // Handles every request
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet(); // Open connections, closed on close()
+
+    /**
+     * Constructor to start a server on the loopback interface.
+     * @param port The port to listen on, or 0 for any free port.
+     * @param handler The handler of every request.
+     * @throws IOException If the port cannot be bound.
+     */
+    public LoopbackHttpServer(int port, Handler handler) throws IOException {
+        this.serverSocket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+        this.handler = handler;
+        Thread.ofPlatform().name("roster-http-accept").start(this::acceptConnections); // Not a daemon, so a running server keeps the JVM alive
+    }
+
+    /**
+     * Returns the port the server listens on.
+     * @return The port.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones; requests being handled finish without a response.
+     * @throws IOException If the listening socket cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket connection : connections) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Accepts connections until the server is closed.
+     */
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket connection = serverSocket.accept();
+                connections.add(connection);
+                Thread.ofVirtual().name("roster-http").start(() -> serve(connection));
+            } catch (IOException e) { // Closed, or the connection failed before it was accepted
+                if (!serverSocket.isClosed()) {
+                    System.err.println("Failed to accept connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Serves the requests of one connection until either side closes it.
+     */
+    private void serve(Socket connection) {
+        try (connection) {
+            connection.setTcpNoDelay(true); // Responses are written in one piece, so never wait to coalesce them
+            connection.setSoTimeout(IDLE_TIMEOUT);
+            InputStream in = new BufferedInputStream(connection.getInputStream());
+            OutputStream out = new BufferedOutputStream(connection.getOutputStream());
+            boolean keepAlive = true;
+            while (keepAlive) {
+                String requestLine;
+                try {
+                    requestLine = readLine(in, true);
+                } catch (EOFException | SocketTimeoutException e) { // The client is done with the connection
+                    return;
+                }
+                if (requestLine.isEmpty()) { // Tolerate a blank line between requests
+                    continue;
+                }
+                String[] parts = requestLine.split(" ");
+                if (parts.length != 3 || !parts[2].startsWith("HTTP/1.")) {
+                    write(out, new Response(400, "{\"error\":\"Malformed request line\"}"), false);
+                    return;
+                }
+                keepAlive = parts[2].equals("HTTP/1.1"); // HTTP/1.0 closes unless it asks otherwise
+                long contentLength = 0;
+                boolean expectContinue = false;
+                for (int headers = 0; ; headers++) {
+                    String header = readLine(in, false);
+                    if (header.isEmpty()) {
+                        break;
+                    }
+                    if (headers == MAX_HEADERS) {
+                        write(out, new Response(431, "{\"error\":\"Too many headers\"}"), false);
+                        return;
+                    }
+                    int colon = header.indexOf(':');
+                    if (colon <= 0) {
+                        write(out, new Response(400, "{\"error\":\"Malformed header\"}"), false);
+                        return;
+                    }
+                    String name = header.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                    String value = header.substring(colon + 1).trim();
+                    switch (name) {
+                        case "content-length":
+                            try {
+                                contentLength = Long.parseLong(value);
+                            } catch (NumberFormatException e) {
+                                contentLength = -1;
+                            }
+                            break;
+                        case "transfer-encoding":
+                            write(out, new Response(411, "{\"error\":\"Chunked bodies are not supported; send a Content-Length\"}"), false);
+                            return;
+                        case "connection":
+                            keepAlive = value.equalsIgnoreCase("keep-alive") || (keepAlive && !value.equalsIgnoreCase("close"));
+                            break;
+                        case "expect":
+                            expectContinue = value.equalsIgnoreCase("100-continue");
+                            break;
+                        default: // Not needed
+                    }
+                }
+                if (contentLength < 0 || contentLength > MAX_BODY) {
+                    write(out, new Response(413, "{\"error\":\"Request body too large\"}"), false);
+                    return;
+                }
+                if (expectContinue && contentLength > 0) { // The client waits for permission to send the body
+                    out.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                }
+                byte[] body = in.readNBytes((int) contentLength);
+                if (body.length < contentLength) { // The connection closed in the middle of the body
+                    return;
+                }
+                String target = parts[1];
+                int question = target.indexOf('?');
+                Request request = new Request(parts[0], question < 0 ? target : target.substring(0, question), question < 0 ? null : target.substring(question + 1), body);
+                Response response;
+                try {
+                    response = handler.handle(request);
+                } catch (RuntimeException e) { // Report the failure rather than dropping the connection
+                    response = new Response(500, JsonCodec.appendString(new StringBuilder("{\"error\":"), String.valueOf(e.getMessage())).append('}').toString());
+                }
+                write(out, response, keepAlive);
+            }
+        } catch (SocketException e) { // Reset by the client or closed by close()
+        } catch (IOException e) {
+            System.err.println("Failed to serve connection: " + e.getMessage());
+        } finally {
+            connections.remove(connection);
+        }
+    }
+
+    /**
+     * Writes a response in one flush.
+     */
+    private static void write(OutputStream out, Response response, boolean keepAlive) throws IOException {
+        byte[] body = response.getJson().getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 " + response.getStatus() + " " + reason(response.getStatus()) + "\r\n"
+                + "Content-Type: application/json; charset=utf-8\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + (keepAlive ? "" : "Connection: close\r\n")
+                + "\r\n";
+        out.write(head.getBytes(StandardCharsets.US_ASCII));
+        out.write(body);
+        out.flush();
+    }
+
+    /**
+     * Reads a line ending in CRLF or LF, without the line ending.
+     * @param atRequestStart True if end of stream before the first byte means the client closed the connection.
+     */
+    private static String readLine(InputStream in, boolean atRequestStart) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException(atRequestStart && line.size() == 0 ? "Connection closed" : "Connection closed in the middle of a request");
+            }
+            if (b == '\n') {
+                break;
+            }
+            if (line.size() == MAX_LINE) {
+                throw new IOException("Request line too long");
+            }
+            line.write(b);
+        }
+        int length = line.size();
+        byte[] bytes = line.toByteArray();
+        if (length > 0 && bytes[length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, 0, length, StandardCharsets.ISO_8859_1); // Request lines and headers are ASCII; the path stays encoded
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 201:
+                return "Created";
+            case 400:
+                return "Bad Request";
+            case 403:
+                return "Forbidden";
+            case 404:
+                return "Not Found";
+            case 405:
+                return "Method Not Allowed";
+            case 409:
+                return "Conflict";
+            case 411:
+                return "Length Required";
+            case 413:
+                return "Payload Too Large";
+            case 431:
+                return "Request Header Fields Too Large";
+            case 503:
+                return "Service Unavailable";
+            default:
+                return status < 500 ? "Client Error" : "Server Error";
+        }
+    }
+}
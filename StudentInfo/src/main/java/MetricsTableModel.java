@@ -0,0 +1,60 @@
+import java.util.List;
+import java.util.Locale;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Table model for the diagnostics panel that shows one row of {@link RosterMetrics} per operation.
+ * The rows are a copy taken by {@link #refresh}, so painting never reads counters that are still changing.
+ */
+public class MetricsTableModel extends AbstractTableModel {
+    private static final String[] COLUMN_NAMES = {"Operation", "Count", "p50", "p99", "Max", "Rows/s", "MB/s", "Allocated MB"}; // Column headers
+
+    private List<RosterMetrics.Summary> summaries = RosterMetrics.summaries(); // Rows being shown
+
+    /**
+     * Reads the metrics again and repaints the rows.
+     */
+    public void refresh() {
+        summaries = RosterMetrics.summaries();
+        fireTableRowsUpdated(0, summaries.size() - 1); // The operations are fixed, so only the values change
+    }
+
+    @Override
+    public int getRowCount() {
+        return summaries.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        RosterMetrics.Summary summary = summaries.get(row);
+        boolean empty = summary.getCount() == 0; // No samples, so there are no latencies to show
+        switch (column) {
+            case 0:
+                return summary.getName();
+            case 1:
+                return summary.getCount();
+            case 2:
+                return empty ? "" : RosterMetrics.formatNanos(summary.getP50Nanos());
+            case 3:
+                return empty ? "" : RosterMetrics.formatNanos(summary.getP99Nanos());
+            case 4:
+                return empty ? "" : RosterMetrics.formatNanos(summary.getMaxNanos());
+            case 5:
+                return empty ? "" : String.format(Locale.ROOT, "%,.0f", summary.rowsPerSecond());
+            case 6:
+                return empty ? "" : String.format(Locale.ROOT, "%.1f", summary.bytesPerSecond() / (1 << 20));
+            default:
+                return empty ? "" : String.format(Locale.ROOT, "%.1f", summary.getAllocatedBytes() / (double) (1 << 20));
+        }
+    }
+}
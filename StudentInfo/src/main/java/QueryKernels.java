@@ -0,0 +1,134 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The inner loops of a {@link StudentQuery}: checking a batch of roll numbers against a range, and searching a name or
+ * address for text in a {@link StringArena} without decoding it.
+ * Results of a batch are kept as a bitmap, bit j of word j / 64 standing for the j-th student of the batch, so a
+ * predicate clears the bits of the students it rejects and the next one skips them. This class works one student and
+ * one byte at a time, with no branches in the range check; {@link #get} returns a subclass that uses the incubating
+ * Vector API when the application is started with {@code --add-modules jdk.incubator.vector}, and this class when it
+ * is not or when the system property {@code roster.vector} is {@code false}. Both give the same results.
+ * Text is matched ignoring the case of ASCII letters; other characters must match exactly.
+ */
+public class QueryKernels {
+    private static final QueryKernels INSTANCE = create(); // Kernels used unless a query is told otherwise
+
+    /**
+     * Returns the fastest kernels available.
+     * @return The vectorized kernels if the Vector API is available, the scalar ones otherwise.
+     */
+    public static QueryKernels get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the name of the kernels, for logs and diagnostics.
+     * @return "scalar" or the name of the vector shape used.
+     */
+    public String getName() {
+        return "scalar";
+    }
+
+    /**
+     * Converts text to search for into the form the kernels match: UTF-8, with ASCII letters in lower case.
+     * @param text The text to search for.
+     * @return The folded bytes.
+     */
+    public static byte[] fold(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) fold(bytes[i]);
+        }
+        return bytes;
+    }
+
+    /**
+     * Clears the bits of the students of a batch whose roll numbers are outside a range.
+     * @param rollnos The roll number column.
+     * @param from The position of the first student of the batch.
+     * @param count The number of students in the batch, at most 64 times the length of bits.
+     * @param low The lowest roll number kept.
+     * @param high The highest roll number kept, at least low.
+     * @param bits The bitmap of the batch.
+     */
+    public void rollnoBetween(int[] rollnos, int from, int count, int low, int high, long[] bits) {
+        long span = (high - low) & 0xffffffffL; // Roll numbers in range are at most span above low, unsigned
+        for (int w = 0; w << 6 < count; w++) {
+            int base = from + (w << 6), n = Math.min(64, count - (w << 6));
+            long word = n < 64 ? -1L << n : 0; // Bits past the batch are left as they are
+            for (int j = 0; j < n; j++) {
+                long above = (rollnos[base + j] - low) & 0xffffffffL; // Distance above low, unsigned
+                word |= ((above - span - 1) >>> 63) << j; // Negative, so the sign bit is set, when in range
+            }
+            bits[w] &= word;
+        }
+    }
+
+    /**
+     * Checks whether a string contains text.
+     * @param bytes The array holding the string, see {@link StringArena#bytes}.
+     * @param start The index of the string's first byte.
+     * @param length The number of bytes of the string.
+     * @param needle The text, see {@link #fold}.
+     * @return True if the string contains the text.
+     */
+    public boolean contains(byte[] bytes, int start, int length, byte[] needle) {
+        int last = length - needle.length; // Last index the text can start at
+        if (needle.length == 0) {
+            return true;
+        }
+        byte first = needle[0];
+        for (int i = 0; i <= last; i++) {
+            if (fold(bytes[start + i]) == first && regionMatches(bytes, start + i + 1, needle, 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a string starts with text.
+     * @param bytes The array holding the string, see {@link StringArena#bytes}.
+     * @param start The index of the string's first byte.
+     * @param length The number of bytes of the string.
+     * @param needle The text, see {@link #fold}.
+     * @return True if the string starts with the text.
+     */
+    public boolean startsWith(byte[] bytes, int start, int length, byte[] needle) {
+        return length >= needle.length && regionMatches(bytes, start, needle, 0);
+    }
+
+    /**
+     * Checks whether the bytes at an index match the rest of a needle from a given byte on.
+     */
+    static boolean regionMatches(byte[] bytes, int start, byte[] needle, int from) {
+        for (int k = from; k < needle.length; k++) {
+            if (fold(bytes[start + k - from]) != needle[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Turns an ASCII capital letter into lower case and leaves other bytes as they are, without a branch.
+     */
+    static int fold(byte b) {
+        return b | ((('@' - b) & (b - '[')) >> 31 & 0x20); // Both differences are negative only from 'A' to 'Z'
+    }
+
+    /**
+     * Creates the vectorized kernels if the Vector API module was added, and the scalar ones otherwise.
+     */
+    private static QueryKernels create() {
+        if ("false".equalsIgnoreCase(System.getProperty("roster.vector")) || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return new QueryKernels();
+        }
+        try { // Loaded by name, so this class never links against the module
+            return (QueryKernels) Class.forName("VectorQueryKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            System.err.println("Vector API unavailable, querying without it: " + e); // Log the reason
+            return new QueryKernels();
+        }
+    }
+}
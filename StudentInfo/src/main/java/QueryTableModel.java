@@ -0,0 +1,62 @@
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Table model for the query dialog that shows the students a {@link StudentQuery} matched, one row per student.
+ * Cells are read from the stores queried as they are painted, so a result of millions of students shows at once.
+ */
+public class QueryTableModel extends AbstractTableModel {
+    private static final String[] COLUMN_NAMES = {"Class", "Roll Number", "Name", "Address"}; // Column headers
+    private static final Class<?>[] COLUMN_CLASSES = {String.class, Integer.class, String.class, String.class}; // Column types
+
+    private StudentQuery.Result result; // Students being shown, null before the first query
+
+    /**
+     * Shows the students of a query.
+     * @param result The result of the query.
+     */
+    public void setResult(StudentQuery.Result result) {
+        this.result = result;
+        fireTableDataChanged();
+    }
+
+    public StudentQuery.Result getResult() {
+        return result;
+    }
+
+    @Override
+    public int getRowCount() {
+        return result == null ? 0 : result.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return COLUMN_CLASSES[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        if (column == 0) {
+            return result.getClassName(row);
+        }
+        StudentStore students = result.getStudents(row);
+        int position = result.getPosition(row);
+        switch (column) {
+            case 1:
+                return students.getRollno(position);
+            case 2:
+                return students.getName(position);
+            default:
+                return students.getAddress(position);
+        }
+    }
+}
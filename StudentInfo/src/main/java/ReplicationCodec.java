@@ -0,0 +1,247 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes the frames a {@link RosterPrimary} sends its {@link RosterFollower}s over TCP.
+ * A follower opens the connection with a hello of the primary's epoch and the offset it has applied up to, the number
+ * of changes since the primary's roster was last replaced. The primary answers with batches of changes from that
+ * offset on, or, if the follower is of another epoch or too far behind, with a snapshot of the whole roster first.
+ * The changes of a frame are records of a journal line, see {@link RosterChange#toCsv}, without its line terminator
+ * and preceded by its length in bytes as a varint, seven bits per byte with the lowest first; the lengths keep the
+ * records apart even when a quoted name holds a line break. The records are compressed with deflate, and a snapshot is
+ * sent as chunks of changes that add each class and its students. Other numbers are big-endian.
+ * <ul>
+ * <li>Hello: magic, epoch (8 bytes), offset (8 bytes).</li>
+ * <li>Batch and snapshot chunk: type, offset of the first change (8 bytes), number of changes, length of the
+ * records and length of the compressed records (4 bytes each), compressed records.</li>
+ * <li>Snapshot start: type, epoch (8 bytes), offset the snapshot is at (8 bytes); snapshot end: type.</li>
+ * </ul>
+ */
+final class ReplicationCodec {
+    static final int MAGIC = 0x52525032; // "RRP2", opens a follower's hello
+    static final byte BATCH = 1; // Changes to apply
+    static final byte SNAPSHOT_START = 2; // Drop the roster and build a new one from the chunks that follow
+    static final byte SNAPSHOT_CHUNK = 3; // Changes building the new roster
+    static final byte SNAPSHOT_END = 4; // The new roster is complete
+    static final int SNAPSHOT_CHUNK_CHANGES = 1 << 14; // Changes per snapshot chunk
+    private static final int MAX_RECORDS_LENGTH = 256 << 20; // Longest records of a frame accepted, to reject corrupt lengths
+
+    private ReplicationCodec() {
+    }
+
+    /**
+     * A frame read from the primary.
+     */
+    static final class Frame {
+        final byte type; // Kind of frame
+        final long epoch; // Epoch of a snapshot start, or 0
+        final long offset; // Offset of the first change, or of the snapshot
+        final List<RosterChange> changes; // Changes of a batch or chunk, empty otherwise
+        final int wireBytes; // Bytes the frame took on the connection
+
+        Frame(byte type, long epoch, long offset, List<RosterChange> changes, int wireBytes) {
+            this.type = type;
+            this.epoch = epoch;
+            this.offset = offset;
+            this.changes = changes;
+            this.wireBytes = wireBytes;
+        }
+    }
+
+    /**
+     * Writes a follower's hello.
+     */
+    static void writeHello(DataOutputStream out, long epoch, long offset) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeLong(epoch);
+        out.writeLong(offset);
+        out.flush();
+    }
+
+    /**
+     * Reads a follower's hello.
+     * @return The epoch and the offset of the follower.
+     * @throws IOException If the connection is not from a follower.
+     */
+    static long[] readHello(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a roster follower");
+        }
+        return new long[] {in.readLong(), in.readLong()};
+    }
+
+    /**
+     * Encodes a batch or snapshot chunk, compressing the records of its changes.
+     * @param type {@link #BATCH} or {@link #SNAPSHOT_CHUNK}.
+     * @param offset The offset of the first change.
+     * @param changes The changes.
+     * @param deflater The deflater to compress with, reset here so one can serve many frames.
+     * @return The frame.
+     */
+    static byte[] encodeChanges(byte type, long offset, List<RosterChange> changes, Deflater deflater) {
+        byte[] records = new byte[changes.size() * 48]; // All records of the frame
+        int recordsLength = 0;
+        for (RosterChange change : changes) {
+            byte[] line = change.toCsv().getBytes(StandardCharsets.UTF_8);
+            if (recordsLength + 5 + line.length > records.length) { // Room for the longest length and the line
+                records = Arrays.copyOf(records, Math.max(2 * records.length, recordsLength + 5 + line.length));
+            }
+            for (int length = line.length; ; length >>>= 7) { // Seven bits at a time, the high bit set on all but the last
+                if (length < 0x80) {
+                    records[recordsLength++] = (byte) length;
+                    break;
+                }
+                records[recordsLength++] = (byte) (length | 0x80);
+            }
+            System.arraycopy(line, 0, records, recordsLength, line.length);
+            recordsLength += line.length;
+        }
+        deflater.reset();
+        deflater.setInput(records, 0, recordsLength);
+        deflater.finish();
+        int header = 1 + 8 + 4 + 4 + 4;
+        byte[] frame = new byte[header + Math.max(64, recordsLength + (recordsLength >> 3))]; // Room for records that do not compress
+        int length = header;
+        while (!deflater.finished()) {
+            if (length == frame.length) {
+                frame = Arrays.copyOf(frame, frame.length * 2);
+            }
+            length += deflater.deflate(frame, length, frame.length - length);
+        }
+        frame[0] = type;
+        putLong(frame, 1, offset);
+        putInt(frame, 9, changes.size());
+        putInt(frame, 13, recordsLength);
+        putInt(frame, 17, length - header);
+        return length == frame.length ? frame : Arrays.copyOf(frame, length);
+    }
+
+    /**
+     * Returns the length of the records a batch or snapshot chunk was encoded from.
+     */
+    static int recordsLength(byte[] frame) {
+        return (frame[13] & 0xff) << 24 | (frame[14] & 0xff) << 16 | (frame[15] & 0xff) << 8 | frame[16] & 0xff;
+    }
+
+    /**
+     * Writes the start of a snapshot.
+     */
+    static void writeSnapshotStart(OutputStream out, long epoch, long offset) throws IOException {
+        byte[] frame = new byte[17];
+        frame[0] = SNAPSHOT_START;
+        putLong(frame, 1, epoch);
+        putLong(frame, 9, offset);
+        out.write(frame);
+    }
+
+    /**
+     * Writes the end of a snapshot.
+     */
+    static void writeSnapshotEnd(OutputStream out) throws IOException {
+        out.write(SNAPSHOT_END);
+    }
+
+    /**
+     * Reads the next frame from the primary.
+     * @param in The connection.
+     * @param inflater The inflater to decompress with, reset here so one can serve many frames.
+     * @return The frame.
+     * @throws IOException If the connection fails or the frame is corrupt.
+     */
+    static Frame read(DataInputStream in, Inflater inflater) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case BATCH:
+            case SNAPSHOT_CHUNK: {
+                long offset = in.readLong();
+                int count = in.readInt(), recordsLength = in.readInt(), compressedLength = in.readInt();
+                if (count < 0 || recordsLength < 0 || recordsLength > MAX_RECORDS_LENGTH || compressedLength < 0 || compressedLength > MAX_RECORDS_LENGTH) {
+                    throw new IOException("Corrupt replication frame");
+                }
+                byte[] compressed = new byte[compressedLength];
+                in.readFully(compressed);
+                byte[] records = new byte[recordsLength];
+                inflater.reset();
+                inflater.setInput(compressed);
+                try {
+                    int inflated = 0;
+                    while (inflated < recordsLength && !inflater.finished()) {
+                        int n = inflater.inflate(records, inflated, recordsLength - inflated);
+                        if (n == 0 && inflater.needsInput()) {
+                            throw new EOFException("Truncated replication frame");
+                        }
+                        inflated += n;
+                    }
+                    if (inflated != recordsLength) {
+                        throw new IOException("Corrupt replication frame");
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupt replication frame: " + e.getMessage());
+                }
+                return new Frame(type, 0, offset, parseRecords(records, count), 21 + compressedLength);
+            }
+            case SNAPSHOT_START:
+                return new Frame(type, in.readLong(), in.readLong(), List.of(), 17);
+            case SNAPSHOT_END:
+                return new Frame(type, 0, 0, List.of(), 1);
+            default:
+                throw new IOException("Unknown replication frame " + type);
+        }
+    }
+
+    /**
+     * Parses the length-prefixed records of a frame.
+     */
+    private static List<RosterChange> parseRecords(byte[] records, int count) throws IOException {
+        List<RosterChange> changes = new ArrayList<>(count);
+        int pos = 0;
+        while (pos < records.length && changes.size() < count) {
+            int length = 0;
+            for (int shift = 0; ; shift += 7) { // Seven bits at a time, lowest first
+                if (pos == records.length || shift > 28) {
+                    throw new IOException("Corrupt replicated record length");
+                }
+                byte b = records[pos++];
+                length |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            if (length < 0 || length > records.length - pos) {
+                throw new IOException("Corrupt replicated record length");
+            }
+            try {
+                changes.add(RosterChange.parse(records, pos, pos + length));
+            } catch (IllegalArgumentException e) { // The primary only sends valid records
+                throw new IOException("Corrupt replicated change: " + e.getMessage());
+            }
+            pos += length;
+        }
+        if (changes.size() != count || pos != records.length) {
+            throw new IOException("Expected " + count + " replicated changes but found " + changes.size());
+        }
+        return changes;
+    }
+
+    private static void putLong(byte[] bytes, int at, long value) {
+        putInt(bytes, at, (int) (value >>> 32));
+        putInt(bytes, at + 4, (int) value);
+    }
+
+    private static void putInt(byte[] bytes, int at, int value) {
+        bytes[at] = (byte) (value >>> 24);
+        bytes[at + 1] = (byte) (value >>> 16);
+        bytes[at + 2] = (byte) (value >>> 8);
+        bytes[at + 3] = (byte) value;
+    }
+}
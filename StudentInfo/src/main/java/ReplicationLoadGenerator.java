@@ -0,0 +1,277 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Measures how fast a {@link RosterPrimary} replicates changes to {@link RosterFollower}s over loopback sockets.
+ * The generator starts a roster service on a synthetic roster with a primary, and followers that each feed a
+ * read-only service of their own, as {@code App follow} does. Once the followers have caught up from the snapshot, a
+ * writer applies batches of changes to the primary's service as fast as it publishes them, mostly student edits and
+ * some additions and deletions, and the followers apply them as they arrive. It reports the changes committed and
+ * replicated per second, the bytes sent and how much they were compressed, the lag from a batch being queued to a
+ * follower applying it, and how long a follower that joins at the end takes to catch up. Last, it commits a student
+ * and a class whose names hold line breaks, quotes and commas, and checks that every follower serves the same roster
+ * as the primary. It exits with status 1 if a follower differs or takes longer than {@value #CATCH_UP_SECONDS} s to
+ * catch up, so a build can run it as a test.
+ * Usage: {@code ReplicationLoadGenerator [--rows <n>] [--classes <n>] [--followers <n>] [--seconds <n>] [--batch <n>]}
+ */
+public class ReplicationLoadGenerator {
+    private static final int MAX_PENDING = 8; // Batches queued to the primary's service before the writer waits
+    private static final int CATCH_UP_SECONDS = 60; // Longest wait for a follower to catch up before the test fails
+
+    private final RosterService service; // Primary's service
+    private final RosterPrimary primary; // Streams the service's batches
+    private final String[] classNames; // Classes of the roster
+    private final int[] classSizes; // Students per class at the start
+    private final int batchSize; // Changes per batch
+    private final long[] queued = new long[1 << 22]; // Clock when each batch was queued, by batch number
+    private final List<Follower> followers = new ArrayList<>();
+
+    /**
+     * A follower with its own service and the lag of each batch it applied.
+     */
+    private final class Follower {
+        private final RosterService service = new RosterService(Map.of()).readOnly(true); // Follows the primary's roster
+        private final RosterFollower follower; // Receives the changes
+        private long[] lags = new long[1024]; // Nanoseconds from queueing to applying, per batch completed
+        private int lagCount;
+
+        Follower() {
+            follower = new RosterFollower("127.0.0.1", primary.getPort())
+                    .onSnapshot(service::replace)
+                    .onChanges(this::apply);
+        }
+
+        /**
+         * Applies a batch and records the lag of the last batch of the writer it completes.
+         */
+        private void apply(List<RosterChange> changes) {
+            service.apply(changes);
+            long end = follower.getOffset() + changes.size(); // Offset once these are applied
+            long batch = end / batchSize - 1; // Last writer batch completed
+            if (batch >= 0 && batch < queued.length && queued[(int) batch] != 0) {
+                if (lagCount == lags.length) {
+                    lags = Arrays.copyOf(lags, 2 * lagCount);
+                }
+                lags[lagCount++] = System.nanoTime() - queued[(int) batch];
+            }
+        }
+    }
+
+    private ReplicationLoadGenerator(Map<String, StudentStore> roster, int batchSize) throws IOException {
+        this.batchSize = batchSize;
+        classNames = roster.keySet().toArray(new String[0]);
+        classSizes = new int[classNames.length];
+        for (int c = 0; c < classNames.length; c++) {
+            classSizes[c] = roster.get(classNames[c]).size();
+        }
+        service = new RosterService(roster);
+        primary = new RosterPrimary(service.snapshot(), 0);
+        service.onCommit(primary);
+    }
+
+    /**
+     * Runs the test.
+     * @param args Command line arguments.
+     * @throws Exception If the sockets cannot be opened.
+     */
+    public static void main(String[] args) throws Exception {
+        int rows = 1_000_000, classes = 100, followerCount = 2, seconds = 10, batch = 256;
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 == args.length) {
+                usage();
+            }
+            switch (args[i]) {
+                case "--rows":
+                    rows = Integer.parseInt(args[++i]);
+                    break;
+                case "--classes":
+                    classes = Integer.parseInt(args[++i]);
+                    break;
+                case "--followers":
+                    followerCount = Integer.parseInt(args[++i]);
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--batch":
+                    batch = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    usage();
+            }
+        }
+        ReplicationLoadGenerator generator = new ReplicationLoadGenerator(RosterGenerator.generate(rows, classes, 42), batch);
+        boolean passed;
+        try {
+            passed = generator.run(followerCount, seconds, rows);
+        } finally {
+            generator.close();
+        }
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: ReplicationLoadGenerator [--rows <n>] [--classes <n>] [--followers <n>] [--seconds <n>] [--batch <n>]");
+        System.exit(2);
+    }
+
+    /**
+     * Runs the followers and the writer and prints the results.
+     * @return Whether every follower caught up and serves the same roster as the primary.
+     */
+    private boolean run(int followerCount, int seconds, int rows) throws InterruptedException {
+        long start = System.nanoTime();
+        for (int f = 0; f < followerCount; f++) {
+            Follower follower = new Follower();
+            followers.add(follower);
+            follower.follower.start();
+        }
+        for (Follower follower : followers) {
+            awaitOffset(follower, 0);
+        }
+        System.out.printf("%d followers caught up from a snapshot of %d students in %.2f s%n", followerCount, rows, (System.nanoTime() - start) / 1e9);
+
+        long sentBefore = primary.getSentBytes();
+        SplittableRandom random = new SplittableRandom(7);
+        List<CompletableFuture<Integer>> pending = new ArrayList<>();
+        long writeStart = System.nanoTime(), deadline = writeStart + seconds * 1_000_000_000L;
+        int batches = 0;
+        while (System.nanoTime() < deadline && batches < queued.length) {
+            List<RosterChange> changes = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize; i++) {
+                changes.add(randomChange(random));
+            }
+            queued[batches++] = System.nanoTime();
+            pending.add(service.apply(changes));
+            if (pending.size() == MAX_PENDING) { // Keep the writer from running far ahead of the service
+                pending.remove(0).join();
+            }
+        }
+        for (CompletableFuture<Integer> future : pending) {
+            future.join();
+        }
+        double committedSeconds = (System.nanoTime() - writeStart) / 1e9;
+        long changes = (long) batches * batchSize;
+        for (Follower follower : followers) {
+            awaitOffset(follower, primary.getOffset());
+        }
+        double replicatedSeconds = (System.nanoTime() - writeStart) / 1e9;
+        long sent = primary.getSentBytes() - sentBefore;
+        System.out.printf("%d changes in batches of %d: committed %.0f changes/s, replicated to %d followers %.0f changes/s%n",
+                changes, batchSize, changes / committedSeconds, followerCount, changes / replicatedSeconds);
+        System.out.printf("%.1f MB sent, %.1f bytes per change per follower, compressed %.1f times%n",
+                sent / 1e6, (double) sent / Math.max(1, changes * followerCount), primary.compressionRatio());
+        long[] all = allLags();
+        if (all.length > 0) {
+            System.out.printf("lag p50 %.2f ms, p99 %.2f ms, max %.2f ms%n", all[(int) (all.length * 0.50)] / 1e6,
+                    all[(int) (all.length * 0.99)] / 1e6, all[all.length - 1] / 1e6);
+        }
+
+        long joinStart = System.nanoTime();
+        Follower late = new Follower();
+        followers.add(late);
+        late.follower.start();
+        awaitOffset(late, primary.getOffset());
+        System.out.printf("A follower joining late caught up from a snapshot in %.2f s, %.1f MB%n", (System.nanoTime() - joinStart) / 1e9,
+                late.follower.getReceivedBytes() / 1e6);
+
+        service.apply(List.of( // Text the records must carry whole, line breaks included
+                RosterChange.addStudent(classNames[0], new Student(Integer.MAX_VALUE, "Line\nBreak, \"Quoted\"", "1 Main St\r\nApt 2")),
+                RosterChange.addClass("Evening,\nclass"))).join();
+        for (Follower follower : followers) {
+            awaitOffset(follower, primary.getOffset());
+        }
+        int mismatched = 0;
+        for (Follower follower : followers) {
+            follower.service.apply(List.of()).join(); // Published once the queued changes are
+            if (!sameRoster(service.snapshot().getClasses(), follower.service.snapshot().getClasses())) {
+                mismatched++;
+            }
+        }
+        System.out.println(mismatched == 0 ? "Every follower serves the same roster as the primary" : mismatched + " followers differ from the primary");
+        return mismatched == 0;
+    }
+
+    /**
+     * Creates a change to a random student: mostly edits, and some additions and deletions.
+     */
+    private RosterChange randomChange(SplittableRandom random) {
+        int c = random.nextInt(classNames.length);
+        int rollno = 1 + random.nextInt(Math.max(1, classSizes[c])); // Synthetic rosters number students from 1
+        int pick = random.nextInt(100);
+        if (pick < 90) {
+            return RosterChange.editStudent(classNames[c], new Student(rollno, "Replicated " + random.nextInt(1000), rollno + " Follower Rd"));
+        } else if (pick < 95) {
+            return RosterChange.deleteStudent(classNames[c], rollno);
+        } else { // Adds back a deleted student, or updates one
+            return RosterChange.addStudent(classNames[c], new Student(rollno, "Added " + random.nextInt(1000), rollno + " Primary St"));
+        }
+    }
+
+    /**
+     * Waits for a follower to apply the primary's changes up to an offset in its current epoch.
+     * @throws IllegalStateException If the follower has not caught up within {@value #CATCH_UP_SECONDS} s.
+     */
+    private void awaitOffset(Follower follower, long offset) throws InterruptedException {
+        long deadline = System.nanoTime() + CATCH_UP_SECONDS * 1_000_000_000L;
+        while (follower.follower.getEpoch() != primary.getEpoch() || follower.follower.getOffset() < offset) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("A follower is at offset " + follower.follower.getOffset() + " of epoch "
+                        + follower.follower.getEpoch() + " after " + CATCH_UP_SECONDS + " s, not at offset " + offset + " of epoch " + primary.getEpoch());
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private long[] allLags() {
+        int total = 0;
+        for (Follower follower : followers) {
+            total += follower.lagCount;
+        }
+        long[] all = new long[total];
+        int at = 0;
+        for (Follower follower : followers) {
+            System.arraycopy(follower.lags, 0, all, at, follower.lagCount);
+            at += follower.lagCount;
+        }
+        Arrays.sort(all);
+        return all;
+    }
+
+    /**
+     * Checks whether two rosters have the same classes with the same students in the same order.
+     */
+    private static boolean sameRoster(Map<String, StudentStore> expected, Map<String, StudentStore> actual) {
+        if (!expected.keySet().equals(actual.keySet())) {
+            return false;
+        }
+        for (Map.Entry<String, StudentStore> entry : expected.entrySet()) {
+            StudentStore a = entry.getValue(), b = actual.get(entry.getKey());
+            if (a.size() != b.size()) {
+                return false;
+            }
+            for (int i = 0; i < a.size(); i++) {
+                if (a.getRollno(i) != b.getRollno(i) || !a.getName(i).equals(b.getName(i)) || !a.getAddress(i).equals(b.getAddress(i))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void close() throws IOException {
+        for (Follower follower : followers) {
+            follower.follower.close();
+            follower.service.close();
+        }
+        primary.close();
+        service.close();
+    }
+}
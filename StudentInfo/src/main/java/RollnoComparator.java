@@ -3,9 +3,14 @@ import java.util.Comparator;
 /**
  * Comparator class to compare students by their roll numbers.
  */
-public class RollnoComparator implements Comparator<Student> { // Implement the Comparator interface
+public class RollnoComparator implements Comparator<Student>, IntSortKey { // Implement the Comparator and IntSortKey interfaces
     @Override
     public int compare(Student o1, Student o2) { // Implement the compare method
         return Integer.compare(o1.getRollno(), o2.getRollno()); // Compare the roll numbers of the students
     }
+
+    @Override
+    public int key(Student student) { // Implement the key method
+        return student.getRollno(); // The roll number is the sort key
+    }
 }
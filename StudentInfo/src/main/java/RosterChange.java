@@ -0,0 +1,472 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single change to the class roster, as recorded in the roster journal.
+ * Students are identified by class name and roll number. Changes are not idempotent: a rename replayed onto a roster
+ * that already reflects it may leave an extra class behind, so {@link RosterJournal} replays each change exactly once.
+ */
+public class RosterChange {
+    /**
+     * The kinds of change that can be made to a roster.
+     */
+    public enum Type {
+        ADD_CLASS, RENAME_CLASS, DELETE_CLASS, ADD_STUDENT, EDIT_STUDENT, DELETE_STUDENT, APPEND_STUDENT
+    }
+
+    private static final int FIELDS = 6; // Fields per journal line
+
+    private final Type type; // Kind of change
+    private final String className; // Class the change applies to
+    private final int rollno; // Roll number of the student, for student changes
+    private final String name; // New name of the student, for additions and edits
+    private final String address; // New address of the student, for additions and edits
+    private final String newClassName; // New name of the class, for renames
+    private final StudentStore restored; // Students of a deleted class to put back, for undoing a deletion, or null
+
+    private RosterChange(Type type, String className, int rollno, String name, String address, String newClassName) {
+        this(type, className, rollno, name, address, newClassName, null);
+    }
+
+    private RosterChange(Type type, String className, int rollno, String name, String address, String newClassName, StudentStore restored) {
+        this.type = type;
+        this.className = className;
+        this.rollno = rollno;
+        this.name = name;
+        this.address = address;
+        this.newClassName = newClassName;
+        this.restored = restored;
+    }
+
+    /**
+     * Creates a change that adds an empty class.
+     * @param className The name of the class.
+     * @return The change.
+     */
+    public static RosterChange addClass(String className) {
+        return new RosterChange(Type.ADD_CLASS, className, 0, "", "", "");
+    }
+
+    /**
+     * Creates a change that renames a class.
+     * @param className The current name of the class.
+     * @param newClassName The new name of the class.
+     * @return The change.
+     */
+    public static RosterChange renameClass(String className, String newClassName) {
+        return new RosterChange(Type.RENAME_CLASS, className, 0, "", "", newClassName);
+    }
+
+    /**
+     * Creates a change that deletes a class and all of its students.
+     * @param className The name of the class.
+     * @return The change.
+     */
+    public static RosterChange deleteClass(String className) {
+        return new RosterChange(Type.DELETE_CLASS, className, 0, "", "", "");
+    }
+
+    /**
+     * Creates a change that adds a student to a class, creating the class if needed.
+     * @param className The name of the class.
+     * @param student The student to add.
+     * @return The change.
+     */
+    public static RosterChange addStudent(String className, Student student) {
+        return new RosterChange(Type.ADD_STUDENT, className, student.getRollno(), student.getName(), student.getAddress(), "");
+    }
+
+    /**
+     * Creates a change that sets the name and address of a student.
+     * @param className The name of the class.
+     * @param student The student with its new name and address.
+     * @return The change.
+     */
+    public static RosterChange editStudent(String className, Student student) {
+        return new RosterChange(Type.EDIT_STUDENT, className, student.getRollno(), student.getName(), student.getAddress(), "");
+    }
+
+    /**
+     * Creates a change that removes a student from a class.
+     * @param className The name of the class.
+     * @param rollno The roll number of the student.
+     * @return The change.
+     */
+    public static RosterChange deleteStudent(String className, int rollno) {
+        return new RosterChange(Type.DELETE_STUDENT, className, rollno, "", "", "");
+    }
+
+    /**
+     * Creates a change that adds a student at the end of a class, creating the class if needed, even if the class
+     * already has a student with the roll number. Restored classes are spelled out with it, see {@link #expandRestores}.
+     * @param className The name of the class.
+     * @param student The student to add.
+     * @return The change.
+     */
+    static RosterChange appendStudent(String className, Student student) {
+        return new RosterChange(Type.APPEND_STUDENT, className, student.getRollno(), student.getName(), student.getAddress(), "");
+    }
+
+    /**
+     * Creates a change that puts a deleted class back with the students it had, which is how a deletion is undone.
+     * It replaces the class if it exists again, and otherwise adds it at the end like {@link #addClass}, with the given
+     * store, so undoing costs nothing however large the class is; {@link #expandRestores} spells it out as one change
+     * per student for the journal.
+     * @param className The name of the class.
+     * @param students The store the class had when it was deleted; it must not have changed since.
+     * @return The change.
+     */
+    static RosterChange restoreClass(String className, StudentStore students) {
+        return new RosterChange(Type.ADD_CLASS, className, 0, "", "", "", students);
+    }
+
+    /**
+     * Returns changes with every restored class spelled out as deleting the class, adding it and appending each of its
+     * students, the form the journal and the roster service record. Appending keeps students that share a roll number,
+     * so replaying the changes gives the same class as the restored store.
+     * @param changes The changes, possibly holding restored classes.
+     * @return The changes, or the same list if none restores a class.
+     */
+    public static List<RosterChange> expandRestores(List<RosterChange> changes) {
+        List<RosterChange> expanded = null; // Created at the first restored class
+        for (int i = 0; i < changes.size(); i++) {
+            RosterChange change = changes.get(i);
+            if (change.restored != null && expanded == null) {
+                expanded = new ArrayList<>(changes.subList(0, i));
+            }
+            if (expanded != null) {
+                if (change.restored != null) {
+                    expanded.add(deleteClass(change.className)); // A class that exists again is replaced
+                    expanded.add(addClass(change.className));
+                    for (int j = 0; j < change.restored.size(); j++) {
+                        expanded.add(appendStudent(change.className, change.restored.get(j)));
+                    }
+                } else {
+                    expanded.add(change);
+                }
+            }
+        }
+        return expanded != null ? expanded : changes;
+    }
+
+    /**
+     * Applies changes to a roster in order, with the same result as applying each of them with {@link #applyTo}.
+     * Students are found through one roll number map per class rather than by scanning the class for every change,
+     * so a batch costs time in proportion to its size.
+     * @param changes The changes to apply.
+     * @param classMap The roster to change, mapping class names to students.
+     */
+    public static void applyAll(List<RosterChange> changes, Map<String, StudentStore> classMap) {
+        Applier applier = new Applier(classMap);
+        for (RosterChange change : changes) {
+            applier.apply(change);
+        }
+    }
+
+    /**
+     * Applies changes to a roster like {@link #applyAll} and returns the changes that undo them.
+     * Undoing a class deletion puts the class's store back, and a deleted student that is brought back goes to the end
+     * of its class. An appended student that shares its roll number with an earlier one cannot be undone on its own,
+     * since student changes reach the first student with a roll number; such appends only come from restored classes
+     * spelled out by {@link #expandRestores}, which are not undone.
+     * @param changes The changes to apply.
+     * @param classMap The roster to change, mapping class names to students.
+     * @return The changes that bring the roster back to how it was, in the order to apply them.
+     */
+    public static List<RosterChange> applyAllAndInvert(List<RosterChange> changes, Map<String, StudentStore> classMap) {
+        Applier applier = new Applier(classMap);
+        List<RosterChange> undo = new ArrayList<>(changes.size());
+        for (RosterChange change : changes) {
+            RosterChange inverse = applier.applyAndInvert(change);
+            if (inverse != null) {
+                undo.add(inverse);
+            }
+        }
+        Collections.reverse(undo); // The last change is undone first
+        return undo;
+    }
+
+    // Getters for the change's attributes
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public int getRollno() {
+        return rollno;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public String getNewClassName() {
+        return newClassName;
+    }
+
+    /**
+     * Applies this change to a roster.
+     * @param classMap The roster to change, mapping class names to students.
+     */
+    public void applyTo(Map<String, StudentStore> classMap) {
+        switch (type) {
+            case ADD_CLASS:
+                if (restored != null) { // Replaces the class, moving it to the end like a deletion and an addition
+                    classMap.remove(className);
+                    classMap.put(className, restored);
+                } else {
+                    classMap.computeIfAbsent(className, k -> new StudentStore()); // Keep the class if it already exists
+                }
+                break;
+            case RENAME_CLASS:
+                if (classMap.containsKey(className) && !classMap.containsKey(newClassName)) { // Already renamed otherwise
+                    classMap.put(newClassName, classMap.remove(className));
+                }
+                break;
+            case DELETE_CLASS:
+                classMap.remove(className);
+                break;
+            case ADD_STUDENT: {
+                StudentStore students = classMap.computeIfAbsent(className, k -> new StudentStore());
+                int index = indexOf(students, rollno);
+                if (index < 0) { // New student
+                    students.add(new Student(rollno, name, address));
+                } else { // Already added, so only update the details
+                    students.setName(index, name);
+                    students.setAddress(index, address);
+                }
+                break;
+            }
+            case EDIT_STUDENT: {
+                StudentStore students = classMap.get(className);
+                int index = students == null ? -1 : indexOf(students, rollno);
+                if (index >= 0) { // Ignore edits of students that no longer exist
+                    students.setName(index, name);
+                    students.setAddress(index, address);
+                }
+                break;
+            }
+            case DELETE_STUDENT: {
+                StudentStore students = classMap.get(className);
+                int index = students == null ? -1 : indexOf(students, rollno);
+                if (index >= 0) {
+                    students.remove(index);
+                }
+                break;
+            }
+            case APPEND_STUDENT:
+                classMap.computeIfAbsent(className, k -> new StudentStore()).add(new Student(rollno, name, address));
+                break;
+        }
+    }
+
+    /**
+     * Finds a student by roll number.
+     * @param students The students to search.
+     * @param rollno The roll number to find.
+     * @return The index of the first student with the roll number, or -1 if there is none.
+     */
+    static int indexOf(StudentStore students, int rollno) {
+        int[] rollnos = students.rollnoColumn(); // Scan the roll number column directly
+        for (int i = 0; i < students.size(); i++) {
+            if (rollnos[i] == rollno) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Formats this change as one journal line.
+     * @return The CSV line, without a line terminator.
+     */
+    public String toCsv() {
+        return CsvCodec.join(type.name(), className, String.valueOf(rollno), name, address, newClassName);
+    }
+
+    /**
+     * Parses a journal line written by {@link #toCsv}.
+     * @param line The UTF-8 bytes holding the line.
+     * @param from The index of the first byte of the line.
+     * @param to The index after the last byte of the line.
+     * @return The change described by the line.
+     * @throws IllegalArgumentException If the line is not a valid change.
+     */
+    public static RosterChange parse(byte[] line, int from, int to) {
+        int[] bounds = new int[2 * FIELDS]; // Field bounds of the line
+        int fields = CsvCodec.split(line, from, to, bounds);
+        if (fields != FIELDS) { // Torn or foreign lines
+            throw new IllegalArgumentException("Expected " + FIELDS + " fields but found " + fields);
+        }
+        Type type = Type.valueOf(CsvCodec.field(line, bounds, 0)); // Throws IllegalArgumentException for unknown types
+        return new RosterChange(type, CsvCodec.field(line, bounds, 1), CsvCodec.parseInt(line, bounds, 2),
+                CsvCodec.field(line, bounds, 3), CsvCodec.field(line, bounds, 4), CsvCodec.field(line, bounds, 5));
+    }
+
+    @Override
+    public String toString() {
+        return "RosterChange{" + toCsv() + '}';
+    }
+
+    /**
+     * Applies changes to one roster in turn, finding students through the {@link StudentIndex} of their class if it
+     * has one, and otherwise through a map from roll number to first position that is built for a class when it is
+     * first changed and kept up to date as students are appended. Removing a student drops the map of its class, since
+     * the later students moved, while an index moves them along.
+     */
+    public static final class Applier {
+        private final Map<String, StudentStore> classMap; // Roster being changed
+        private final Map<StudentStore, IntIntHashMap> positions = new IdentityHashMap<>(); // First position of each roll number, per class changed
+
+        /**
+         * Constructor to change a roster.
+         * @param classMap The roster to change; its stores must change only through this applier while it is in use,
+         *                 although classes may be replaced with copies of themselves.
+         */
+        public Applier(Map<String, StudentStore> classMap) {
+            this.classMap = classMap;
+        }
+
+        /**
+         * Applies a change, with the same result as {@link RosterChange#applyTo}.
+         * @param change The change to apply.
+         */
+        public void apply(RosterChange change) {
+            switch (change.type) {
+                case ADD_STUDENT: {
+                    StudentStore students = classMap.computeIfAbsent(change.className, k -> new StudentStore());
+                    int index = positionOf(students, change.rollno);
+                    if (index < 0) { // New student
+                        students.add(new Student(change.rollno, change.name, change.address));
+                        IntIntHashMap map = positions.get(students);
+                        if (map != null) { // An index keeps itself up to date
+                            map.put(change.rollno, students.size() - 1);
+                        }
+                    } else { // Already added, so only update the details
+                        students.setName(index, change.name);
+                        students.setAddress(index, change.address);
+                    }
+                    break;
+                }
+                case EDIT_STUDENT: {
+                    StudentStore students = classMap.get(change.className);
+                    int index = students == null ? -1 : positionOf(students, change.rollno);
+                    if (index >= 0) { // Ignore edits of students that no longer exist
+                        students.setName(index, change.name);
+                        students.setAddress(index, change.address);
+                    }
+                    break;
+                }
+                case DELETE_STUDENT: {
+                    StudentStore students = classMap.get(change.className);
+                    int index = students == null ? -1 : positionOf(students, change.rollno);
+                    if (index >= 0) {
+                        students.remove(index);
+                        positions.remove(students); // Later students moved up
+                    }
+                    break;
+                }
+                case APPEND_STUDENT: {
+                    StudentStore students = classMap.computeIfAbsent(change.className, k -> new StudentStore());
+                    students.add(new Student(change.rollno, change.name, change.address));
+                    IntIntHashMap map = positions.get(students);
+                    if (map != null && map.get(change.rollno) == IntIntHashMap.MISSING) { // Only the first position is kept
+                        map.put(change.rollno, students.size() - 1);
+                    }
+                    break;
+                }
+                default: // Class changes do not move students
+                    change.applyTo(classMap);
+            }
+        }
+
+        /**
+         * Applies a change and returns the change that undoes it.
+         * @param change The change to apply.
+         * @return The inverse change, or null if the change had no effect.
+         */
+        public RosterChange applyAndInvert(RosterChange change) {
+            RosterChange inverse = null;
+            StudentStore students = classMap.get(change.className); // Class before the change, or null
+            switch (change.type) {
+                case ADD_CLASS:
+                    if (students == null) {
+                        inverse = deleteClass(change.className);
+                    } else if (change.restored != null) { // The restored store replaces the class
+                        inverse = restoreClass(change.className, students);
+                    }
+                    break;
+                case RENAME_CLASS:
+                    if (students != null && !classMap.containsKey(change.newClassName)) {
+                        inverse = renameClass(change.newClassName, change.className);
+                    }
+                    break;
+                case DELETE_CLASS:
+                    if (students != null) {
+                        inverse = restoreClass(change.className, students);
+                    }
+                    break;
+                case APPEND_STUDENT:
+                    if (students == null) {
+                        inverse = deleteClass(change.className);
+                    } else if (positionOf(students, change.rollno) < 0) {
+                        inverse = deleteStudent(change.className, change.rollno);
+                    }
+                    break;
+                case ADD_STUDENT: {
+                    int index = students == null ? -1 : positionOf(students, change.rollno);
+                    if (students == null) { // The class is created for the student
+                        inverse = deleteClass(change.className);
+                    } else if (index < 0) {
+                        inverse = deleteStudent(change.className, change.rollno);
+                    } else { // Updates the student
+                        inverse = new RosterChange(Type.EDIT_STUDENT, change.className, change.rollno, students.getName(index), students.getAddress(index), "");
+                    }
+                    break;
+                }
+                case EDIT_STUDENT:
+                case DELETE_STUDENT: {
+                    int index = students == null ? -1 : positionOf(students, change.rollno);
+                    if (index >= 0) {
+                        Type type = change.type == Type.EDIT_STUDENT ? Type.EDIT_STUDENT : Type.ADD_STUDENT; // A deleted student is added back
+                        inverse = new RosterChange(type, change.className, change.rollno, students.getName(index), students.getAddress(index), "");
+                    }
+                    break;
+                }
+            }
+            apply(change);
+            return inverse;
+        }
+
+        /**
+         * Finds the first student of a class with a roll number, mapping the class first if needed.
+         */
+        private int positionOf(StudentStore students, int rollno) {
+            StudentIndex index = students.builtIndex();
+            if (index != null) { // The store keeps its index in sync
+                return index.positionOf(rollno);
+            }
+            IntIntHashMap map = positions.get(students);
+            if (map == null) {
+                map = new IntIntHashMap(students.size());
+                int[] rollnos = students.rollnoColumn(); // Scan the roll number column directly
+                for (int i = students.size() - 1; i >= 0; i--) { // Backwards, so the first position of a roll number is kept
+                    map.put(rollnos[i], i);
+                }
+                positions.put(students, map);
+            }
+            return map.get(rollno);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Headless roster operations: load, merge, sort, dedupe and save, for use without the user interface.
+ * These work on whole rosters in memory, mapping class names to students; {@link RosterPipeline} runs the same
+ * operations as a stream for rosters larger than the heap.
+ */
+public class RosterEngine {
+    /**
+     * Loads a roster file, skipping CSV lines that cannot be parsed.
+     * @param path The path of the roster file; files ending in {@value BinaryRoster#EXTENSION} are binary, others CSV.
+     * @return A map of class names to students, in file order.
+     * @throws IOException If the file cannot be read.
+     */
+    public static Map<String, StudentStore> load(Path path) throws IOException {
+        return load(path, new RosterReader());
+    }
+
+    /**
+     * Loads a roster file. A CSV file is parsed with the given reader, which reports malformed lines and progress as
+     * configured; a binary roster is opened at once and its classes are loaded when first accessed.
+     * @param path The path of the roster file; files ending in {@value BinaryRoster#EXTENSION} are binary, others CSV.
+     * @param reader The reader to parse a CSV file with.
+     * @return A map of class names to students, in file order.
+     * @throws IOException If the file cannot be read.
+     */
+    public static Map<String, StudentStore> load(Path path, RosterReader reader) throws IOException {
+        try (RosterMetrics.Sample sample = RosterMetrics.LOAD.start(path.toString())) {
+            if (BinaryRoster.isBinary(path)) { // Only the table is read; classes are counted by RosterMetrics.LOAD_CLASS
+                return BinaryRoster.open(path).classMap();
+            }
+            Map<String, StudentStore> roster = reader.read(path);
+            sample.rows(countStudents(roster)).bytes(Files.size(path));
+            return roster;
+        }
+    }
+
+    /**
+     * Merges one roster into another. Students of classes in both are appended to the target's class; classes only
+     * in the source are added after the target's classes.
+     * @param target The roster to merge into.
+     * @param source The roster to merge; its stores may be taken over by the target.
+     */
+    public static void merge(Map<String, StudentStore> target, Map<String, StudentStore> source) {
+        for (Map.Entry<String, StudentStore> entry : source.entrySet()) {
+            StudentStore students = target.get(entry.getKey());
+            if (students == null) { // New class, so take over its store
+                target.put(entry.getKey(), entry.getValue());
+            } else {
+                students.addAll(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Sorts the students of every class.
+     * @param roster The roster to sort.
+     * @param comparator The order to sort each class in.
+     */
+    public static void sort(Map<String, ? extends List<Student>> roster, Comparator<Student> comparator) {
+        for (List<Student> students : roster.values()) {
+            SelectionSort.sort(students, comparator);
+        }
+    }
+
+    /**
+     * Removes duplicate students from every class. Students of a class with the same roll number are duplicates, and
+     * the last of them wins, as when a later import corrects an earlier one.
+     * @param roster The roster to dedupe.
+     * @return The number of students removed.
+     */
+    public static long dedupe(Map<String, StudentStore> roster) {
+        long removed = 0;
+        for (Map.Entry<String, StudentStore> entry : roster.entrySet()) {
+            StudentStore students = entry.getValue();
+            StudentStore unique = dedupe(students);
+            removed += students.size() - unique.size();
+            entry.setValue(unique);
+        }
+        return removed;
+    }
+
+    /**
+     * Removes students whose roll number appears again later in the class.
+     * @param students The students of one class.
+     * @return The remaining students in their original order, or the given store if there were no duplicates.
+     */
+    public static StudentStore dedupe(StudentStore students) {
+        IntIntHashMap last = new IntIntHashMap(students.size()); // Last position of each roll number
+        for (int i = 0; i < students.size(); i++) {
+            last.put(students.getRollno(i), i);
+        }
+        if (last.size() == students.size()) { // No duplicates
+            return students;
+        }
+        StudentStore unique = new StudentStore(last.size());
+        for (int i = 0; i < students.size(); i++) {
+            if (last.get(students.getRollno(i)) == i) {
+                unique.add(new Student(students.getRollno(i), students.getName(i), students.getAddress(i)));
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * Saves a roster to a file, replacing it atomically.
+     * @param path The path of the roster file; files ending in {@value BinaryRoster#EXTENSION} are binary, others CSV.
+     * @param roster The roster to save.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void save(Path path, Map<String, ? extends List<Student>> roster) throws IOException {
+        save(path, roster, () -> false);
+    }
+
+    /**
+     * Saves a roster to a file, replacing it atomically unless the save is cancelled first.
+     * @param path The path of the roster file; files ending in {@value BinaryRoster#EXTENSION} are binary, others CSV.
+     * @param roster The roster to save.
+     * @param cancelled Returns true once the save should stop; the file is then left unchanged.
+     * @throws IOException If the file cannot be written.
+     * @throws IllegalArgumentException If a CSV roster would hold a line break, see {@link CsvCodec#checkNoLineBreak}.
+     */
+    public static void save(Path path, Map<String, ? extends List<Student>> roster, BooleanSupplier cancelled) throws IOException {
+        try (RosterMetrics.Sample sample = RosterMetrics.SAVE.start(path.toString())) {
+            if (BinaryRoster.isBinary(path)) {
+                BinaryRoster.write(path, roster, cancelled);
+            } else {
+                RosterWriter.write(path, roster, cancelled);
+            }
+            if (!cancelled.getAsBoolean()) { // Otherwise the file was left as it was
+                sample.rows(countStudents(roster)).bytes(Files.size(path));
+            }
+        }
+    }
+
+    /**
+     * Converts a roster file between CSV and the binary format, each chosen by the file's extension.
+     * A binary roster is converted to CSV one class at a time, so only the largest class needs to fit in memory.
+     * @param source The roster file to read.
+     * @param target The roster file to write, replaced atomically.
+     * @param reader The reader to parse a CSV source with.
+     * @return The number of students converted.
+     * @throws IOException If a file cannot be read or written.
+     */
+    public static long convert(Path source, Path target, RosterReader reader) throws IOException {
+        if (!BinaryRoster.isBinary(source)) {
+            Map<String, StudentStore> roster = reader.read(source);
+            save(target, roster);
+            return countStudents(roster);
+        }
+        BinaryRoster roster = BinaryRoster.open(source);
+        if (BinaryRoster.isBinary(target)) { // Copies the classes without decoding them
+            BinaryRoster.ClassMap classes = roster.classMap();
+            BinaryRoster.write(target, classes);
+            return classes.studentCount();
+        }
+        try (RosterWriter writer = RosterWriter.open(target)) { // Stream class by class
+            for (int c = 0; c < roster.classCount(); c++) {
+                StudentStore students = roster.load(c);
+                for (int i = 0; i < students.size(); i++) {
+                    writer.write(roster.className(c), students.getRollno(i), students.getName(i), students.getAddress(i));
+                }
+            }
+            writer.commit();
+            return writer.getWritten();
+        }
+    }
+
+    /**
+     * Counts the students of a roster without loading the classes of a binary roster.
+     * @param roster The roster.
+     * @return The number of students in all classes.
+     */
+    public static long countStudents(Map<String, ? extends List<Student>> roster) {
+        if (roster instanceof BinaryRoster.ClassMap) {
+            return ((BinaryRoster.ClassMap) roster).studentCount();
+        }
+        long count = 0;
+        for (List<Student> students : roster.values()) {
+            count += students.size();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the comparator for a sort key given by name, as used on the command line.
+     * @param key "name" or "rollno".
+     * @return The comparator.
+     * @throws IllegalArgumentException If the key is unknown.
+     */
+    public static Comparator<Student> comparator(String key) {
+        switch (key) {
+            case "name":
+                return new NameComparator();
+            case "rollno":
+                return new RollnoComparator();
+            default:
+                throw new IllegalArgumentException("Unknown sort key: " + key + " (expected name or rollno)");
+        }
+    }
+}
@@ -0,0 +1,229 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.Inflater;
+
+/**
+ * Keeps a copy of a {@link RosterPrimary}'s roster up to date over TCP, so it can be served to readers elsewhere.
+ * The follower connects to the primary with the epoch and offset it has applied up to and receives the batches of
+ * changes committed since, or a snapshot of the whole roster first if it is new or too far behind. Snapshots are
+ * built into a new roster and handed over once complete; batches are handed over as they arrive, in order, to be
+ * applied incrementally, for example with {@link RosterService#apply}. After a lost connection the follower
+ * reconnects, waiting longer after each failure up to {@value #MAX_RETRY_MILLIS} ms, and resumes where it stopped.
+ * Usage: {@code new RosterFollower(host, port).onSnapshot(service::replace).onChanges(service::apply).start()}.
+ */
+public class RosterFollower implements Closeable {
+    private static final long MIN_RETRY_MILLIS = 100; // Wait before the first reconnection
+    private static final long MAX_RETRY_MILLIS = 5000; // Longest wait between reconnections
+
+    private final String host; // Host of the primary
+    private final int port; // Port of the primary
+    private Consumer<Map<String, StudentStore>> snapshotListener = roster -> { }; // Takes over each new roster
+    private Consumer<List<RosterChange>> changeListener = changes -> { }; // Applies each batch
+    private Thread thread; // Receives from the primary, or null until started
+    private volatile Socket socket; // Current connection, or null
+    private volatile boolean closed; // Whether close() was called
+    private volatile boolean connected; // Whether the follower is connected to the primary
+    private volatile long epoch; // Epoch of the roster applied, 0 before the first snapshot
+    private volatile long offset; // Changes applied in that epoch
+    private volatile long appliedChanges; // Changes of batches handed over
+    private volatile long receivedBytes; // Bytes read from the primary
+    private volatile long snapshots; // Snapshots received
+
+    /**
+     * Constructor to create a follower of a primary; nothing happens until it is started.
+     * @param host The host of the primary.
+     * @param port The port the primary listens on.
+     */
+    public RosterFollower(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Sets the listener that takes over each roster received as a snapshot, replacing the one it had.
+     * @param listener Called on the follower's thread with the new roster, which it may keep and change.
+     * @return This follower.
+     */
+    public RosterFollower onSnapshot(Consumer<Map<String, StudentStore>> listener) {
+        this.snapshotListener = listener;
+        return this;
+    }
+
+    /**
+     * Sets the listener that applies each batch of changes received, in order, to the last roster taken over.
+     * @param listener Called on the follower's thread with the changes.
+     * @return This follower.
+     */
+    public RosterFollower onChanges(Consumer<List<RosterChange>> listener) {
+        this.changeListener = listener;
+        return this;
+    }
+
+    /**
+     * Starts following the primary on a thread of its own.
+     * @return This follower.
+     */
+    public RosterFollower start() {
+        if (thread != null) {
+            throw new IllegalStateException("Follower is already started");
+        }
+        thread = Thread.ofPlatform().name("roster-follower").daemon(true).start(this::follow);
+        return this;
+    }
+
+    // Getters for the position of the follower and the traffic so far
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getAppliedChanges() {
+        return appliedChanges;
+    }
+
+    public long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    public long getSnapshots() {
+        return snapshots;
+    }
+
+    /**
+     * Stops following the primary; the roster taken over keeps what was applied.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) { // Closing anyway
+            }
+        }
+        if (thread != null) {
+            thread.interrupt(); // Cuts a wait between reconnections short
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Connects to the primary and receives from it until closed, reconnecting after failures.
+     */
+    private void follow() {
+        long retryMillis = MIN_RETRY_MILLIS;
+        while (!closed) {
+            try (Socket connection = new Socket(host, port)) {
+                socket = connection;
+                if (closed) { // Closed while connecting
+                    return;
+                }
+                connection.setTcpNoDelay(true); // The hello is written in one piece
+                connection.setKeepAlive(true); // Notice a primary that vanishes
+                receive(connection);
+                retryMillis = MIN_RETRY_MILLIS;
+            } catch (IOException e) {
+                if (closed) {
+                    return;
+                }
+                String reason = e instanceof EOFException ? "closed by the primary" : e.getMessage();
+                System.err.println("Lost connection to primary " + host + ":" + port + ": " + reason + "; retrying in " + retryMillis + " ms");
+            } finally {
+                socket = null;
+                connected = false;
+            }
+            try {
+                Thread.sleep(retryMillis);
+            } catch (InterruptedException e) { // Closed
+                return;
+            }
+            retryMillis = Math.min(MAX_RETRY_MILLIS, 2 * retryMillis);
+        }
+    }
+
+    /**
+     * Sends the hello and applies frames until the connection fails.
+     */
+    private void receive(Socket connection) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+        ReplicationCodec.writeHello(out, epoch, offset);
+        connected = true;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(), 1 << 16));
+        Inflater inflater = new Inflater();
+        try {
+            Map<String, StudentStore> building = null; // Roster of the snapshot being received, or null
+            StudentStore filling = null; // Class of the snapshot students are being added to
+            long snapshotEpoch = 0, snapshotOffset = 0; // Where the snapshot being received is at
+            while (true) {
+                ReplicationCodec.Frame frame = ReplicationCodec.read(in, inflater);
+                receivedBytes += frame.wireBytes;
+                switch (frame.type) {
+                    case ReplicationCodec.SNAPSHOT_START:
+                        building = new LinkedHashMap<>();
+                        snapshotEpoch = frame.epoch;
+                        snapshotOffset = frame.offset;
+                        break;
+                    case ReplicationCodec.SNAPSHOT_CHUNK:
+                        if (building == null) {
+                            throw new IOException("Snapshot chunk outside a snapshot");
+                        }
+                        for (RosterChange change : frame.changes) { // Added as they are, since a class may repeat a roll number
+                            if (change.getType() == RosterChange.Type.ADD_CLASS) {
+                                filling = new StudentStore();
+                                building.put(change.getClassName(), filling);
+                            } else if (filling != null) { // The students of the class added last
+                                filling.add(new Student(change.getRollno(), change.getName(), change.getAddress()));
+                            }
+                        }
+                        break;
+                    case ReplicationCodec.SNAPSHOT_END:
+                        if (building == null) {
+                            throw new IOException("Snapshot end outside a snapshot");
+                        }
+                        snapshotListener.accept(building);
+                        epoch = snapshotEpoch;
+                        offset = snapshotOffset;
+                        snapshots++;
+                        building = null;
+                        filling = null;
+                        break;
+                    default: // A batch
+                        if (building != null || epoch == 0 || frame.offset != offset) {
+                            throw new IOException("Expected changes from offset " + offset + " but got them from " + frame.offset);
+                        }
+                        try (RosterMetrics.Sample sample = RosterMetrics.REPLICATE.start("follower")) {
+                            changeListener.accept(frame.changes);
+                            sample.rows(frame.changes.size()).bytes(frame.wireBytes);
+                        }
+                        offset += frame.changes.size();
+                        appliedChanges += frame.changes.size();
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Generates synthetic class rosters for benchmarks and load tests.
+ * The same size and seed always give the same roster, so measurements can be compared across releases.
+ * Roll numbers are a random permutation and names and addresses are drawn from small word lists, so sorting has
+ * real work to do and names share prefixes the way real ones do.
+ */
+public class RosterGenerator {
+    private static final String[] FIRST_NAMES = {"John", "Jane", "Alice", "Bob", "Charlie", "Diana", "Frank", "Grace",
+            "Henry", "Ivy", "Jack", "Karen", "Liam", "Mia", "Noah", "Olivia", "Peter", "Quinn", "Ruth", "Sam", "Tara",
+            "Uma", "Victor", "Wendy", "Xavier", "Yara", "Zoe", "Émile", "Søren", "Zoë"}; // Includes non-ASCII names
+    private static final String[] LAST_NAMES = {"Doe", "Smith", "Johnson", "Brown", "Davis", "Evans", "Green",
+            "Harris", "Lee", "Miller", "Wilson", "Moore", "Taylor", "Anderson", "Thomas", "Jackson", "White", "Martin",
+            "Thompson", "Garcia", "Martinez", "Robinson", "Clark", "Lewis", "Walker", "O'Neil", "Müller", "Núñez"};
+    private static final String[] STREETS = {"Main St", "Oak St", "Pine St", "Maple St", "Elm St", "Cedar St",
+            "Spruce St", "Birch St", "Aspen St", "Walnut St", "Lake Rd", "Hill Ave", "Park Blvd", "River Ln"};
+
+    /**
+     * Generates the students of one class.
+     * @param rows The number of students.
+     * @param seed The seed of the random generator.
+     * @return The class, with roll numbers 1 to rows in random order.
+     */
+    public static StudentStore generateClass(int rows, long seed) {
+        return generateClass(rows, new SplittableRandom(seed));
+    }
+
+    /**
+     * Generates a roster with the given number of students spread evenly over classes.
+     * @param rows The total number of students.
+     * @param classes The number of classes.
+     * @param seed The seed of the random generator.
+     * @return A map of class names to students, in class order.
+     */
+    public static Map<String, StudentStore> generate(int rows, int classes, long seed) {
+        if (classes <= 0) {
+            throw new IllegalArgumentException("Number of classes must be positive: " + classes);
+        }
+        SplittableRandom random = new SplittableRandom(seed);
+        Map<String, StudentStore> roster = new LinkedHashMap<>();
+        for (int c = 0; c < classes; c++) {
+            int classRows = rows / classes + (c < rows % classes ? 1 : 0); // The first classes take the remainder
+            roster.put("Class " + (101 + c), generateClass(classRows, random.split()));
+        }
+        return roster;
+    }
+
+    /**
+     * Generates the students of one class from the given random generator.
+     */
+    private static StudentStore generateClass(int rows, SplittableRandom random) {
+        int[] rollnos = new int[rows]; // Roll numbers 1 to rows, shuffled
+        for (int i = 0; i < rows; i++) {
+            rollnos[i] = i + 1;
+        }
+        for (int i = rows - 1; i > 0; i--) { // Fisher-Yates shuffle
+            int j = random.nextInt(i + 1);
+            int swap = rollnos[i];
+            rollnos[i] = rollnos[j];
+            rollnos[j] = swap;
+        }
+        StudentStore store = new StudentStore(rows);
+        for (int i = 0; i < rows; i++) {
+            byte[] name = (pick(FIRST_NAMES, random) + " " + pick(LAST_NAMES, random)).getBytes(StandardCharsets.UTF_8);
+            byte[] address = ((1 + random.nextInt(9999)) + " " + pick(STREETS, random)).getBytes(StandardCharsets.UTF_8);
+            byte[] row = new byte[name.length + address.length]; // Both fields in one array, as the reader passes them
+            System.arraycopy(name, 0, row, 0, name.length);
+            System.arraycopy(address, 0, row, name.length, address.length);
+            store.add(rollnos[i], row, 0, name.length, name.length, address.length);
+        }
+        return store;
+    }
+
+    private static String pick(String[] words, SplittableRandom random) {
+        return words[random.nextInt(words.length)];
+    }
+
+    /**
+     * Writes a synthetic roster to a CSV file.
+     * Usage: {@code RosterGenerator <rows> <classes> <seed> <file>}
+     * @param args Command line arguments.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 4) {
+            System.err.println("Usage: RosterGenerator <rows> <classes> <seed> <file>");
+            System.exit(2);
+        }
+        Map<String, StudentStore> roster = generate(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Long.parseLong(args[2]));
+        RosterWriter.write(Paths.get(args[3]), roster);
+        System.out.println("Wrote " + args[0] + " students in " + roster.size() + " classes to " + args[3]);
+    }
+}
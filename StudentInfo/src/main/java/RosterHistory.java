@@ -0,0 +1,99 @@
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The undo and redo history of the Student Manager window.
+ * Each step is one action of the user, kept as the changes that undo it, which {@link RosterChange#applyAllAndInvert}
+ * works out while the action is applied. A step therefore costs memory in proportion to what it changed rather than to
+ * the roster: editing one student of a large class keeps one change, and deleting a class keeps its store, not a copy.
+ * Undoing a step applies its changes and keeps their inverse for redoing it, and redoing does the reverse, so the
+ * history has no limit. Must be used on the thread that changes the roster.
+ */
+public class RosterHistory {
+    private final Deque<Step> undoSteps = new ArrayDeque<>(); // Steps that can be undone, latest first
+    private final Deque<Step> redoSteps = new ArrayDeque<>(); // Steps that were undone, latest first
+
+    /**
+     * Records an action that was applied, forgetting the steps that were undone before it.
+     * @param description What the action did, such as "Delete Class Art", for the Undo menu item.
+     * @param undo The changes that undo the action, see {@link RosterChange#applyAllAndInvert}; an empty list, for an
+     *             action that changed nothing, is not recorded.
+     */
+    public void record(String description, List<RosterChange> undo) {
+        if (!undo.isEmpty()) {
+            undoSteps.push(new Step(description, undo));
+            redoSteps.clear();
+        }
+    }
+
+    /**
+     * Undoes the latest step.
+     * @param classMap The roster to change.
+     * @return The changes applied, to record in the journal after {@link RosterChange#expandRestores}.
+     * @throws IllegalStateException If there is nothing to undo.
+     */
+    public List<RosterChange> undo(Map<String, StudentStore> classMap) {
+        return move(undoSteps, redoSteps, classMap, "undo");
+    }
+
+    /**
+     * Redoes the latest step that was undone.
+     * @param classMap The roster to change.
+     * @return The changes applied, to record in the journal after {@link RosterChange#expandRestores}.
+     * @throws IllegalStateException If there is nothing to redo.
+     */
+    public List<RosterChange> redo(Map<String, StudentStore> classMap) {
+        return move(redoSteps, undoSteps, classMap, "redo");
+    }
+
+    /**
+     * Returns what the next undo would undo.
+     * @return The description of the step, or null if there is nothing to undo.
+     */
+    public String undoDescription() {
+        return undoSteps.isEmpty() ? null : undoSteps.peek().description;
+    }
+
+    /**
+     * Returns what the next redo would redo.
+     * @return The description of the step, or null if there is nothing to redo.
+     */
+    public String redoDescription() {
+        return redoSteps.isEmpty() ? null : redoSteps.peek().description;
+    }
+
+    /**
+     * Forgets every step, when the roster is replaced.
+     */
+    public void clear() {
+        undoSteps.clear();
+        redoSteps.clear();
+    }
+
+    /**
+     * Applies the latest step of one stack and pushes its inverse onto the other.
+     */
+    private static List<RosterChange> move(Deque<Step> from, Deque<Step> to, Map<String, StudentStore> classMap, String action) {
+        if (from.isEmpty()) {
+            throw new IllegalStateException("Nothing to " + action);
+        }
+        Step step = from.pop();
+        to.push(new Step(step.description, RosterChange.applyAllAndInvert(step.changes, classMap)));
+        return step.changes;
+    }
+
+    /**
+     * An action of the user, as the changes that reverse it.
+     */
+    private static final class Step {
+        private final String description; // What the action did
+        private final List<RosterChange> changes; // Changes that reverse it
+
+        Step(String description, List<RosterChange> changes) {
+            this.description = description;
+            this.changes = changes;
+        }
+    }
+}
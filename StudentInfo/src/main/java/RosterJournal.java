@@ -0,0 +1,310 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Persists a class roster as a base snapshot plus a write-ahead log of {@link RosterChange}s.
+ * The snapshot is a binary roster if its name ends in {@value BinaryRoster#EXTENSION} and a CSV file otherwise.
+ * Every change is appended to {@code <base>.log} and synced, so saving costs O(changes) instead of rewriting the roster.
+ * Compaction moves the log aside to {@code <base>.log.compacting} and writes a fresh snapshot in the background with
+ * {@link RosterEngine#save}, next to the base as {@code next-<base>}. Renaming the old log to
+ * {@code <base>.log.compacted} then records that the new snapshot holds its changes, before the new snapshot replaces
+ * the base and the old log is deleted. Replaying a change twice would not always be harmless, for example a rename
+ * replayed onto a roster that already has a class of the new name, so opening the journal replays each log exactly
+ * once: a compacted log is never replayed but its snapshot put in place, and a compacting log is replayed on top of
+ * the base and any unfinished snapshot thrown away. A crash at any point during compaction thus loses nothing.
+ */
+public class RosterJournal implements Closeable {
+    private static final long COMPACTION_THRESHOLD = 4 << 20; // Log size in bytes at which compaction is worthwhile
+
+    private final Path basePath; // Base snapshot
+    private final Path logPath; // Log of changes since the snapshot
+    private final Path compactingPath; // Log being folded into a new snapshot
+    private final Path compactedPath; // Log the next snapshot holds, until that replaces the base
+    private final Path nextPath; // Next snapshot, written beside the base
+    private final ExecutorService compactor; // Single background thread that writes snapshots
+    private FileChannel log; // Open log, or null before open and after close
+    private CompletableFuture<Void> compaction = CompletableFuture.completedFuture(null); // Last compaction started
+
+    /**
+     * Constructor to create a journal for the given base snapshot.
+     * @param basePath The path of the base snapshot, binary or CSV by its extension.
+     */
+    public RosterJournal(Path basePath) {
+        this.basePath = basePath.toAbsolutePath();
+        this.logPath = this.basePath.resolveSibling(this.basePath.getFileName() + ".log");
+        this.compactingPath = this.basePath.resolveSibling(this.basePath.getFileName() + ".log.compacting");
+        this.compactedPath = this.basePath.resolveSibling(this.basePath.getFileName() + ".log.compacted");
+        this.nextPath = this.basePath.resolveSibling("next-" + this.basePath.getFileName()); // Same extension, so same format
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "roster-compactor"); // Name the thread for thread dumps
+            thread.setDaemon(true); // Never keep the application alive; close() waits for compaction instead
+            return thread;
+        });
+    }
+
+    /**
+     * Returns the path of the base snapshot.
+     * @return The base path.
+     */
+    public Path getBasePath() {
+        return basePath;
+    }
+
+    /**
+     * Opens the journal and loads the roster by replaying the logs on top of the base snapshot.
+     * If any changes were replayed, a compaction is started so the next start is faster.
+     * @param handler The handler to report malformed snapshot and log lines to.
+     * @return A map of class names to students.
+     * @throws IOException If the snapshot or the logs cannot be read.
+     */
+    public Map<String, StudentStore> open(RosterReader.MalformedLineHandler handler) throws IOException {
+        return open(new RosterReader().onMalformedLine(handler), handler);
+    }
+
+    /**
+     * Opens the journal and loads the roster, reading a CSV base snapshot with the given reader.
+     * The classes of a binary snapshot are only loaded when first accessed, or when a logged change touches them.
+     * If any changes were replayed, a compaction is started so the next start is faster.
+     * @param reader The reader for a CSV base snapshot, which may report progress and be cancelled.
+     * @param handler The handler to report malformed log lines to.
+     * @return A map of class names to students.
+     * @throws IOException If the snapshot or the logs cannot be read.
+     */
+    public Map<String, StudentStore> open(RosterReader reader, RosterReader.MalformedLineHandler handler) throws IOException {
+        if (log != null) {
+            throw new IllegalStateException("Journal is already open");
+        }
+        if (Files.exists(compactedPath)) { // The next snapshot was complete, so it holds the compacted log
+            finishCompaction();
+        } else { // Any next snapshot is unfinished, and the compacting log is replayed instead
+            Files.deleteIfExists(nextPath);
+        }
+        Map<String, StudentStore> classMap = Files.exists(basePath)
+                ? RosterEngine.load(basePath, reader) // Load the snapshot
+                : new LinkedHashMap<>(); // Nothing saved yet
+        int replayed = replay(compactingPath, classMap, handler) + replay(logPath, classMap, handler); // Older log first
+        log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        truncateTornRecord();
+        if (replayed > 0) { // Fold the replayed changes into the snapshot
+            compact(copyOf(classMap));
+        }
+        return classMap;
+    }
+
+    /**
+     * Replays the changes in a log file.
+     * @return The number of changes replayed.
+     */
+    private static int replay(Path path, Map<String, StudentStore> classMap, RosterReader.MalformedLineHandler handler) throws IOException {
+        byte[] bytes; // The log is small compared to the roster, so read it at once
+        try {
+            bytes = Files.readAllBytes(path);
+        } catch (NoSuchFileException e) { // No log means no changes
+            return 0;
+        }
+        RosterChange.Applier applier = new RosterChange.Applier(classMap); // Finds students by roll number map rather than by scanning
+        int replayed = 0;
+        long lineNumber = 0; // Number of the current line
+        int lineStart = 0; // Start of the current line
+        for (int i = 0; i <= bytes.length; i++) {
+            if (i < bytes.length && bytes[i] != '\n') {
+                continue;
+            }
+            lineNumber++;
+            if (i == bytes.length) { // Data after the last newline is a record torn by a crash
+                if (lineStart < i) {
+                    handler.malformedLine(lineNumber, new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8), path.getFileName() + ": Incomplete record");
+                }
+                break;
+            }
+            try {
+                applier.apply(RosterChange.parse(bytes, lineStart, i));
+                replayed++;
+            } catch (IllegalArgumentException e) { // A torn last record or a damaged line
+                handler.malformedLine(lineNumber, new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8), path.getFileName() + ": " + e.getMessage());
+            }
+            lineStart = i + 1;
+        }
+        return replayed;
+    }
+
+    /**
+     * Cuts off a record that was only partly written before a crash, so the next record starts on a new line.
+     */
+    private void truncateTornRecord() throws IOException {
+        long size = log.size();
+        long end = size; // End of the last complete record
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        while (end > 0) {
+            buffer.clear();
+            log.read(buffer, end - 1);
+            if (buffer.get(0) == '\n') {
+                break;
+            }
+            end--;
+        }
+        if (end < size) {
+            log.truncate(end);
+        }
+        log.position(end);
+    }
+
+    /**
+     * Appends changes to the log and syncs it to disk with a single write.
+     * @param changes The changes to record, in the order they were made.
+     * @throws IOException If the log cannot be written.
+     * @throws IllegalArgumentException If a change holds a line break.
+     */
+    public void append(RosterChange... changes) throws IOException {
+        append(Arrays.asList(changes));
+    }
+
+    /**
+     * Appends changes to the log and syncs it to disk with a single write.
+     * Changes holding a line break are refused before anything is written, since replay reads the log line by line.
+     * @param changes The changes to record, in the order they were made.
+     * @throws IOException If the log cannot be written.
+     * @throws IllegalArgumentException If a change holds a line break, see {@link CsvCodec#checkNoLineBreak}.
+     */
+    public void append(List<RosterChange> changes) throws IOException {
+        if (log == null) {
+            throw new IllegalStateException("Journal is not open");
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+        for (RosterChange change : changes) { // Check the whole batch first, so it is recorded entirely or not at all
+            CsvCodec.checkNoLineBreak(change.getClassName(), "class name");
+            CsvCodec.checkNoLineBreak(change.getNewClassName(), "class name");
+            CsvCodec.checkNoLineBreak(change.getName(), "name");
+            CsvCodec.checkNoLineBreak(change.getAddress(), "address");
+        }
+        try (RosterMetrics.Sample sample = RosterMetrics.JOURNAL.start(logPath.toString())) {
+            StringBuilder records = new StringBuilder(); // All records of the batch
+            for (RosterChange change : changes) {
+                records.append(change.toCsv()).append('\n');
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(records.toString().getBytes(StandardCharsets.UTF_8));
+            sample.rows(changes.size()).bytes(buffer.remaining());
+            while (buffer.hasRemaining()) {
+                log.write(buffer);
+            }
+            log.force(false); // The changes are saved once they are on disk
+        }
+    }
+
+    /**
+     * Checks whether the log has grown large enough that it should be compacted.
+     * @return True if compaction is worthwhile.
+     * @throws IOException If the size of the log cannot be read.
+     */
+    public boolean needsCompaction() throws IOException {
+        return log != null && log.size() >= COMPACTION_THRESHOLD && compaction.isDone();
+    }
+
+    /**
+     * Starts folding the log into a new base snapshot in the background.
+     * The snapshot must reflect every change appended so far and must not be modified afterwards.
+     * @param snapshot The current roster, see {@link #copyOf}.
+     * @return A future that completes when the new snapshot has been written.
+     * @throws IOException If the log cannot be moved aside.
+     */
+    public CompletableFuture<Void> compact(Map<String, ? extends List<Student>> snapshot) throws IOException {
+        if (log == null) {
+            throw new IllegalStateException("Journal is not open");
+        }
+        awaitCompaction(); // Only one compaction at a time
+        if (Files.exists(compactedPath)) { // A failed compaction got as far as writing its snapshot
+            finishCompaction();
+        }
+        log.close();
+        if (Files.exists(compactingPath)) { // Left over by a failed compaction, so keep its older changes in front
+            Files.write(compactingPath, Files.readAllBytes(logPath), StandardOpenOption.APPEND);
+            Files.delete(logPath);
+        } else {
+            Files.move(logPath, compactingPath);
+        }
+        log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        compaction = CompletableFuture.runAsync(() -> {
+            try {
+                RosterEngine.save(nextPath, snapshot); // Written to a temporary file and moved into place once complete
+                Files.move(compactingPath, compactedPath, StandardCopyOption.ATOMIC_MOVE); // The next snapshot now holds the log
+                finishCompaction();
+            } catch (IOException e) { // The compacting log is kept, so nothing is lost
+                System.err.println("Failed to compact class roster: " + e.getMessage());
+                throw new RuntimeException(e);
+            }
+        }, compactor);
+        return compaction;
+    }
+
+    /**
+     * Puts the next snapshot in place of the base and deletes the compacted log, whose changes it holds.
+     * Either step may already have been done by a compaction that crashed or failed in between.
+     */
+    private void finishCompaction() throws IOException {
+        if (Files.exists(nextPath)) {
+            Files.move(nextPath, basePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.delete(compactedPath);
+    }
+
+    /**
+     * Waits for the compaction in progress, if any.
+     */
+    private void awaitCompaction() {
+        try {
+            compaction.get();
+        } catch (ExecutionException e) { // Already reported; the next compaction retries
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for any compaction in progress and closes the log.
+     * @throws IOException If the log cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        awaitCompaction();
+        compactor.shutdown();
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+    }
+
+    /**
+     * Copies a roster so that it can be written in the background while the original keeps changing.
+     * @param classMap The roster to copy.
+     * @return A copy of the roster; the column arrays are copied and the append-only text is shared, and classes of a
+     *         binary roster that were never loaded stay unloaded.
+     */
+    public static Map<String, StudentStore> copyOf(Map<String, StudentStore> classMap) {
+        if (classMap instanceof BinaryRoster.ClassMap) {
+            return ((BinaryRoster.ClassMap) classMap).snapshot();
+        }
+        Map<String, StudentStore> copy = new LinkedHashMap<>();
+        for (Map.Entry<String, StudentStore> entry : classMap.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().copy());
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,310 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Drives a {@link RosterService} with concurrent clients and reports throughput and latency.
+ * Each client is a virtual thread with its own keep-alive connection that sends one request at a time: mostly roll
+ * number lookups, some name prefix searches and class pages, and optionally edits. The clients speak just enough
+ * HTTP/1.1 for the service's responses, so the generator itself costs little of the machine it measures.
+ * Without {@code --url} the generator starts a service of its own on a synthetic roster, so a run needs nothing else.
+ * It exits with status 1 if any request failed or none was answered, so a build can run it as a test.
+ * Usage: {@code RosterLoadGenerator [--url <base>] [--clients <n>] [--seconds <n>] [--rows <n>] [--classes <n>] [--writes <percent>]}
+ */
+public class RosterLoadGenerator {
+    private static final Pattern CLASS_ENTRY = Pattern.compile("\\{\"name\":\"((?:[^\"\\\\]|\\\\.)*)\",\"students\":(\\d+)\\}"); // One class of GET /classes
+    private static final String[] PREFIXES = {"J", "Ma", "Sam", "Zo", "Al", "Tara S"}; // Name prefixes searched for
+
+    private final String host; // Host of the service
+    private final int port; // Port of the service
+    private final List<String> classPaths = new ArrayList<>(); // Encoded class names
+    private final List<Integer> classSizes = new ArrayList<>(); // Students per class
+    private final int writePercent; // Share of requests that edit a student
+    private final AtomicLong errors = new AtomicLong(); // Failed requests and unexpected statuses
+
+    private RosterLoadGenerator(String host, int port, int writePercent) {
+        this.host = host;
+        this.port = port;
+        this.writePercent = writePercent;
+    }
+
+    /**
+     * Runs the load test.
+     * @param args Command line arguments.
+     * @throws Exception If the service cannot be reached or started.
+     */
+    public static void main(String[] args) throws Exception {
+        boolean passed;
+        String url = null;
+        int clients = 32, seconds = 10, rows = 100000, classes = 100, writes = 0;
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 == args.length) {
+                usage();
+            }
+            switch (args[i]) {
+                case "--url":
+                    url = args[++i];
+                    break;
+                case "--clients":
+                    clients = Integer.parseInt(args[++i]);
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--rows":
+                    rows = Integer.parseInt(args[++i]);
+                    break;
+                case "--classes":
+                    classes = Integer.parseInt(args[++i]);
+                    break;
+                case "--writes":
+                    writes = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    usage();
+            }
+        }
+        RosterService service = null; // Service started for the run, if no URL was given
+        if (url == null) {
+            service = new RosterService(RosterGenerator.generate(rows, classes, 42)).start(0);
+            url = "http://127.0.0.1:" + service.getPort();
+            System.out.println("Started a roster service with " + rows + " students in " + classes + " classes at " + url);
+        }
+        try {
+            URI base = URI.create(url);
+            passed = new RosterLoadGenerator(base.getHost(), base.getPort() < 0 ? 80 : base.getPort(), writes).run(clients, seconds);
+        } finally {
+            if (service != null) {
+                service.close();
+            }
+        }
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: RosterLoadGenerator [--url <base>] [--clients <n>] [--seconds <n>] [--rows <n>] [--classes <n>] [--writes <percent>]");
+        System.exit(2);
+    }
+
+    /**
+     * Runs the clients for the given time and prints the results.
+     * @return Whether requests were answered and none failed.
+     */
+    private boolean run(int clients, int seconds) throws IOException {
+        loadClasses();
+        long warmupEnd = System.nanoTime() + Math.min(2, seconds) * 1_000_000_000L / 2; // Let the JIT and indexes settle first
+        runClients(clients, warmupEnd, new SplittableRandom(1));
+        errors.set(0);
+        long start = System.nanoTime();
+        long[][] latencies = runClients(clients, start + seconds * 1_000_000_000L, new SplittableRandom(2));
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        int total = 0;
+        for (long[] clientLatencies : latencies) {
+            total += clientLatencies.length;
+        }
+        long[] all = new long[total];
+        int at = 0;
+        for (long[] clientLatencies : latencies) {
+            System.arraycopy(clientLatencies, 0, all, at, clientLatencies.length);
+            at += clientLatencies.length;
+        }
+        Arrays.sort(all);
+        System.out.printf("%d requests from %d clients in %.1f s: %.0f requests/s, %d errors%n", total, clients, elapsed, total / elapsed, errors.get());
+        if (total > 0) {
+            System.out.printf("latency p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms%n", all[(int) (total * 0.50)] / 1e6,
+                    all[(int) (total * 0.99)] / 1e6, all[(int) (total * 0.999)] / 1e6, all[total - 1] / 1e6);
+        }
+        return total > 0 && errors.get() == 0;
+    }
+
+    /**
+     * Reads the class names and sizes from the service.
+     */
+    private void loadClasses() throws IOException {
+        try (Connection connection = new Connection(host, port)) {
+            int status = connection.send("GET", "/classes", null);
+            if (status != 200) {
+                throw new IOException("GET /classes answered " + status);
+            }
+            Matcher matcher = CLASS_ENTRY.matcher(connection.body());
+            while (matcher.find()) {
+                Map<String, String> entry = JsonCodec.parseObject(matcher.group());
+                classPaths.add(encode(entry.get("name")));
+                classSizes.add(Integer.parseInt(entry.get("students")));
+            }
+        }
+        if (classPaths.isEmpty()) {
+            throw new IOException("The roster has no classes");
+        }
+    }
+
+    /**
+     * Runs the clients until the deadline.
+     * @return The latencies of each client's requests in nanoseconds.
+     */
+    private long[][] runClients(int clients, long deadline, SplittableRandom seeds) {
+        long[][] latencies = new long[clients][];
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) { // Waits for the clients on close
+            for (int c = 0; c < clients; c++) {
+                int client = c;
+                SplittableRandom random = seeds.split();
+                executor.submit(() -> latencies[client] = runClient(deadline, random));
+            }
+        }
+        return latencies;
+    }
+
+    /**
+     * Sends requests one after another until the deadline, reconnecting after failures.
+     * @return The latency of each request in nanoseconds.
+     */
+    private long[] runClient(long deadline, SplittableRandom random) {
+        long[] latencies = new long[1024];
+        int count = 0;
+        Connection connection = null;
+        while (System.nanoTime() < deadline) {
+            int c = random.nextInt(classPaths.size());
+            String classPath = "/classes/" + classPaths.get(c);
+            int size = Math.max(1, classSizes.get(c));
+            int rollno = 1 + random.nextInt(size); // Synthetic rosters number students from 1
+            int pick = random.nextInt(100);
+            long start = System.nanoTime();
+            try {
+                if (connection == null) {
+                    connection = new Connection(host, port);
+                }
+                int status;
+                if (pick < writePercent) {
+                    status = connection.send("PUT", classPath + "/students/" + rollno, "{\"name\":\"Load Test " + random.nextInt(1000) + "\",\"address\":\"" + rollno + " Bench St\"}");
+                } else if (pick < 75) {
+                    status = connection.send("GET", classPath + "/students/" + rollno, null);
+                } else if (pick < 90) {
+                    status = connection.send("GET", classPath + "/search?limit=10&name=" + encode(PREFIXES[random.nextInt(PREFIXES.length)]), null);
+                } else {
+                    status = connection.send("GET", classPath + "/students?limit=20&offset=" + random.nextInt(size), null);
+                }
+                if (status != 200 && status != 404) { // Roll numbers of a roster that is not synthetic may not exist
+                    errors.incrementAndGet();
+                }
+            } catch (IOException e) {
+                errors.incrementAndGet();
+                closeQuietly(connection);
+                connection = null;
+            }
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, 2 * count);
+            }
+            latencies[count++] = System.nanoTime() - start;
+        }
+        closeQuietly(connection);
+        return Arrays.copyOf(latencies, count);
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (IOException e) { // Nothing more to do with it
+            }
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20"); // %20 reads as a space in paths and queries
+    }
+
+    /**
+     * A keep-alive HTTP/1.1 connection that sends one request at a time and reads responses with a Content-Length.
+     */
+    private static class Connection implements Closeable {
+        private final String host; // Value of the Host header
+        private final Socket socket; // Connection to the service
+        private final InputStream in; // Buffered responses
+        private final OutputStream out; // Buffered requests
+        private byte[] body = new byte[0]; // Body of the last response
+
+        Connection(String host, int port) throws IOException {
+            this.host = host;
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true); // Requests are written in one piece
+            in = new BufferedInputStream(socket.getInputStream());
+            out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        /**
+         * Sends a request and reads the response.
+         * @return The status code.
+         */
+        int send(String method, String target, String json) throws IOException {
+            byte[] content = json == null ? new byte[0] : json.getBytes(StandardCharsets.UTF_8);
+            out.write((method + " " + target + " HTTP/1.1\r\nHost: " + host + "\r\n"
+                    + (json == null ? "" : "Content-Type: application/json\r\nContent-Length: " + content.length + "\r\n")
+                    + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(content);
+            out.flush();
+            String statusLine = readLine();
+            String[] parts = statusLine.split(" ", 3);
+            if (parts.length < 2) {
+                throw new IOException("Malformed status line: " + statusLine);
+            }
+            int contentLength = 0;
+            for (String header = readLine(); !header.isEmpty(); header = readLine()) {
+                if (header.toLowerCase(Locale.ROOT).startsWith("content-length:")) {
+                    contentLength = Integer.parseInt(header.substring("content-length:".length()).trim());
+                }
+            }
+            body = in.readNBytes(contentLength);
+            if (body.length < contentLength) {
+                throw new EOFException("Connection closed in the middle of a response");
+            }
+            return Integer.parseInt(parts[1]);
+        }
+
+        /**
+         * Returns the body of the last response.
+         */
+        String body() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+
+        private String readLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+            for (int b = in.read(); b != '\n'; b = in.read()) {
+                if (b < 0) {
+                    throw new EOFException("Connection closed");
+                }
+                if (b != '\r') {
+                    line.write(b);
+                }
+            }
+            return line.toString(StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,459 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Latency, throughput and allocation metrics for the roster operations: loading, saving, sorting, showing a class,
+ * loading a class of a binary roster, writing the journal and finding duplicate students.
+ * Each operation is timed with a {@link Sample} that records its latency in a histogram and adds the rows and bytes
+ * it processed and the bytes it allocated to counters, and that also emits a {@code roster.Operation} JFR event.
+ * Recording a sample takes two clock reads, two reads of the thread's allocation counter and a few atomic adds, well
+ * under a microsecond, while the operations take milliseconds. Metrics are on unless the system property
+ * {@code roster.metrics} is {@code false}; if {@code roster.metrics.dump} names a file, the metrics are written to it
+ * as JSON when the JVM exits.
+ */
+public class RosterMetrics {
+    private static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("roster.metrics")); // Whether samples are recorded
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCounter(); // Per-thread allocation counter, or null if unsupported
+    private static final List<Timer> TIMERS = new CopyOnWriteArrayList<>(); // Every timer, in the order created
+
+    public static final Timer LOAD = new Timer("load"); // Loading a roster file
+    public static final Timer LOAD_CLASS = new Timer("loadClass"); // Decoding a class of a binary roster
+    public static final Timer SAVE = new Timer("save"); // Saving a roster file
+    public static final Timer SORT = new Timer("sort"); // Sorting students
+    public static final Timer SORT_ROWS = new Timer("sortRows"); // Sorting the rows in view of a class that is not fully sorted yet
+    public static final Timer REFRESH = new Timer("refresh"); // Showing a class in the table
+    public static final Timer JOURNAL = new Timer("journal"); // Appending changes to the journal's log
+    public static final Timer DUPLICATES = new Timer("duplicates"); // Finding duplicate students
+    public static final Timer WATCH = new Timer("watch"); // Reloading a changed file of a watched directory
+    public static final Timer QUERY = new Timer("query"); // Filtering the students of a roster
+    public static final Timer EVICT = new Timer("evict"); // Unloading a class to keep the loaded classes within their memory budget
+    public static final Timer REPLICATE = new Timer("replicate"); // Encoding a batch of changes for followers, or applying one from the primary
+
+    static {
+        String dumpPath = System.getProperty("roster.metrics.dump"); // File to write the metrics to on exit
+        if (ENABLED && dumpPath != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    dump(Paths.get(dumpPath));
+                } catch (IOException e) {
+                    System.err.println("Failed to write metrics: " + e.getMessage());
+                }
+            }, "roster-metrics-dump"));
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads && threads.isThreadAllocatedMemorySupported()) {
+            threads.setThreadAllocatedMemoryEnabled(true);
+            return threads;
+        }
+        return null;
+    }
+
+    private static long allocatedBytes() {
+        return THREADS == null ? 0 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Checks whether metrics are recorded.
+     * @return True unless they were turned off with {@code -Droster.metrics=false}.
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Returns the metrics of every operation as they are now.
+     * @return One summary per operation, in a fixed order.
+     */
+    public static List<Summary> summaries() {
+        List<Summary> summaries = new ArrayList<>(TIMERS.size());
+        for (Timer timer : TIMERS) {
+            summaries.add(timer.summary());
+        }
+        return Collections.unmodifiableList(summaries);
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public static void reset() {
+        for (Timer timer : TIMERS) {
+            timer.reset();
+        }
+    }
+
+    /**
+     * Returns the metrics of every operation as a JSON object, as served at {@code GET /metrics}.
+     * @return The JSON text.
+     */
+    public static String toJson() {
+        StringBuilder json = new StringBuilder("{\"enabled\":").append(ENABLED).append(",\"operations\":[");
+        List<Summary> summaries = summaries();
+        for (int i = 0; i < summaries.size(); i++) {
+            Summary summary = summaries.get(i);
+            json.append(i == 0 ? "{\"name\":" : ",{\"name\":");
+            JsonCodec.appendString(json, summary.getName())
+                    .append(",\"count\":").append(summary.getCount())
+                    .append(",\"p50Nanos\":").append(summary.getP50Nanos())
+                    .append(",\"p99Nanos\":").append(summary.getP99Nanos())
+                    .append(",\"maxNanos\":").append(summary.getMaxNanos())
+                    .append(",\"totalNanos\":").append(summary.getTotalNanos())
+                    .append(",\"rows\":").append(summary.getRows())
+                    .append(",\"bytes\":").append(summary.getBytes())
+                    .append(",\"allocatedBytes\":").append(summary.getAllocatedBytes())
+                    .append(",\"rowsPerSecond\":").append(Math.round(summary.rowsPerSecond()))
+                    .append(",\"bytesPerSecond\":").append(Math.round(summary.bytesPerSecond()))
+                    .append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Writes the metrics of every operation to a file as JSON, replacing it.
+     * @param path The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void dump(Path path) throws IOException {
+        Files.writeString(path, toJson() + System.lineSeparator());
+    }
+
+    /**
+     * Formats a duration for people to read.
+     * @param nanos The duration in nanoseconds.
+     * @return The duration in microseconds, milliseconds or seconds.
+     */
+    public static String formatNanos(long nanos) {
+        if (nanos < 1_000_000) {
+            return String.format(Locale.ROOT, "%.1f us", nanos / 1e3);
+        }
+        if (nanos < 1_000_000_000) {
+            return String.format(Locale.ROOT, "%.2f ms", nanos / 1e6);
+        }
+        return String.format(Locale.ROOT, "%.2f s", nanos / 1e9);
+    }
+
+    /**
+     * The metrics of one operation.
+     */
+    public static final class Timer {
+        private final String name; // Name of the operation
+        private final Histogram latencies = new Histogram(); // Latency of each sample
+        private final LongAdder totalNanos = new LongAdder(); // Time spent in all samples
+        private final LongAdder rows = new LongAdder(); // Rows processed by all samples
+        private final LongAdder bytes = new LongAdder(); // Bytes read or written by all samples
+        private final LongAdder allocatedBytes = new LongAdder(); // Bytes allocated by the threads that ran the samples
+
+        private Timer(String name) {
+            this.name = name;
+            TIMERS.add(this);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Starts timing one run of the operation; close the sample when it ends.
+         * @param subject What the operation works on, such as a file or class name, for the JFR event; may be null.
+         * @return The running sample.
+         */
+        public Sample start(String subject) {
+            return ENABLED ? new Sample(this, subject) : Sample.DISABLED;
+        }
+
+        private void record(long nanos, long sampleRows, long sampleBytes, long allocated) {
+            latencies.record(nanos);
+            totalNanos.add(nanos);
+            rows.add(sampleRows);
+            bytes.add(sampleBytes);
+            allocatedBytes.add(allocated);
+        }
+
+        private Summary summary() {
+            return new Summary(name, latencies, totalNanos.sum(), rows.sum(), bytes.sum(), allocatedBytes.sum());
+        }
+
+        private void reset() {
+            latencies.reset();
+            totalNanos.reset();
+            rows.reset();
+            bytes.reset();
+            allocatedBytes.reset();
+        }
+    }
+
+    /**
+     * One run of an operation being timed. Samples are used by one thread, in a try-with-resources block.
+     */
+    public static final class Sample implements AutoCloseable {
+        private static final Sample DISABLED = new Sample(null, null); // Returned while metrics are off; records nothing
+
+        private final Timer timer; // Timer to record into, or null if disabled
+        private final String subject; // What the operation works on, or null
+        private final OperationEvent event; // JFR event of the sample, or null if disabled
+        private final long startNanos; // Clock when the sample started
+        private final long startAllocated; // Bytes the thread had allocated when the sample started
+        private long rows; // Rows processed
+        private long bytes; // Bytes read or written
+
+        private Sample(Timer timer, String subject) {
+            this.timer = timer;
+            this.subject = subject;
+            if (timer == null) {
+                event = null;
+                startNanos = 0;
+                startAllocated = 0;
+                return;
+            }
+            event = new OperationEvent();
+            event.begin();
+            startAllocated = allocatedBytes();
+            startNanos = System.nanoTime();
+        }
+
+        /**
+         * Adds to the rows the operation processed.
+         * @param count The number of rows.
+         * @return This sample.
+         */
+        public Sample rows(long count) {
+            rows += count;
+            return this;
+        }
+
+        /**
+         * Adds to the bytes the operation read or wrote.
+         * @param count The number of bytes.
+         * @return This sample.
+         */
+        public Sample bytes(long count) {
+            bytes += count;
+            return this;
+        }
+
+        /**
+         * Records the sample.
+         */
+        @Override
+        public void close() {
+            if (timer == null) {
+                return;
+            }
+            long nanos = System.nanoTime() - startNanos;
+            long allocated = allocatedBytes() - startAllocated;
+            timer.record(nanos, rows, bytes, allocated);
+            event.end();
+            if (event.shouldCommit()) { // Only while a recording has the event enabled
+                event.operation = timer.name;
+                event.subject = subject;
+                event.rows = rows;
+                event.bytes = bytes;
+                event.allocated = allocated;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * The metrics of one operation at one point in time.
+     */
+    public static final class Summary {
+        private final String name; // Name of the operation
+        private final long count; // Number of samples
+        private final long p50Nanos, p99Nanos, maxNanos; // Latency percentiles and maximum
+        private final long totalNanos; // Time spent in all samples
+        private final long rows, bytes, allocatedBytes; // Totals of all samples
+
+        private Summary(String name, Histogram latencies, long totalNanos, long rows, long bytes, long allocatedBytes) {
+            long[] counts = latencies.counts();
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            this.name = name;
+            this.count = count;
+            this.maxNanos = latencies.max();
+            this.p50Nanos = Math.min(Histogram.percentile(counts, count, 0.50), maxNanos);
+            this.p99Nanos = Math.min(Histogram.percentile(counts, count, 0.99), maxNanos);
+            this.totalNanos = totalNanos;
+            this.rows = rows;
+            this.bytes = bytes;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        // Getters for the metrics
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getP50Nanos() {
+            return p50Nanos;
+        }
+
+        public long getP99Nanos() {
+            return p99Nanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        /**
+         * Returns the rows processed per second spent in the operation.
+         * @return The rate, or 0 if nothing was recorded.
+         */
+        public double rowsPerSecond() {
+            return totalNanos == 0 ? 0 : rows * 1e9 / totalNanos;
+        }
+
+        /**
+         * Returns the bytes read or written per second spent in the operation.
+         * @return The rate, or 0 if nothing was recorded.
+         */
+        public double bytesPerSecond() {
+            return totalNanos == 0 ? 0 : bytes * 1e9 / totalNanos;
+        }
+    }
+
+    /**
+     * A lock-free histogram of durations with buckets about 12% wide: values below 16 have a bucket each, and every
+     * power of two above is split into 8 buckets.
+     */
+    private static final class Histogram {
+        private static final int SUB_BUCKET_BITS = 3; // Buckets per power of two, as a power of two
+        private static final int LINEAR = 2 << SUB_BUCKET_BITS; // Values below this have a bucket each
+        private static final int BUCKETS = LINEAR + (63 - Integer.numberOfTrailingZeros(LINEAR) + 1) * (1 << SUB_BUCKET_BITS); // Enough for any long
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS); // Samples per bucket
+        private final AtomicLong max = new AtomicLong(); // Largest value recorded
+
+        void record(long value) {
+            counts.incrementAndGet(bucket(Math.max(value, 0)));
+            if (value > max.get()) { // Rarely true, so the update is rarely attempted
+                max.accumulateAndGet(value, Math::max);
+            }
+        }
+
+        long[] counts() {
+            long[] copy = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] = counts.get(i);
+            }
+            return copy;
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts.set(i, 0);
+            }
+            max.set(0);
+        }
+
+        /**
+         * Returns the upper bound of the bucket holding the given fraction of the values.
+         */
+        static long percentile(long[] counts, long count, double fraction) {
+            long rank = Math.max(1, (long) Math.ceil(count * fraction)); // Number of values at or below the percentile
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return upperBound(i);
+                }
+            }
+            return 0;
+        }
+
+        private static int bucket(long value) {
+            if (value < LINEAR) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value); // Position of the highest bit, at least 4
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1); // Next three bits
+            return LINEAR + (exponent - Integer.numberOfTrailingZeros(LINEAR)) * (1 << SUB_BUCKET_BITS) + subBucket;
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < LINEAR) {
+                return bucket;
+            }
+            int exponent = (bucket - LINEAR) / (1 << SUB_BUCKET_BITS) + Integer.numberOfTrailingZeros(LINEAR);
+            int subBucket = (bucket - LINEAR) % (1 << SUB_BUCKET_BITS);
+            long lower = (long) ((1 << SUB_BUCKET_BITS) + subBucket) << (exponent - SUB_BUCKET_BITS);
+            return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+    }
+
+    /**
+     * The JFR event of one roster operation, so recordings show loads, saves, sorts and refreshes next to GC pauses.
+     * Record them with {@code -XX:StartFlightRecording} and read them with {@code jfr print --events roster.Operation}.
+     */
+    @Name("roster.Operation")
+    @Label("Roster Operation")
+    @Category("Roster")
+    @Description("A load, save, sort, refresh, class load or journal write of the Student Manager")
+    @StackTrace(false)
+    static final class OperationEvent extends jdk.jfr.Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Subject")
+        @Description("The file or class the operation worked on")
+        String subject;
+
+        @Label("Rows")
+        long rows;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Allocated")
+        @Description("Bytes allocated by the thread that ran the operation")
+        @DataAmount
+        long allocated;
+    }
+}
@@ -0,0 +1,464 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges, sorts and dedupes roster CSV files as a stream, so rosters larger than the heap can be processed at disk
+ * speed. Students are read one at a time; sorting collects them in memory up to a budget, then sorts each full batch
+ * and spills it to a temporary run file, and finally merges the runs. The output is written with {@link RosterWriter},
+ * so it replaces the target file only when complete.
+ * <p>
+ * Sorted output is grouped by class, with classes in alphabetical order. Deduping keeps the last student with each
+ * roll number in a class, counting the inputs in order, which takes a pass sorted by roll number first.
+ */
+public class RosterPipeline {
+    private static final int MAX_FAN_IN = 64; // Runs merged at once
+    private static final int SPILL_BUFFER_SIZE = 1 << 16; // Bytes buffered per run file
+    private static final int ROW_OVERHEAD = 112; // Estimated heap bytes of a buffered student besides its text
+
+    private Comparator<Student> order; // Order of the students in each class, or null to keep input order
+    private boolean dedupe; // Whether to drop students whose roll number appears again later
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 4; // Bytes of students sorted in memory at once
+    private Path spillDirectory = Paths.get(System.getProperty("java.io.tmpdir")); // Where run files are written
+    private RosterReader reader = new RosterReader(); // Reads the input files
+
+    /**
+     * Summary of a run of the pipeline.
+     */
+    public static class Result {
+        public final long read; // Students read from the inputs
+        public final long written; // Students written to the output
+        public final int runFiles; // Temporary run files written while sorting
+
+        Result(long read, long written, int runFiles) {
+            this.read = read;
+            this.written = written;
+            this.runFiles = runFiles;
+        }
+
+        @Override
+        public String toString() {
+            return "Read " + read + " students, wrote " + written + (runFiles > 0 ? " (" + runFiles + " run files)" : "");
+        }
+    }
+
+    /**
+     * Sorts the students of each class.
+     * @param order The order to sort in, or null to keep the input order.
+     * @return This pipeline.
+     */
+    public RosterPipeline sortBy(Comparator<Student> order) {
+        this.order = order;
+        return this;
+    }
+
+    /**
+     * Drops students whose roll number appears again later in the same class.
+     * @param dedupe True to dedupe.
+     * @return This pipeline.
+     */
+    public RosterPipeline dedupe(boolean dedupe) {
+        this.dedupe = dedupe;
+        return this;
+    }
+
+    /**
+     * Sets how much of the heap sorting may use before it spills to disk.
+     * @param bytes The budget in bytes.
+     * @return This pipeline.
+     */
+    public RosterPipeline memoryBudget(long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive: " + bytes);
+        }
+        this.memoryBudget = bytes;
+        return this;
+    }
+
+    /**
+     * Sets the directory temporary run files are written to.
+     * @param directory The directory, ideally on a fast local disk.
+     * @return This pipeline.
+     */
+    public RosterPipeline spillDirectory(Path directory) {
+        this.spillDirectory = directory;
+        return this;
+    }
+
+    /**
+     * Sets the reader of the input files, for example to report malformed lines.
+     * @param reader The reader.
+     * @return This pipeline.
+     */
+    public RosterPipeline reader(RosterReader reader) {
+        this.reader = reader;
+        return this;
+    }
+
+    /**
+     * Runs the pipeline.
+     * @param inputs The CSV files to read, in order.
+     * @param output The CSV file to write.
+     * @return A summary of the run.
+     * @throws IOException If a file cannot be read or written.
+     */
+    public Result run(List<Path> inputs, Path output) throws IOException {
+        try (RosterWriter writer = RosterWriter.open(output); Spill spill = new Spill()) {
+            long read = 0;
+            if (order == null && !dedupe) { // Nothing to sort, so copy straight through
+                for (Path input : inputs) {
+                    read += reader.forEach(input, writer::write);
+                }
+            } else {
+                Sorter sorter = new Sorter(dedupe ? new RollnoComparator() : order, dedupe, spill); // Deduping needs duplicates next to each other
+                for (Path input : inputs) {
+                    read += reader.forEach(input, (className, rollno, name, address) -> sorter.add(new Row(className, rollno, name, address)));
+                }
+                RowSource rows = sorter.finish();
+                if (dedupe) {
+                    rows = new DedupeSource(rows);
+                    if (order != null && !(order instanceof RollnoComparator)) { // Sort the unique students again
+                        Sorter second = new Sorter(order, false, spill);
+                        for (Row row = rows.next(); row != null; row = rows.next()) {
+                            second.add(row);
+                        }
+                        rows = second.finish();
+                    }
+                }
+                for (Row row = rows.next(); row != null; row = rows.next()) {
+                    writer.write(row.className, row.getRollno(), row.getName(), row.getAddress());
+                }
+            }
+            writer.commit();
+            return new Result(read, writer.getWritten(), spill.runFiles);
+        }
+    }
+
+    /**
+     * A student together with its class.
+     */
+    private static class Row extends Student {
+        final String className; // Name of the student's class
+
+        Row(String className, int rollno, String name, String address) {
+            super(rollno, name, address);
+            this.className = className;
+        }
+
+        long estimatedBytes() {
+            return ROW_OVERHEAD + getName().length() + getAddress().length();
+        }
+
+        boolean sameStudent(Row other) {
+            return getRollno() == other.getRollno() && className.equals(other.className);
+        }
+    }
+
+    /**
+     * A sorted stream of rows.
+     */
+    private interface RowSource {
+        /**
+         * Returns the next row.
+         * @return The row, or null at the end.
+         * @throws IOException If a run file cannot be read.
+         */
+        Row next() throws IOException;
+    }
+
+    /**
+     * Collects rows, sorts them in batches that fit the memory budget and merges the batches.
+     */
+    private class Sorter {
+        private final Comparator<Student> rowOrder; // Class name first, then the requested order
+        private final boolean dedupe; // Whether duplicates within a batch can be dropped when it is spilled
+        private final Spill spill; // Where batches are spilled
+        private final List<Row> batch = new ArrayList<>(); // Rows not yet spilled, in input order
+        private final List<Run> runs = new ArrayList<>(); // Spilled batches, in input order
+        private long batchBytes; // Estimated heap used by the batch
+
+        Sorter(Comparator<Student> order, boolean dedupe, Spill spill) {
+            this.rowOrder = (a, b) -> {
+                int byClass = ((Row) a).className.compareTo(((Row) b).className);
+                return byClass != 0 ? byClass : order.compare(a, b);
+            };
+            this.dedupe = dedupe;
+            this.spill = spill;
+        }
+
+        void add(Row row) throws IOException {
+            batch.add(row);
+            batchBytes += row.estimatedBytes();
+            if (batchBytes >= memoryBudget) {
+                runs.add(spillBatch());
+            }
+        }
+
+        /**
+         * Returns all rows added so far in sorted order; equal rows keep the order they were added in.
+         */
+        RowSource finish() throws IOException {
+            if (runs.isEmpty()) { // Everything fit in memory
+                Row[] rows = batch.toArray(new Row[0]);
+                int[] sorted = SelectionSort.order(rows, rowOrder);
+                batch.clear();
+                return new RowSource() {
+                    private int next; // Index into sorted
+
+                    @Override
+                    public Row next() {
+                        return next < sorted.length ? rows[sorted[next++]] : null;
+                    }
+                };
+            }
+            if (!batch.isEmpty()) {
+                runs.add(spillBatch());
+            }
+            while (runs.size() > MAX_FAN_IN) { // Merge the oldest runs into one until a single merge can take them all
+                List<Run> oldest = runs.subList(0, MAX_FAN_IN);
+                RunWriter merged = spill.newRun();
+                try (MergeSource source = new MergeSource(oldest, rowOrder)) {
+                    for (Row row = source.next(); row != null; row = source.next()) {
+                        merged.write(row);
+                    }
+                }
+                for (Run run : oldest) { // Their rows are in the merged run now
+                    Files.delete(run.file);
+                }
+                oldest.clear();
+                runs.add(0, merged.finish()); // Still the oldest rows, so the merge stays stable
+            }
+            return new MergeSource(runs, rowOrder);
+        }
+
+        /**
+         * Sorts the batch and writes it to a run file.
+         */
+        private Run spillBatch() throws IOException {
+            Row[] rows = batch.toArray(new Row[0]);
+            batch.clear();
+            batchBytes = 0;
+            int[] sorted = SelectionSort.order(rows, rowOrder); // Stable, so equal rows keep input order
+            RunWriter run = spill.newRun();
+            for (int i = 0; i < sorted.length; i++) {
+                Row row = rows[sorted[i]];
+                if (dedupe && i + 1 < sorted.length && row.sameStudent(rows[sorted[i + 1]])) { // A later duplicate wins
+                    continue;
+                }
+                run.write(row);
+            }
+            return run.finish();
+        }
+    }
+
+    /**
+     * Drops all but the last of consecutive rows for the same student.
+     */
+    private static class DedupeSource implements RowSource {
+        private final RowSource source; // Rows sorted by class and roll number
+        private Row pending; // Last row read, returned once a different student follows
+
+        DedupeSource(RowSource source) {
+            this.source = source;
+        }
+
+        @Override
+        public Row next() throws IOException {
+            if (pending == null) {
+                pending = source.next();
+            }
+            while (pending != null) {
+                Row row = source.next();
+                if (row == null || !row.sameStudent(pending)) {
+                    Row result = pending;
+                    pending = row;
+                    return result;
+                }
+                pending = row; // A later duplicate replaces the pending row
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Merges sorted runs. Equal rows come from the oldest run first, so merging keeps input order.
+     */
+    private static class MergeSource implements RowSource, Closeable {
+        private final PriorityQueue<RunReader> heads; // Readers ordered by their current row, then by age
+        private final List<RunReader> readers = new ArrayList<>(); // All readers, to close them
+
+        MergeSource(List<Run> runs, Comparator<Student> rowOrder) throws IOException {
+            heads = new PriorityQueue<>(Math.max(runs.size(), 1), (a, b) -> {
+                int byRow = rowOrder.compare(a.current, b.current);
+                return byRow != 0 ? byRow : Integer.compare(a.age, b.age);
+            });
+            for (int i = 0; i < runs.size(); i++) {
+                RunReader reader = new RunReader(runs.get(i), i);
+                readers.add(reader);
+                if (reader.advance()) {
+                    heads.add(reader);
+                }
+            }
+        }
+
+        @Override
+        public Row next() throws IOException {
+            RunReader head = heads.poll();
+            if (head == null) {
+                close();
+                return null;
+            }
+            Row row = head.current;
+            if (head.advance()) {
+                heads.add(head);
+            }
+            return row;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * A sorted run file and the number of rows in it.
+     */
+    private static class Run {
+        final Path file; // The run file
+        final long rows; // Rows written to it
+
+        Run(Path file, long rows) {
+            this.file = file;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * The temporary directory of one pipeline run, removed with its run files when the run ends.
+     */
+    private class Spill implements Closeable {
+        private Path directory; // Created when the first run is spilled
+        private int runFiles; // Run files created
+
+        RunWriter newRun() throws IOException {
+            if (directory == null) {
+                directory = Files.createTempDirectory(spillDirectory, "roster-runs");
+            }
+            return new RunWriter(directory.resolve("run-" + runFiles++ + ".bin"));
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (directory != null) {
+                for (int i = 0; i < runFiles; i++) {
+                    Files.deleteIfExists(directory.resolve("run-" + i + ".bin"));
+                }
+                Files.deleteIfExists(directory);
+            }
+        }
+    }
+
+    /**
+     * Writes rows to a run file: a length-prefixed UTF-8 class name (or -1 if it is the same as the previous row's),
+     * then the roll number, name and address.
+     */
+    private static class RunWriter {
+        private final Path file; // The run file
+        private final DataOutputStream out; // Buffered output
+        private String lastClassName; // Class name of the previous row
+        private long rows; // Rows written
+
+        RunWriter(Path file) throws IOException {
+            this.file = file;
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), SPILL_BUFFER_SIZE));
+        }
+
+        void write(Row row) throws IOException {
+            if (row.className.equals(lastClassName)) { // Runs are grouped by class
+                out.writeInt(-1);
+            } else {
+                writeString(row.className);
+                lastClassName = row.className;
+            }
+            out.writeInt(row.getRollno());
+            writeString(row.getName());
+            writeString(row.getAddress());
+            rows++;
+        }
+
+        Run finish() throws IOException {
+            out.close();
+            return new Run(file, rows);
+        }
+
+        private void writeString(String value) throws IOException {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(utf8.length);
+            out.write(utf8);
+        }
+    }
+
+    /**
+     * Reads the rows of a run file back.
+     */
+    private static class RunReader implements Closeable {
+        final int age; // Position of the run among the merged runs; older runs win ties
+        Row current; // Row at the head of the run
+        private final DataInputStream in; // Buffered input
+        private long remaining; // Rows not yet read
+        private String lastClassName; // Class name of the previous row
+
+        RunReader(Run run, int age) throws IOException {
+            this.age = age;
+            this.remaining = run.rows;
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run.file), SPILL_BUFFER_SIZE));
+        }
+
+        /**
+         * Reads the next row into {@link #current}.
+         * @return False if the run is exhausted.
+         */
+        boolean advance() throws IOException {
+            if (remaining == 0) {
+                current = null;
+                close();
+                return false;
+            }
+            remaining--;
+            int classLength = in.readInt();
+            if (classLength >= 0) {
+                lastClassName = readString(classLength);
+            }
+            int rollno = in.readInt();
+            String name = readString(in.readInt());
+            String address = readString(in.readInt());
+            current = new Row(lastClassName, rollno, name, address);
+            return true;
+        }
+
+        private String readString(int length) throws IOException {
+            byte[] utf8 = new byte[length];
+            in.readFully(utf8);
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,396 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+/**
+ * Streams the changes committed to a {@link RosterService} to {@link RosterFollower}s over TCP, so that several
+ * instances serve the same roster without each rewriting the whole file.
+ * <p>
+ * The primary is the service's commit listener: each committed batch is encoded once, compressed, kept in a log of
+ * recent batches and queued to every connected follower. Offsets count the changes committed since the primary started
+ * or the roster was last replaced, which starts a new epoch. A follower connects with the epoch and offset it has
+ * applied up to; if the log still holds every batch from that offset it is sent those, and otherwise a snapshot of the
+ * roster as it is, from the service's latest published snapshot, followed by the batches committed after it. Both are
+ * decided under one lock with the follower joining the live followers, so no batch is missed or sent twice.
+ * <p>
+ * Each follower has a virtual thread that writes whatever is queued for it in one flush, so a slow link sends larger
+ * batches rather than falling further behind. A follower more than {@value #MAX_QUEUED_BYTES} bytes behind is cut off
+ * and catches up when it reconnects. Only the loopback interface is listened on unless another address is given.
+ */
+public class RosterPrimary implements RosterService.CommitListener, Closeable {
+    private static final int BACKLOG = 50; // Followers waiting to be accepted
+    private static final int MAX_LOG_BYTES = 32 << 20; // Compressed batches kept for followers that reconnect
+    static final long MAX_QUEUED_BYTES = 64L << 20; // Most bytes queued to one follower before it is cut off
+
+    private final ServerSocket serverSocket; // Listening socket
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED); // Compresses batches, on the service's writer thread
+    private final ArrayDeque<Batch> log = new ArrayDeque<>(); // Recent batches, oldest first
+    private final Set<Link> links = ConcurrentHashMap.newKeySet(); // Connected followers, caught up or catching up
+    private final AtomicLong sentBytes = new AtomicLong(); // Bytes written to followers
+    private long epoch = newEpoch(); // Roster the offsets count changes of
+    private long offset; // Changes committed in this epoch
+    private long logStart; // Offset of the first change in the log
+    private long logBytes; // Bytes of the batches in the log
+    private long changeBytes; // Bytes of the records of the batches committed, before compression
+    private long batchBytes; // Bytes of the batches committed, after compression
+    private RosterSnapshot snapshot; // Roster at offset
+
+    /**
+     * A batch encoded once for every follower.
+     */
+    private static final class Batch {
+        private final long offset; // Offset of its first change
+        private final int count; // Number of changes
+        private final byte[] frame; // Encoded and compressed
+
+        Batch(long offset, int count, byte[] frame) {
+            this.offset = offset;
+            this.count = count;
+            this.frame = frame;
+        }
+    }
+
+    /**
+     * A snapshot queued for a follower that is too far behind for the log.
+     */
+    private static final class Catchup {
+        private final long epoch; // Epoch of the snapshot
+        private final long offset; // Offset the snapshot is at
+        private final RosterSnapshot snapshot; // Roster to send
+
+        Catchup(long epoch, long offset, RosterSnapshot snapshot) {
+            this.epoch = epoch;
+            this.offset = offset;
+            this.snapshot = snapshot;
+        }
+    }
+
+    /**
+     * Constructor to start listening for followers on the loopback interface.
+     * @param snapshot The service's roster before the first batch the primary is told of, see {@link RosterService#snapshot}.
+     * @param port The port to listen on, or 0 for any free port.
+     * @throws IOException If the port cannot be bound.
+     */
+    public RosterPrimary(RosterSnapshot snapshot, int port) throws IOException {
+        this(snapshot, port, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Constructor to start listening for followers.
+     * @param snapshot The service's roster before the first batch the primary is told of, see {@link RosterService#snapshot}.
+     * @param port The port to listen on, or 0 for any free port.
+     * @param address The address to listen on; followers are not authenticated, so only trusted networks should reach it.
+     * @throws IOException If the port cannot be bound.
+     */
+    public RosterPrimary(RosterSnapshot snapshot, int port, InetAddress address) throws IOException {
+        this.snapshot = snapshot;
+        serverSocket = new ServerSocket(port, BACKLOG, address);
+        Thread.ofPlatform().name("roster-primary-accept").daemon(true).start(this::acceptFollowers); // The service keeps the JVM alive
+    }
+
+    /**
+     * Returns the port the primary listens on.
+     * @return The port.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    // Getters for the position of the primary and the traffic so far
+
+    public synchronized long getEpoch() {
+        return epoch;
+    }
+
+    public synchronized long getOffset() {
+        return offset;
+    }
+
+    public int getFollowerCount() {
+        return links.size();
+    }
+
+    public long getSentBytes() {
+        return sentBytes.get();
+    }
+
+    /**
+     * Returns how much the batches committed so far were compressed.
+     * @return The bytes of their records divided by the bytes sent for them, or 1 before the first batch.
+     */
+    public synchronized double compressionRatio() {
+        return batchBytes == 0 ? 1 : (double) changeBytes / batchBytes;
+    }
+
+    /**
+     * Sends a committed batch to the followers. Called on the service's writer thread.
+     * @param changes The changes, in the order they were applied.
+     * @param snapshot The snapshot that will be published.
+     */
+    @Override
+    public void committed(List<RosterChange> changes, RosterSnapshot snapshot) {
+        List<RosterChange> expanded = RosterChange.expandRestores(changes); // Followers get no stores, only changes
+        byte[] frame;
+        long start;
+        synchronized (this) {
+            start = offset;
+        }
+        try (RosterMetrics.Sample sample = RosterMetrics.REPLICATE.start("primary")) {
+            frame = ReplicationCodec.encodeChanges(ReplicationCodec.BATCH, start, expanded, deflater); // Only this thread commits, so the offset stays
+            sample.rows(expanded.size()).bytes(frame.length);
+        }
+        synchronized (this) {
+            Batch batch = new Batch(start, expanded.size(), frame);
+            log.addLast(batch);
+            logBytes += frame.length;
+            while (logBytes > MAX_LOG_BYTES && log.size() > 1) { // Followers further behind get a snapshot
+                Batch dropped = log.removeFirst();
+                logBytes -= dropped.frame.length;
+                logStart = dropped.offset + dropped.count;
+            }
+            offset += expanded.size();
+            changeBytes += ReplicationCodec.recordsLength(frame);
+            batchBytes += frame.length;
+            this.snapshot = snapshot;
+            for (Link link : links) {
+                link.send(frame);
+            }
+        }
+    }
+
+    /**
+     * Starts a new epoch with a replaced roster, sending its snapshot to every follower. Called on the service's
+     * writer thread.
+     * @param changes The changes of the batch, which the snapshot includes.
+     * @param snapshot The snapshot that will be published.
+     */
+    @Override
+    public synchronized void replaced(List<RosterChange> changes, RosterSnapshot snapshot) {
+        epoch = newEpoch();
+        offset = 0;
+        logStart = 0;
+        log.clear();
+        logBytes = 0;
+        this.snapshot = snapshot;
+        Catchup catchup = new Catchup(epoch, offset, snapshot);
+        for (Link link : links) {
+            link.send(catchup);
+        }
+    }
+
+    /**
+     * Stops listening and disconnects the followers, which keep serving what they have.
+     * @throws IOException If the listening socket cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Link link : links) {
+            link.close();
+        }
+    }
+
+    /**
+     * Accepts followers until closed.
+     */
+    private void acceptFollowers() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread.ofVirtual().name("roster-primary").start(() -> serve(socket));
+            } catch (IOException e) { // Closed, or the connection failed before it was accepted
+                if (!serverSocket.isClosed()) {
+                    System.err.println("Failed to accept follower: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a follower's hello, queues what it needs to catch up and then writes to it until either side closes.
+     */
+    private void serve(Socket socket) {
+        Link link;
+        try {
+            socket.setTcpNoDelay(true); // Each flush is a whole batch, so never wait to coalesce it
+            socket.setKeepAlive(true); // Notice followers that vanish
+            long[] hello = ReplicationCodec.readHello(new DataInputStream(new BufferedInputStream(socket.getInputStream())));
+            link = new Link(socket);
+            join(link, hello[0], hello[1]);
+        } catch (IOException e) {
+            System.err.println("Failed to connect follower " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+            closeQuietly(socket);
+            return;
+        }
+        try {
+            link.run();
+        } catch (IOException e) { // The follower reconnects on its own
+            if (!serverSocket.isClosed()) {
+                System.err.println("Lost follower " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            links.remove(link);
+            link.close();
+        }
+    }
+
+    /**
+     * Queues what a follower needs to catch up from its epoch and offset, and adds it to the live followers.
+     */
+    private synchronized void join(Link link, long followerEpoch, long followerOffset) {
+        if (followerEpoch == epoch && followerOffset >= logStart && followerOffset <= offset && onBatchBoundary(followerOffset)) {
+            for (Batch batch : log) { // Only the batches it has not applied
+                if (batch.offset >= followerOffset) {
+                    link.send(batch.frame);
+                }
+            }
+        } else {
+            link.send(new Catchup(epoch, offset, snapshot));
+        }
+        links.add(link);
+    }
+
+    /**
+     * Checks whether an offset falls between two batches of the log, as the offset of a follower that applied them does.
+     */
+    private boolean onBatchBoundary(long followerOffset) {
+        if (followerOffset == offset) {
+            return true;
+        }
+        for (Batch batch : log) {
+            if (batch.offset == followerOffset) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long newEpoch() {
+        long epoch;
+        do {
+            epoch = ThreadLocalRandom.current().nextLong();
+        } while (epoch == 0); // A follower that has applied nothing says 0
+        return epoch;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) { // Nothing more to do with it
+        }
+    }
+
+    /**
+     * The connection to one follower and what is queued for it: batch frames and snapshots.
+     */
+    private final class Link {
+        private final Socket socket; // Connection to the follower
+        private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>(); // Frames and snapshots to write, in order
+        private final AtomicLong queuedBytes = new AtomicLong(); // Bytes of the frames queued
+        private final Deflater snapshotDeflater = new Deflater(Deflater.BEST_SPEED); // Compresses snapshot chunks, on the link's thread
+        private volatile boolean closed; // Whether the link was cut off
+
+        Link(Socket socket) {
+            this.socket = socket;
+        }
+
+        /**
+         * Queues a frame or snapshot, cutting the follower off if it is too far behind.
+         */
+        void send(Object item) {
+            if (closed) {
+                return;
+            }
+            if (item instanceof byte[] && queuedBytes.addAndGet(((byte[]) item).length) > MAX_QUEUED_BYTES) {
+                System.err.println("Follower " + socket.getRemoteSocketAddress() + " is too far behind; it will catch up when it reconnects");
+                close();
+                return;
+            }
+            queue.add(item);
+        }
+
+        /**
+         * Writes what is queued until the connection fails or is closed.
+         */
+        void run() throws IOException, InterruptedException {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 1 << 16);
+            List<Object> items = new ArrayList<>();
+            while (!closed) {
+                items.add(queue.take());
+                queue.drainTo(items);
+                for (Object item : items) {
+                    if (item instanceof byte[]) {
+                        byte[] frame = (byte[]) item;
+                        out.write(frame);
+                        queuedBytes.addAndGet(-frame.length);
+                        sentBytes.addAndGet(frame.length);
+                    } else {
+                        writeSnapshot(out, (Catchup) item);
+                    }
+                }
+                items.clear();
+                out.flush(); // One flush for everything queued
+            }
+        }
+
+        /**
+         * Writes a roster as chunks of changes that add each class and its students.
+         */
+        private void writeSnapshot(OutputStream out, Catchup catchup) throws IOException {
+            ReplicationCodec.writeSnapshotStart(out, catchup.epoch, catchup.offset);
+            List<RosterChange> chunk = new ArrayList<>(ReplicationCodec.SNAPSHOT_CHUNK_CHANGES);
+            long bytes = 17;
+            for (Map.Entry<String, StudentStore> entry : catchup.snapshot.getClasses().entrySet()) {
+                String className = entry.getKey();
+                StudentStore students = entry.getValue(); // Published stores never change
+                chunk.add(RosterChange.addClass(className));
+                for (int i = 0; i < students.size(); i++) {
+                    if (chunk.size() == ReplicationCodec.SNAPSHOT_CHUNK_CHANGES) {
+                        bytes += writeChunk(out, catchup.offset, chunk);
+                    }
+                    chunk.add(RosterChange.addStudent(className, students.get(i)));
+                }
+            }
+            if (!chunk.isEmpty()) {
+                bytes += writeChunk(out, catchup.offset, chunk);
+            }
+            ReplicationCodec.writeSnapshotEnd(out);
+            sentBytes.addAndGet(bytes + 1);
+        }
+
+        private int writeChunk(OutputStream out, long snapshotOffset, List<RosterChange> chunk) throws IOException {
+            byte[] frame = ReplicationCodec.encodeChanges(ReplicationCodec.SNAPSHOT_CHUNK, snapshotOffset, chunk, snapshotDeflater);
+            out.write(frame);
+            chunk.clear();
+            return frame.length;
+        }
+
+        /**
+         * Cuts the follower off; its thread ends at the next write.
+         */
+        void close() {
+            closed = true;
+            queue.add(new byte[0]); // Wakes the thread
+            closeQuietly(socket);
+        }
+    }
+}
@@ -0,0 +1,501 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Reads a class roster CSV file with lines of the form {@code class,rollno,name,address}.
+ * The file is memory-mapped, split into newline-aligned chunks and the chunks are parsed in parallel on a fork-join pool.
+ * Fields may be quoted to contain commas, see {@link CsvCodec}, but not line breaks, which always end a line. Lines that cannot be parsed are reported to a
+ * {@link MalformedLineHandler} in file order once parsing has finished. Students are stored straight into
+ * {@link StudentStore}s without creating strings for their names and addresses, and class names are
+ * dictionary-encoded while parsing, so each distinct class name is decoded once per chunk.
+ * Files larger than the heap can be streamed a student at a time with {@link #forEach}.
+ */
+public class RosterReader {
+    private static final int DEFAULT_CHUNK_SIZE = 16 << 20; // Bytes per chunk parsed by one task
+    private static final int WINDOW_SIZE = 1 << 16; // Bytes copied out of the mapping at a time
+    private static final int FIELDS = 4; // Fields per roster line
+
+    /**
+     * Receives the lines of a roster file that could not be parsed.
+     */
+    public interface MalformedLineHandler {
+        /** Logs each skipped line to standard error. */
+        MalformedLineHandler LOG = (lineNumber, line, reason) ->
+                System.err.println("Skipping invalid line " + lineNumber + ": " + line + " - " + reason);
+
+        /**
+         * Called once for every line that was skipped.
+         * @param lineNumber The 1-based number of the line in the file.
+         * @param line The text of the line.
+         * @param reason Why the line was skipped.
+         */
+        void malformedLine(long lineNumber, String line, String reason);
+    }
+
+    /**
+     * Receives the progress of a read.
+     */
+    public interface ProgressListener {
+        /**
+         * Called from the parsing threads as chunks of the file are parsed.
+         * @param bytesRead The number of bytes parsed so far.
+         * @param totalBytes The size of the file.
+         */
+        void progress(long bytesRead, long totalBytes);
+    }
+
+    /**
+     * Receives the students of a roster file one at a time, see {@link #forEach}.
+     */
+    public interface StudentHandler {
+        /**
+         * Called once for every student, in file order.
+         * @param className The name of the student's class.
+         * @param rollno The roll number of the student.
+         * @param name The name of the student.
+         * @param address The address of the student.
+         * @throws IOException If the student cannot be processed; reading stops.
+         */
+        void student(String className, int rollno, String name, String address) throws IOException;
+    }
+
+    private final ForkJoinPool pool; // Pool the chunks are parsed on
+    private final int chunkSize; // Target size of a chunk in bytes
+    private MalformedLineHandler malformedLineHandler = (lineNumber, line, reason) -> { }; // Ignore malformed lines by default
+    private ProgressListener progressListener = (bytesRead, totalBytes) -> { }; // Ignore progress by default
+    private BooleanSupplier cancelled = () -> false; // Never cancelled by default
+
+    /**
+     * Constructor to create a reader that parses on the common fork-join pool.
+     */
+    public RosterReader() {
+        this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructor to create a reader with the given pool and chunk size.
+     * @param pool The pool to parse the chunks on.
+     * @param chunkSize The target size of a chunk in bytes; chunks are extended to the end of their last line.
+     */
+    public RosterReader(ForkJoinPool pool, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Sets the handler that is told about lines that could not be parsed.
+     * @param handler The handler to report malformed lines to.
+     * @return This reader.
+     */
+    public RosterReader onMalformedLine(MalformedLineHandler handler) {
+        this.malformedLineHandler = handler;
+        return this;
+    }
+
+    /**
+     * Sets the listener that is told how much of the file has been parsed.
+     * @param listener The listener to report progress to; it must be thread-safe.
+     * @return This reader.
+     */
+    public RosterReader onProgress(ProgressListener listener) {
+        this.progressListener = listener;
+        return this;
+    }
+
+    /**
+     * Sets the condition under which a read is abandoned, checked between blocks of the file.
+     * @param cancelled Returns true once the read should stop with a {@link CancellationException}.
+     * @return This reader.
+     */
+    public RosterReader cancelWhen(BooleanSupplier cancelled) {
+        this.cancelled = cancelled;
+        return this;
+    }
+
+    /**
+     * Reads the roster file at the given path.
+     * @param path The path of the CSV file.
+     * @return A map of class names to student stores, with classes and students in the order they appear in the file.
+     * @throws IOException If the file cannot be read.
+     * @throws CancellationException If the read was cancelled.
+     */
+    public Map<String, StudentStore> read(Path path) throws IOException {
+        List<ChunkTask> tasks = new ArrayList<>(); // One task per chunk
+        AtomicLong bytesRead = new AtomicLong(); // Bytes parsed by all chunks
+        long size; // Size of the file
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = channel.size();
+            long start = 0; // Start of the next chunk
+            while (start < size) {
+                long end = start + chunkSize >= size ? size : nextLineStart(channel, start + chunkSize, size); // End the chunk after a newline
+                if (end - start > Integer.MAX_VALUE) { // A mapping cannot exceed 2 GB
+                    throw new IOException("Line starting near offset " + start + " is too long");
+                }
+                tasks.add(new ChunkTask(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start), start == 0, bytesRead, size)); // Mappings stay valid after the channel is closed
+                start = end;
+            }
+        }
+
+        if (tasks.size() == 1) { // A single chunk is parsed on this thread
+            tasks.get(0).invoke();
+        } else if (!tasks.isEmpty()) {
+            pool.submit(() -> ChunkTask.invokeAll(tasks)).join(); // Parse all chunks in parallel
+        }
+
+        Map<String, StudentStore> classMap = new LinkedHashMap<>(); // Merge the chunks in file order
+        long firstLine = 1; // Number of the first line of the current chunk
+        for (ChunkTask task : tasks) {
+            ChunkResult result = task.join();
+            for (Map.Entry<String, StudentStore> entry : result.classes.entrySet()) {
+                StudentStore students = classMap.get(entry.getKey());
+                if (students == null) { // First chunk that mentions this class
+                    classMap.put(entry.getKey(), entry.getValue());
+                } else {
+                    students.addAll(entry.getValue()); // Copies the text into the first chunk's arena
+                }
+            }
+            for (MalformedLine malformed : result.malformedLines) { // Report the skipped lines with their number in the file
+                malformedLineHandler.malformedLine(firstLine + malformed.index, malformed.line, malformed.reason);
+            }
+            firstLine += result.lines;
+        }
+        for (StudentStore students : classMap.values()) { // Drop the slack left by growing the stores
+            students.trimToSize();
+        }
+        return classMap;
+    }
+
+    /**
+     * Streams the students of a roster file in file order without keeping them, for files larger than the heap.
+     * The file is read sequentially on the calling thread; malformed lines are reported as they are found.
+     * @param path The path of the CSV file.
+     * @param handler The handler to pass each student to.
+     * @return The number of students read.
+     * @throws IOException If the file cannot be read or the handler fails.
+     * @throws CancellationException If the read was cancelled.
+     */
+    public long forEach(Path path, StudentHandler handler) throws IOException {
+        int[] bounds = new int[2 * FIELDS]; // Field bounds of the current line
+        byte[] window = new byte[WINDOW_SIZE]; // Bytes read from the file
+        byte[] lastClassBytes = null; // Class of the previous line, decoded once per run of lines; null if it had to be unescaped
+        String lastClassName = null;
+        long lineNumber = 0; // Number of the current line
+        long students = 0; // Students passed to the handler
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0; // Bytes read so far
+            int filled = 0; // Bytes in the window
+            boolean first = true; // Whether the window holds the start of the file
+            while (true) {
+                if (cancelled.getAsBoolean()) { // Stop early if the read was abandoned
+                    throw new CancellationException("Reading the roster was cancelled");
+                }
+                int read = channel.read(ByteBuffer.wrap(window, filled, window.length - filled));
+                boolean end = read < 0; // Whether the whole file has been read
+                if (!end) {
+                    filled += read;
+                    position += read;
+                    progressListener.progress(position, size);
+                }
+                int lineStart = 0; // Start of the current line in the window
+                if (first && filled >= 3 && window[0] == (byte) 0xEF && window[1] == (byte) 0xBB && window[2] == (byte) 0xBF) {
+                    lineStart = 3; // Skip the UTF-8 byte order mark
+                }
+                first = false;
+                for (int i = lineStart; i <= filled; i++) { // Parse every complete line, and the last one at the end of the file
+                    if (i == filled ? !end || i == lineStart : window[i] != '\n') {
+                        continue;
+                    }
+                    lineNumber++;
+                    int to = i > lineStart && window[i - 1] == '\r' ? i - 1 : i; // Strip the carriage return of CRLF line endings
+                    if (to > lineStart) { // Blank lines are ignored
+                        int fields = CsvCodec.split(window, lineStart, to, bounds);
+                        String reason = fields < 0 ? "Unterminated quoted field"
+                                : fields < FIELDS ? "Expected " + FIELDS + " fields but found " + fields : null;
+                        int rollno = 0;
+                        if (reason == null) {
+                            try {
+                                rollno = CsvCodec.parseInt(window, bounds, 1); // Parse the roll number without creating a string
+                            } catch (NumberFormatException e) {
+                                reason = e.getMessage();
+                            }
+                        }
+                        if (reason != null) {
+                            malformedLineHandler.malformedLine(lineNumber, new String(window, lineStart, to - lineStart, StandardCharsets.UTF_8), reason);
+                        } else {
+                            if (lastClassBytes == null || bounds[1] < 0 || !Arrays.equals(window, bounds[0], bounds[1], lastClassBytes, 0, lastClassBytes.length)) { // A new class
+                                lastClassName = CsvCodec.field(window, bounds, 0);
+                                lastClassBytes = bounds[1] < 0 ? null : Arrays.copyOfRange(window, bounds[0], bounds[1]);
+                            }
+                            handler.student(lastClassName, rollno, CsvCodec.field(window, bounds, 2), CsvCodec.field(window, bounds, 3));
+                            students++;
+                        }
+                    }
+                    lineStart = i + 1;
+                }
+                if (end) {
+                    return students;
+                }
+                System.arraycopy(window, lineStart, window, 0, filled - lineStart); // Keep the partial line
+                filled -= lineStart;
+                if (filled == window.length) { // A line longer than the window
+                    window = Arrays.copyOf(window, window.length * 2);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the start of the first line at or after the given position.
+     * @param channel The channel of the file.
+     * @param position The position to search from.
+     * @param size The size of the file.
+     * @return The position after the next newline, or the size of the file if there is none.
+     */
+    private static long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096); // Small buffer; lines are short
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * A line that could not be parsed, numbered relative to its chunk.
+     */
+    private static class MalformedLine {
+        final long index; // 0-based index of the line within its chunk
+        final String line; // Text of the line
+        final String reason; // Why the line was skipped
+
+        MalformedLine(long index, String line, String reason) {
+            this.index = index;
+            this.line = line;
+            this.reason = reason;
+        }
+    }
+
+    /**
+     * The students and malformed lines found in one chunk.
+     */
+    private static class ChunkResult {
+        final Map<String, StudentStore> classes = new LinkedHashMap<>(); // Students by class, in chunk order
+        final List<MalformedLine> malformedLines = new ArrayList<>(); // Skipped lines
+        long lines; // Number of lines in the chunk
+    }
+
+    /**
+     * A class name in a chunk's dictionary, with the store of its students.
+     */
+    private static class ClassEntry {
+        final int hash; // Hash of the name bytes
+        final byte[] name; // UTF-8 bytes of the class name
+        final StudentStore students = new StudentStore(); // Students of the class in this chunk
+
+        ClassEntry(int hash, byte[] name) {
+            this.hash = hash;
+            this.name = name;
+        }
+    }
+
+    /**
+     * Fork-join task that parses one newline-aligned chunk of the file.
+     */
+    private class ChunkTask extends RecursiveTask<ChunkResult> {
+        private final MappedByteBuffer chunk; // Mapped bytes of the chunk
+        private final boolean first; // Whether this chunk starts the file and may begin with a byte order mark
+        private final AtomicLong bytesRead; // Bytes parsed by all chunks of the file
+        private final long fileSize; // Size of the file
+        private final int[] bounds = new int[2 * FIELDS]; // Field bounds of the current line
+        private ChunkResult result; // Result being built
+        private ClassEntry[] dictionary = new ClassEntry[16]; // Open-addressing table of the class names seen in this chunk
+        private int dictionarySize; // Number of classes in the dictionary
+        private ClassEntry lastClass; // The class of the previous line, checked first since lines are usually grouped by class
+
+        ChunkTask(MappedByteBuffer chunk, boolean first, AtomicLong bytesRead, long fileSize) {
+            this.chunk = chunk;
+            this.first = first;
+            this.bytesRead = bytesRead;
+            this.fileSize = fileSize;
+        }
+
+        @Override
+        protected ChunkResult compute() {
+            result = new ChunkResult();
+            byte[] window = new byte[WINDOW_SIZE]; // Bytes copied out of the mapping
+            int limit = chunk.limit(); // Size of the chunk
+            int position = 0; // Next byte of the chunk to copy
+            int filled = 0; // Bytes in the window
+            int scanned = 0; // Bytes of the window already searched for newlines
+            if (first && limit >= 3 && chunk.get(0) == (byte) 0xEF && chunk.get(1) == (byte) 0xBB && chunk.get(2) == (byte) 0xBF) {
+                position = 3; // Skip the UTF-8 byte order mark
+            }
+            while (true) {
+                if (cancelled.getAsBoolean()) { // Stop early if the read was abandoned
+                    throw new CancellationException("Reading the roster was cancelled");
+                }
+                int read = Math.min(window.length - filled, limit - position); // Refill the window
+                chunk.get(position, window, filled, read);
+                position += read;
+                filled += read;
+                progressListener.progress(bytesRead.addAndGet(read), fileSize);
+                int lineStart = 0; // Start of the current line in the window
+                for (int i = scanned; i < filled; i++) { // Parse every complete line
+                    if (window[i] == '\n') {
+                        parseLine(window, lineStart, i);
+                        lineStart = i + 1;
+                    }
+                }
+                if (position == limit) { // The last line of the chunk may lack a newline
+                    if (lineStart < filled) {
+                        parseLine(window, lineStart, filled);
+                    }
+                    return result;
+                }
+                System.arraycopy(window, lineStart, window, 0, filled - lineStart); // Keep the partial line
+                filled -= lineStart;
+                scanned = filled;
+                if (filled == window.length) { // A line longer than the window
+                    window = Arrays.copyOf(window, window.length * 2);
+                }
+            }
+        }
+
+        /**
+         * Parses one line of the chunk and adds the student it describes.
+         * @param bytes The bytes holding the line.
+         * @param from The index of the first byte of the line.
+         * @param to The index of the newline, or of the end of the data.
+         */
+        private void parseLine(byte[] bytes, int from, int to) {
+            long index = result.lines++; // Index of this line within the chunk
+            if (to > from && bytes[to - 1] == '\r') { // Strip the carriage return of CRLF line endings
+                to--;
+            }
+            if (to == from) { // Blank lines are ignored
+                return;
+            }
+            int fields = CsvCodec.split(bytes, from, to, bounds); // Find the fields of the line
+            if (fields < 0) {
+                malformed(index, bytes, from, to, "Unterminated quoted field");
+                return;
+            }
+            if (fields < FIELDS) {
+                malformed(index, bytes, from, to, "Expected " + FIELDS + " fields but found " + fields);
+                return;
+            }
+            int rollno;
+            try {
+                rollno = CsvCodec.parseInt(bytes, bounds, 1); // Parse the roll number without creating a string
+            } catch (NumberFormatException e) {
+                malformed(index, bytes, from, to, e.getMessage());
+                return;
+            }
+            StudentStore students = classStudents(bytes); // Store of the line's class
+            if (bounds[5] >= 0 && bounds[7] >= 0) { // Copy the name and address bytes straight into the store
+                students.add(rollno, bytes, bounds[4], bounds[5] - bounds[4], bounds[6], bounds[7] - bounds[6]);
+            } else { // Fields with doubled quotes are decoded first
+                students.add(new Student(rollno, CsvCodec.field(bytes, bounds, 2), CsvCodec.field(bytes, bounds, 3)));
+            }
+        }
+
+        /**
+         * Returns the store of the class named in the current line, looking the name up in the chunk's dictionary.
+         * @param bytes The bytes holding the line.
+         * @return The students of the class.
+         */
+        private StudentStore classStudents(byte[] bytes) {
+            int start = bounds[0];
+            int end = bounds[1];
+            if (end < 0) { // Names with doubled quotes are rare, so they are decoded and looked up by string
+                String className = CsvCodec.field(bytes, bounds, 0);
+                byte[] utf8 = className.getBytes(StandardCharsets.UTF_8);
+                return lookup(utf8, 0, utf8.length).students;
+            }
+            if (lastClass != null && Arrays.equals(bytes, start, end, lastClass.name, 0, lastClass.name.length)) { // Same class as the last line
+                return lastClass.students;
+            }
+            lastClass = lookup(bytes, start, end);
+            return lastClass.students;
+        }
+
+        /**
+         * Finds the dictionary entry of a class name, adding it if it is new.
+         */
+        private ClassEntry lookup(byte[] bytes, int start, int end) {
+            int hash = 1; // Hash the name bytes
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + bytes[i];
+            }
+            int mask = dictionary.length - 1;
+            for (int slot = (hash ^ (hash >>> 16)) & mask; ; slot = (slot + 1) & mask) { // Linear probing
+                ClassEntry entry = dictionary[slot];
+                if (entry == null) { // New class
+                    entry = new ClassEntry(hash, Arrays.copyOfRange(bytes, start, end));
+                    result.classes.put(new String(entry.name, StandardCharsets.UTF_8), entry.students);
+                    dictionary[slot] = entry;
+                    if (++dictionarySize * 2 > dictionary.length) { // Keep the table at most half full
+                        rehash();
+                    }
+                    return entry;
+                }
+                if (entry.hash == hash && Arrays.equals(bytes, start, end, entry.name, 0, entry.name.length)) {
+                    return entry;
+                }
+            }
+        }
+
+        /**
+         * Doubles the size of the dictionary.
+         */
+        private void rehash() {
+            ClassEntry[] old = dictionary;
+            dictionary = new ClassEntry[old.length * 2];
+            int mask = dictionary.length - 1;
+            for (ClassEntry entry : old) {
+                if (entry != null) {
+                    int slot = (entry.hash ^ (entry.hash >>> 16)) & mask;
+                    while (dictionary[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    dictionary[slot] = entry;
+                }
+            }
+        }
+
+        /**
+         * Records a line that could not be parsed.
+         */
+        private void malformed(long index, byte[] bytes, int from, int to, String reason) {
+            result.malformedLines.add(new MalformedLine(index, new String(bytes, from, to - from, StandardCharsets.UTF_8), reason));
+        }
+    }
+}
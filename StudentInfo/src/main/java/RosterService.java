@@ -0,0 +1,554 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * An embedded HTTP/JSON service that gives several clients concurrent access to the class roster.
+ * <p>
+ * Requests are served by a {@link LoopbackHttpServer}, on a virtual thread per connection. Reads go to the current
+ * {@link RosterSnapshot}, which is immutable, so they never wait for a write and never see one half done. Writes are
+ * queued to a single writer thread, which applies everything queued so far to copies of the classes it touches,
+ * reports the batch to the {@link CommitListener} (which makes it durable, for example in a {@link RosterJournal}) and
+ * then publishes the next snapshot. A write therefore costs a copy of the columns and the lookup index of the classes
+ * it changes, and queued writes share that cost; the writer keeps the copied indexes up to date, so readers never
+ * rebuild one after a write.
+ * <p>
+ * Resources, with class names and roll numbers as path segments:
+ * <ul>
+ * <li>{@code GET /classes} lists the classes and their sizes; {@code POST /classes/{class}} adds a class and
+ * {@code DELETE /classes/{class}} deletes one.</li>
+ * <li>{@code GET /classes/{class}/students?offset=&limit=} pages through a class; {@code POST} to the same path adds
+ * the student in the body, {@code {"rollno":1,"name":"...","address":"..."}}.</li>
+ * <li>{@code GET}, {@code PUT} and {@code DELETE /classes/{class}/students/{rollno}} read, edit and delete a student.</li>
+ * <li>{@code GET /classes/{class}/search?name=&limit=} finds the students whose names start with a prefix.</li>
+ * <li>{@code GET /metrics} reports the {@link RosterMetrics} of the process.</li>
+ * </ul>
+ * When the roster belongs to the Student Manager window or a {@link RosterFollower} the service is read-only and its
+ * owner feeds the changes in through {@link #apply} and {@link #replace}. The commit listener may be a
+ * {@link RosterPrimary}, which streams each batch to followers.
+ */
+public class RosterService implements Closeable {
+    private static final int DEFAULT_PAGE = 100; // Students per page unless the request asks otherwise
+    private static final int MAX_PAGE = 10000; // Most students returned by one request
+    private static final int MAX_BATCH = 1024; // Most queued writes applied as one snapshot
+
+    /**
+     * Receives each batch of committed changes before its snapshot is published.
+     */
+    @FunctionalInterface
+    public interface CommitListener {
+        /**
+         * Called on the writer thread with the changes of a batch; the snapshot is only published if this returns.
+         * @param changes The changes, in the order they were applied.
+         * @param snapshot The snapshot that will be published.
+         * @throws IOException If the changes cannot be saved; the batch is then rejected.
+         */
+        void committed(List<RosterChange> changes, RosterSnapshot snapshot) throws IOException;
+
+        /**
+         * Called on the writer thread instead of {@link #committed} for a batch that replaced the roster, so that the
+         * snapshot may not follow from the changes alone; by default the changes are reported as committed.
+         * @param changes The changes of the batch, possibly empty.
+         * @param snapshot The snapshot that will be published.
+         * @throws IOException If the batch cannot be saved; it is then rejected.
+         */
+        default void replaced(List<RosterChange> changes, RosterSnapshot snapshot) throws IOException {
+            if (!changes.isEmpty()) {
+                committed(changes, snapshot);
+            }
+        }
+    }
+
+    /**
+     * A write waiting for the writer thread: changes to apply or a roster to replace the current one with.
+     */
+    private static class Write {
+        private final List<RosterChange> changes; // Changes to apply, or null for a replacement
+        private final Map<String, StudentStore> replacement; // Roster to publish instead, or null
+        private final boolean checked; // Whether the change is rejected if it does not fit the roster
+        private final CompletableFuture<Integer> done = new CompletableFuture<>(); // HTTP status of the outcome
+        private int status = 200; // Outcome so far
+
+        Write(List<RosterChange> changes, Map<String, StudentStore> replacement, boolean checked) {
+            this.changes = changes;
+            this.replacement = replacement;
+            this.checked = checked;
+        }
+    }
+
+    private static final Write STOP = new Write(Collections.emptyList(), null, false); // Ends the writer thread
+
+    private volatile RosterSnapshot current; // Latest published snapshot
+    private final BlockingQueue<Write> queue = new LinkedBlockingQueue<>(); // Writes waiting for the writer
+    private final Thread writer; // Single thread that applies writes
+    private CommitListener listener = (changes, snapshot) -> { }; // Saves committed changes
+    private boolean readOnly; // Whether HTTP writes are refused
+    private LoopbackHttpServer server; // Server, or null until started
+
+    /**
+     * Constructor to create a service over a roster. The service takes over the stores, which must not be changed
+     * elsewhere afterwards; classes of a binary roster are loaded now.
+     * @param roster The roster to serve.
+     */
+    public RosterService(Map<String, StudentStore> roster) {
+        current = new RosterSnapshot(0, new LinkedHashMap<>(roster), null, Set.of());
+        writer = new Thread(this::runWriter, "roster-writer"); // Name the thread for thread dumps
+        writer.setDaemon(true); // Never keep the application alive; close() drains the queue instead
+        writer.start();
+    }
+
+    /**
+     * Sets the listener that saves each committed batch of changes.
+     * @param listener The listener.
+     * @return This service.
+     */
+    public RosterService onCommit(CommitListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Makes the service refuse writes over HTTP, for when another owner of the roster feeds in its changes.
+     * @param readOnly True to refuse writes.
+     * @return This service.
+     */
+    public RosterService readOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+        return this;
+    }
+
+    /**
+     * Starts serving HTTP on the loopback interface.
+     * @param port The port to listen on, or 0 for any free port.
+     * @return This service.
+     * @throws IOException If the port cannot be bound.
+     */
+    public RosterService start(int port) throws IOException {
+        server = new LoopbackHttpServer(port, this::handle);
+        return this;
+    }
+
+    /**
+     * Returns the port the service listens on.
+     * @return The port.
+     */
+    public int getPort() {
+        return server.getPort();
+    }
+
+    /**
+     * Returns the latest published snapshot.
+     * @return The snapshot.
+     */
+    public RosterSnapshot snapshot() {
+        return current;
+    }
+
+    /**
+     * Queues changes that were already made to the roster's owner, such as the Student Manager window, so that the
+     * service follows them. They are applied as they are, like a journal replay.
+     * @param changes The changes, in the order they were made.
+     * @return A future that completes once the changes are published.
+     */
+    public CompletableFuture<Integer> apply(List<RosterChange> changes) {
+        return enqueue(new Write(new ArrayList<>(changes), null, false));
+    }
+
+    /**
+     * Queues a roster to publish instead of the current one, after a file was loaded or a class was sorted.
+     * The service takes over the stores; classes of a binary roster are loaded on the writer thread.
+     * @param roster The new roster.
+     * @return A future that completes once the roster is published.
+     */
+    public CompletableFuture<Integer> replace(Map<String, StudentStore> roster) {
+        return enqueue(new Write(null, roster, false));
+    }
+
+    /**
+     * Queues a change requested by a client, which is rejected if it does not fit the roster at the time it is applied.
+     * @param change The change.
+     * @return A future with the HTTP status of the outcome: 200 or 201 if applied, 404 if the class or student does
+     *         not exist and 409 if it already exists.
+     */
+    CompletableFuture<Integer> submit(RosterChange change) {
+        return enqueue(new Write(Collections.singletonList(change), null, true));
+    }
+
+    private CompletableFuture<Integer> enqueue(Write write) {
+        if (!writer.isAlive()) {
+            throw new IllegalStateException("Roster service is closed");
+        }
+        queue.add(write);
+        return write.done;
+    }
+
+    /**
+     * Stops serving HTTP and waits for the queued writes to be published.
+     */
+    @Override
+    public void close() {
+        if (server != null) {
+            try {
+                server.close(); // Requests in progress are cut off; their writes are still applied
+            } catch (IOException e) {
+                System.err.println("Failed to stop roster service: " + e.getMessage());
+            }
+        }
+        if (writer.isAlive()) {
+            queue.add(STOP);
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Applies queued writes in batches until stopped.
+     */
+    private void runWriter() {
+        List<Write> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) { // Only close() ends the writer
+                continue;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            boolean stop = batch.remove(STOP);
+            if (!batch.isEmpty()) {
+                commit(batch);
+            }
+            batch.clear();
+            if (stop) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Applies a batch of writes to copies of the classes they touch and publishes the result.
+     */
+    private void commit(List<Write> batch) {
+        RosterSnapshot base = current;
+        Map<String, StudentStore> classes = new LinkedHashMap<>(base.getClasses()); // Shares every store for now
+        Set<String> owned = new HashSet<>(); // Classes whose stores belong to this batch and may be changed
+        RosterChange.Applier applier = new RosterChange.Applier(classes); // Finds students through the copied indexes
+        List<RosterChange> committed = new ArrayList<>();
+        boolean replaced = false; // Whether the batch replaced the roster
+        try {
+            for (Write write : batch) {
+                if (write.replacement != null) {
+                    classes = new LinkedHashMap<>(write.replacement); // Loads lazy classes here, off the caller's thread
+                    owned = new HashSet<>(classes.keySet());
+                    applier = new RosterChange.Applier(classes);
+                    replaced = true;
+                    continue;
+                }
+                for (RosterChange change : write.changes) {
+                    makeWritable(change, classes, owned, base);
+                    int status = write.checked ? check(change, classes) : 200;
+                    if (status >= 300) {
+                        write.status = status;
+                        continue;
+                    }
+                    applier.apply(change);
+                    committed.add(change);
+                    write.status = status;
+                }
+            }
+            RosterSnapshot next = new RosterSnapshot(base.getVersion() + 1, classes, base, owned);
+            if (replaced) {
+                listener.replaced(committed, next);
+            } else if (!committed.isEmpty()) {
+                listener.committed(committed, next); // Durable before visible
+            }
+            current = next;
+            for (Write write : batch) {
+                write.done.complete(write.status);
+            }
+        } catch (IOException | RuntimeException e) { // Nothing is published, so the roster stays as it was
+            System.err.println("Failed to commit roster changes: " + e.getMessage());
+            for (Write write : batch) {
+                write.done.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a client's change fits the roster, once {@link #makeWritable} has given the class its index.
+     * @return The HTTP status of the outcome.
+     */
+    private static int check(RosterChange change, Map<String, StudentStore> classes) {
+        StudentStore students = classes.get(change.getClassName());
+        switch (change.getType()) {
+            case ADD_CLASS:
+                return students == null ? 201 : 409;
+            case RENAME_CLASS:
+                return students == null ? 404 : classes.containsKey(change.getNewClassName()) ? 409 : 200;
+            case DELETE_CLASS:
+                return students == null ? 404 : 200;
+            case ADD_STUDENT:
+                return students == null ? 404 : students.index().positionOf(change.getRollno()) >= 0 ? 409 : 201;
+            default: // Edits and deletions of students
+                return students == null || students.index().positionOf(change.getRollno()) < 0 ? 404 : 200;
+        }
+    }
+
+    /**
+     * Replaces the store a change is about to modify by a copy, unless the batch already owns it, so the stores of
+     * published snapshots are never changed. The copy gets a copy of the class's index in the base snapshot, or a new
+     * index if the base has none yet, which it keeps in sync with the changes for the next snapshot; building an index
+     * is left to the writer, so readers of a class that is being written never sort it.
+     */
+    private static void makeWritable(RosterChange change, Map<String, StudentStore> classes, Set<String> owned, RosterSnapshot base) {
+        String className = change.getClassName();
+        switch (change.getType()) {
+            case ADD_CLASS:
+                if (!classes.containsKey(className)) { // The change creates a new store
+                    owned.add(className);
+                }
+                break;
+            case RENAME_CLASS:
+                if (classes.containsKey(className) && !classes.containsKey(change.getNewClassName())) { // The store moves
+                    owned.remove(change.getNewClassName());
+                    if (owned.remove(className)) {
+                        owned.add(change.getNewClassName());
+                    }
+                }
+                break;
+            case DELETE_CLASS:
+                owned.remove(className);
+                break;
+            default: // Student changes modify the store, or create it if the class is missing
+                if (owned.add(className)) {
+                    StudentStore students = classes.get(className);
+                    if (students != null) {
+                        StudentStore copy = students.copy();
+                        StudentIndex index = base.builtIndex(className, students);
+                        copy.useIndex(index != null ? index.copyFor(copy) : new StudentIndex(copy));
+                        classes.put(className, copy);
+                    }
+                }
+        }
+    }
+
+    /**
+     * Handles an HTTP request on the connection's virtual thread.
+     */
+    private LoopbackHttpServer.Response handle(LoopbackHttpServer.Request request) {
+        try {
+            List<String> path = pathSegments(request.getRawPath());
+            String method = request.getMethod();
+            if (path.size() == 1 && path.get(0).equals("metrics")) { // Read-only, even when the roster is not
+                return method.equals("GET") ? response(200, RosterMetrics.toJson()) : response(405, error("Metrics can only be read"));
+            }
+            if (path.isEmpty() || !path.get(0).equals("classes") || path.size() > 4) {
+                return response(404, error("No such resource"));
+            } else if (method.equals("GET")) {
+                return read(path, queryParameters(request.getRawQuery()));
+            } else if (readOnly) {
+                return response(403, error("The roster is read-only here; it is changed in the Student Manager window or on the primary"));
+            } else {
+                return write(method, path, request.getBody());
+            }
+        } catch (IllegalArgumentException e) { // Bad path, query or body
+            return response(400, error(e.getMessage()));
+        }
+    }
+
+    /**
+     * Answers a GET request from the current snapshot.
+     */
+    private LoopbackHttpServer.Response read(List<String> path, Map<String, String> query) {
+        RosterSnapshot snapshot = current; // One snapshot for the whole request
+        StringBuilder json = new StringBuilder();
+        if (path.size() == 1) { // GET /classes
+            json.append("{\"version\":").append(snapshot.getVersion()).append(",\"classes\":[");
+            boolean first = true;
+            for (Map.Entry<String, StudentStore> entry : snapshot.getClasses().entrySet()) {
+                json.append(first ? "" : ",").append("{\"name\":");
+                JsonCodec.appendString(json, entry.getKey()).append(",\"students\":").append(entry.getValue().size()).append('}');
+                first = false;
+            }
+            return response(200, json.append("]}").toString());
+        }
+        String className = path.get(1);
+        StudentStore students = snapshot.students(className);
+        if (students == null) {
+            return response(404, error("No class " + className));
+        } else if (path.size() == 2) { // GET /classes/{class}
+            json.append("{\"name\":");
+            JsonCodec.appendString(json, className).append(",\"students\":").append(students.size()).append('}');
+            return response(200, json.toString());
+        } else if (path.get(2).equals("students") && path.size() == 3) { // GET /classes/{class}/students
+            int offset = Math.min(intParameter(query, "offset", 0), students.size());
+            int end = offset + Math.min(students.size() - offset, Math.min(intParameter(query, "limit", DEFAULT_PAGE), MAX_PAGE));
+            json.append("{\"total\":").append(students.size()).append(",\"offset\":").append(offset).append(",\"students\":[");
+            for (int i = offset; i < end; i++) {
+                JsonCodec.appendStudent(json.append(i > offset ? "," : ""), students.getRollno(i), students.getName(i), students.getAddress(i));
+            }
+            return response(200, json.append("]}").toString());
+        } else if (path.get(2).equals("students")) { // GET /classes/{class}/students/{rollno}
+            int position = snapshot.index(className).positionOf(parseRollno(path.get(3)));
+            if (position < 0) {
+                return response(404, error("No student " + path.get(3) + " in class " + className));
+            } else {
+                return response(200, JsonCodec.appendStudent(json, students.getRollno(position), students.getName(position), students.getAddress(position)).toString());
+            }
+        } else if (path.get(2).equals("search") && path.size() == 3) { // GET /classes/{class}/search?name=
+            String prefix = query.getOrDefault("name", "");
+            int[] positions = snapshot.index(className).positionsWithNamePrefix(prefix, Math.min(intParameter(query, "limit", DEFAULT_PAGE), MAX_PAGE));
+            json.append("{\"students\":[");
+            for (int i = 0; i < positions.length; i++) {
+                int position = positions[i];
+                JsonCodec.appendStudent(json.append(i > 0 ? "," : ""), students.getRollno(position), students.getName(position), students.getAddress(position));
+            }
+            return response(200, json.append("]}").toString());
+        } else {
+            return response(404, error("No such resource"));
+        }
+    }
+
+    /**
+     * Queues the change a POST, PUT or DELETE request asks for and answers once it is published.
+     */
+    private LoopbackHttpServer.Response write(String method, List<String> path, byte[] body) {
+        if (path.size() < 2) {
+            return response(405, error(method + " is not allowed on /classes"));
+        }
+        String className = path.get(1);
+        RosterChange change;
+        if (path.size() == 2 && method.equals("POST")) {
+            change = RosterChange.addClass(text(className, "class name"));
+        } else if (path.size() == 2 && method.equals("DELETE")) {
+            change = RosterChange.deleteClass(className);
+        } else if (path.size() == 3 && path.get(2).equals("students") && method.equals("POST")) {
+            Map<String, String> student = parseBody(body);
+            change = RosterChange.addStudent(text(className, "class name"), new Student(parseRollno(required(student, "rollno")),
+                    text(required(student, "name"), "name"), text(required(student, "address"), "address")));
+        } else if (path.size() == 4 && path.get(2).equals("students") && method.equals("PUT")) {
+            Map<String, String> student = parseBody(body);
+            change = RosterChange.editStudent(className, new Student(parseRollno(path.get(3)),
+                    text(required(student, "name"), "name"), text(required(student, "address"), "address")));
+        } else if (path.size() == 4 && path.get(2).equals("students") && method.equals("DELETE")) {
+            change = RosterChange.deleteStudent(className, parseRollno(path.get(3)));
+        } else {
+            return response(405, error(method + " is not allowed here"));
+        }
+        int status;
+        try {
+            status = submit(change).join(); // Virtual threads wait cheaply
+        } catch (CompletionException e) { // The batch could not be saved
+            return response(503, error("Failed to save the change: " + e.getCause().getMessage()));
+        }
+        switch (status) {
+            case 404:
+                return response(404, error("No such class or student"));
+            case 409:
+                return response(409, error("The class or student already exists"));
+            default:
+                return response(status, "{\"version\":" + current.getVersion() + "}");
+        }
+    }
+
+    private static LoopbackHttpServer.Response response(int status, String json) {
+        return new LoopbackHttpServer.Response(status, json);
+    }
+
+    private static String error(String message) {
+        return JsonCodec.appendString(new StringBuilder("{\"error\":"), message).append('}').toString();
+    }
+
+    private static Map<String, String> parseBody(byte[] body) {
+        return JsonCodec.parseObject(new String(body, StandardCharsets.UTF_8));
+    }
+
+    private static String required(Map<String, String> body, String member) {
+        String value = body.get(member);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing " + member);
+        }
+        return value;
+    }
+
+    /**
+     * Checks that text to store holds no control characters, such as line breaks the roster files cannot hold.
+     */
+    private static String text(String value, String what) {
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.isISOControl(value.charAt(i))) {
+                throw new IllegalArgumentException("The " + what + " must not contain control characters");
+            }
+        }
+        return value;
+    }
+
+    private static int parseRollno(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid roll number: " + value);
+        }
+    }
+
+    private static int intParameter(Map<String, String> query, String name, int defaultValue) {
+        String value = query.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed < 0) {
+                throw new IllegalArgumentException(name + " must not be negative");
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+    }
+
+    /**
+     * Splits a raw path into decoded segments, so class names may contain encoded slashes.
+     */
+    private static List<String> pathSegments(String rawPath) {
+        List<String> segments = new ArrayList<>();
+        for (String segment : rawPath.split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(decode(segment.replace("+", "%2B"))); // A plus is only a space in queries
+            }
+        }
+        return segments;
+    }
+
+    private static Map<String, String> queryParameters(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery != null) {
+            for (String parameter : rawQuery.split("&")) {
+                int equals = parameter.indexOf('=');
+                if (equals >= 0) {
+                    parameters.put(decode(parameter.substring(0, equals)), decode(parameter.substring(equals + 1)));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,92 @@
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable view of the class roster at one point in time, as published by the {@link RosterService}.
+ * The stores of a snapshot are never changed once it is published, so any number of threads can read it without
+ * locking while the service's writer builds the next snapshot. The lookup index of a class is built on first use and
+ * carried over to later snapshots in which the class did not change; for a class that changed, the writer copies the
+ * index along with the store and keeps it in sync with the changes, so readers do not build it again.
+ */
+public final class RosterSnapshot {
+    private final long version; // Number of write batches before this snapshot
+    private final Map<String, StudentStore> classes; // Class names to students, read-only
+    private final ConcurrentHashMap<String, StudentIndex> indexes = new ConcurrentHashMap<>(); // Indexes built so far
+
+    /**
+     * Constructor to create a snapshot.
+     * @param version The version of the snapshot.
+     * @param classes The classes, which must not be changed afterwards.
+     * @param previous The snapshot this one follows, whose indexes are kept for unchanged classes, or null.
+     * @param changed The classes whose stores were changed for this snapshot, whose indexes, if they have any, are
+     *                complete and kept as they are.
+     */
+    RosterSnapshot(long version, Map<String, StudentStore> classes, RosterSnapshot previous, Set<String> changed) {
+        this.version = version;
+        this.classes = Collections.unmodifiableMap(classes);
+        if (previous != null) {
+            for (Map.Entry<String, StudentIndex> entry : previous.indexes.entrySet()) {
+                if (classes.get(entry.getKey()) == previous.classes.get(entry.getKey())) { // Same store, so the same index
+                    indexes.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        for (String className : changed) {
+            StudentStore students = classes.get(className);
+            StudentIndex index = students == null ? null : students.builtIndex();
+            if (index != null) {
+                index.positionOf(0); // Builds a roll number map the changes dropped here rather than on a reader thread
+                indexes.put(className, index);
+            }
+        }
+    }
+
+    // Getters for the version and the classes
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Map<String, StudentStore> getClasses() {
+        return classes;
+    }
+
+    /**
+     * Returns the students of a class. The store must only be read.
+     * @param className The name of the class.
+     * @return The students, or null if there is no such class.
+     */
+    public StudentStore students(String className) {
+        return classes.get(className);
+    }
+
+    /**
+     * Returns the built lookup index of a class, for the writer to copy into the next snapshot.
+     * @param className The name of the class.
+     * @param students The store the class has in this snapshot.
+     * @return The index, or null if it is not built or the class has another store.
+     */
+    StudentIndex builtIndex(String className, StudentStore students) {
+        return classes.get(className) == students ? indexes.get(className) : null;
+    }
+
+    /**
+     * Returns the lookup index of a class, building it on first use.
+     * The index is complete when it is returned, so it is only read from then on and can be shared between threads.
+     * @param className The name of the class.
+     * @return The index, or null if there is no such class.
+     */
+    public StudentIndex index(String className) {
+        StudentStore students = classes.get(className);
+        if (students == null) {
+            return null;
+        }
+        return indexes.computeIfAbsent(className, k -> {
+            StudentIndex index = new StudentIndex(students); // Not through students.index(), which would change the store
+            index.positionOf(0); // Build the roll number map now rather than on a reader thread later
+            return index;
+        });
+    }
+}
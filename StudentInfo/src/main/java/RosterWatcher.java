@@ -0,0 +1,702 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Watches a directory for roster CSV files written by other systems and turns each new or changed file into the
+ * {@link RosterChange}s that bring the roster in line with it.
+ * A changed file is compared with the version read last in fixed-size blocks, hashed from the start and from the end
+ * of the file, which finds the changed byte range even when lines were inserted or removed. Only that range is
+ * parsed, to learn which classes it touches, and only the lines of those classes are read again, from the byte
+ * ranges the watcher remembers for them. Their students are compared with the last version by roll number and a
+ * hash of the name and address, so only the students that changed become changes, and reloading costs time in
+ * proportion to the change and the classes it touches rather than to the file. Files written class by class reload
+ * fastest; when the lines of different classes are mixed, every class with a line near a change is read again. The
+ * first time a file is seen all of it is read.
+ * Students removed from a file are deleted, and students of the roster that never were in the file are left alone,
+ * so each class should come from one file. Deleting a file leaves its students in the roster.
+ */
+public class RosterWatcher implements Closeable {
+    private static final int BLOCK_SIZE = 4 << 10; // Bytes per hashed block; small blocks keep the changed regions, and the classes they touch, few
+    private static final int WINDOW_SIZE = 64 << 10; // Bytes copied out of the mapping at a time
+    private static final long SETTLE_NANOS = 300_000_000L; // Quiet time after a file's last event before it is read, so a file being written is read once
+    private static final String EXTENSION = ".csv"; // Files watched
+    private static final int FIELDS = 4; // Fields per roster line
+
+    /**
+     * Receives the changes found in a file.
+     */
+    public interface ChangeListener {
+        /**
+         * Called on the watcher's thread each time a file was read and differs from its last version.
+         * @param file The file that changed.
+         * @param changes The changes to apply to the roster, in file order by class, never empty.
+         */
+        void changed(Path file, List<RosterChange> changes);
+    }
+
+    /**
+     * Receives the errors met while reading files.
+     */
+    public interface ErrorHandler {
+        /**
+         * Called on the watcher's thread when a file cannot be read; the file is read again on its next change.
+         * @param file The file, or the directory if it can no longer be watched.
+         * @param e The error.
+         */
+        void failed(Path file, IOException e);
+    }
+
+    private final Path directory; // Directory being watched
+    private final Map<Path, FileState> files = new HashMap<>(); // What is known of each file read
+    private ChangeListener changeListener = (file, changes) -> { }; // Ignore changes by default
+    private RosterReader.MalformedLineHandler malformedLineHandler = (lineNumber, line, reason) -> { }; // Ignore malformed lines by default
+    private ErrorHandler errorHandler = (file, e) -> { }; // Ignore errors by default
+    private WatchService watchService; // Service notifying of changes, or null if not started
+    private Thread thread; // Thread reading changed files, or null if not started
+    private long countedOffset; // Offset up to which the newlines of the file being read were counted
+    private long countedLines; // Newlines before countedOffset
+
+    /**
+     * Constructor to watch a directory.
+     * @param directory The directory holding the roster CSV files.
+     */
+    public RosterWatcher(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Sets the listener that receives the changes found in each file.
+     * @param listener The listener, called on the watcher's thread.
+     * @return This watcher.
+     */
+    public RosterWatcher onChanges(ChangeListener listener) {
+        this.changeListener = listener;
+        return this;
+    }
+
+    /**
+     * Sets the handler told about the lines that are skipped because they cannot be parsed. A line is reported when
+     * it is read, so a malformed line is reported again only if the lines around it change.
+     * @param handler The handler, called on the watcher's thread.
+     * @return This watcher.
+     */
+    public RosterWatcher onMalformedLine(RosterReader.MalformedLineHandler handler) {
+        this.malformedLineHandler = handler;
+        return this;
+    }
+
+    /**
+     * Sets the handler told about files that cannot be read.
+     * @param handler The handler, called on the watcher's thread.
+     * @return This watcher.
+     */
+    public RosterWatcher onError(ErrorHandler handler) {
+        this.errorHandler = handler;
+        return this;
+    }
+
+    /**
+     * Returns the directory being watched.
+     * @return The directory.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Starts watching on a background thread, which first reads the CSV files already in the directory.
+     * @return This watcher.
+     * @throws IOException If the directory cannot be watched.
+     */
+    public RosterWatcher start() throws IOException {
+        if (thread != null) {
+            throw new IllegalStateException("Watcher already started");
+        }
+        watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        thread = Thread.ofPlatform().daemon().name("roster-watch").start(this::watch); // A daemon, so watching never keeps the JVM alive
+        return this;
+    }
+
+    /**
+     * Stops watching. Changes being read are still delivered.
+     * @throws IOException If the watch service cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (watchService != null) {
+            watchService.close(); // Wakes the thread, which then stops
+        }
+    }
+
+    /**
+     * Reads a file and returns how it changed since it was last read. Called by the watcher's thread for every
+     * changed file; before {@link #start} it may be called on any one thread, to read files synchronously.
+     * @param file The CSV file to read.
+     * @return The changes, empty if the file did not change or no longer exists.
+     * @throws IOException If the file cannot be read or is larger than 2 GB.
+     */
+    public List<RosterChange> refresh(Path file) throws IOException {
+        FileState state = files.computeIfAbsent(file, f -> new FileState());
+        List<RosterChange> changes = new ArrayList<>();
+        try (RosterMetrics.Sample sample = RosterMetrics.WATCH.start(file.getFileName().toString());
+                FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("File too large to watch: " + length + " bytes");
+            }
+            int size = (int) length;
+            ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int[] front = blockHashes(bytes, false);
+            int[] back = blockHashes(bytes, true);
+            List<Region> regions = changedRegions(state, size, front, back);
+            extendToLines(regions, bytes);
+            BitSet affected = new BitSet(); // Classes with lines in the changed regions, before or after the change
+            Runs pieces = new Runs(); // Runs of the new version, unsorted
+            for (int i = 0; i < state.runs.count; i++) { // Keep the runs outside the regions, moved by the bytes inserted or removed before them
+                splitRun(state.runs.start[i], state.runs.end[i], state.runs.classId[i], regions, pieces, affected);
+            }
+            countedOffset = 0;
+            countedLines = 0;
+            long parsed = 0; // Bytes parsed
+            int[] bounds = new int[2 * FIELDS];
+            for (Region region : regions) {
+                parsed += region.newEnd - region.newStart;
+                parseRegion(bytes, region, state, pieces, affected, bounds);
+            }
+            Runs runs = pieces.sorted();
+            parsed += diffClasses(bytes, state, runs, affected, changes, bounds);
+            state.size = size;
+            state.front = front;
+            state.back = back;
+            state.runs = runs;
+            sample.rows(changes.size());
+            sample.bytes(parsed);
+        } catch (NoSuchFileException e) { // Deleted before it could be read
+            files.remove(file);
+            return List.of();
+        }
+        return changes;
+    }
+
+    /**
+     * Body of the watcher's thread: reads every CSV file once, then each file that changes once it has been quiet
+     * for a while.
+     */
+    private void watch() {
+        Map<Path, Long> pending = new HashMap<>(); // Files to read, with the time of their last event
+        scanDirectory(pending, System.nanoTime() - SETTLE_NANOS); // Files already there are read at once
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                long wait = Long.MAX_VALUE; // Nanoseconds until the next pending file has settled
+                Iterator<Map.Entry<Path, Long>> iterator = pending.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<Path, Long> entry = iterator.next();
+                    long settled = entry.getValue() + SETTLE_NANOS - now;
+                    if (settled <= 0) {
+                        iterator.remove();
+                        read(entry.getKey());
+                    } else {
+                        wait = Math.min(wait, settled);
+                    }
+                }
+                WatchKey key = wait == Long.MAX_VALUE ? watchService.take() : watchService.poll(wait, TimeUnit.NANOSECONDS);
+                if (key == null) {
+                    continue;
+                }
+                now = System.nanoTime();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) { // Events were lost, so check every file
+                        scanDirectory(pending, now);
+                    } else {
+                        Path file = directory.resolve((Path) event.context());
+                        if (isRoster(file)) {
+                            pending.put(file, now);
+                        }
+                    }
+                }
+                if (!key.reset()) { // The directory is gone
+                    errorHandler.failed(directory, new NoSuchFileException(directory.toString(), null, "Directory can no longer be watched"));
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) { // Closed
+        }
+    }
+
+    /**
+     * Reads a changed file and delivers its changes.
+     */
+    private void read(Path file) {
+        try {
+            List<RosterChange> changes = refresh(file);
+            if (!changes.isEmpty()) {
+                changeListener.changed(file, changes);
+            }
+        } catch (IOException e) {
+            errorHandler.failed(file, e);
+        }
+    }
+
+    /**
+     * Marks every CSV file of the directory as changed.
+     */
+    private void scanDirectory(Map<Path, Long> pending, long time) {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                if (isRoster(file)) {
+                    pending.put(file, time);
+                }
+            }
+        } catch (IOException e) {
+            errorHandler.failed(directory, e);
+        }
+    }
+
+    private static boolean isRoster(Path file) {
+        return file.getFileName().toString().toLowerCase().endsWith(EXTENSION) && Files.isRegularFile(file);
+    }
+
+    /**
+     * Hashes a file in blocks, either from its start, where the last block may be short, or from its end, where the
+     * first block may be short.
+     */
+    private static int[] blockHashes(ByteBuffer bytes, boolean fromEnd) {
+        int size = bytes.limit();
+        int[] hashes = new int[(size + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        CRC32C crc = new CRC32C(); // Hashes at memory speed with the CPU's CRC instructions
+        for (int block = 0; block < hashes.length; block++) {
+            int end = fromEnd ? size - block * BLOCK_SIZE : Math.min(size, (block + 1) * BLOCK_SIZE);
+            int start = fromEnd ? Math.max(0, end - BLOCK_SIZE) : block * BLOCK_SIZE;
+            crc.reset();
+            crc.update(bytes.slice(start, end - start));
+            hashes[block] = (int) crc.getValue();
+        }
+        return hashes;
+    }
+
+    /**
+     * Compares the block hashes of a file with those of its last version. A file of the same size changes in the
+     * blocks whose hashes differ; a file whose size changed changes in one region, between the whole blocks that
+     * match from the start and those that match from the end.
+     */
+    private static List<Region> changedRegions(FileState state, int size, int[] front, int[] back) {
+        List<Region> regions = new ArrayList<>();
+        if (size == state.size) {
+            for (int block = 0; block < front.length; block++) {
+                if (front[block] != state.front[block]) {
+                    int start = block * BLOCK_SIZE;
+                    int end = Math.min(size, start + BLOCK_SIZE);
+                    Region last = regions.isEmpty() ? null : regions.get(regions.size() - 1);
+                    if (last != null && last.newEnd == start) { // Adjacent to the last changed block
+                        last.oldEnd = end;
+                        last.newEnd = end;
+                    } else {
+                        regions.add(new Region(start, end, start, end));
+                    }
+                }
+            }
+            return regions;
+        }
+        int whole = Math.min(size, state.size) / BLOCK_SIZE; // Blocks that are whole in both versions
+        int prefix = 0; // Blocks unchanged from the start
+        while (prefix < whole && front[prefix] == state.front[prefix]) {
+            prefix++;
+        }
+        int suffix = 0; // Blocks unchanged from the end, not overlapping the prefix
+        while (suffix < whole - prefix && back[suffix] == state.back[suffix]) {
+            suffix++;
+        }
+        regions.add(new Region(prefix * BLOCK_SIZE, state.size - suffix * BLOCK_SIZE, prefix * BLOCK_SIZE, size - suffix * BLOCK_SIZE));
+        return regions;
+    }
+
+    /**
+     * Widens the regions to whole lines, merging those that meet. A region starts after a newline before it and ends
+     * after a newline after it, so both newlines lie in unchanged bytes and the bounds are line bounds in both
+     * versions of the file.
+     */
+    private static void extendToLines(List<Region> regions, ByteBuffer bytes) {
+        int size = bytes.limit();
+        List<Region> extended = new ArrayList<>(regions.size());
+        for (int i = 0; i < regions.size(); i++) {
+            Region region = regions.get(i);
+            int start = region.newStart;
+            while (start > 0 && bytes.get(start - 1) != '\n') {
+                start--;
+            }
+            Region last = extended.isEmpty() ? null : extended.get(extended.size() - 1);
+            if (last != null && start < last.newEnd) { // Reaches back into the last region
+                last.oldEnd = region.oldEnd;
+                last.newEnd = region.newEnd;
+                region = last;
+            } else {
+                region.oldStart -= region.newStart - start;
+                region.newStart = start;
+                extended.add(region);
+            }
+            while (true) {
+                int end = region.newEnd;
+                while (end < size && bytes.get(end) != '\n') {
+                    end++;
+                }
+                end = Math.min(size, end + 1);
+                if (i + 1 < regions.size() && regions.get(i + 1).newStart < end) { // Runs into the next region, so take it in
+                    Region next = regions.get(++i);
+                    region.oldEnd = next.oldEnd;
+                    region.newEnd = next.newEnd;
+                    continue;
+                }
+                region.oldEnd += end - region.newEnd;
+                region.newEnd = end;
+                break;
+            }
+        }
+        regions.clear();
+        regions.addAll(extended);
+    }
+
+    /**
+     * Keeps the parts of a run of the last version that lie outside the changed regions, at their offsets in the new
+     * version, and marks the run's class as affected if part of it lies inside one.
+     */
+    private static void splitRun(int start, int end, int classId, List<Region> regions, Runs pieces, BitSet affected) {
+        int low = 0; // First region that ends after the run starts
+        int high = regions.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (regions.get(mid).oldEnd > start) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        int shift = low == 0 ? 0 : regions.get(low - 1).shift(); // Bytes inserted before the run, or removed if negative
+        int position = start;
+        for (int k = low; position < end; k++) {
+            Region region = k < regions.size() ? regions.get(k) : null;
+            if (region == null || region.oldStart >= end) { // The rest of the run is unchanged
+                pieces.add(position + shift, end + shift, classId);
+                break;
+            }
+            if (region.oldStart > position) {
+                pieces.add(position + shift, region.oldStart + shift, classId);
+            }
+            if (region.oldEnd > Math.max(position, region.oldStart)) { // Lines of the class lie in the region
+                affected.set(classId);
+            }
+            position = Math.max(position, region.oldEnd);
+            shift = region.shift();
+        }
+    }
+
+    /**
+     * Parses the lines of a changed region of the new version, adding their runs and marking their classes as
+     * affected. Malformed lines are reported and left out of the runs.
+     */
+    private void parseRegion(ByteBuffer bytes, Region region, FileState state, Runs pieces, BitSet affected, int[] bounds) {
+        Lines lines = new Lines(bytes).range(region.newStart, region.newEnd);
+        while (lines.next()) {
+            if (lines.to == lines.from) { // Blank lines are ignored
+                continue;
+            }
+            int fields = CsvCodec.split(lines.window, lines.from, lines.to, bounds);
+            String reason = fields < 0 ? "Unterminated quoted field" : fields < FIELDS ? "Expected " + FIELDS + " fields but found " + fields : null;
+            if (reason == null) {
+                try {
+                    CsvCodec.parseInt(lines.window, bounds, 1);
+                } catch (NumberFormatException e) {
+                    reason = e.getMessage();
+                }
+            }
+            if (reason != null) {
+                String line = new String(lines.window, lines.from, lines.to - lines.from, StandardCharsets.UTF_8);
+                malformedLineHandler.malformedLine(lineNumber(bytes, lines.start), line, reason);
+                continue;
+            }
+            int classId = state.classId(lines.window, bounds);
+            pieces.add(lines.start, lines.end, classId);
+            affected.set(classId);
+        }
+    }
+
+    /**
+     * Reads the lines of each affected class again and compares its students with the last version: students that
+     * are new or whose name or address changed are added, which updates them if the class has them, and students that
+     * are gone are deleted.
+     * @return The bytes parsed.
+     */
+    private static long diffClasses(ByteBuffer bytes, FileState state, Runs runs, BitSet affected, List<RosterChange> changes, int[] bounds) {
+        Map<Integer, Runs> classRuns = new HashMap<>(); // Runs of each affected class
+        for (int i = 0; i < runs.count; i++) {
+            if (affected.get(runs.classId[i])) {
+                classRuns.computeIfAbsent(runs.classId[i], c -> new Runs()).add(runs.start[i], runs.end[i], runs.classId[i]);
+            }
+        }
+        Lines lines = new Lines(bytes); // Reused for every run
+        long parsed = 0;
+        for (int classId = affected.nextSetBit(0); classId >= 0; classId = affected.nextSetBit(classId + 1)) {
+            String className = state.classNames.get(classId);
+            IntIntHashMap previous = state.rows.get(classId); // Hash of each student of the last version, or null
+            IntIntHashMap current = new IntIntHashMap(previous == null ? 0 : previous.size());
+            Runs ranges = classRuns.get(classId);
+            for (int i = 0; ranges != null && i < ranges.count; i++) {
+                parsed += ranges.end[i] - ranges.start[i];
+                lines.range(ranges.start[i], ranges.end[i]);
+                while (lines.next()) {
+                    if (CsvCodec.split(lines.window, lines.from, lines.to, bounds) < FIELDS) { // Runs hold only parsed lines, so this is a safeguard
+                        continue;
+                    }
+                    int rollno = CsvCodec.parseInt(lines.window, bounds, 1);
+                    int hash = 31 * fieldHash(lines.window, bounds, 2) + fieldHash(lines.window, bounds, 3) & Integer.MAX_VALUE; // Values of the map must not be negative
+                    current.put(rollno, hash);
+                    if (previous == null || previous.get(rollno) != hash) {
+                        changes.add(RosterChange.addStudent(className,
+                                new Student(rollno, CsvCodec.field(lines.window, bounds, 2), CsvCodec.field(lines.window, bounds, 3))));
+                    }
+                }
+            }
+            if (previous != null) {
+                previous.forEachKey(rollno -> {
+                    if (current.get(rollno) == IntIntHashMap.MISSING) {
+                        changes.add(RosterChange.deleteStudent(className, rollno));
+                    }
+                });
+            }
+            state.rows.set(classId, current.size() == 0 ? null : current);
+        }
+        return parsed;
+    }
+
+    /**
+     * Hashes the raw bytes of a field, telling fields with doubled quotes apart from plain ones.
+     */
+    private static int fieldHash(byte[] line, int[] bounds, int index) {
+        int start = bounds[2 * index];
+        int end = bounds[2 * index + 1];
+        int hash = end < 0 ? 1 : 0;
+        for (int i = start, stop = end < 0 ? ~end : end; i < stop; i++) {
+            hash = 31 * hash + line[i];
+        }
+        return hash * 0x9E3779B9; // Spread the bits so that the two fields combine well
+    }
+
+    /**
+     * Returns the 1-based number of the line starting at an offset, counting newlines on from the last offset asked
+     * about; offsets are asked about in increasing order while a file is read.
+     */
+    private long lineNumber(ByteBuffer bytes, int offset) {
+        for (int i = (int) countedOffset; i < offset; i++) {
+            if (bytes.get(i) == '\n') {
+                countedLines++;
+            }
+        }
+        countedOffset = offset;
+        return countedLines + 1;
+    }
+
+    /**
+     * A changed byte range, in the last version of a file and in the new one.
+     */
+    private static final class Region {
+        int oldStart, oldEnd; // Bounds in the last version
+        int newStart, newEnd; // Bounds in the new version
+
+        Region(int oldStart, int oldEnd, int newStart, int newEnd) {
+            this.oldStart = oldStart;
+            this.oldEnd = oldEnd;
+            this.newStart = newStart;
+            this.newEnd = newEnd;
+        }
+
+        /**
+         * Returns how far the bytes after the region moved.
+         */
+        int shift() {
+            return newEnd - oldEnd;
+        }
+    }
+
+    /**
+     * Byte ranges of a file holding consecutive lines of one class each.
+     */
+    private static final class Runs {
+        int[] start = new int[16]; // Offset of each run's first line
+        int[] end = new int[16]; // Offset after each run's last line
+        int[] classId = new int[16]; // Class of each run's lines
+        int count; // Number of runs
+
+        /**
+         * Adds a run, extending the last one if it continues it.
+         */
+        void add(int runStart, int runEnd, int runClass) {
+            if (runStart == runEnd) {
+                return;
+            }
+            if (count > 0 && end[count - 1] == runStart && classId[count - 1] == runClass) {
+                end[count - 1] = runEnd;
+                return;
+            }
+            if (count == start.length) {
+                start = Arrays.copyOf(start, count * 2);
+                end = Arrays.copyOf(end, count * 2);
+                classId = Arrays.copyOf(classId, count * 2);
+            }
+            start[count] = runStart;
+            end[count] = runEnd;
+            classId[count++] = runClass;
+        }
+
+        /**
+         * Returns the runs in file order, with runs that continue each other joined.
+         */
+        Runs sorted() {
+            long[] order = new long[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = (long) start[i] << 32 | i;
+            }
+            Arrays.sort(order);
+            Runs sorted = new Runs();
+            for (long key : order) {
+                int i = (int) key;
+                sorted.add(start[i], end[i], classId[i]);
+            }
+            return sorted;
+        }
+    }
+
+    /**
+     * What is known of the last version of a file read.
+     */
+    private static final class FileState {
+        int size; // Size of the last version
+        int[] front = new int[0]; // Hashes of its blocks from the start
+        int[] back = new int[0]; // Hashes of its blocks from the end
+        Runs runs = new Runs(); // Where the lines of each class are, in file order
+        final List<String> classNames = new ArrayList<>(); // Name of each class id
+        final Map<String, Integer> classIds = new HashMap<>(); // Id of each class name
+        final List<IntIntHashMap> rows = new ArrayList<>(); // Hash of the name and address of each roll number, by class id, or null
+        private byte[] lastName = new byte[0]; // Bytes of the class name of the last line looked up
+        private int lastId = -1; // Id of that class
+
+        /**
+         * Returns the id of the class named in a line split by {@link CsvCodec#split}, adding the class if it is new.
+         */
+        int classId(byte[] line, int[] bounds) {
+            if (bounds[1] >= 0 && lastId >= 0 && Arrays.equals(line, bounds[0], bounds[1], lastName, 0, lastName.length)) { // Same class as the last line
+                return lastId;
+            }
+            String className = CsvCodec.field(line, bounds, 0);
+            Integer id = classIds.get(className);
+            if (id == null) {
+                id = classNames.size();
+                classNames.add(className);
+                classIds.put(className, id);
+                rows.add(null);
+            }
+            if (bounds[1] >= 0) {
+                lastName = Arrays.copyOfRange(line, bounds[0], bounds[1]);
+                lastId = id;
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Iterates over the lines of a byte range of a mapped file, copying them out of the mapping a window at a time.
+     */
+    private static final class Lines {
+        private final ByteBuffer bytes; // The mapped file
+        private int limit; // Offset after the last line
+        private int windowStart; // Offset of the first byte of the window
+        private int filled; // Bytes in the window
+        private int position; // Offset of the next line
+        byte[] window = new byte[WINDOW_SIZE]; // Bytes copied from the file
+        int start, end; // Offsets of the current line, the end after its newline
+        int from, to; // Indexes of the current line in the window, without its line terminator
+
+        Lines(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * Starts iterating over another byte range, reusing the window.
+         * @return This iterator.
+         */
+        Lines range(int from, int to) {
+            limit = to;
+            position = from;
+            windowStart = from;
+            filled = 0;
+            return this;
+        }
+
+        /**
+         * Moves to the next line.
+         * @return False if there are no more lines.
+         */
+        boolean next() {
+            if (position >= limit) {
+                return false;
+            }
+            int offset = position - windowStart; // Index of the line in the window
+            int scan = offset; // Index to look for the newline from
+            while (true) {
+                while (scan < filled && window[scan] != '\n') {
+                    scan++;
+                }
+                if (scan < filled) { // Found the newline
+                    end = windowStart + scan + 1;
+                    to = scan;
+                    break;
+                }
+                if (windowStart + filled >= limit) { // The last line may lack a newline
+                    end = limit;
+                    to = filled;
+                    break;
+                }
+                int kept = filled - offset; // Bytes of the partial line
+                if (kept == window.length) { // A line longer than the window
+                    window = Arrays.copyOf(window, window.length * 2);
+                }
+                System.arraycopy(window, offset, window, 0, kept);
+                windowStart = position;
+                scan -= offset;
+                offset = 0;
+                int count = Math.min(window.length - kept, limit - windowStart - kept);
+                bytes.get(windowStart + kept, window, kept, count);
+                filled = kept + count;
+            }
+            start = position;
+            from = offset;
+            if (to > from && window[to - 1] == '\r') { // Strip the carriage return of CRLF line endings
+                to--;
+            }
+            position = end;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Writes a class roster as a CSV file with lines of the form {@code class,rollno,name,address}.
+ * The roster is written to a temporary file that replaces the target only once it is complete and synced,
+ * so a crash while saving never leaves a truncated roster behind.
+ * A whole roster is written with {@link #write}; rosters that do not fit in memory are streamed a student at a time
+ * through a writer from {@link #open}.
+ */
+public class RosterWriter implements Closeable {
+    private static final int CANCEL_CHECK_INTERVAL = 4096; // Students written between checks for cancellation, a power of two
+
+    private final Path target; // File to replace
+    private final Path temp; // File being written
+    private final BufferedWriter out; // Writer of the temporary file
+    private String lastClassName; // Class name of the previous student
+    private String lastEscapedClassName; // The same name escaped, since students come grouped by class
+    private long written; // Students written so far
+    private boolean committed; // Whether the target has been replaced
+
+    private RosterWriter(Path path) throws IOException {
+        target = path.toAbsolutePath(); // Resolve so the temporary file lands in the same directory
+        temp = target.resolveSibling(target.getFileName() + ".tmp"); // Temporary file next to the target
+        out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Starts writing a roster to a CSV file. The file is only replaced by {@link #commit}; closing the writer without
+     * committing leaves it unchanged.
+     * @param path The path of the CSV file.
+     * @return The writer.
+     * @throws IOException If the temporary file cannot be created.
+     */
+    public static RosterWriter open(Path path) throws IOException {
+        return new RosterWriter(path);
+    }
+
+    /**
+     * Writes the given roster to a CSV file, replacing it atomically.
+     * @param path The path of the CSV file.
+     * @param classMap The roster to write, mapping class names to students.
+     * @throws IOException If the file cannot be written.
+     * @throws IllegalArgumentException If a field contains a line break; the file is left unchanged.
+     */
+    public static void write(Path path, Map<String, ? extends List<Student>> classMap) throws IOException {
+        write(path, classMap, () -> false);
+    }
+
+    /**
+     * Writes the given roster to a CSV file, replacing it atomically unless the write is cancelled first.
+     * @param path The path of the CSV file.
+     * @param classMap The roster to write, mapping class names to students.
+     * @param cancelled Checked every few thousand students; once it returns true the write stops and the file is left unchanged.
+     * @throws IOException If the file cannot be written.
+     * @throws CancellationException If the write was cancelled.
+     * @throws IllegalArgumentException If a field contains a line break; the file is left unchanged.
+     */
+    public static void write(Path path, Map<String, ? extends List<Student>> classMap, BooleanSupplier cancelled) throws IOException {
+        try (RosterWriter writer = open(path)) { // Closing without committing removes the partial file
+            for (Map.Entry<String, ? extends List<Student>> entry : classMap.entrySet()) {
+                for (Student student : entry.getValue()) {
+                    if ((writer.written & (CANCEL_CHECK_INTERVAL - 1)) == CANCEL_CHECK_INTERVAL - 1 && cancelled.getAsBoolean()) { // Give up without touching the target
+                        throw new CancellationException("Saving the roster was cancelled");
+                    }
+                    writer.write(entry.getKey(), student.getRollno(), student.getName(), student.getAddress());
+                }
+            }
+            writer.commit();
+        }
+    }
+
+    /**
+     * Writes one student.
+     * @param className The name of the student's class.
+     * @param rollno The roll number of the student.
+     * @param name The name of the student.
+     * @param address The address of the student.
+     * @throws IOException If the file cannot be written.
+     * @throws IllegalArgumentException If a field contains a line break, which could not be read back.
+     */
+    public void write(String className, int rollno, String name, String address) throws IOException {
+        if (!className.equals(lastClassName)) { // Escape each class name once per run of its students
+            lastEscapedClassName = CsvCodec.escape(CsvCodec.checkNoLineBreak(className, "class name"));
+            lastClassName = className;
+        }
+        CsvCodec.checkNoLineBreak(name, "name");
+        CsvCodec.checkNoLineBreak(address, "address");
+        out.write(lastEscapedClassName);
+        out.write(',');
+        out.write(Integer.toString(rollno));
+        out.write(',');
+        out.write(CsvCodec.escape(name));
+        out.write(',');
+        out.write(CsvCodec.escape(address));
+        out.newLine();
+        written++;
+    }
+
+    /**
+     * Returns the number of students written so far.
+     * @return The number of students.
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * Syncs the written roster to disk and replaces the target file with it in one step.
+     * @throws IOException If the file cannot be synced or moved.
+     */
+    public void commit() throws IOException {
+        out.close();
+        replace(temp, target);
+        committed = true;
+    }
+
+    /**
+     * Syncs a completely written temporary file to disk and moves it over the target in one step.
+     * @param temp The temporary file, in the same directory as the target.
+     * @param target The file to replace.
+     * @throws IOException If the file cannot be synced or moved.
+     */
+    static void replace(Path temp, Path target) throws IOException {
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) { // Make sure the data is on disk before the rename
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING); // Replace the target in one step
+        } catch (AtomicMoveNotSupportedException e) { // Some file systems cannot rename atomically
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Closes the writer. Unless the roster was committed, the temporary file is removed and the target is unchanged.
+     * @throws IOException If the temporary file cannot be removed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!committed) {
+            out.close();
+            Files.deleteIfExists(temp);
+        }
+    }
+}
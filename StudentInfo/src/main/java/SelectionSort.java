@@ -1,26 +1,289 @@
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntUnaryOperator;
 
 /**
- * A utility class for sorting an ArrayList of Students using selection sort.
+ * A utility class for sorting lists of Students.
+ * Sorting is stable. Comparators whose keys are all {@link IntSortKey}s are sorted with an LSD radix sort;
+ * any other comparator, including a {@link ComparatorChain} with string keys, uses a merge sort that runs
+ * in parallel on the common fork-join pool for large lists. A {@link StudentStore} is sorted by reordering its columns,
+ * and roll numbers are then read straight from its int column.
  */
 public class SelectionSort {
+    private static final int INSERTION_SORT_THRESHOLD = 32; // Runs at most this long are insertion sorted
+    private static final int PARALLEL_THRESHOLD = 1 << 13; // Lists at least this long are merge sorted in parallel
+    private static final int RADIX_BITS = 8; // Bits per radix digit
+    private static final int RADIX = 1 << RADIX_BITS; // Buckets per radix pass
+
     /**
      * Sorts the given list of students using the specified comparator.
      * @param list The list of students to sort.
      * @param comparator The comparator to use for sorting.
      */
-    public static void sort(ArrayList<Student> list, Comparator<Student> comparator) { // Selection sort algorithm
-        for (int i = 0; i < list.size() - 1; i++) { // Iterate over the list
-            int minIndex = i; // Assume the minimum element is at index i
-            for (int j = i + 1; j < list.size(); j++) { // Find the index of the minimum element in the unsorted part of the list
-                if (comparator.compare(list.get(j), list.get(minIndex)) < 0) { // Use the comparator to compare list[j] and list[minIndex]
-                    minIndex = j; // Update minIndex if list[j] < list[minIndex]
-                }
-            }
-            Student temp = list.get(minIndex); // Swap list[i] with list[minIndex]
-            list.set(minIndex, list.get(i)); // list[minIndex] = list[i]
-            list.set(i, temp); // list[i] = temp
+    public static void sort(List<Student> list, Comparator<Student> comparator) { // Sort the list in place
+        int n = list.size(); // Number of students
+        if (n < 2) { // Nothing to sort
+            return;
+        }
+        try (RosterMetrics.Sample sample = RosterMetrics.SORT.start(null)) {
+            sample.rows(n);
+            if (list instanceof StudentStore) { // Stores reorder their columns in one pass
+                ((StudentStore) list).permute(computeOrder(list, comparator));
+                return;
+            }
+            Student[] students = list.toArray(new Student[0]); // Copy the references once instead of calling get per compare
+            int[] order = computeOrder(students, comparator); // Compute the sorted order
+            for (int i = 0; i < n; i++) { // Write the students back in sorted order
+                list.set(i, students[order[i]]);
+            }
+        }
+    }
+
+    /**
+     * Computes the stable sorted order of the students in a list without moving them.
+     * @param list The students to sort.
+     * @param comparator The comparator to use for sorting.
+     * @return An array whose i-th element is the index in the list of the i-th student in sorted order.
+     */
+    public static int[] order(List<Student> list, Comparator<Student> comparator) {
+        try (RosterMetrics.Sample sample = RosterMetrics.SORT.start(null)) {
+            sample.rows(list.size());
+            return computeOrder(list, comparator);
+        }
+    }
+
+    /**
+     * Computes the stable sorted order of the given students without moving them.
+     * @param students The students to sort.
+     * @param comparator The comparator to use for sorting.
+     * @return An array whose i-th element is the index in students of the i-th student in sorted order.
+     */
+    public static int[] order(Student[] students, Comparator<Student> comparator) {
+        try (RosterMetrics.Sample sample = RosterMetrics.SORT.start(null)) {
+            sample.rows(students.length);
+            return computeOrder(students, comparator);
+        }
+    }
+
+    /**
+     * Computes the order of a list, see {@link #order(List, Comparator)}; not timed, so callers time it once.
+     */
+    private static int[] computeOrder(List<Student> list, Comparator<Student> comparator) {
+        if (!(list instanceof StudentStore)) { // Plain lists are sorted through an array of their students
+            return computeOrder(list.toArray(new Student[0]), comparator);
+        }
+        StudentStore store = (StudentStore) list;
+        List<Comparator<Student>> keys = ComparatorChain.keysOf(comparator); // Individual sort keys
+        if (allRollnoKeys(keys)) { // Radix sort straight from the roll number column
+            int[] order = identity(store.size());
+            int[] rollnos = store.rollnoColumn();
+            for (int k = keys.size() - 1; k >= 0; k--) { // Least significant key first
+                radixSort(order, i -> rollnos[i]);
+            }
+            return order;
+        }
+        Student[] students = new Student[store.size()]; // Decode every student once instead of once per compare
+        for (int i = 0; i < students.length; i++) {
+            students[i] = new Student(store.getRollno(i), store.getName(i), store.getAddress(i));
+        }
+        return computeOrder(students, comparator);
+    }
+
+    /**
+     * Computes the order of an array, see {@link #order(Student[], Comparator)}; not timed, so callers time it once.
+     */
+    private static int[] computeOrder(Student[] students, Comparator<Student> comparator) {
+        int n = students.length; // Number of students
+        int[] order = identity(n); // Start from the identity permutation
+        if (n < 2) { // Nothing to sort
+            return order;
+        }
+        List<Comparator<Student>> keys = ComparatorChain.keysOf(comparator); // Individual sort keys
+        if (allIntKeys(keys)) { // Integer keys are radix sorted
+            for (int k = keys.size() - 1; k >= 0; k--) { // Least significant key first; each pass is stable
+                IntSortKey sortKey = (IntSortKey) keys.get(k);
+                radixSort(order, i -> sortKey.key(students[i]));
+            }
+        } else { // Everything else is merge sorted
+            int[] buffer = new int[n]; // Scratch space shared by all merges
+            if (n >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1) { // Large lists use all cores
+                ForkJoinPool.commonPool().invoke(new MergeSortTask(order, buffer, 0, n, students, comparator));
+            } else {
+                mergeSort(order, buffer, 0, n, students, comparator);
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Creates the identity permutation.
+     * @param n The length of the permutation.
+     * @return The array {0, 1, ..., n - 1}.
+     */
+    private static int[] identity(int n) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        return order;
+    }
+
+    /**
+     * Checks whether every key of a comparator is a RollnoComparator, whose keys can be read from a store's column.
+     * @param keys The keys of the comparator.
+     * @return True if every key is a RollnoComparator.
+     */
+    private static boolean allRollnoKeys(List<Comparator<Student>> keys) {
+        for (Comparator<Student> key : keys) {
+            if (key.getClass() != RollnoComparator.class) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether every key of a comparator can be radix sorted.
+     * @param keys The keys of the comparator.
+     * @return True if every key is an IntSortKey.
+     */
+    private static boolean allIntKeys(List<Comparator<Student>> keys) {
+        for (Comparator<Student> key : keys) {
+            if (!(key instanceof IntSortKey)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stably reorders the given permutation by an int key using an LSD radix sort.
+     * @param order The permutation to reorder.
+     * @param keyOf Returns the key of the student at a given index.
+     */
+    private static void radixSort(int[] order, IntUnaryOperator keyOf) {
+        int n = order.length; // Number of students
+        if (n < 2) { // Nothing to sort, and no first key to compare the others with
+            return;
+        }
+        int[] keys = new int[n]; // Keys in the current order, with the sign bit flipped so they sort unsigned
+        for (int i = 0; i < n; i++) {
+            keys[i] = keyOf.applyAsInt(order[i]) ^ Integer.MIN_VALUE;
+        }
+        int[] keyBuffer = new int[n]; // Keys after the current pass
+        int[] orderBuffer = new int[n]; // Permutation after the current pass
+        int[] counts = new int[RADIX]; // Bucket counts for the current pass
+        for (int shift = 0; shift < Integer.SIZE; shift += RADIX_BITS) { // One pass per digit
+            Arrays.fill(counts, 0); // Reset the bucket counts
+            for (int i = 0; i < n; i++) { // Count the digits
+                counts[(keys[i] >>> shift) & (RADIX - 1)]++;
+            }
+            if (counts[(keys[0] >>> shift) & (RADIX - 1)] == n) { // Every key has the same digit, so the pass is a no-op
+                continue;
+            }
+            int total = 0; // Turn the counts into bucket start positions
+            for (int b = 0; b < RADIX; b++) {
+                int count = counts[b];
+                counts[b] = total;
+                total += count;
+            }
+            for (int i = 0; i < n; i++) { // Scatter into the buckets, preserving the current order within each bucket
+                int position = counts[(keys[i] >>> shift) & (RADIX - 1)]++;
+                keyBuffer[position] = keys[i];
+                orderBuffer[position] = order[i];
+            }
+            int[] swap = keys; // The buffers now hold the current state
+            keys = keyBuffer;
+            keyBuffer = swap;
+            System.arraycopy(orderBuffer, 0, order, 0, n);
+        }
+    }
+
+    /**
+     * Stably sorts a range of the permutation by comparing the students it refers to.
+     * @param order The permutation to sort.
+     * @param buffer Scratch space at least as long as the permutation.
+     * @param from The first index of the range, inclusive.
+     * @param to The last index of the range, exclusive.
+     * @param students The students the permutation refers to.
+     * @param comparator The comparator to use for sorting.
+     */
+    private static void mergeSort(int[] order, int[] buffer, int from, int to, Student[] students, Comparator<Student> comparator) {
+        if (to - from <= INSERTION_SORT_THRESHOLD) { // Short runs are insertion sorted
+            insertionSort(order, from, to, students, comparator);
+            return;
+        }
+        int mid = (from + to) >>> 1; // Split the range in half
+        mergeSort(order, buffer, from, mid, students, comparator); // Sort the left half
+        mergeSort(order, buffer, mid, to, students, comparator); // Sort the right half
+        merge(order, buffer, from, mid, to, students, comparator); // Merge the halves
+    }
+
+    /**
+     * Insertion sorts a short range of the permutation.
+     */
+    private static void insertionSort(int[] order, int from, int to, Student[] students, Comparator<Student> comparator) {
+        for (int i = from + 1; i < to; i++) {
+            int current = order[i]; // Element to insert
+            int j = i - 1;
+            while (j >= from && comparator.compare(students[order[j]], students[current]) > 0) { // Shift larger elements right
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = current;
+        }
+    }
+
+    /**
+     * Merges the sorted ranges [from, mid) and [mid, to) of the permutation, taking from the left on ties.
+     */
+    private static void merge(int[] order, int[] buffer, int from, int mid, int to, Student[] students, Comparator<Student> comparator) {
+        if (comparator.compare(students[order[mid - 1]], students[order[mid]]) <= 0) { // The halves are already in order
+            return;
+        }
+        System.arraycopy(order, from, buffer, from, mid - from); // Move the left half out of the way
+        int left = from, right = mid, out = from;
+        while (left < mid && right < to) { // Take the smaller head, preferring the left one on ties
+            if (comparator.compare(students[buffer[left]], students[order[right]]) <= 0) {
+                order[out++] = buffer[left++];
+            } else {
+                order[out++] = order[right++];
+            }
+        }
+        System.arraycopy(buffer, left, order, out, mid - left); // Copy what is left of the left half; the right half is in place
+    }
+
+    /**
+     * Fork-join task that sorts the two halves of a range in parallel and then merges them.
+     */
+    private static class MergeSortTask extends RecursiveAction {
+        private final int[] order, buffer;
+        private final int from, to;
+        private final Student[] students;
+        private final Comparator<Student> comparator;
+
+        MergeSortTask(int[] order, int[] buffer, int from, int to, Student[] students, Comparator<Student> comparator) {
+            this.order = order;
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+            this.students = students;
+            this.comparator = comparator;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from < PARALLEL_THRESHOLD) { // Small ranges are sorted on this thread
+                mergeSort(order, buffer, from, to, students, comparator);
+                return;
+            }
+            int mid = (from + to) >>> 1; // Split the range in half
+            invokeAll(new MergeSortTask(order, buffer, from, mid, students, comparator),
+                    new MergeSortTask(order, buffer, mid, to, students, comparator)); // Sort both halves in parallel
+            merge(order, buffer, from, mid, to, students, comparator); // Merge the halves
         }
     }
 }
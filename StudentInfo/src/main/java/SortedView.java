@@ -0,0 +1,163 @@
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The students of one {@link StudentStore} in the order of a comparator, held as a permutation of their positions, so
+ * a class can be shown sorted without moving its students.
+ * Equal students keep their insertion order, as after a stable sort. While the view is attached the store keeps it in
+ * sync: a student that is appended or changed in place is moved to its new row by binary search, without sorting
+ * again. Changes that shift positions, such as removing a student from the middle, detach the view, and it must then
+ * be computed again.
+ */
+public class SortedView {
+    private final StudentStore store; // Store whose positions the view orders
+    private final String key; // Name of the sort order, such as "name"
+    private final Comparator<Student> comparator; // Order of the view
+    private int[] order; // Positions in sorted order
+    private int count; // Entries of order in use
+    private int[] rows; // Row of each position, or null until needed
+    private boolean attached; // Whether the store keeps the view in sync
+
+    /**
+     * Constructor to create a view from an order computed by {@link SelectionSort#order}, and attach it to its store.
+     * @param store The store the order was computed for, unchanged since.
+     * @param key The name of the sort order.
+     * @param comparator The comparator the order was computed with.
+     * @param order The stable sorted order of the store's positions; the view takes it over.
+     */
+    SortedView(StudentStore store, String key, Comparator<Student> comparator, int[] order) {
+        if (order.length != store.size()) {
+            throw new IllegalArgumentException("Order has " + order.length + " entries but the store has " + store.size() + " students");
+        }
+        this.store = store;
+        this.key = key;
+        this.comparator = comparator;
+        this.order = order;
+        this.count = order.length;
+        this.attached = true;
+        store.attachSortedView(this);
+    }
+
+    // Getters for the store, the sort order and the state of the view
+
+    public StudentStore getStore() {
+        return store;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public boolean isAttached() {
+        return attached;
+    }
+
+    /**
+     * Returns the number of rows of the view, the number of students of the store.
+     * @return The number of rows.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Returns the position in the store of the student shown in a row.
+     * @param row The row of the view.
+     * @return The position of the student.
+     */
+    public int position(int row) {
+        if (row < 0 || row >= count) {
+            throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + count);
+        }
+        return order[row];
+    }
+
+    /**
+     * Returns the row a student is shown in. The first call after a change inverts the view, in linear time.
+     * @param position The position of the student in the store.
+     * @return The row of the student.
+     */
+    public int rowOf(int position) {
+        if (rows == null) {
+            rows = new int[count];
+            for (int row = 0; row < count; row++) {
+                rows[order[row]] = row;
+            }
+        }
+        return rows[position];
+    }
+
+    /**
+     * Returns the memory the view holds, for the eviction policy of a {@link SortedViewCache}.
+     * @return The approximate size in bytes.
+     */
+    public long estimatedBytes() {
+        return 32 + 4L * order.length + (rows == null ? 0 : 4L * rows.length);
+    }
+
+    /**
+     * Inserts a student that was appended to the store or changed in place, after the equal students before it.
+     * @param position The position of the student.
+     */
+    void studentAdded(int position) {
+        if (count == order.length) { // Grow by half
+            order = Arrays.copyOf(order, count + (count >> 1) + 1);
+        }
+        int low = 0, high = count; // First row whose student sorts after the new one
+        Student student = store.get(position);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(store.get(order[mid]), order[mid], student, position) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        System.arraycopy(order, low, order, low + 1, count - low);
+        order[low] = position;
+        count++;
+        rows = null;
+    }
+
+    /**
+     * Removes a student that is about to change in place; {@link #studentAdded} is called once it has changed.
+     * @param position The position of the student.
+     */
+    void studentChanging(int position) {
+        int low = 0, high = count - 1; // The student's values have not changed yet, so its row can be found by search
+        Student student = store.get(position);
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(store.get(order[mid]), order[mid], student, position);
+            if (cmp == 0) {
+                System.arraycopy(order, mid + 1, order, mid, count - mid - 1);
+                count--;
+                rows = null;
+                return;
+            } else if (cmp < 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        throw new IllegalStateException("Student " + position + " is missing from the " + key + " view");
+    }
+
+    /**
+     * Stops keeping the view in sync; called by the store when positions shift and by caches that evict the view.
+     */
+    void detach() {
+        if (attached) {
+            attached = false;
+            store.detachSortedView(this);
+        }
+    }
+
+    /**
+     * Compares two students by the view's comparator, and equal students by position, so every student has one row.
+     */
+    private int compare(Student a, int positionA, Student b, int positionB) {
+        int cmp = comparator.compare(a, b);
+        return cmp != 0 ? cmp : Integer.compare(positionA, positionB);
+    }
+}
@@ -0,0 +1,153 @@
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The sorted views of the classes, by class and sort order, so switching a class back to an order it was shown in
+ * before needs no sorting.
+ * Views are kept in sync by their stores while cached. The cache holds at most a given number of bytes of views and
+ * evicts the least recently used ones beyond that, except the view being shown. Must be used on one thread, the
+ * thread that changes the stores.
+ */
+public class SortedViewCache {
+    private final long maxBytes; // Most bytes of views kept
+    private final LinkedHashMap<Key, SortedView> views = new LinkedHashMap<>(16, 0.75f, true); // Views, least recently used first
+    private SortedView shown; // View being shown, never evicted, or null
+
+    /**
+     * Constructor to create an empty cache.
+     * @param maxBytes The most bytes of views to keep; the view being shown is kept even if it is larger.
+     */
+    public SortedViewCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cached view of a class in a sort order.
+     * @param store The students of the class.
+     * @param key The name of the sort order.
+     * @return The view, in sync with the store, or null if it is not cached.
+     */
+    public SortedView get(StudentStore store, String key) {
+        Key k = new Key(store, key);
+        SortedView view = views.get(k); // Marks it as recently used
+        if (view != null && !view.isAttached()) { // Positions in the store shifted, so the view is of no use
+            views.remove(k);
+            return null;
+        }
+        return view;
+    }
+
+    /**
+     * Caches the view of a class in a sort order, replacing any older one, and evicts views beyond the byte limit.
+     * @param store The students of the class, unchanged since the order was computed.
+     * @param key The name of the sort order.
+     * @param comparator The comparator the order was computed with, used to keep the view in sync.
+     * @param order The stable sorted order of the store's positions, see {@link SelectionSort#order}; the view takes it over.
+     * @return The new view.
+     */
+    public SortedView put(StudentStore store, String key, Comparator<Student> comparator, int[] order) {
+        SortedView view = new SortedView(store, key, comparator, order);
+        SortedView previous = views.put(new Key(store, key), view);
+        if (previous != null) {
+            previous.detach();
+        }
+        evict();
+        return view;
+    }
+
+    /**
+     * Marks the view being shown, which is kept in sync and never evicted.
+     * @param view The view, or null if the students are shown in insertion order.
+     */
+    public void setShown(SortedView view) {
+        shown = view;
+    }
+
+    /**
+     * Drops the views of a class, when it is deleted or replaced.
+     * @param store The students of the class.
+     */
+    public void invalidate(StudentStore store) {
+        Iterator<Map.Entry<Key, SortedView>> iterator = views.entrySet().iterator();
+        while (iterator.hasNext()) {
+            SortedView view = iterator.next().getValue();
+            if (view.getStore() == store) {
+                view.detach();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops every view, when the whole roster is replaced.
+     */
+    public void clear() {
+        for (SortedView view : views.values()) {
+            view.detach();
+        }
+        views.clear();
+    }
+
+    /**
+     * Returns the memory held by the cached views.
+     * @return The approximate size in bytes.
+     */
+    public long estimatedBytes() {
+        long bytes = 0;
+        for (SortedView view : views.values()) {
+            bytes += view.estimatedBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Evicts detached views, then the least recently used ones until the views fit in the byte limit.
+     * Views grow as students are added, so the size is summed again rather than tracked.
+     */
+    private void evict() {
+        long bytes = 0;
+        Iterator<SortedView> iterator = views.values().iterator();
+        while (iterator.hasNext()) {
+            SortedView view = iterator.next();
+            if (view.isAttached()) {
+                bytes += view.estimatedBytes();
+            } else {
+                iterator.remove();
+            }
+        }
+        iterator = views.values().iterator(); // Least recently used first
+        while (bytes > maxBytes && iterator.hasNext()) {
+            SortedView view = iterator.next();
+            if (view != shown) {
+                bytes -= view.estimatedBytes();
+                view.detach();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * A class and sort order; classes are told apart by their store, so a renamed class keeps its views.
+     */
+    private static final class Key {
+        private final StudentStore store; // Students of the class
+        private final String sortKey; // Name of the sort order
+
+        Key(StudentStore store, String sortKey) {
+            this.store = store;
+            this.sortKey = sortKey;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && ((Key) other).store == store && ((Key) other).sortKey.equals(sortKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(store) + sortKey.hashCode();
+        }
+    }
+}
@@ -0,0 +1,239 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * An append-only arena of UTF-8 strings stored back to back in one byte array.
+ * Each string is referenced by an int offset at which its length is stored as a varint, followed by its bytes.
+ * Strings are never moved or overwritten, so a reference stays valid for the lifetime of the arena, and a
+ * {@link #snapshot} can share the bytes with the original and be read on another thread while the original grows.
+ */
+public class StringArena {
+    private static final int INITIAL_CAPACITY = 256; // Bytes allocated for a new arena
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8; // Largest array the VM can allocate
+
+    private byte[] bytes; // Encoded strings
+    private int size; // Bytes in use
+    private boolean shared; // Whether the bytes belong to the arena this one is a snapshot of, so must be copied before writing
+
+    /**
+     * Constructor to create an empty arena.
+     */
+    public StringArena() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Constructor to create an empty arena with room for the given number of bytes.
+     * @param capacity The initial capacity in bytes.
+     */
+    public StringArena(int capacity) {
+        bytes = new byte[Math.max(capacity, 16)];
+    }
+
+    private StringArena(byte[] bytes, int size) {
+        this.bytes = bytes;
+        this.size = size;
+        this.shared = true;
+    }
+
+    /**
+     * Creates an arena over strings that are already encoded back to back as varint lengths followed by UTF-8 bytes,
+     * as read from a binary roster. The arena takes over the array and appends after the given size.
+     * @param bytes The encoded strings.
+     * @param size The number of bytes in use.
+     * @return The arena.
+     */
+    public static StringArena wrap(byte[] bytes, int size) {
+        StringArena arena = new StringArena(bytes, size);
+        arena.shared = false; // The array is ours to write past size
+        return arena;
+    }
+
+    /**
+     * Returns the number of bytes a string takes up in the arena, including its length.
+     * @param ref The reference of the string.
+     * @return The encoded length of the string in bytes.
+     */
+    public int encodedLength(int ref) {
+        return start(ref) - ref + length(ref);
+    }
+
+    /**
+     * Creates a snapshot of the arena without copying it.
+     * The original only ever writes past its current size, so the snapshot's strings never change; the snapshot copies
+     * the bytes the first time something is added to it.
+     * @return The snapshot.
+     */
+    public StringArena snapshot() {
+        return new StringArena(bytes, size);
+    }
+
+    /**
+     * Appends a string to the arena.
+     * @param value The string to append.
+     * @return The reference of the string.
+     */
+    public int add(String value) {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        return add(utf8, 0, utf8.length);
+    }
+
+    /**
+     * Appends a string that is already encoded as UTF-8.
+     * @param source The array holding the encoded string.
+     * @param offset The index of the first byte of the string.
+     * @param length The number of bytes of the string.
+     * @return The reference of the string.
+     */
+    public int add(byte[] source, int offset, int length) {
+        int ref = size; // The string starts at the end of the arena
+        ensureCapacity(5 + length); // A varint needs at most 5 bytes
+        int pos = size;
+        int remaining = length;
+        while (remaining >= 0x80) { // Write the length as a varint
+            bytes[pos++] = (byte) (remaining | 0x80);
+            remaining >>>= 7;
+        }
+        bytes[pos++] = (byte) remaining;
+        System.arraycopy(source, offset, bytes, pos, length);
+        size = pos + length;
+        return ref;
+    }
+
+    /**
+     * Copies a string from another arena into this one.
+     * @param source The arena holding the string.
+     * @param ref The reference of the string in the source arena.
+     * @return The reference of the copy in this arena.
+     */
+    public int copyFrom(StringArena source, int ref) {
+        if (source == this) { // Strings in the same arena can be shared
+            return ref;
+        }
+        int length = source.length(ref);
+        return add(source.bytes, source.start(ref), length);
+    }
+
+    /**
+     * Decodes a string.
+     * @param ref The reference of the string.
+     * @return The string.
+     */
+    public String get(int ref) {
+        return new String(bytes, start(ref), length(ref), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares two strings the way {@link String#compareTo} does, without decoding them.
+     * UTF-8 bytes order strings by code point, which agrees with the UTF-16 order of {@code compareTo} except that a
+     * code point above U+FFFF, a surrogate pair in UTF-16, sorts before U+E000 to U+FFFF; that case shows in the lead
+     * bytes of the first characters that differ, so only those are checked.
+     * @param a The arena holding the first string.
+     * @param refA The reference of the first string.
+     * @param b The arena holding the second string.
+     * @param refB The reference of the second string.
+     * @return A negative number, zero or a positive number as the first string sorts before, equal to or after the
+     *         second.
+     */
+    public static int compare(StringArena a, int refA, StringArena b, int refB) {
+        byte[] bytesA = a.bytes, bytesB = b.bytes;
+        int lengthA = 0, startA = refA; // Read both varints once, for the length and the start
+        for (int shift = 0; ; shift += 7) {
+            byte bt = bytesA[startA++];
+            lengthA |= (bt & 0x7f) << shift;
+            if (bt >= 0) {
+                break;
+            }
+        }
+        int lengthB = 0, startB = refB;
+        for (int shift = 0; ; shift += 7) {
+            byte bt = bytesB[startB++];
+            lengthB |= (bt & 0x7f) << shift;
+            if (bt >= 0) {
+                break;
+            }
+        }
+        int common = Math.min(lengthA, lengthB); // Bytes compared before the shorter string ends
+        int mismatch = Arrays.mismatch(bytesA, startA, startA + common, bytesB, startB, startB + common); // Compares many bytes at a time
+        if (mismatch < 0) { // One string starts with the other
+            return Integer.compare(lengthA, lengthB);
+        }
+        int byteA = bytesA[startA + mismatch] & 0xff, byteB = bytesB[startB + mismatch] & 0xff;
+        if (byteA >= 0xf0 && byteB >= 0xee && byteB < 0xf0) { // Surrogate pair against U+E000 to U+FFFF
+            return -1;
+        }
+        if (byteB >= 0xf0 && byteA >= 0xee && byteA < 0xf0) {
+            return 1;
+        }
+        return byteA - byteB;
+    }
+
+    /**
+     * Returns the number of UTF-8 bytes of a string.
+     * @param ref The reference of the string.
+     * @return The length of the string in bytes.
+     */
+    public int length(int ref) {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) { // Read the varint
+            byte b = bytes[ref++];
+            length |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return length;
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the first UTF-8 byte of a string in the array returned by {@link #bytes}.
+     * @param ref The reference of the string.
+     * @return The index of the string's first byte.
+     */
+    public int start(int ref) {
+        while (bytes[ref] < 0) { // Skip the varint
+            ref++;
+        }
+        return ref + 1;
+    }
+
+    /**
+     * Returns the array backing the arena, for reading strings in place. The array is replaced when the arena grows.
+     * @return The backing array.
+     */
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the number of bytes in use.
+     * @return The size of the arena in bytes.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Releases the unused capacity of the arena.
+     */
+    public void trimToSize() {
+        if (size < bytes.length) {
+            bytes = Arrays.copyOf(bytes, size);
+            shared = false;
+        }
+    }
+
+    /**
+     * Makes room for the given number of additional bytes.
+     */
+    private void ensureCapacity(int additional) {
+        if (additional > MAX_CAPACITY - size) {
+            throw new IllegalStateException("String arena is full");
+        }
+        int needed = size + additional;
+        if (needed > bytes.length || shared) { // Grow by doubling, or stop sharing the bytes of the original
+            long capacity = needed > bytes.length ? Math.max(needed, 2L * bytes.length) : bytes.length;
+            bytes = Arrays.copyOf(bytes, (int) Math.min(MAX_CAPACITY, capacity));
+            shared = false;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Editable table model for the edit class dialog.
+ * Cells are read straight from the class's {@link StudentStore}, so a table shows a class of any size by painting
+ * only its visible rows. Edits are kept beside the store, by row and column, and {@link #changes} turns the changed
+ * names and addresses and the added students into one batch of changes to apply; the model never changes the store,
+ * so cancelling the dialog needs no undo. Changes find a student by roll number, so students that share their roll
+ * number with another student of the class cannot be edited here, as the change would reach the first of them.
+ */
+public class StudentEditTableModel extends AbstractTableModel {
+    private static final String[] COLUMN_NAMES = {"Roll Number", "Name", "Address"}; // Column headers
+    private static final Class<?>[] COLUMN_CLASSES = {Integer.class, String.class, String.class}; // Column types
+    private static final int NAME = 1, ADDRESS = 2; // Editable columns
+
+    private final StudentStore students; // Students being edited
+    private final int savedCount; // Students in the store; rows beyond are added in the dialog
+    private final int firstNewRollno; // Roll number of the first added student, after the highest in the class
+    private final IntIntHashMap repeated = new IntIntHashMap(); // Roll numbers held by more than one student, whose rows are read-only
+    private final TreeMap<Integer, String[]> edits = new TreeMap<>(); // New name and address of edited rows, null if unchanged
+    private final List<String[]> added = new ArrayList<>(); // Name and address of each added row
+
+    /**
+     * Constructor to edit the students of a class.
+     * @param students The students to edit; they must not change while the model is in use.
+     */
+    public StudentEditTableModel(StudentStore students) {
+        this.students = students;
+        this.savedCount = students.size();
+        int highest = savedCount; // Highest roll number of the class, and at least its size
+        int[] rollnos = students.rollnoColumn(); // Scan the roll number column directly
+        IntIntHashMap seen = new IntIntHashMap(savedCount); // Roll numbers found so far
+        for (int i = 0; i < savedCount; i++) {
+            highest = Math.max(highest, rollnos[i]);
+            if (seen.put(rollnos[i], i) != IntIntHashMap.MISSING) {
+                repeated.put(rollnos[i], i);
+            }
+        }
+        this.firstNewRollno = highest + 1;
+    }
+
+    /**
+     * Adds an empty row for a new student.
+     * @return The row added.
+     */
+    public int addStudent() {
+        added.add(new String[] {"", ""});
+        int row = savedCount + added.size() - 1;
+        fireTableRowsInserted(row, row);
+        return row;
+    }
+
+    /**
+     * Checks whether a cell differs from the store.
+     * @param row The row of the cell.
+     * @param column The column of the cell.
+     * @return True if the cell was edited, or belongs to an added student.
+     */
+    public boolean isDirty(int row, int column) {
+        if (row >= savedCount) {
+            return true;
+        }
+        String[] edit = edits.get(row);
+        return edit != null && column >= NAME && edit[column - NAME] != null;
+    }
+
+    /**
+     * Checks whether a student shares its roll number with another student of the class, so it cannot be edited.
+     * @param row The row of the student.
+     * @return True if the row is an existing student whose roll number is repeated.
+     */
+    public boolean isRollnoRepeated(int row) {
+        return row < savedCount && repeated.get(students.getRollno(row)) != IntIntHashMap.MISSING;
+    }
+
+    /**
+     * Checks whether any students of the class share a roll number.
+     * @return True if some rows cannot be edited.
+     */
+    public boolean hasRepeatedRollnos() {
+        return repeated.size() > 0;
+    }
+
+    /**
+     * Checks whether anything was edited or added.
+     * @return True if {@link #changes} would return any change.
+     */
+    public boolean hasChanges() {
+        return !edits.isEmpty() || !added.isEmpty();
+    }
+
+    /**
+     * Returns the first existing student that was edited.
+     * @return Its position, or -1 if none was edited.
+     */
+    public int firstEdited() {
+        return edits.isEmpty() ? -1 : edits.firstKey();
+    }
+
+    /**
+     * Returns the last existing student that was edited.
+     * @return Its position, or -1 if none was edited.
+     */
+    public int lastEdited() {
+        return edits.isEmpty() ? -1 : edits.lastKey();
+    }
+
+    /**
+     * Returns the changes that make the edits: one per student whose name or address changed, and one per added
+     * student with a name or an address. Students are identified by roll number, like every change, which is why only
+     * students with a roll number of their own can be edited, and added
+     * students are numbered on from the highest roll number of the class in the order they were added.
+     * @param className The name of the class.
+     * @return The changes in row order, to apply and record in the journal as one batch.
+     */
+    public List<RosterChange> changes(String className) {
+        List<RosterChange> changes = new ArrayList<>(edits.size() + added.size());
+        for (Map.Entry<Integer, String[]> entry : edits.entrySet()) {
+            int position = entry.getKey();
+            String[] edit = entry.getValue();
+            String name = edit[0] != null ? edit[0] : students.getName(position);
+            String address = edit[1] != null ? edit[1] : students.getAddress(position);
+            changes.add(RosterChange.editStudent(className, new Student(students.getRollno(position), name, address)));
+        }
+        int rollno = firstNewRollno; // Roll number of the next added student
+        for (String[] student : added) {
+            if (!student[0].isEmpty() || !student[1].isEmpty()) { // Rows left blank are dropped
+                changes.add(RosterChange.addStudent(className, new Student(rollno++, student[0], student[1])));
+            }
+        }
+        return changes;
+    }
+
+    @Override
+    public int getRowCount() {
+        return savedCount + added.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return COLUMN_CLASSES[column];
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return (column == NAME || column == ADDRESS) && !isRollnoRepeated(row);
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        if (row >= savedCount) { // Added student
+            return column < NAME ? firstNewRollno + row - savedCount : added.get(row - savedCount)[column - NAME];
+        }
+        if (column < NAME) {
+            return students.getRollno(row);
+        }
+        String[] edit = edits.get(row);
+        if (edit != null && edit[column - NAME] != null) {
+            return edit[column - NAME];
+        }
+        return column == NAME ? students.getName(row) : students.getAddress(row);
+    }
+
+    @Override
+    public void setValueAt(Object value, int row, int column) {
+        String text = value == null ? "" : value.toString().trim(); // Names and addresses are saved trimmed
+        if (row >= savedCount) {
+            added.get(row - savedCount)[column - NAME] = text;
+        } else {
+            String saved = column == NAME ? students.getName(row) : students.getAddress(row); // Value in the store
+            String[] edit = edits.get(row);
+            if (text.equals(saved)) { // Edited back to the saved value, so the cell is clean again
+                if (edit != null) {
+                    edit[column - NAME] = null;
+                    if (edit[0] == null && edit[1] == null) {
+                        edits.remove(row);
+                    }
+                }
+            } else {
+                if (edit == null) {
+                    edit = new String[2];
+                    edits.put(row, edit);
+                }
+                edit[column - NAME] = text;
+            }
+        }
+        fireTableCellUpdated(row, column);
+    }
+}
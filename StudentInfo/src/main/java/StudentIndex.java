@@ -0,0 +1,253 @@
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Lookup indexes over the students of one {@link StudentStore}: roll number to position, and positions in
+ * case-insensitive name order for prefix search.
+ * An index is built on the first lookup and the store keeps it in sync as students are appended, edited, removed and
+ * sorted, and it can be copied along with its store. Inserting a student before others drops the index and it is
+ * rebuilt on the next lookup.
+ */
+public class StudentIndex {
+    private static final Comparator<String> NAME_ORDER = String.CASE_INSENSITIVE_ORDER; // Order of the name index
+
+    private final StudentStore store; // Store the index covers
+    private IntIntHashMap rollnos; // Roll number to the first position holding it, or null until needed
+    private boolean duplicateRollnos; // Whether some roll number is held by more than one student
+    private int[] byName; // Positions in name order, ignoring case
+    private int nameCount; // Entries of byName in use
+
+    /**
+     * Constructor to build the index of a store.
+     * @param store The store to index.
+     */
+    StudentIndex(StudentStore store) {
+        this.store = store;
+        byName = SelectionSort.order(store, (a, b) -> NAME_ORDER.compare(a.getName(), b.getName())); // Sorted in parallel for large classes
+        nameCount = store.size();
+    }
+
+    private StudentIndex(StudentStore store, IntIntHashMap rollnos, boolean duplicateRollnos, int[] byName, int nameCount) {
+        this.store = store;
+        this.rollnos = rollnos;
+        this.duplicateRollnos = duplicateRollnos;
+        this.byName = byName;
+        this.nameCount = nameCount;
+    }
+
+    /**
+     * Copies this index for a copy of its store, which is cheaper than building it again since nothing is sorted.
+     * @param copy A copy of the store this index covers, with the same students in the same positions.
+     * @return The index of the copy, to be kept in sync by the copy.
+     */
+    StudentIndex copyFor(StudentStore copy) {
+        return new StudentIndex(copy, rollnos == null ? null : rollnos.copy(), duplicateRollnos, Arrays.copyOf(byName, nameCount), nameCount);
+    }
+
+    /**
+     * Finds a student by roll number.
+     * @param rollno The roll number to look for.
+     * @return The position of the first student with the roll number, or -1 if there is none.
+     */
+    public int positionOf(int rollno) {
+        return rollnoMap().get(rollno);
+    }
+
+    /**
+     * Finds the students whose names start with a prefix, ignoring case.
+     * @param prefix The start of the name; an empty prefix matches everyone.
+     * @param limit The maximum number of positions to return.
+     * @return The positions of the matching students in name order, at most limit of them.
+     */
+    public int[] positionsWithNamePrefix(String prefix, int limit) {
+        int first = lowerBound(prefix); // Names with the prefix sort together, starting here
+        int end = first;
+        while (end < nameCount && end - first < limit && startsWithIgnoreCase(store.getName(byName[end]), prefix)) {
+            end++;
+        }
+        return Arrays.copyOfRange(byName, first, end);
+    }
+
+    /**
+     * Counts the students whose names start with a prefix, ignoring case.
+     * @param prefix The start of the name.
+     * @return The number of matching students.
+     */
+    public int countWithNamePrefix(String prefix) {
+        int first = lowerBound(prefix);
+        int low = first, high = nameCount; // Binary search for the end of the run as well
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (startsWithIgnoreCase(store.getName(byName[mid]), prefix)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - first;
+    }
+
+    /**
+     * Adds a student that was appended to the store or changed in place.
+     * @param position The position of the student.
+     */
+    void studentAdded(int position) {
+        if (rollnos != null) {
+            int rollno = store.getRollno(position);
+            int existing = rollnos.get(rollno);
+            if (existing == IntIntHashMap.MISSING || position < existing) { // The first position wins
+                rollnos.put(rollno, position);
+            }
+            duplicateRollnos |= existing != IntIntHashMap.MISSING;
+        }
+        if (nameCount == byName.length) { // Grow by half
+            byName = Arrays.copyOf(byName, nameCount + (nameCount >> 1) + 1);
+        }
+        int at = upperBound(store.getName(position)); // After students with the same name, to keep insertion order
+        System.arraycopy(byName, at, byName, at + 1, nameCount - at);
+        byName[at] = position;
+        nameCount++;
+    }
+
+    /**
+     * Removes a student that is about to change in place; {@link #studentAdded} is called once it has changed.
+     * @param position The position of the student.
+     */
+    void studentChanging(int position) {
+        if (rollnos != null && rollnos.get(store.getRollno(position)) == position) {
+            if (duplicateRollnos) { // Another student may hold the roll number, so find it on the next lookup
+                rollnos = null;
+            } else {
+                rollnos.remove(store.getRollno(position));
+            }
+        }
+        removeName(position);
+    }
+
+    /**
+     * Removes a student that is about to be removed from the store, moving the students after it up by one.
+     * @param position The position of the student.
+     */
+    void studentRemoving(int position) {
+        if (rollnos != null) {
+            int rollno = store.getRollno(position);
+            if (rollnos.get(rollno) == position) {
+                int next = duplicateRollnos ? nextPositionOf(rollno, position) : IntIntHashMap.MISSING; // Becomes the first
+                if (next == IntIntHashMap.MISSING) {
+                    rollnos.remove(rollno);
+                } else {
+                    rollnos.put(rollno, next);
+                }
+            }
+            rollnos.replaceValues(p -> p > position ? p - 1 : p);
+        }
+        removeName(position);
+        for (int i = 0; i < nameCount; i++) { // Names are unchanged, so the name order still holds
+            if (byName[i] > position) {
+                byName[i]--;
+            }
+        }
+    }
+
+    /**
+     * Removes the name order entry of a student.
+     */
+    private void removeName(int position) {
+        String name = store.getName(position);
+        for (int i = lowerBound(name); i < nameCount; i++) { // Find the entry among the students with the same name
+            if (byName[i] == position) {
+                System.arraycopy(byName, i + 1, byName, i, nameCount - i - 1);
+                nameCount--;
+                return;
+            }
+        }
+        throw new IllegalStateException("Student " + position + " is missing from the name index");
+    }
+
+    /**
+     * Finds the next student after a position with a roll number.
+     */
+    private int nextPositionOf(int rollno, int position) {
+        int[] column = store.rollnoColumn();
+        for (int i = position + 1; i < store.size(); i++) {
+            if (column[i] == rollno) {
+                return i;
+            }
+        }
+        return IntIntHashMap.MISSING;
+    }
+
+    /**
+     * Renumbers the index after the store was reordered so that position i holds the student previously at order[i].
+     * @param order The permutation applied to the store.
+     */
+    void studentsPermuted(int[] order) {
+        int[] newPosition = new int[order.length]; // Where each student moved to
+        for (int i = 0; i < order.length; i++) {
+            newPosition[order[i]] = i;
+        }
+        if (rollnos != null) {
+            if (duplicateRollnos) { // The first of several students with a roll number may have changed
+                rollnos = null;
+            } else {
+                rollnos.replaceValues(position -> newPosition[position]);
+            }
+        }
+        for (int i = 0; i < nameCount; i++) { // Names are unchanged, so the name order still holds
+            byName[i] = newPosition[byName[i]];
+        }
+    }
+
+    /**
+     * Returns the roll number map, building it on first use.
+     */
+    private IntIntHashMap rollnoMap() {
+        if (rollnos == null) {
+            int size = store.size();
+            int[] column = store.rollnoColumn();
+            IntIntHashMap map = new IntIntHashMap(size);
+            duplicateRollnos = false;
+            for (int i = size - 1; i >= 0; i--) { // Backwards, so the first position of a roll number is put last
+                duplicateRollnos |= map.put(column[i], i) != IntIntHashMap.MISSING;
+            }
+            rollnos = map;
+        }
+        return rollnos;
+    }
+
+    /**
+     * Returns the first index in byName whose name is not less than the given one.
+     */
+    private int lowerBound(String name) {
+        int low = 0, high = nameCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (NAME_ORDER.compare(store.getName(byName[mid]), name) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the first index in byName whose name is greater than the given one.
+     */
+    private int upperBound(String name) {
+        int low = 0, high = nameCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (NAME_ORDER.compare(store.getName(byName[mid]), name) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static boolean startsWithIgnoreCase(String name, String prefix) {
+        return name.regionMatches(true, 0, prefix, 0, prefix.length());
+    }
+}
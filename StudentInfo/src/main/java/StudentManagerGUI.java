@@ -1,11 +1,23 @@
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.TableColumnModel;
 
 /**
@@ -16,10 +28,33 @@ public class StudentManagerGUI extends JFrame {
     private JComboBox<String> classComboBox, sortComboBox; // Combo boxes for selecting class and sorting option
     private JButton addClassButton, editClassButton, deleteClassButton; // Buttons for adding, editing, and deleting classes
     private JTable studentTable; // Table for displaying students
-    private DefaultTableModel tableModel; // Table model for student data
-    private Map<String, ArrayList<Student>> classMap; // Map of class names to students
+    private JTextField searchField; // Text field for finding students by roll number or name
+    private JLabel searchResultLabel; // Shows how many students were found
+    private StudentTableModel tableModel; // Table model that reads student data straight from the class's store
+    private final SortedViewCache sortedViews = new SortedViewCache(SORTED_VIEW_BUDGET); // Orders the classes were sorted in
+    private Map<String, StudentStore> classMap; // Map of class names to students, stored by column
+    private ClassResidency residency; // Unloads the least recently used classes of the class map beyond RESIDENT_BYTES, or null before the roster is loaded
     private int classCounter = 101; // Counter for generating default class names
-    private static final String CSV_FILE_PATH = "class_roster.csv"; // Path to the CSV file for saving class roster
+    private static final String ROSTER_FILE_PATH = "class_roster" + BinaryRoster.EXTENSION; // Path to the binary file for saving class roster
+    private static final String CSV_FILE_PATH = "class_roster.csv"; // Path to the CSV file earlier versions saved the class roster in
+    private static final int SEARCH_LIMIT = 1000; // Most students selected by a name search
+    private static final long SORTED_VIEW_BUDGET = 64L << 20; // Most bytes of sorted views kept for switching orders
+    private static final int EDIT_PAGE_ROWS = 20; // Rows of students the edit dialog shows at a time
+    private static final int INCREMENTAL_SORT_THRESHOLD = 50_000; // Classes at least this large show their first sorted rows before the whole class is sorted
+    private static final long RESIDENT_BYTES = Long.getLong("roster.resident.mb", Runtime.getRuntime().maxMemory() / 4 >> 20) << 20; // Most bytes of classes kept in memory, a quarter of the heap unless set
+    private static final String SPILL_DIRECTORY = System.getProperty("roster.spill.dir", System.getProperty("java.io.tmpdir")); // Directory for classes unloaded from memory
+    private RosterJournal journal; // Journal that saves every change to the class roster as it is made
+    private RosterService service; // Follows the class roster for clients over HTTP and for the primary, or null if neither is started
+    private RosterPrimary primary; // Streams the changes of the service's roster to followers, or null if not started
+    private RosterWatcher watcher; // Merges the roster files of a watched directory as they change, or null if none is watched
+    private TaskScheduler scheduler; // Runs loading, saving, sorting and journal writes in the background
+    private JLabel statusLabel; // Describes the work running in the background
+    private JProgressBar progressBar; // Shows the progress of the work running in the background
+    private JButton cancelTaskButton; // Cancels the work whose progress is shown
+    private boolean dialogOpen; // Whether an add or edit dialog is open, so the class map must not be replaced
+    private final List<Runnable> afterDialog = new ArrayList<>(); // Results deferred until the open dialog closes
+    private final RosterHistory history = new RosterHistory(); // Changes made in this window that can be undone and redone
+    private JMenuItem undoMenuItem, redoMenuItem; // Menu items for undoing and redoing, named after the step
 
     /**
      * Constructor to initialize the GUI components and load the class roster.
@@ -27,12 +62,12 @@ public class StudentManagerGUI extends JFrame {
     public StudentManagerGUI() {
         setTitle("Student Manager"); // Set window title
         setSize(800, 600); // Set window size
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE); // Exit application on close
+        setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE); // Exit once the journal is closed, see windowClosing
         setLayout(new BorderLayout()); // Use border layout for main panel
 
         // Set up table model and table for displaying students
-        tableModel = new DefaultTableModel(new Object[]{"Roll Number", "Name", "Address"}, 0); // Column headers
-        studentTable = new JTable(tableModel); // Table with default table model
+        tableModel = new StudentTableModel(); // Table model with Roll Number, Name and Address columns
+        studentTable = new JTable(tableModel); // Table with student table model
         studentTable.setAutoCreateRowSorter(true); // Enable row sorting
         JScrollPane scrollPane = new JScrollPane(studentTable); // Scroll pane for table
         add(scrollPane, BorderLayout.CENTER); // Add scroll pane to main panel
@@ -50,7 +85,7 @@ public class StudentManagerGUI extends JFrame {
         topPanel.setLayout(new FlowLayout(FlowLayout.LEFT)); // Use flow layout for top panel
 
         classComboBox = new JComboBox<>(); // Combo box for selecting classes
-        classComboBox.addActionListener(e -> displayClass((String) classComboBox.getSelectedItem())); // Display selected class
+        classComboBox.addActionListener(e -> selectClass((String) classComboBox.getSelectedItem())); // Display selected class
         topPanel.add(classComboBox); // Add class combo box to top panel
 
         addClassButton = new JButton("Add A Class"); // Button to add a new class
@@ -74,36 +109,164 @@ public class StudentManagerGUI extends JFrame {
         sortComboBox.setToolTipText("Sort the students by name or roll number"); // Set tooltip for combo box
         topPanel.add(sortComboBox); // Add sort combo box to top panel
 
+        searchField = new JTextField(12); // Text field for search text
+        searchField.getDocument().addDocumentListener(new DocumentListener() { // Search as the user types
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                searchClass();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                searchClass();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                searchClass();
+            }
+        });
+        searchField.setToolTipText("Find students by roll number or by the start of their name"); // Set tooltip for text field
+        topPanel.add(new JLabel("Search:")); // Add search label to top panel
+        topPanel.add(searchField); // Add search field to top panel
+        searchResultLabel = new JLabel(); // Label for the number of students found
+        topPanel.add(searchResultLabel); // Add search result label to top panel
+
         add(topPanel, BorderLayout.NORTH); // Add top panel to main panel
 
-        createMenuBar(); // Create menu bar with load and save options
+        // Status bar with the progress of work running in the background
+        JPanel statusPanel = new JPanel(new FlowLayout(FlowLayout.LEFT)); // Panel for status label, progress bar and cancel button
+        statusLabel = new JLabel("Ready"); // Label describing the running task
+        statusPanel.add(statusLabel); // Add status label to status panel
+        progressBar = new JProgressBar(0, 100); // Progress bar for the running task
+        progressBar.setVisible(false); // Only shown while a task runs
+        statusPanel.add(progressBar); // Add progress bar to status panel
+        cancelTaskButton = new JButton("Cancel"); // Button to cancel the running task
+        cancelTaskButton.addActionListener(e -> scheduler.cancelShown()); // Ask the running task to stop
+        cancelTaskButton.setToolTipText("Cancel the running task"); // Set tooltip for button
+        cancelTaskButton.setVisible(false); // Only shown while a task runs
+        statusPanel.add(cancelTaskButton); // Add cancel button to status panel
+        add(statusPanel, BorderLayout.SOUTH); // Add status panel to main panel
 
-        // Initialize with 10 students if not already in CSV
-        loadClassRoster(CSV_FILE_PATH); // Load class roster from CSV file
-        if (!checkInitialStudentsExist()) { // Check if initial students exist
-            initializeStudents(); // Initialize with 10 students
-            saveClassRoster(CSV_FILE_PATH); // Save class roster to CSV file
-        }
+        scheduler = new TaskScheduler(this::showTaskProgress); // Report background progress in the status bar
 
-        if (!classMap.isEmpty()) { // Display first class if available
-            displayClass(classMap.keySet().iterator().next()); // Display first class
-        }
+        createMenuBar(); // Create menu bar with load and save options
+
+        // Load in the background and initialize with 10 students if not already saved
+        openJournal(ROSTER_FILE_PATH, true); // Load class roster from binary file and its journal
 
         // Ensure save on exit works correctly
         addWindowListener(new WindowAdapter() { // Add window listener for window closing event
             @Override
             public void windowClosing(WindowEvent e) { // Override window closing method
-                saveClassRoster(CSV_FILE_PATH); // Save class roster to CSV file
+                setVisible(false); // Every change is already saved, so close at once and finish in the background
+                stopWatching(); // Ignore further changes to watched files
+                if (service != null) { // Stop answering clients
+                    service.close(); // Publishes the queued changes, which the primary sends on
+                }
+                if (primary != null) { // Disconnect the followers, which keep what they have
+                    try {
+                        primary.close();
+                    } catch (IOException ex) {
+                        System.err.println("Failed to stop replication: " + ex.getMessage()); // Log error message
+                    }
+                }
+                RosterJournal target = journal; // Journal to close
+                scheduler.submitInOrder("journal", null, progress -> { // After the pending journal writes
+                    target.close(); // Wait for compaction and close the log
+                    return null;
+                }, done -> exit(0), failure -> {
+                    System.err.println("Failed to close journal: " + failure.getMessage()); // Log error message
+                    exit(1);
+                });
             }
         });
     }
 
+    /**
+     * Shows the progress of the task running in the background in the status bar.
+     * @param description The description of the task, or null if no task is running.
+     * @param percent The percentage done, or -1 if unknown.
+     */
+    private void showTaskProgress(String description, int percent) { // Update the status bar
+        boolean running = description != null; // Whether a task is shown
+        statusLabel.setText(running ? description + "..." : "Ready"); // Describe the task
+        progressBar.setVisible(running); // Show the progress bar while a task runs
+        progressBar.setIndeterminate(percent < 0); // Animate if the progress is unknown
+        progressBar.setValue(Math.max(percent, 0)); // Show the progress
+        cancelTaskButton.setVisible(running); // Show the cancel button while a task runs
+    }
+
+    /**
+     * Closes the window and exits the application.
+     * @param status The exit status.
+     */
+    private void exit(int status) { // Exit the application
+        closeResidency(); // Delete the spill file
+        dispose(); // Release the window
+        System.exit(status); // Exit the application
+    }
+
+    /**
+     * Enables or disables the controls that change the class roster, while the roster is being loaded.
+     * @param enabled True to enable the controls.
+     */
+    private void setRosterControlsEnabled(boolean enabled) { // Enable or disable the roster controls
+        classComboBox.setEnabled(enabled);
+        sortComboBox.setEnabled(enabled);
+        addClassButton.setEnabled(enabled);
+        editClassButton.setEnabled(enabled);
+        deleteClassButton.setEnabled(enabled);
+        searchField.setEnabled(enabled);
+        if (getJMenuBar() != null) { // Load, save, undo and finding duplicates as well
+            getJMenuBar().getMenu(0).setEnabled(enabled);
+            getJMenuBar().getMenu(1).setEnabled(enabled);
+            getJMenuBar().getMenu(3).setEnabled(enabled);
+            if (enabled) {
+                updateUndoMenu();
+            } else { // Their shortcuts as well
+                undoMenuItem.setEnabled(false);
+                redoMenuItem.setEnabled(false);
+            }
+        }
+    }
+
+    /**
+     * Runs an action now, or when the open add or edit dialog closes if one is open.
+     * Results of background tasks that reorder or replace students wait for the dialog, since its fields refer to
+     * students by position.
+     * @param action The action to run.
+     */
+    private void runWhenNoDialogOpen(Runnable action) { // Defer actions while a dialog is open
+        if (dialogOpen) {
+            afterDialog.add(action); // Run when the dialog closes
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * Shows a modal add or edit dialog and then runs the actions that were deferred while it was open.
+     * @param dialog The dialog to show.
+     */
+    private void showDialog(JDialog dialog) { // Show a modal dialog
+        dialogOpen = true; // Defer background results that change the students
+        try {
+            dialog.setVisible(true); // Show dialog; returns when it is closed
+        } finally {
+            dialogOpen = false;
+            List<Runnable> actions = new ArrayList<>(afterDialog); // Run the deferred actions in order
+            afterDialog.clear();
+            actions.forEach(Runnable::run);
+        }
+    }
+
     /**
      * Initializes the application with 10 students.
      */
     private void initializeStudents() { 
         String initialClass = "Programming I"; // Initial class name
-        ArrayList<Student> initialStudents = new ArrayList<>(); // Initial students list
+        StudentStore initialStudents = new StudentStore(); // Initial students list
         initialStudents.add(new Student(1, "John Doe", "123 Main St"));
         initialStudents.add(new Student(2, "Jane Smith", "456 Oak St"));
         initialStudents.add(new Student(3, "Alice Johnson", "789 Pine St"));
@@ -117,6 +280,13 @@ public class StudentManagerGUI extends JFrame {
 
         classMap.put(initialClass, initialStudents); // Add initial students to class map
         classComboBox.addItem(initialClass); // Add initial class to combo box
+
+        ArrayList<RosterChange> changes = new ArrayList<>(); // Record the initial class in the journal
+        changes.add(RosterChange.addClass(initialClass));
+        for (Student student : initialStudents) {
+            changes.add(RosterChange.addStudent(initialClass, student));
+        }
+        recordChanges(changes);
     }
 
     /**
@@ -135,9 +305,101 @@ public class StudentManagerGUI extends JFrame {
         fileMenu.add(saveMenuItem); // Add save menu item to file menu
 
         menuBar.add(fileMenu); // Add file menu to menu bar
+
+        JMenu editMenu = new JMenu("Edit"); // Edit menu
+        int shortcutMask = Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx(); // Ctrl, or Command on a Mac
+        undoMenuItem = new JMenuItem("Undo"); // Undo menu item
+        undoMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, shortcutMask)); // Ctrl+Z
+        undoMenuItem.addActionListener(e -> undo(false)); // Add action listener for undoing the latest step
+        editMenu.add(undoMenuItem); // Add undo menu item to edit menu
+        redoMenuItem = new JMenuItem("Redo"); // Redo menu item
+        redoMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y, shortcutMask)); // Ctrl+Y
+        redoMenuItem.addActionListener(e -> undo(true)); // Add action listener for redoing the latest step undone
+        editMenu.add(redoMenuItem); // Add redo menu item to edit menu
+        menuBar.add(editMenu); // Add edit menu to menu bar
+        updateUndoMenu(); // Nothing to undo yet
+
+        JMenu viewMenu = new JMenu("View"); // View menu
+        JMenuItem diagnosticsMenuItem = new JMenuItem("Diagnostics"); // Diagnostics menu item
+        diagnosticsMenuItem.addActionListener(e -> showDiagnostics()); // Add action listener for showing the metrics
+        viewMenu.add(diagnosticsMenuItem); // Add diagnostics menu item to view menu
+        menuBar.add(viewMenu); // Add view menu to menu bar
+
+        JMenu toolsMenu = new JMenu("Tools"); // Tools menu
+        JMenuItem duplicatesMenuItem = new JMenuItem("Find Duplicates"); // Find duplicates menu item
+        duplicatesMenuItem.addActionListener(e -> findDuplicates()); // Add action listener for finding duplicate students
+        toolsMenu.add(duplicatesMenuItem); // Add find duplicates menu item to tools menu
+        JMenuItem queryMenuItem = new JMenuItem("Query..."); // Query menu item
+        queryMenuItem.addActionListener(e -> showQuery()); // Add action listener for filtering students across classes
+        toolsMenu.add(queryMenuItem); // Add query menu item to tools menu
+        toolsMenu.addSeparator(); // Separate watching from the other tools
+        JMenuItem watchMenuItem = new JMenuItem("Watch Folder..."); // Watch folder menu item
+        watchMenuItem.addActionListener(e -> chooseWatchFolder()); // Add action listener for choosing a directory to watch
+        toolsMenu.add(watchMenuItem); // Add watch folder menu item to tools menu
+        JMenuItem stopWatchingMenuItem = new JMenuItem("Stop Watching"); // Stop watching menu item
+        stopWatchingMenuItem.addActionListener(e -> stopWatching()); // Add action listener for no longer watching
+        toolsMenu.add(stopWatchingMenuItem); // Add stop watching menu item to tools menu
+        menuBar.add(toolsMenu); // Add tools menu to menu bar
+
         setJMenuBar(menuBar); // Set menu bar for the application
     }
 
+    /**
+     * Shows the diagnostics panel with the latency, throughput and allocation of loading, saving, sorting and showing
+     * classes. The panel is not modal and refreshes itself every second while it is open.
+     */
+    private void showDiagnostics() { // Show the metrics of the roster operations
+        JDialog dialog = new JDialog(this, "Diagnostics", false); // Dialog for the metrics
+        dialog.setLayout(new BorderLayout()); // Use border layout for dialog
+
+        MetricsTableModel metricsModel = new MetricsTableModel(); // One row per operation
+        JTable metricsTable = new JTable(metricsModel); // Table of the metrics
+        metricsTable.setPreferredScrollableViewportSize(new Dimension(700, metricsTable.getRowHeight() * metricsModel.getRowCount())); // Show every operation
+        dialog.add(new JScrollPane(metricsTable), BorderLayout.CENTER); // Add table to dialog
+        if (!RosterMetrics.isEnabled()) { // Explain the empty table
+            dialog.add(new JLabel("Metrics are turned off with -Droster.metrics=false"), BorderLayout.NORTH);
+        }
+
+        JPanel buttonPanel = new JPanel(); // Panel for buttons
+        JButton saveButton = new JButton("Save Metrics"); // Button to save the metrics to a file
+        JButton resetButton = new JButton("Reset"); // Button to forget the metrics recorded so far
+        JButton closeButton = new JButton("Close"); // Button to close the dialog
+        buttonPanel.add(saveButton); // Add save button to button panel
+        buttonPanel.add(resetButton); // Add reset button to button panel
+        buttonPanel.add(closeButton); // Add close button to button panel
+        dialog.add(buttonPanel, BorderLayout.SOUTH); // Add button panel to dialog
+
+        javax.swing.Timer refreshTimer = new javax.swing.Timer(1000, ev -> metricsModel.refresh()); // Refresh every second
+        saveButton.addActionListener(ev -> { // Add action listener for save button
+            JFileChooser fileChooser = new JFileChooser(); // File chooser for the metrics file
+            fileChooser.setSelectedFile(new File("roster_metrics.json")); // Suggest a file name
+            if (fileChooser.showSaveDialog(dialog) == JFileChooser.APPROVE_OPTION) { // Check if file selection is approved
+                try {
+                    RosterMetrics.dump(fileChooser.getSelectedFile().toPath()); // Write the metrics as JSON
+                } catch (IOException ex) {
+                    JOptionPane.showMessageDialog(dialog, "Failed to save metrics: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE); // Show error message
+                }
+            }
+        });
+        resetButton.addActionListener(ev -> { // Add action listener for reset button
+            RosterMetrics.reset();
+            metricsModel.refresh();
+        });
+        closeButton.addActionListener(ev -> dialog.dispose()); // Add action listener for close button
+        dialog.addWindowListener(new WindowAdapter() { // Stop refreshing once the dialog is gone
+            @Override
+            public void windowClosed(WindowEvent ev) {
+                refreshTimer.stop();
+            }
+        });
+        dialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE); // Dispose so windowClosed is sent
+
+        dialog.pack(); // Pack dialog components
+        dialog.setLocationRelativeTo(this); // Set dialog location relative to main window
+        refreshTimer.start(); // Start refreshing
+        dialog.setVisible(true); // Show dialog; returns at once since it is not modal
+    }
+
     /**
      * Opens a file chooser for loading or saving the class roster.
      * @param isLoad True if loading a file, false if saving a file.
@@ -147,8 +409,17 @@ public class StudentManagerGUI extends JFrame {
         int result = isLoad ? fileChooser.showOpenDialog(this) : fileChooser.showSaveDialog(this); // Show file chooser dialog
         if (result == JFileChooser.APPROVE_OPTION) { // Check if file selection is approved
             File file = fileChooser.getSelectedFile(); // Get selected file
-            if (isLoad) { // Load file if specified
+            if (isLoad && file.toPath().toAbsolutePath().equals(journal.getBasePath())) { // Reloading the journal's own snapshot
+                closeJournal(); // Reopen the journal so its log is replayed as well
+                classMap.clear(); // Clear existing class map
+                classComboBox.setModel(new DefaultComboBoxModel<>()); // Clear class combo box
+                tableModel.clear(); // Clear table
+                openJournal(file.getAbsolutePath(), false); // Load class roster and journal
+            } else if (isLoad) { // Load file if specified
                 loadClassRoster(file.getAbsolutePath()); // Load class roster from file
+            } else if (file.toPath().toAbsolutePath().equals(journal.getBasePath())) { // Saving over the journal's own snapshot
+                compactJournal(() -> // Fold the journal into the snapshot instead of writing it twice
+                        JOptionPane.showMessageDialog(this, "Class roster saved to " + file.getAbsolutePath(), "Success", JOptionPane.INFORMATION_MESSAGE)); // Show success message
             } else {
                 saveClassRoster(file.getAbsolutePath()); // Save class roster to file
             }
@@ -157,17 +428,22 @@ public class StudentManagerGUI extends JFrame {
 
     /**
      * Adds a new class and allows the user to add students to it.
+     * The class and its students are added together when Done is clicked, as one step that can be undone, so
+     * cancelling leaves the roster as it was.
      * @param e ActionEvent triggered by clicking the "Add A Class" button.
      */
     private void addClass(ActionEvent e) { // Add a new class and students
         String className = JOptionPane.showInputDialog(this, "Enter the name of the class:"); // Get class name from user
         if (className == null || className.trim().isEmpty()) { // Check if class name is empty
-            className = "Class " + (++classCounter); // Generate default class name
+            do {
+                className = "Class " + (++classCounter); // Generate default class name
+            } while (classMap.containsKey(className));
+        } else if (classMap.containsKey(className)) { // Check if class name already exists
+            JOptionPane.showMessageDialog(this, "Class name already exists.", "Error", JOptionPane.ERROR_MESSAGE); // Show error message
+            return;
         }
-        ArrayList<Student> newClass = new ArrayList<>(); // Create new class with empty student list
         final String finalClassName = className; // Final class name for lambda expression
-        classMap.put(finalClassName, newClass); // Add new class to class map
-        classComboBox.addItem(finalClassName); // Add new class to combo box
+        List<Student> newStudents = new ArrayList<>(); // Students added in the dialog, added to the roster on Done
 
         // Create a modal dialog to add students
         JDialog dialog = new JDialog(this, "Add Students", true); // Dialog for adding students
@@ -176,10 +452,13 @@ public class StudentManagerGUI extends JFrame {
         JPanel fieldsPanel = new JPanel(new GridLayout(0, 2)); // Panel for student fields
         JTextField nameField = new JTextField(); // Text field for student name
         JTextField addressField = new JTextField(); // Text field for student address
+        JLabel countLabel = new JLabel("0"); // Number of students added so far
         fieldsPanel.add(new JLabel("Name:")); // Add name label to fields panel
         fieldsPanel.add(nameField); // Add name field to fields panel
         fieldsPanel.add(new JLabel("Address:")); // Add address label to fields panel
         fieldsPanel.add(addressField); // Add address field to fields panel
+        fieldsPanel.add(new JLabel("Students added:")); // Add count label to fields panel
+        fieldsPanel.add(countLabel); // Add count to fields panel
         dialog.add(fieldsPanel, BorderLayout.CENTER); // Add fields panel to dialog
 
         JPanel buttonPanel = new JPanel(); // Panel for buttons
@@ -195,8 +474,8 @@ public class StudentManagerGUI extends JFrame {
             String name = nameField.getText().trim(); // Get student name from text field
             String address = addressField.getText().trim(); // Get student address from text field
             if (!name.isEmpty() && !address.isEmpty()) {  // Check if name and address are not empty
-                newClass.add(new Student(newClass.size() + 1, name, address)); // Add student to class
-                tableModel.addRow(new Object[]{newClass.size(), name, address}); // Add student to table
+                newStudents.add(new Student(newStudents.size() + 1, name, address)); // Roll number in the order added
+                countLabel.setText(String.valueOf(newStudents.size())); // Show how many were added
                 nameField.setText(""); // Clear name field
                 addressField.setText(""); // Clear address field
             } else {
@@ -205,37 +484,146 @@ public class StudentManagerGUI extends JFrame {
         });
 
         doneButton.addActionListener(ev -> { // Add action listener for done button
-            displayClass(finalClassName); // Display the new class
+            List<RosterChange> changes = new ArrayList<>(newStudents.size() + 1); // The class, then its students
+            changes.add(RosterChange.addClass(finalClassName));
+            for (Student student : newStudents) {
+                changes.add(RosterChange.addStudent(finalClassName, student));
+            }
+            applyChanges("Add Class " + finalClassName, changes); // Add the class and save it with a single journal write
+            classComboBox.addItem(finalClassName); // Add new class to combo box
+            classComboBox.setSelectedItem(finalClassName); // Display the new class
             dialog.dispose(); // Close the dialog
         });
 
         cancelButton.addActionListener(ev -> { // Add action listener for cancel button
-            if (JOptionPane.showConfirmDialog(dialog, "Are you sure you want to cancel?", "Confirm Cancel", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) { // Confirm cancel
-                classMap.remove(finalClassName); // Remove new class
-                classComboBox.removeItem(finalClassName); // Remove new class from combo box
-                dialog.dispose(); // Close the dialog
+            if (newStudents.isEmpty() || JOptionPane.showConfirmDialog(dialog, "Are you sure you want to cancel?", "Confirm Cancel", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) { // Confirm cancel
+                dialog.dispose(); // Close the dialog; nothing was added to the roster
+            }
+        });
+        dialog.setDefaultCloseOperation(JDialog.DO_NOTHING_ON_CLOSE); // Closing the dialog cancels it
+        dialog.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent ev) {
+                cancelButton.doClick(); // Ask before discarding the students
             }
         });
 
         dialog.pack(); // Pack dialog components
         dialog.setLocationRelativeTo(this); // Set dialog location relative to main window
-        dialog.setVisible(true); // Show dialog
+        showDialog(dialog); // Show dialog
+    }
+
+    /**
+     * Displays a class selected in the class combo box and finds the search text in it. A class that is not in
+     * memory, because it was never selected or was unloaded to make room for others, is loaded in the background and
+     * displayed once loaded, so the window stays responsive while a large class is read.
+     * @param className The name of the class.
+     */
+    private void selectClass(String className) { // Display the selected class, loading it in the background if needed
+        Callable<StudentStore> loader = className != null && classMap instanceof BinaryRoster.ClassMap ? ((BinaryRoster.ClassMap) classMap).loader(className) : null;
+        if (loader == null) { // In memory already
+            displayClass(className);
+            searchClass(); // Find the search text in the new class
+            return;
+        }
+        BinaryRoster.ClassMap loadingMap = (BinaryRoster.ClassMap) classMap; // Roster the class is loaded for
+        tableModel.clear(); // Nothing to show until the class is loaded
+        scheduler.submitLatest("select", "Loading " + className, progress -> loader.call(), students -> {
+            if (classMap != loadingMap || !className.equals(classComboBox.getSelectedItem())) { // The roster was replaced or another class selected
+                return;
+            }
+            loadingMap.putLoaded(className, loader, students); // Unless the class was loaded or changed in the meantime
+            displayClass(className);
+            searchClass(); // Find the search text in the new class
+        }, failure -> JOptionPane.showMessageDialog(this, "Failed to load class " + className + ": " + failure.getMessage(), "Error", JOptionPane.ERROR_MESSAGE)); // Show error message
     }
 
     /**
      * Displays the students in the selected class in the table.
+     * A class of a binary roster is loaded from the file the first time it is displayed.
      * @param className The name of the class to display.
      */
     private void displayClass(String className) { // Display students for the selected class
         if (className != null && classMap.containsKey(className)) { // Check if class exists
-            ArrayList<Student> students = classMap.get(className); // Get students for the selected class
-            tableModel.setRowCount(0); // Clear existing data
-            for (Student student : students) { // Add students to table
-                tableModel.addRow(new Object[]{student.getRollno(), student.getName(), student.getAddress()}); // Add student to table
+            StudentStore students; // Students of the selected class
+            try {
+                students = classMap.get(className); // Get students for the selected class, loading them if needed
+            } catch (UncheckedIOException e) { // The class's data in the file is damaged
+                JOptionPane.showMessageDialog(this, "Failed to load class " + className + ": " + e.getCause().getMessage(), "Error", JOptionPane.ERROR_MESSAGE); // Show error message
+                return;
+            }
+            if (!tableModel.isShowing(students)) { // Rows are read from the store, so only a different class needs a refresh
+                showStudents(className, students); // Show the class without copying its rows
             }
         }
     }
 
+    /**
+     * Shows the students of a class in the table, in the selected sort order if the class has been sorted in it
+     * before and in insertion order otherwise.
+     * @param className The name of the class.
+     * @param students The students of the class.
+     */
+    private void showStudents(String className, StudentStore students) { // Show a class in the table
+        SortedView view = sortedViews.get(students, selectedSortKey()); // Order to show the students in, or null
+        sortedViews.setShown(view); // Keep the shown order in sync and in the cache
+        try (RosterMetrics.Sample sample = RosterMetrics.REFRESH.start(className)) {
+            sample.rows(students.size());
+            tableModel.setStudents(students, view);
+        }
+    }
+
+    /**
+     * Returns the sort order selected in the sort combo box.
+     * @return "name" or "rollno", as understood by {@link RosterEngine#comparator}.
+     */
+    private String selectedSortKey() { // Sort key of the selected sorting option
+        return "Sort by Name".equals(sortComboBox.getSelectedItem()) ? "name" : "rollno";
+    }
+
+    /**
+     * Selects the students of the selected class that match the search text: the student with that roll number if the
+     * text is a number, otherwise the students whose names start with it, ignoring case.
+     * Matches are found through the class's index instead of scanning its students.
+     */
+    private void searchClass() { // Select the students matching the search text
+        String query = searchField.getText().trim(); // Get search text
+        String selectedClass = (String) classComboBox.getSelectedItem(); // Get selected class name
+        studentTable.clearSelection(); // Forget the previous matches
+        if (query.isEmpty() || selectedClass == null || !classMap.containsKey(selectedClass)) { // Nothing to search
+            searchResultLabel.setText("");
+            return;
+        }
+        StudentIndex index = classMap.get(selectedClass).index(); // Index of the selected class
+        int[] matches; // Positions of the matching students
+        int count; // Number of matching students
+        if (query.length() <= 9 && query.chars().allMatch(c -> c >= '0' && c <= '9')) { // Find by roll number
+            int position = index.positionOf(Integer.parseInt(query));
+            matches = position < 0 ? new int[0] : new int[] {position};
+            count = matches.length;
+        } else { // Find by name
+            matches = index.positionsWithNamePrefix(query, SEARCH_LIMIT);
+            count = index.countWithNamePrefix(query);
+        }
+        ListSelectionModel selection = studentTable.getSelectionModel(); // Select the matches in one go
+        selection.setValueIsAdjusting(true);
+        int firstRow = Integer.MAX_VALUE; // Topmost matching row, to scroll to
+        for (int position : matches) {
+            int modelRow = tableModel.rowOf(position); // The class may be shown sorted
+            if (modelRow < 0) { // Not sorted into a row yet; selected once the whole class is sorted
+                continue;
+            }
+            int row = studentTable.convertRowIndexToView(modelRow); // The table may be sorted by a column
+            selection.addSelectionInterval(row, row);
+            firstRow = Math.min(firstRow, row);
+        }
+        selection.setValueIsAdjusting(false);
+        if (firstRow != Integer.MAX_VALUE) { // Scroll to the first match
+            studentTable.scrollRectToVisible(studentTable.getCellRect(firstRow, 0, true));
+        }
+        searchResultLabel.setText(count == 0 ? "No match" : count > matches.length ? count + " found, " + matches.length + " selected" : count + " found"); // Show the number of matches
+    }
+
     /**
      * Deletes the selected class after user confirmation.
      * @param e ActionEvent triggered by clicking the "Delete Class" button.
@@ -243,47 +631,59 @@ public class StudentManagerGUI extends JFrame {
     private void deleteClass(ActionEvent e) { // Delete the selected class
         String selectedClass = (String) classComboBox.getSelectedItem(); // Get selected class name
         if (selectedClass != null && JOptionPane.showConfirmDialog(this, "Are you sure you want to delete " + selectedClass + "?", "Confirm Deletion", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) { // Confirm deletion
-            classMap.remove(selectedClass); // Remove selected class
+            StudentStore students = classMap.get(selectedClass); // Kept by the history so the deletion can be undone
+            applyChanges("Delete Class " + selectedClass, List.of(RosterChange.deleteClass(selectedClass))); // Remove selected class and record the deletion in the journal
+            sortedViews.invalidate(students); // Remove its sorted views
             classComboBox.removeItem(selectedClass); // Remove selected class from combo box
-            tableModel.setRowCount(0); // Clear table
+            tableModel.clear(); // Clear table
         }
     }
 
     /**
      * Edits the details of the selected class, allowing the user to modify student details and add new students.
+     * The students are edited in a table that reads them from the class's store and paints only the rows in view, so
+     * the dialog opens as fast for a large class as for a small one. Edits are kept in the table's model until Save,
+     * which applies only the names and addresses that changed, as one step that can be undone, and records them in one
+     * journal write; Cancel leaves the class as it was.
      * @param e ActionEvent triggered by clicking the "Edit Class" button.
      */
     private void editClass(ActionEvent e) { // Edit the selected class
         String selectedClass = (String) classComboBox.getSelectedItem(); // Get selected class name
         if (selectedClass != null) { // Check if class exists
-            ArrayList<Student> students = classMap.get(selectedClass); // Get students for the selected class
+            StudentStore students = classMap.get(selectedClass); // Get students for the selected class
+            int savedCount = students.size(); // Students beyond this count are added in the dialog
 
             // Create a modal dialog to edit class name and students
             JDialog dialog = new JDialog(this, "Edit Class", true); // Dialog for editing class
             dialog.setLayout(new BorderLayout()); // Use border layout for dialog
 
-            JPanel fieldsPanel = new JPanel(new GridLayout(0, 2)); // Panel for class and student fields
+            JPanel classNamePanel = new JPanel(new BorderLayout()); // Panel for the class name field
             JTextField classNameField = new JTextField(selectedClass); // Text field for class name
-            fieldsPanel.add(new JLabel("Class Name:")); // Add class name label to fields panel
-            fieldsPanel.add(classNameField); // Add class name field to fields panel
-
-            ArrayList<JTextField> nameFields = new ArrayList<>(); // List of text fields for student names
-            ArrayList<JTextField> addressFields = new ArrayList<>(); // List of text fields for student addresses
-
-            for (Student student : students) { // Add student fields to panel
-                JTextField nameField = new JTextField(student.getName()); // Text field for student name
-                JTextField addressField = new JTextField(student.getAddress()); // Text field for student address
-                fieldsPanel.add(new JLabel("Name:")); // Add name label to fields panel
-                fieldsPanel.add(nameField); // Add name field to fields panel
-                fieldsPanel.add(new JLabel("Address:")); // Add address label to fields panel
-                fieldsPanel.add(addressField); // Add address field to fields panel
-                nameFields.add(nameField); // Add name field to list
-                addressFields.add(addressField); // Add address field to list
-            }
+            classNamePanel.add(new JLabel("Class Name: "), BorderLayout.WEST); // Add class name label to class name panel
+            classNamePanel.add(classNameField, BorderLayout.CENTER); // Add class name field to class name panel
+            dialog.add(classNamePanel, BorderLayout.NORTH); // Add class name panel to dialog
 
-            dialog.add(fieldsPanel, BorderLayout.CENTER); // Add fields panel to dialog
+            StudentEditTableModel editModel = new StudentEditTableModel(students); // Reads the store and keeps the edits beside it
+            JTable editTable = new JTable(editModel); // Table that paints only the visible rows, so any class opens at once
+            editTable.setSurrendersFocusOnKeystroke(true); // Typing starts editing the selected cell
+            editTable.setDefaultRenderer(String.class, new DefaultTableCellRenderer() { // Show edited cells in bold
+                @Override
+                public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
+                    Component cell = super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
+                    cell.setFont(editModel.isDirty(row, column) ? cell.getFont().deriveFont(Font.BOLD) : table.getFont());
+                    if (!isSelected) { // Students sharing a roll number are read-only
+                        cell.setForeground(editModel.isRollnoRepeated(row) ? Color.GRAY : table.getForeground());
+                    }
+                    return cell;
+                }
+            });
+            editTable.setPreferredScrollableViewportSize(new Dimension(600, editTable.getRowHeight() * EDIT_PAGE_ROWS)); // One page of rows
+            dialog.add(new JScrollPane(editTable), BorderLayout.CENTER); // Add table to dialog
 
             JPanel buttonPanel = new JPanel(); // Panel for buttons
+            if (editModel.hasRepeatedRollnos()) { // Explain the rows that cannot be edited
+                buttonPanel.add(new JLabel("Students that share a roll number are gray and cannot be edited."));
+            }
             JButton saveButton = new JButton("Save"); // Button to save changes
             JButton addStudentButton = new JButton("Add Student"); // Button to add a student
             JButton cancelButton = new JButton("Cancel"); // Button to cancel changes
@@ -293,6 +693,9 @@ public class StudentManagerGUI extends JFrame {
             dialog.add(buttonPanel, BorderLayout.SOUTH); // Add button panel to dialog
 
             saveButton.addActionListener(ev -> { // Add action listener for save button
+                if (editTable.isEditing()) { // Keep the text of the cell being edited
+                    editTable.getCellEditor().stopCellEditing();
+                }
                 String newClassName = classNameField.getText().trim(); // Get new class name
                 if (newClassName.isEmpty()) { // Check if class name is empty
                     JOptionPane.showMessageDialog(dialog, "Class name cannot be empty.", "Error", JOptionPane.ERROR_MESSAGE); // Show error message
@@ -303,113 +706,695 @@ public class StudentManagerGUI extends JFrame {
                     return;
                 }
 
-                for (int i = 0; i < students.size(); i++) { // Update student details
-                    students.get(i).setName(nameFields.get(i).getText().trim()); // Update student name
-                    students.get(i).setAddress(addressFields.get(i).getText().trim()); // Update student address
-                }
+                int firstChanged = editModel.firstEdited(), lastChanged = editModel.lastEdited(); // Range of existing students that changed
+                List<RosterChange> changes = new ArrayList<>(editModel.changes(selectedClass)); // Only the students that changed or were added
 
                 if (!newClassName.equals(selectedClass)) { // Update class name
-                    classMap.put(newClassName, students); // Update class map
-                    classMap.remove(selectedClass); // Remove old class name
+                    changes.add(RosterChange.renameClass(selectedClass, newClassName));
+                }
+                if (!changes.isEmpty()) {
+                    applyChanges("Edit Class " + selectedClass, changes); // Apply all changes as one step and save them with a single journal write
+                }
+                if (!newClassName.equals(selectedClass)) { // Show the new class name
                     classComboBox.removeItem(selectedClass); // Remove old class name from combo box
                     classComboBox.addItem(newClassName); // Add new class name to combo box
                     classComboBox.setSelectedItem(newClassName); // Select new class name
                 }
-
+                if (tableModel.isShowing(students)) { // Repaint only the rows that changed or were added
+                    if (lastChanged >= 0) {
+                        tableModel.studentsUpdated(firstChanged, lastChanged);
+                    }
+                    if (students.size() > savedCount) {
+                        tableModel.studentsInserted(savedCount, students.size() - 1);
+                    }
+                }
                 displayClass(newClassName); // Display updated class
                 dialog.dispose(); // Close the dialog
             });
 
             addStudentButton.addActionListener(ev -> { // Add action listener for add student button
-                JTextField nameField = new JTextField(); // Text field for student name
-                JTextField addressField = new JTextField(); // Text field for student address
-                fieldsPanel.add(new JLabel("Name:")); // Add name label to fields panel
-                fieldsPanel.add(nameField); // Add name field to fields panel
-                fieldsPanel.add(new JLabel("Address:")); // Add address label to fields panel
-                fieldsPanel.add(addressField); // Add address field to fields panel
-                nameFields.add(nameField); // Add name field to list
-                addressFields.add(addressField); // Add address field to list
-                students.add(new Student(students.size() + 1, "", "")); // Add new student to list
-                dialog.pack(); // Pack dialog components
+                int row = editModel.addStudent(); // Empty row, added to the class on save
+                editTable.scrollRectToVisible(editTable.getCellRect(row, 1, true)); // Scroll to the new row
+                editTable.editCellAt(row, 1); // Start with its name
+                editTable.requestFocusInWindow(); // Type straight into the cell
             });
 
             cancelButton.addActionListener(ev -> { // Add action listener for cancel button
-                if (JOptionPane.showConfirmDialog(dialog, "Are you sure you want to cancel?", "Confirm Cancel", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) { // Confirm cancel
-                    dialog.dispose(); // Close the dialog
+                if (!editModel.hasChanges() || JOptionPane.showConfirmDialog(dialog, "Are you sure you want to cancel?", "Confirm Cancel", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) { // Confirm discarding edits
+                    dialog.dispose(); // Close the dialog; the class was not changed
                 }
             });
 
             dialog.pack(); // Pack dialog components 
             dialog.setLocationRelativeTo(this); // Set dialog location relative to main window
-            dialog.setVisible(true); // Show dialog
+            showDialog(dialog); // Show dialog
         }
     }
 
     /**
-     * Sorts the students in the selected class based on the selected sorting option.
+     * Finds students that appear more than once in the class roster, in one class or across classes, in the
+     * background on a copy of the roster, and shows them once found.
+     */
+    private void findDuplicates() { // Find duplicate students
+        Map<String, StudentStore> snapshot = RosterJournal.copyOf(classMap); // Search the roster as it is now
+        scheduler.submitLatest("duplicates", "Finding duplicates", progress -> new DuplicateFinder()
+                .onProgress(progress::update) // Report the share of the students compared
+                .cancelWhen(progress::isCancelled) // Stop when the task is cancelled
+                .find(snapshot), clusters -> {
+            if (clusters.isEmpty()) {
+                JOptionPane.showMessageDialog(this, "No duplicate students found", "Find Duplicates", JOptionPane.INFORMATION_MESSAGE); // Show result
+            } else {
+                showDuplicates(clusters);
+            }
+        }, failure -> JOptionPane.showMessageDialog(this, "Failed to find duplicates: " + failure.getMessage(), "Error", JOptionPane.ERROR_MESSAGE)); // Show error message
+    }
+
+    /**
+     * Shows the clusters of duplicate students in a dialog that merges the selected clusters, or all of them.
+     * The dialog is not modal, so the roster can be looked at while deciding what to merge.
+     * @param clusters The clusters found.
+     */
+    private void showDuplicates(List<DuplicateFinder.Cluster> clusters) { // Show the duplicate students
+        JDialog dialog = new JDialog(this, "Duplicates", false); // Dialog for the duplicates
+        dialog.setLayout(new BorderLayout()); // Use border layout for dialog
+
+        DuplicateTableModel duplicatesModel = new DuplicateTableModel(clusters); // One row per student
+        JTable duplicatesTable = new JTable(duplicatesModel); // Table of the duplicates
+        duplicatesTable.setAutoCreateRowSorter(true); // Enable row sorting
+        duplicatesTable.setPreferredScrollableViewportSize(new Dimension(700, 300)); // Set table size
+        dialog.add(new JScrollPane(duplicatesTable), BorderLayout.CENTER); // Add table to dialog
+        JLabel summaryLabel = new JLabel("Students of a cluster are merged into its first student; copies in other classes take its name and address"); // Explain merging
+        dialog.add(summaryLabel, BorderLayout.NORTH); // Add summary label to dialog
+
+        JPanel buttonPanel = new JPanel(); // Panel for buttons
+        JButton mergeSelectedButton = new JButton("Merge Selected"); // Button to merge the clusters of the selected rows
+        JButton mergeAllButton = new JButton("Merge All"); // Button to merge every cluster
+        JButton closeButton = new JButton("Close"); // Button to close the dialog
+        buttonPanel.add(mergeSelectedButton); // Add merge selected button to button panel
+        buttonPanel.add(mergeAllButton); // Add merge all button to button panel
+        buttonPanel.add(closeButton); // Add close button to button panel
+        dialog.add(buttonPanel, BorderLayout.SOUTH); // Add button panel to dialog
+
+        mergeSelectedButton.addActionListener(ev -> { // Add action listener for merge selected button
+            int[] rows = duplicatesTable.getSelectedRows(); // Rows of the view, which may be sorted by a column
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = duplicatesTable.convertRowIndexToModel(rows[i]);
+            }
+            List<DuplicateFinder.Cluster> selected = duplicatesModel.clustersOf(rows); // Clusters of the selected students
+            mergeDuplicates(selected);
+            duplicatesModel.remove(selected);
+        });
+        mergeAllButton.addActionListener(ev -> { // Add action listener for merge all button
+            List<DuplicateFinder.Cluster> all = duplicatesModel.getClusters(); // Every cluster left
+            mergeDuplicates(all);
+            duplicatesModel.remove(all);
+        });
+        closeButton.addActionListener(ev -> dialog.dispose()); // Add action listener for close button
+        dialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE); // Dispose on close
+
+        dialog.pack(); // Pack dialog components
+        dialog.setLocationRelativeTo(this); // Set dialog location relative to main window
+        dialog.setVisible(true); // Show dialog; returns at once since it is not modal
+    }
+
+    /**
+     * Shows a dialog that finds the students of some or all classes by roll number range, name and address, and lists
+     * them in a table. Queries run in the background on a copy of the roster, see {@link StudentQuery}; double-clicking
+     * a student shows it in its class. The dialog is not modal, so it can stay open while the roster is edited, and
+     * each query sees the roster as it is when run.
+     * The results have a table of their own rather than the main one, since the main table reads the rows of the
+     * selected class straight from its store, and editing, deleting and saving act on the rows it shows; results span
+     * classes and come from a copy, so they need a class column and must not be edited in place.
+     */
+    private void showQuery() { // Filter students across classes
+        JDialog dialog = new JDialog(this, "Query", false); // Dialog for the query
+        dialog.setLayout(new BorderLayout()); // Use border layout for dialog
+
+        JPanel fieldsPanel = new JPanel(new GridLayout(0, 2)); // Panel for the conditions
+        JTextField fromField = new JTextField(8); // Lowest roll number, blank for no limit
+        JTextField toField = new JTextField(8); // Highest roll number, blank for no limit
+        JPanel rollnoPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0)); // Panel for the roll number range
+        rollnoPanel.add(fromField); // Add from field to roll number panel
+        rollnoPanel.add(new JLabel(" to ")); // Add separator to roll number panel
+        rollnoPanel.add(toField); // Add to field to roll number panel
+        fieldsPanel.add(new JLabel("Roll Number:")); // Add label for roll number range
+        fieldsPanel.add(rollnoPanel); // Add roll number panel to fields panel
+        String[] matchOptions = {"contains", "starts with"}; // How text is matched
+        JComboBox<String> nameMatchBox = new JComboBox<>(matchOptions); // How the name is matched
+        JTextField nameField = new JTextField(16); // Text of the name, blank for any
+        JPanel namePanel = new JPanel(new BorderLayout()); // Panel for the name condition
+        namePanel.add(nameMatchBox, BorderLayout.WEST); // Add name match box to name panel
+        namePanel.add(nameField, BorderLayout.CENTER); // Add name field to name panel
+        fieldsPanel.add(new JLabel("Name:")); // Add label for name condition
+        fieldsPanel.add(namePanel); // Add name panel to fields panel
+        JComboBox<String> addressMatchBox = new JComboBox<>(matchOptions); // How the address is matched
+        JTextField addressField = new JTextField(16); // Text of the address, blank for any
+        JPanel addressPanel = new JPanel(new BorderLayout()); // Panel for the address condition
+        addressPanel.add(addressMatchBox, BorderLayout.WEST); // Add address match box to address panel
+        addressPanel.add(addressField, BorderLayout.CENTER); // Add address field to address panel
+        fieldsPanel.add(new JLabel("Address:")); // Add label for address condition
+        fieldsPanel.add(addressPanel); // Add address panel to fields panel
+        DefaultListModel<String> classListModel = new DefaultListModel<>(); // Classes that can be queried, as in the class combo box
+        for (int i = 0; i < classComboBox.getItemCount(); i++) {
+            classListModel.addElement(classComboBox.getItemAt(i));
+        }
+        JList<String> classList = new JList<>(classListModel); // Classes to query; none selected queries all
+        classList.setVisibleRowCount(4); // Show a few classes at a time
+        fieldsPanel.add(new JLabel("Classes (none for all):")); // Add label for class list
+        fieldsPanel.add(new JScrollPane(classList)); // Add class list to fields panel
+        dialog.add(fieldsPanel, BorderLayout.NORTH); // Add fields panel to dialog
+
+        QueryTableModel queryModel = new QueryTableModel(); // One row per student found, read from the roster copy
+        JTable queryTable = new JTable(queryModel); // Table of the students found
+        queryTable.setPreferredScrollableViewportSize(new Dimension(700, 300)); // Set table size
+        dialog.add(new JScrollPane(queryTable), BorderLayout.CENTER); // Add table to dialog
+
+        JPanel buttonPanel = new JPanel(); // Panel for buttons and the summary
+        JLabel summaryLabel = new JLabel(); // Number of students found
+        JButton runButton = new JButton("Run"); // Button to run the query
+        JButton closeButton = new JButton("Close"); // Button to close the dialog
+        buttonPanel.add(summaryLabel); // Add summary label to button panel
+        buttonPanel.add(runButton); // Add run button to button panel
+        buttonPanel.add(closeButton); // Add close button to button panel
+        dialog.add(buttonPanel, BorderLayout.SOUTH); // Add button panel to dialog
+        dialog.getRootPane().setDefaultButton(runButton); // Enter runs the query
+
+        runButton.addActionListener(ev -> { // Add action listener for run button
+            List<StudentPredicate> conditions = new ArrayList<>(); // Cheap roll number range first, then text
+            try {
+                String from = fromField.getText().trim(), to = toField.getText().trim();
+                if (!from.isEmpty() || !to.isEmpty()) {
+                    conditions.add(StudentPredicate.rollnoBetween(from.isEmpty() ? Integer.MIN_VALUE : Integer.parseInt(from), to.isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(to)));
+                }
+            } catch (NumberFormatException e) {
+                JOptionPane.showMessageDialog(dialog, "Roll numbers must be whole numbers", "Error", JOptionPane.ERROR_MESSAGE); // Show error message
+                return;
+            }
+            String name = nameField.getText().trim(), address = addressField.getText().trim();
+            if (!name.isEmpty()) {
+                conditions.add(nameMatchBox.getSelectedIndex() == 0 ? StudentPredicate.nameContains(name) : StudentPredicate.nameStartsWith(name));
+            }
+            if (!address.isEmpty()) {
+                conditions.add(addressMatchBox.getSelectedIndex() == 0 ? StudentPredicate.addressContains(address) : StudentPredicate.addressStartsWith(address));
+            }
+            List<String> classes = classList.getSelectedValuesList(); // Classes to query
+            StudentQuery query = new StudentQuery()
+                    .where(StudentPredicate.and(conditions.toArray(new StudentPredicate[0])))
+                    .inClasses(classes.isEmpty() ? null : classes);
+            Map<String, StudentStore> snapshot = RosterJournal.copyOf(classMap); // Query the roster as it is now
+            long start = System.nanoTime(); // Time the query, including waiting for the worker
+            summaryLabel.setText("Running..."); // Show that the query started
+            scheduler.submitLatest("query", "Querying students", progress -> query.cancelWhen(progress::isCancelled).run(snapshot), result -> {
+                queryModel.setResult(result); // Show the students found
+                summaryLabel.setText(result.size() + " of " + result.getScanned() + " students in " + (System.nanoTime() - start) / 1_000_000 + " ms"); // Show the number found and the time taken
+            }, failure -> {
+                summaryLabel.setText(""); // Keep the previous students shown
+                JOptionPane.showMessageDialog(dialog, "Failed to query students: " + failure.getMessage(), "Error", JOptionPane.ERROR_MESSAGE); // Show error message
+            });
+        });
+        queryTable.addMouseListener(new MouseAdapter() { // Show a student in its class on double-click
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int row = queryTable.rowAtPoint(e.getPoint()); // Row clicked
+                if (e.getClickCount() == 2 && row >= 0) {
+                    StudentQuery.Result result = queryModel.getResult();
+                    showStudent(result.getClassName(row), result.getStudents(row).getRollno(result.getPosition(row)));
+                }
+            }
+        });
+        closeButton.addActionListener(ev -> dialog.dispose()); // Add action listener for close button
+        dialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE); // Dispose on close
+
+        dialog.pack(); // Pack dialog components
+        dialog.setLocationRelativeTo(this); // Set dialog location relative to main window
+        dialog.setVisible(true); // Show dialog; returns at once since it is not modal
+    }
+
+    /**
+     * Selects a class and the row of one of its students in the main window.
+     * @param className The name of the class.
+     * @param rollno The roll number of the student.
+     */
+    private void showStudent(String className, int rollno) { // Show a student in its class
+        if (!classMap.containsKey(className)) { // Deleted or renamed since the query ran
+            JOptionPane.showMessageDialog(this, "Class " + className + " no longer exists", "Query", JOptionPane.INFORMATION_MESSAGE); // Show result
+            return;
+        }
+        classComboBox.setSelectedItem(className); // Selects the class, which may load in the background
+        displayClass(className); // Show it now, to find the student's row
+        int position = classMap.get(className).index().positionOf(rollno); // The class may have changed since the query ran
+        int modelRow = position < 0 ? -1 : tableModel.rowOf(position); // The class may be shown sorted
+        if (modelRow < 0) { // Removed, or not sorted into a row yet
+            return;
+        }
+        int row = studentTable.convertRowIndexToView(modelRow); // The table may be sorted by a column
+        studentTable.setRowSelectionInterval(row, row); // Select the student
+        studentTable.scrollRectToVisible(studentTable.getCellRect(row, 0, true)); // Scroll to it
+    }
+
+    /**
+     * Merges clusters of duplicate students as one step that can be undone, records the changes in the journal and shows
+     * the selected class again.
+     * Changes to students or classes that were removed since the clusters were found are ignored.
+     * @param clusters The clusters to merge.
+     */
+    private void mergeDuplicates(List<DuplicateFinder.Cluster> clusters) { // Merge duplicate students
+        List<RosterChange> changes = new ArrayList<>(); // Changes of every cluster, in order
+        for (DuplicateFinder.Cluster cluster : clusters) {
+            changes.addAll(cluster.mergeChanges());
+        }
+        if (changes.isEmpty()) { // The clusters were already merged
+            return;
+        }
+        applyChanges("Merge Duplicates", changes); // Edits keep the sorted views in sync; removals drop them
+        String selectedClass = (String) classComboBox.getSelectedItem(); // Class being shown
+        if (selectedClass != null) {
+            tableModel.clear(); // Students of the shown class may have been removed
+            displayClass(selectedClass); // Show the class again
+            sortClass(null); // Sort it again if removals dropped its sorted view
+        }
+    }
+
+    /**
+     * Lets the user choose a directory whose roster CSV files are merged into the class roster, first as they are and
+     * then each time one of them changes.
+     */
+    private void chooseWatchFolder() { // Choose a directory to watch
+        JFileChooser fileChooser = new JFileChooser(); // File chooser for selecting the directory
+        fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY); // Only directories can be watched
+        if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) { // Check if directory selection is approved
+            watchFolder(fileChooser.getSelectedFile().toPath());
+        }
+    }
+
+    /**
+     * Starts merging the roster CSV files of a directory into the class roster as they change, instead of any
+     * directory watched before. Changes are merged on the event dispatch thread, after any open dialog closes.
+     * @param directory The directory to watch.
+     */
+    private void watchFolder(Path directory) { // Watch a directory of roster files
+        stopWatching(); // One directory at a time
+        RosterWatcher newWatcher = new RosterWatcher(directory)
+                .onChanges((file, changes) -> SwingUtilities.invokeLater(() -> runWhenNoDialogOpen(() -> { // Merge on the event dispatch thread
+                    if (watcher != null && watcher.getDirectory().equals(directory)) { // Still watched
+                        mergeWatchedChanges(file, changes);
+                    }
+                })))
+                .onMalformedLine(RosterReader.MalformedLineHandler.LOG) // Log lines that cannot be parsed
+                .onError((file, failure) -> System.err.println("Failed to read " + file + ": " + failure.getMessage())); // Log error message; the file is read again when it changes
+        try {
+            watcher = newWatcher.start();
+            setTitle("Student Manager - watching " + directory); // Show the directory being watched
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Failed to watch " + directory + ": " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE); // Show error message
+        }
+    }
+
+    /**
+     * Stops watching the directory being watched, if any; the students merged from it stay in the class roster.
+     */
+    private void stopWatching() { // Stop merging watched roster files
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                System.err.println("Failed to stop watching: " + e.getMessage()); // Log error message
+            }
+            watcher = null;
+            setTitle("Student Manager"); // No directory is watched
+        }
+    }
+
+    /**
+     * Merges the changes found in a watched roster file into the class roster as one step that can be undone, and
+     * records them in the journal. Recording the step keeps the steps before it valid, since they can only be undone
+     * after the merge is. The shown class is repainted in place, unless students were deleted from it.
+     * @param file The file the changes were found in.
+     * @param changes The students added, changed or deleted, see {@link RosterWatcher}.
+     */
+    private void mergeWatchedChanges(Path file, List<RosterChange> changes) { // Merge a changed roster file
+        StudentStore shown = tableModel.getStudents(); // Students in the table
+        int shownSize = shown.size(); // Students of the shown class before the merge
+        boolean shownChanged = false, shownRemoved = false; // Whether the merge changes the shown class, and deletes from it, which moves the others
+        Set<String> newClasses = new LinkedHashSet<>(); // Classes first seen in the file
+        for (RosterChange change : changes) {
+            StudentStore students = classMap.get(change.getClassName());
+            if (students == null && change.getType() != RosterChange.Type.DELETE_STUDENT) {
+                newClasses.add(change.getClassName());
+            }
+            shownChanged |= students == shown;
+            shownRemoved |= students == shown && change.getType() == RosterChange.Type.DELETE_STUDENT;
+        }
+        applyChanges("Merge " + file.getFileName(), changes); // Students are found by roll number map; edits keep the sorted views in sync
+        for (String className : newClasses) {
+            classComboBox.addItem(className); // Add new class to combo box
+        }
+        if (shownRemoved) { // Rows moved, so show the class again
+            String selectedClass = (String) classComboBox.getSelectedItem(); // Class being shown
+            tableModel.clear();
+            displayClass(selectedClass);
+            sortClass(null); // Sort it again since removals dropped its sorted view
+        } else if (shownChanged) { // Repaint the rows, which only redraws those on screen, and show the added ones
+            if (shownSize > 0) {
+                tableModel.studentsUpdated(0, shownSize - 1);
+            }
+            if (shown.size() > shownSize) {
+                tableModel.studentsInserted(shownSize, shown.size() - 1);
+            }
+        }
+    }
+
+    /**
+     * Shows the students in the selected class in the selected sort order.
+     * Each order is kept as a sorted view of the class, so the students keep their insertion order, a class is sorted
+     * at most once per order, and switching back to an order is immediate. The first sort in an order runs in the
+     * background on a copy of the class; a newer sort request supersedes one that is still running. Meanwhile a large
+     * class is shown through an {@link IncrementalSort} of the same copy, which sorts only the rows in view and a few
+     * pages around them, so the first sorted screen shows in milliseconds and later ones as they are scrolled to.
      * @param e ActionEvent triggered by changing the sort option in the combo box.
      */
     private void sortClass(ActionEvent e) { // Sort students in the selected class
         String selectedClass = (String) classComboBox.getSelectedItem(); // Get selected class name
         if (selectedClass != null) { // Check if class exists 
-            ArrayList<Student> students = classMap.get(selectedClass); // Get students for the selected class
-            String sortType = (String) sortComboBox.getSelectedItem(); // Get selected sorting option
-            if (sortType.equals("Sort by Name")) { // Sort students by name
-                SelectionSort.sort(students, new NameComparator()); // Sort students by name
-            } else if (sortType.equals("Sort by Roll Number")) { // Sort students by roll number
-                SelectionSort.sort(students, new RollnoComparator()); // Sort students by roll number
+            StudentStore students = classMap.get(selectedClass); // Get students for the selected class
+            String sortKey = selectedSortKey(); // Sort by name or roll number
+            if (sortedViews.get(students, sortKey) != null) { // Sorted before and kept in sync since
+                showStudents(selectedClass, students); // Show the cached order
+                searchClass(); // Select the matches in their new rows
+                return;
             }
-            displayClass(selectedClass); // Display sorted class
+            Comparator<Student> comparator = RosterEngine.comparator(sortKey); // Comparator for the sort key
+            StudentStore snapshot = students.copy(); // Copy the class so it can be sorted while it changes
+            long version = students.getVersion(); // Version the order will be computed for
+            if (students.size() >= INCREMENTAL_SORT_THRESHOLD && tableModel.isShowing(students)) { // Sort the rows in view now, and the rest as they are scrolled to
+                sortedViews.setShown(null); // No view is shown until the whole class is sorted
+                try (RosterMetrics.Sample sample = RosterMetrics.REFRESH.start(selectedClass)) {
+                    sample.rows(students.size());
+                    tableModel.setStudentsSorting(students, new IncrementalSort(snapshot, comparator, version));
+                }
+            }
+            scheduler.submitLatest("sort", "Sorting " + selectedClass, progress -> SelectionSort.order(snapshot, comparator), order -> {
+                if (classMap.get(selectedClass) != students) { // The class was renamed, deleted or reloaded in the meantime
+                    return;
+                }
+                if (students.getVersion() != version) { // Students were added or edited in the meantime, so sort again
+                    if (selectedClass.equals(classComboBox.getSelectedItem())) {
+                        sortClass(e);
+                    }
+                    return;
+                }
+                sortedViews.put(students, sortKey, comparator, order); // Kept in sync from now on
+                if (tableModel.isShowing(students) && sortKey.equals(selectedSortKey())) { // Still wanted
+                    showStudents(selectedClass, students); // Display sorted class
+                    searchClass(); // Select the matches in their new rows
+                }
+            }, failure -> JOptionPane.showMessageDialog(this, "Failed to sort class: " + failure.getMessage(), "Error", JOptionPane.ERROR_MESSAGE)); // Show error message
         }
     }
 
     /**
-     * Loads the class roster from a CSV file.
-     * @param filePath The path to the CSV file.
+     * Loads the class roster from a CSV or binary file in the background.
+     * @param filePath The path to the roster file.
      */
-    private void loadClassRoster(String filePath) { // Load class roster from CSV file
-        classMap.clear(); // Clear existing class map
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) { // Read file using buffered reader
-            String line; // Line read from file
-            while ((line = br.readLine()) != null) { // Read each line from file
-                String[] parts = line.split(","); // Split line by comma
-                if (parts.length < 4) { // Check if line has all required fields
-                    System.err.println("Skipping invalid line: " + line); // Log error message
-                    continue;
-                }
-                try {
-                    String className = parts[0].trim(); // Get class name
-                    int rollno = Integer.parseInt(parts[1].trim()); // Get student roll number
-                    String name = parts[2].trim(); // Get student name
-                    String address = parts[3].trim(); // Get student address
-                    classMap.computeIfAbsent(className, k -> new ArrayList<>()).add(new Student(rollno, name, address)); // Add student to class map
-                } catch (NumberFormatException e) { // Catch number format exception
-                    System.err.println("Error parsing line: " + line + " - " + e.getMessage()); // Log error message
-                }
+    private void loadClassRoster(String filePath) { // Load class roster from file
+        scheduler.submitLatest("load", "Loading " + new File(filePath).getName(), progress -> // Parse the file in parallel
+                RosterEngine.load(Paths.get(filePath), newReader(progress)), loaded -> runWhenNoDialogOpen(() -> {
+            sortedViews.clear(); // The sorted classes were replaced
+            stopWatching(); // Watched files were merged into the roster being replaced
+            classMap = limitResidency(loaded); // Replace the class map; classes of a binary roster load as they are selected
+            history.clear(); // The steps were taken on the roster being replaced
+            updateUndoMenu();
+            classComboBox.setModel(new DefaultComboBoxModel<>(classMap.keySet().toArray(new String[0]))); // Set class combo box model
+            tableModel.clear(); // The shown class was replaced
+            displayClass((String) classComboBox.getSelectedItem()); // Display the first loaded class
+            publishRoster(); // Clients of the roster service see the loaded roster
+            System.out.println("Loaded classes: " + classMap.keySet()); // Log loaded classes
+            compactJournal(null); // The loaded roster replaces the saved one
+        }), failure -> JOptionPane.showMessageDialog(this, "Failed to load class roster: " + failure.getMessage(), "Error", JOptionPane.ERROR_MESSAGE)); // Show error message
+    }
+
+    /**
+     * Keeps the classes of a newly loaded roster within RESIDENT_BYTES of memory, unloading the least recently used
+     * classes other than the selected one after each operation and loading them back when they are next used, see
+     * {@link ClassResidency}. The residency of the roster being replaced is closed, deleting its spill file.
+     * @param loaded The classes of the loaded roster.
+     * @return The class map to use, holding the loaded classes.
+     */
+    private Map<String, StudentStore> limitResidency(Map<String, StudentStore> loaded) { // Bound the memory used by classes
+        closeResidency();
+        BinaryRoster.ClassMap classes = loaded instanceof BinaryRoster.ClassMap ? (BinaryRoster.ClassMap) loaded : BinaryRoster.ClassMap.of(loaded); // Classes read from CSV can be unloaded too
+        residency = new ClassResidency(RESIDENT_BYTES, Paths.get(SPILL_DIRECTORY), SwingUtilities::invokeLater) // Unload after the current event, when no class is held
+                .spillOn(write -> scheduler.submitInOrder("spill", null, progress -> { // Write changed classes off the event thread
+                    write.run();
+                    return null;
+                }, done -> { }, failure -> System.err.println("Failed to spill a class: " + failure.getMessage())))
+                .pinned(className -> className.equals(classComboBox.getSelectedItem())) // The shown class stays in memory
+                .onEvict((className, students) -> sortedViews.invalidate(students)); // Its sorted views are of no use once it is reloaded
+        classes.setResidency(residency);
+        return classes;
+    }
+
+    /**
+     * Closes the residency of the current roster, deleting its spill file.
+     */
+    private void closeResidency() { // Delete the spill file
+        if (residency != null) {
+            try {
+                residency.close();
+            } catch (IOException e) {
+                System.err.println("Failed to delete spill file: " + e.getMessage()); // Log error message
+            }
+            residency = null;
+        }
+    }
+
+    /**
+     * Saves the class roster to a CSV or binary file in the background, the format chosen by the file's extension.
+     * @param filePath The path to the roster file.
+     */
+    private void saveClassRoster(String filePath) { // Save class roster to file
+        Map<String, StudentStore> snapshot = RosterJournal.copyOf(classMap); // Save the roster as it is now
+        scheduler.submitLatest("save", "Saving " + new File(filePath).getName(), progress -> { // A newer save supersedes this one
+            RosterEngine.save(Paths.get(filePath), snapshot, progress::isCancelled); // Write the whole roster and replace the file atomically
+            return null;
+        }, done -> JOptionPane.showMessageDialog(this, "Class roster saved to " + filePath, "Success", JOptionPane.INFORMATION_MESSAGE), // Show success message
+                failure -> JOptionPane.showMessageDialog(this, "Failed to save class roster: " + failure.getMessage(), "Error", JOptionPane.ERROR_MESSAGE)); // Show error message
+    }
+
+    /**
+     * Creates a roster reader that logs malformed lines and reports its progress to a background task.
+     * @param progress The progress of the task reading the roster.
+     * @return The reader.
+     */
+    private static RosterReader newReader(TaskScheduler.Progress progress) { // Reader for a background task
+        return new RosterReader()
+                .onMalformedLine(RosterReader.MalformedLineHandler.LOG) // Log lines that cannot be parsed
+                .onProgress((bytesRead, totalBytes) -> progress.update((int) (bytesRead * 100 / Math.max(totalBytes, 1)))) // Report the share of the file parsed
+                .cancelWhen(progress::isCancelled); // Stop when the task is cancelled
+    }
+
+    /**
+     * Opens the journal for the given base file and loads the class roster from it in the background.
+     * The roster controls are disabled until the roster is loaded.
+     * @param filePath The path to the base file of the journal.
+     * @param atStartup True if the application is starting, so the initial students are added if missing and a roster
+     *                  saved by an earlier version is imported.
+     */
+    private void openJournal(String filePath, boolean atStartup) { // Load class roster from file and journal
+        RosterJournal newJournal = new RosterJournal(Paths.get(filePath)); // Journal next to the base file
+        journal = newJournal;
+        stopWatching(); // Watched files were merged into the roster being replaced
+        setRosterControlsEnabled(false); // Nothing can change until the roster is loaded
+        scheduler.submitInOrder("journal", "Loading " + new File(filePath).getName(), progress -> { // Journal writes wait until it is open
+            if (atStartup) {
+                importCsvRoster(newReader(progress)); // Once, before the binary roster exists
             }
+            return newJournal.open(newReader(progress), RosterReader.MalformedLineHandler.LOG); // Log lines that cannot be parsed
+        }, loaded -> {
+            sortedViews.clear(); // The sorted classes were replaced
+            classMap = limitResidency(loaded); // Classes of a binary roster load as they are selected
+            history.clear(); // The steps were taken on the roster being replaced
             classComboBox.setModel(new DefaultComboBoxModel<>(classMap.keySet().toArray(new String[0]))); // Set class combo box model
             System.out.println("Loaded classes: " + classMap.keySet()); // Log loaded classes
-        } catch (IOException e) { // Catch IO exception
-            JOptionPane.showMessageDialog(this, "Failed to load class roster: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE); // Show error message
+            publishRoster(); // Clients of the roster service see the loaded roster
+            if (atStartup && !checkInitialStudentsExist()) { // Check if initial students exist
+                initializeStudents(); // Initialize with 10 students and record them in the journal
+            }
+            if (!classMap.isEmpty()) { // Display first class if available
+                displayClass((String) classComboBox.getSelectedItem()); // Display first class
+            }
+            setRosterControlsEnabled(true); // The roster can be changed now
+        }, failure -> {
+            setRosterControlsEnabled(true); // Allow loading another file
+            JOptionPane.showMessageDialog(this, "Failed to load class roster: " + failure.getMessage(), "Error", JOptionPane.ERROR_MESSAGE); // Show error message
+        });
+    }
+
+    /**
+     * Converts the CSV roster and journal saved by earlier versions to the binary roster, if there is no binary roster
+     * yet. The CSV files are left in place.
+     * @param reader The reader for the CSV file.
+     * @throws IOException If the CSV roster cannot be read or the binary roster cannot be written.
+     */
+    private static void importCsvRoster(RosterReader reader) throws IOException { // Import the roster of an earlier version
+        Path rosterPath = Paths.get(ROSTER_FILE_PATH); // Binary roster
+        Path csvPath = Paths.get(CSV_FILE_PATH); // CSV roster
+        if (Files.exists(rosterPath) || !(Files.exists(csvPath) || Files.exists(Paths.get(CSV_FILE_PATH + ".log")))) { // Nothing to import
+            return;
+        }
+        try (RosterJournal legacy = new RosterJournal(csvPath)) { // Replay the CSV journal's log as well
+            RosterEngine.save(rosterPath, legacy.open(reader, RosterReader.MalformedLineHandler.LOG)); // Log lines that cannot be parsed
         }
+        System.out.println("Imported " + CSV_FILE_PATH + " into " + ROSTER_FILE_PATH); // Log the import
     }
 
     /**
-     * Saves the class roster to a CSV file.
-     * @param filePath The path to the CSV file.
+     * Applies changes made by the user to the class roster as one step that can be undone, and records them in the
+     * journal. The step keeps only the changes that undo it, see {@link RosterHistory}.
+     * @param description What the changes do, such as "Delete Class Art", for the Undo menu item.
+     * @param changes The changes to apply, in order.
      */
-    private void saveClassRoster(String filePath) { // Save class roster to CSV file
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(filePath))) { // Write file using buffered writer
-            for (Map.Entry<String, ArrayList<Student>> entry : classMap.entrySet()) { // Iterate over class map entries
-                String className = entry.getKey(); // Get class name
-                for (Student student : entry.getValue()) { // Iterate over students in class
-                    bw.write(className + "," + student.getRollno() + "," + student.getName() + "," + student.getAddress()); // Write class and student details
-                    bw.newLine(); // Write new line
-                }
+    private void applyChanges(String description, List<RosterChange> changes) { // Apply and record an undoable step
+        history.record(description, RosterChange.applyAllAndInvert(changes, classMap));
+        recordChanges(changes); // Save the changes to the journal
+        updateUndoMenu();
+    }
+
+    /**
+     * Undoes the latest step, or redoes the latest step undone, records the changes in the journal and shows the
+     * selected class again, or the class the step put back if the selected class is gone.
+     * @param redo True to redo rather than undo.
+     */
+    private void undo(boolean redo) { // Undo or redo a step
+        if ((redo ? history.redoDescription() : history.undoDescription()) == null) { // Nothing to undo or redo
+            return;
+        }
+        List<RosterChange> changes = redo ? history.redo(classMap) : history.undo(classMap); // Changes applied
+        recordChanges(RosterChange.expandRestores(changes)); // Save them to the journal, with restored classes spelled out
+
+        String selectedClass = (String) classComboBox.getSelectedItem(); // Class to show, followed through renames
+        String restoredClass = null; // A class the step put back
+        for (RosterChange change : changes) {
+            if (change.getType() == RosterChange.Type.RENAME_CLASS && change.getClassName().equals(selectedClass)) {
+                selectedClass = change.getNewClassName();
+            } else if (change.getType() == RosterChange.Type.ADD_CLASS) {
+                restoredClass = change.getClassName();
             }
-            JOptionPane.showMessageDialog(this, "Class roster saved to " + filePath, "Success", JOptionPane.INFORMATION_MESSAGE); // Show success message
-        } catch (IOException e) { // Catch IO exception 
-            JOptionPane.showMessageDialog(this, "Failed to save class roster: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE); // Show error message
+        }
+        if (selectedClass == null || !classMap.containsKey(selectedClass)) {
+            selectedClass = restoredClass;
+        }
+        classComboBox.setModel(new DefaultComboBoxModel<>(classMap.keySet().toArray(new String[0]))); // Classes may have been added, renamed or deleted
+        if (selectedClass != null && classMap.containsKey(selectedClass)) {
+            classComboBox.setSelectedItem(selectedClass);
+        }
+        tableModel.clear(); // Students of the shown class may have moved
+        if (classComboBox.getSelectedItem() != null) {
+            displayClass((String) classComboBox.getSelectedItem()); // Show the class again
+            sortClass(null); // Sort it again if removals dropped its sorted view
+        }
+        updateUndoMenu();
+    }
+
+    /**
+     * Enables the Undo and Redo menu items when there is something to undo or redo, and names the step they would
+     * undo or redo.
+     */
+    private void updateUndoMenu() { // Show what can be undone and redone
+        String undoDescription = history.undoDescription(), redoDescription = history.redoDescription();
+        undoMenuItem.setText(undoDescription == null ? "Undo" : "Undo " + undoDescription);
+        undoMenuItem.setEnabled(undoDescription != null);
+        redoMenuItem.setText(redoDescription == null ? "Redo" : "Redo " + redoDescription);
+        redoMenuItem.setEnabled(redoDescription != null);
+    }
+
+    /**
+     * Records changes to the class roster in the journal and compacts the journal when it has grown large.
+     * The changes are written in the background, in the order they were recorded.
+     * @param changes The changes to record, in the order they were made.
+     */
+    private void recordChanges(List<RosterChange> changes) { // Save changes to the journal
+        if (service != null) { // Clients of the roster service see the changes too
+            service.apply(changes);
+        }
+        RosterJournal target = journal; // Journal to write to, read here since the field belongs to this thread
+        scheduler.submitInOrder("journal", null, progress -> { // Append the changes to the log
+            target.append(changes);
+            return target.needsCompaction();
+        }, needsCompaction -> {
+            if (needsCompaction) { // Fold a large log into the roster file in the background
+                compactJournal(null);
+            }
+        }, failure -> JOptionPane.showMessageDialog(this, "Failed to save changes: " + failure.getMessage(), "Error", JOptionPane.ERROR_MESSAGE)); // Show error message
+    }
+
+    /**
+     * Writes the whole class roster into the journal's roster file in the background.
+     * The snapshot is taken now and the compaction is queued behind the journal writes recorded so far, so it reflects
+     * exactly the changes that are already in the log.
+     * @param onSaved Called once the roster file has been written, or null.
+     */
+    private void compactJournal(Runnable onSaved) { // Replace the journal's roster file with the current class roster
+        Map<String, StudentStore> snapshot = RosterJournal.copyOf(classMap); // Snapshot of the current roster
+        RosterJournal target = journal; // Journal to compact, read here since the field belongs to this thread
+        scheduler.submitInOrder("journal", onSaved != null ? "Saving " + target.getBasePath().getFileName() : null, progress -> {
+            CompletableFuture<Void> compaction = target.compact(snapshot); // Write the snapshot
+            if (onSaved != null) { // Wait for it to be written before reporting success
+                compaction.join();
+            }
+            return null;
+        }, done -> {
+            if (onSaved != null) {
+                onSaved.run();
+            }
+        }, failure -> JOptionPane.showMessageDialog(this, "Failed to save class roster: " + failure.getMessage(), "Error", JOptionPane.ERROR_MESSAGE)); // Show error message
+    }
+
+    /**
+     * Closes the journal in the background, after the journal writes recorded so far.
+     */
+    private void closeJournal() { // Close the journal before opening another
+        RosterJournal target = journal; // The field is replaced before this runs
+        scheduler.submitInOrder("journal", null, progress -> {
+            target.close(); // Wait for compaction and close the log
+            return null;
+        }, done -> { }, failure -> System.err.println("Failed to close journal: " + failure.getMessage())); // Log error message
+    }
+
+    /**
+     * Starts serving the class roster over HTTP on the loopback interface, read-only since this window owns it.
+     * @param port The port to listen on.
+     * @throws IOException If the port cannot be bound.
+     */
+    private void startService(int port) throws IOException { // Share the roster with other clients
+        if (service == null) {
+            service = new RosterService(RosterJournal.copyOf(classMap)).readOnly(true); // Filled in once the roster is loaded
+        }
+        service.start(port);
+        System.out.println("Serving the class roster on http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + service.getPort() + "/classes"); // Log the address
+    }
+
+    /**
+     * Starts streaming the changes to the class roster to followers, such as App follow, that connect to a port on the
+     * loopback interface. The roster service carries the changes, so it is created if it is not serving HTTP.
+     * @param port The port to listen on.
+     * @throws IOException If the port cannot be bound.
+     */
+    private void startReplication(int port) throws IOException { // Make this window the primary of followers
+        if (service == null) { // Kept in step with the roster without serving HTTP
+            service = new RosterService(RosterJournal.copyOf(classMap)).readOnly(true); // Filled in once the roster is loaded
+        }
+        primary = new RosterPrimary(service.snapshot(), port);
+        service.onCommit(primary); // Each batch the window records, and each roster it loads, reaches the followers
+        System.out.println("Replicating the class roster to followers on port " + primary.getPort()); // Log the port
+    }
+
+    /**
+     * Sends a copy of the whole class roster to the roster service, if it is running.
+     */
+    private void publishRoster() { // Replace the roster the service serves
+        if (service != null) {
+            service.replace(RosterJournal.copyOf(classMap));
         }
     }
 
@@ -419,7 +1404,7 @@ public class StudentManagerGUI extends JFrame {
      */
     private boolean checkInitialStudentsExist() { // Check if initial students exist
         if (classMap.containsKey("Programming I")) { // Check if class exists
-            ArrayList<Student> initialStudents = classMap.get("Programming I"); // Get students for class
+            StudentStore initialStudents = classMap.get("Programming I"); // Get students for class
             return initialStudents.size() >= 10 && initialStudents.get(0).getName().equals("John Doe"); // Check if initial students exist
         }
         return false; // Return false if class does not exist
@@ -427,9 +1412,36 @@ public class StudentManagerGUI extends JFrame {
 
     /**
      * Main method to run the Student Manager GUI application.
-     * @param args Command line arguments.
+     * @param args Command line arguments: {@code --serve <port>} also serves the roster over HTTP, and
+     *             {@code --replicate <port>} streams its changes to followers.
      */
     public static void main(String[] args) { // Main method to run the Student Manager GUI application
-        SwingUtilities.invokeLater(() -> new StudentManagerGUI().setVisible(true)); // Create and show the GUI
+        int servePort = -1, replicationPort = -1; // Ports of the roster service and of replication, or -1
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--serve")) {
+                servePort = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--replicate")) {
+                replicationPort = Integer.parseInt(args[i + 1]);
+            }
+        }
+        int httpPort = servePort, followerPort = replicationPort; // Final, for the lambda
+        SwingUtilities.invokeLater(() -> { // Create and show the GUI
+            StudentManagerGUI gui = new StudentManagerGUI();
+            if (followerPort >= 0) {
+                try {
+                    gui.startReplication(followerPort); // Before the roster is loaded, so the followers receive it
+                } catch (IOException e) { // The window works without followers
+                    JOptionPane.showMessageDialog(gui, "Failed to start replication: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE); // Show error message
+                }
+            }
+            if (httpPort >= 0) {
+                try {
+                    gui.startService(httpPort); // Before the roster is loaded, so the service receives it
+                } catch (IOException e) { // The window works without the service
+                    JOptionPane.showMessageDialog(gui, "Failed to start roster service: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE); // Show error message
+                }
+            }
+            gui.setVisible(true);
+        });
     }
 }
@@ -0,0 +1,301 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A condition on the students of a class, for a {@link StudentQuery}: a roll number range, text in a name or address,
+ * or any combination of them with {@link #and}, {@link #or} and {@link #not}.
+ * Students are checked in batches against the store's columns. A batch starts as a bitmap with a bit set for each of
+ * its students, and each condition clears the bits of the students it rejects, so conditions combined with and only
+ * look at the students the ones before them kept. Put cheap, selective conditions such as roll number ranges first.
+ * Text is matched in the store's arena without decoding it, ignoring the case of ASCII letters.
+ */
+public abstract class StudentPredicate {
+    /**
+     * Clears the bits of the students of a batch that do not match; bits that are already clear stay clear.
+     * @param students The students of the class.
+     * @param from The position of the first student of the batch.
+     * @param count The number of students in the batch, at most 64 times the length of bits.
+     * @param bits The bitmap of the batch, bit j of word j / 64 standing for the student at from + j.
+     * @param kernels The loops to check students with.
+     */
+    abstract void filter(StudentStore students, int from, int count, long[] bits, QueryKernels kernels);
+
+    /**
+     * Returns a predicate that every student matches.
+     * @return The predicate.
+     */
+    public static StudentPredicate all() {
+        return new All();
+    }
+
+    /**
+     * Returns a predicate matching the students whose roll numbers are in a range.
+     * @param low The lowest roll number, inclusive.
+     * @param high The highest roll number, inclusive; a range with high below low matches nobody.
+     * @return The predicate.
+     */
+    public static StudentPredicate rollnoBetween(int low, int high) {
+        return new RollnoRange(low, high);
+    }
+
+    /**
+     * Returns a predicate matching the students whose names contain text.
+     * @param text The text, matched ignoring the case of ASCII letters.
+     * @return The predicate.
+     */
+    public static StudentPredicate nameContains(String text) {
+        return new TextMatch(true, false, text);
+    }
+
+    /**
+     * Returns a predicate matching the students whose names start with text.
+     * @param text The text, matched ignoring the case of ASCII letters.
+     * @return The predicate.
+     */
+    public static StudentPredicate nameStartsWith(String text) {
+        return new TextMatch(true, true, text);
+    }
+
+    /**
+     * Returns a predicate matching the students whose addresses contain text.
+     * @param text The text, matched ignoring the case of ASCII letters.
+     * @return The predicate.
+     */
+    public static StudentPredicate addressContains(String text) {
+        return new TextMatch(false, false, text);
+    }
+
+    /**
+     * Returns a predicate matching the students whose addresses start with text.
+     * @param text The text, matched ignoring the case of ASCII letters.
+     * @return The predicate.
+     */
+    public static StudentPredicate addressStartsWith(String text) {
+        return new TextMatch(false, true, text);
+    }
+
+    /**
+     * Returns a predicate matching the students that match every one of some predicates, checked in order.
+     * @param predicates The predicates.
+     * @return The predicate; with no predicates it matches every student.
+     */
+    public static StudentPredicate and(StudentPredicate... predicates) {
+        return new And(Arrays.asList(predicates.clone()));
+    }
+
+    /**
+     * Returns a predicate matching the students that match any one of some predicates.
+     * @param predicates The predicates.
+     * @return The predicate; with no predicates it matches nobody.
+     */
+    public static StudentPredicate or(StudentPredicate... predicates) {
+        return new Or(Arrays.asList(predicates.clone()));
+    }
+
+    /**
+     * Returns a predicate matching the students that do not match a predicate.
+     * @param predicate The predicate.
+     * @return The predicate.
+     */
+    public static StudentPredicate not(StudentPredicate predicate) {
+        return new Not(predicate);
+    }
+
+    /**
+     * Matches every student.
+     */
+    private static final class All extends StudentPredicate {
+        @Override
+        void filter(StudentStore students, int from, int count, long[] bits, QueryKernels kernels) {
+            // Keeps every bit
+        }
+
+        @Override
+        public String toString() {
+            return "all";
+        }
+    }
+
+    /**
+     * Matches roll numbers in a range, a batch at a time.
+     */
+    private static final class RollnoRange extends StudentPredicate {
+        private final int low, high; // Inclusive bounds
+
+        RollnoRange(int low, int high) {
+            this.low = low;
+            this.high = high;
+        }
+
+        @Override
+        void filter(StudentStore students, int from, int count, long[] bits, QueryKernels kernels) {
+            if (high < low) { // Empty range
+                Arrays.fill(bits, 0, (count + 63) >>> 6, 0L);
+            } else {
+                kernels.rollnoBetween(students.rollnoColumn(), from, count, low, high, bits);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "rollno " + low + "-" + high;
+        }
+    }
+
+    /**
+     * Matches text in a name or an address, for the students whose bits are still set.
+     */
+    private static final class TextMatch extends StudentPredicate {
+        private final boolean name; // Whether names are searched, rather than addresses
+        private final boolean prefix; // Whether the text must start the string, rather than appear anywhere in it
+        private final String text; // Text as given
+        private final byte[] needle; // Text as the kernels match it
+
+        TextMatch(boolean name, boolean prefix, String text) {
+            this.name = name;
+            this.prefix = prefix;
+            this.text = text;
+            this.needle = QueryKernels.fold(text);
+        }
+
+        @Override
+        void filter(StudentStore students, int from, int count, long[] bits, QueryKernels kernels) {
+            StringArena arena = students.arena();
+            byte[] bytes = arena.bytes();
+            int[] refs = name ? students.nameColumn() : students.addressColumn(); // Strings searched
+            for (int w = 0; w << 6 < count; w++) {
+                long word = bits[w];
+                for (long rest = word; rest != 0; rest &= rest - 1) { // Only the students still matching
+                    int j = Long.numberOfTrailingZeros(rest);
+                    int ref = refs[from + (w << 6) + j];
+                    int start = arena.start(ref), length = arena.length(ref);
+                    boolean match = prefix ? kernels.startsWith(bytes, start, length, needle) : kernels.contains(bytes, start, length, needle);
+                    if (!match) {
+                        word &= ~(1L << j);
+                    }
+                }
+                bits[w] = word;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return (name ? "name " : "address ") + (prefix ? "starts with " : "contains ") + text;
+        }
+    }
+
+    /**
+     * Matches the students every predicate matches; each predicate checks only the students the ones before it kept.
+     */
+    private static final class And extends StudentPredicate {
+        private final List<StudentPredicate> predicates;
+
+        And(List<StudentPredicate> predicates) {
+            this.predicates = predicates;
+        }
+
+        @Override
+        void filter(StudentStore students, int from, int count, long[] bits, QueryKernels kernels) {
+            int words = (count + 63) >>> 6;
+            for (StudentPredicate predicate : predicates) {
+                predicate.filter(students, from, count, bits, kernels);
+                if (isEmpty(bits, words)) { // Nobody left to check
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "(" + join(predicates, " and ") + ")";
+        }
+    }
+
+    /**
+     * Matches the students any predicate matches; each predicate checks the students not matched by the ones before.
+     */
+    private static final class Or extends StudentPredicate {
+        private final List<StudentPredicate> predicates;
+
+        Or(List<StudentPredicate> predicates) {
+            this.predicates = predicates;
+        }
+
+        @Override
+        void filter(StudentStore students, int from, int count, long[] bits, QueryKernels kernels) {
+            int words = (count + 63) >>> 6;
+            long[] unmatched = Arrays.copyOf(bits, words); // Students not matched yet
+            long[] scratch = new long[words]; // Students a predicate is given
+            for (StudentPredicate predicate : predicates) {
+                if (isEmpty(unmatched, words)) { // Everybody matched
+                    break;
+                }
+                System.arraycopy(unmatched, 0, scratch, 0, words);
+                predicate.filter(students, from, count, scratch, kernels);
+                for (int w = 0; w < words; w++) {
+                    unmatched[w] &= ~scratch[w];
+                }
+            }
+            for (int w = 0; w < words; w++) { // Keep the students some predicate matched
+                bits[w] &= ~unmatched[w];
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "(" + join(predicates, " or ") + ")";
+        }
+    }
+
+    /**
+     * Matches the students a predicate does not match.
+     */
+    private static final class Not extends StudentPredicate {
+        private final StudentPredicate predicate;
+
+        Not(StudentPredicate predicate) {
+            this.predicate = predicate;
+        }
+
+        @Override
+        void filter(StudentStore students, int from, int count, long[] bits, QueryKernels kernels) {
+            int words = (count + 63) >>> 6;
+            long[] matched = Arrays.copyOf(bits, words);
+            predicate.filter(students, from, count, matched, kernels);
+            for (int w = 0; w < words; w++) {
+                bits[w] &= ~matched[w];
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "not " + predicate;
+        }
+    }
+
+    /**
+     * Checks whether no bit of a bitmap is set.
+     */
+    private static boolean isEmpty(long[] bits, int words) {
+        for (int w = 0; w < words; w++) {
+            if (bits[w] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Joins the descriptions of predicates.
+     */
+    private static String join(List<StudentPredicate> predicates, String separator) {
+        StringBuilder joined = new StringBuilder();
+        for (StudentPredicate predicate : predicates) {
+            if (joined.length() > 0) {
+                joined.append(separator);
+            }
+            joined.append(predicate);
+        }
+        return joined.toString();
+    }
+}
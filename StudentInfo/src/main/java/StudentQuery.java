@@ -0,0 +1,302 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Finds the students of a roster that match a {@link StudentPredicate}, in some or all of its classes.
+ * The classes are cut into chunks of up to 64K students, scanned in parallel on a fork-join pool. A chunk is checked a
+ * batch of 1024 students at a time against the columns of its {@link StudentStore}: the batch starts as a bitmap with
+ * every student set, the predicate clears the students it rejects, and the students left are collected from the set
+ * bits. Roll number ranges are checked a vector of students at a time and text is searched in the store's arena
+ * without decoding a student, see {@link QueryKernels}, so a query scans millions of students a second per core.
+ * Matches are listed by class, in roster order, and by position within each class.
+ */
+public class StudentQuery {
+    static final int BATCH = 1024; // Students checked against the predicate at a time
+    private static final int CHUNK = 1 << 16; // Students per task
+    private static final int WAVE = 16 * CHUNK; // Students read before they are scanned together
+
+    private final ForkJoinPool pool; // Pool the chunks are scanned on
+    private StudentPredicate predicate = StudentPredicate.all(); // Condition students must meet
+    private Set<String> classes; // Classes to scan, null for all
+    private QueryKernels kernels = QueryKernels.get(); // Loops the predicate runs
+    private BooleanSupplier cancelled = () -> false; // Never cancelled by default
+
+    /**
+     * Constructor to create a query that runs on the common fork-join pool.
+     */
+    public StudentQuery() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor to create a query that runs on the given pool.
+     * @param pool The pool to scan the classes on.
+     */
+    public StudentQuery(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Sets the condition students must meet.
+     * @param predicate The predicate; every student matches by default.
+     * @return This query.
+     */
+    public StudentQuery where(StudentPredicate predicate) {
+        this.predicate = predicate;
+        return this;
+    }
+
+    /**
+     * Limits the query to some classes.
+     * @param classNames The names of the classes to scan; names of classes not in the roster are ignored. Null, the
+     *                   default, scans every class.
+     * @return This query.
+     */
+    public StudentQuery inClasses(Collection<String> classNames) {
+        this.classes = classNames == null ? null : new HashSet<>(classNames);
+        return this;
+    }
+
+    /**
+     * Sets the loops the predicate runs, to compare the scalar and vectorized kernels.
+     * @param kernels The kernels; {@link QueryKernels#get} by default.
+     * @return This query.
+     */
+    public StudentQuery kernels(QueryKernels kernels) {
+        this.kernels = kernels;
+        return this;
+    }
+
+    /**
+     * Sets the condition under which a query is abandoned, checked between chunks of students.
+     * @param cancelled Returns true once the query should stop with a {@link CancellationException}.
+     * @return This query.
+     */
+    public StudentQuery cancelWhen(BooleanSupplier cancelled) {
+        this.cancelled = cancelled;
+        return this;
+    }
+
+    /**
+     * Finds the matching students of a roster. The roster must not change during the query; pass a copy, see
+     * {@link RosterJournal#copyOf}, if it may. Classes are read on the calling thread and scanned in waves of about a
+     * million students, and only the classes with matches are kept for the result, so a query of a binary roster
+     * snapshot holds no more than a wave of classes besides those.
+     * @param roster The roster to search.
+     * @return The matching students.
+     * @throws CancellationException If the query was cancelled.
+     */
+    public Result run(Map<String, StudentStore> roster) {
+        try (RosterMetrics.Sample sample = RosterMetrics.QUERY.start(predicate.toString())) {
+            Matches matches = new Matches();
+            List<String> waveNames = new ArrayList<>(); // Classes read but not scanned yet
+            List<StudentStore> wave = new ArrayList<>();
+            long waveSize = 0, scanned = 0;
+            for (Map.Entry<String, StudentStore> entry : roster.entrySet()) {
+                if (classes != null && !classes.contains(entry.getKey())) {
+                    continue;
+                }
+                StudentStore store = entry.getValue(); // Loads a class of a binary roster before the workers read it
+                waveNames.add(entry.getKey());
+                wave.add(store);
+                waveSize += store.size();
+                scanned += store.size();
+                if (waveSize >= WAVE) {
+                    scanWave(waveNames, wave, matches);
+                    waveNames.clear();
+                    wave.clear();
+                    waveSize = 0;
+                }
+            }
+            scanWave(waveNames, wave, matches);
+            sample.rows(scanned);
+            int[] offsets = new int[matches.classNames.size() + 1]; // First row of each class, and the number of rows at the end
+            for (int c = 0; c < matches.positions.size(); c++) {
+                offsets[c + 1] = offsets[c] + matches.positions.get(c).length;
+            }
+            int[] positions = new int[offsets[offsets.length - 1]];
+            for (int c = 0; c < matches.positions.size(); c++) {
+                System.arraycopy(matches.positions.get(c), 0, positions, offsets[c], matches.positions.get(c).length);
+            }
+            return new Result(matches.classNames.toArray(new String[0]), matches.stores.toArray(new StudentStore[0]), offsets, positions, scanned);
+        }
+    }
+
+    /**
+     * The classes with matches found so far, in roster order, and the positions matched in each.
+     */
+    private static final class Matches {
+        final List<String> classNames = new ArrayList<>();
+        final List<StudentStore> stores = new ArrayList<>();
+        final List<int[]> positions = new ArrayList<>();
+    }
+
+    /**
+     * Scans a wave of classes in parallel and keeps those with matches.
+     */
+    private void scanWave(List<String> classNames, List<StudentStore> stores, Matches found) {
+        List<int[]> chunks = new ArrayList<>(); // Class, first and end position of each chunk, in roster order
+        for (int c = 0; c < stores.size(); c++) {
+            for (int from = 0; from < stores.get(c).size(); from += CHUNK) {
+                chunks.add(new int[] {c, from, Math.min(stores.get(c).size(), from + CHUNK)});
+            }
+        }
+        int[][] matches = new int[chunks.size()][]; // Positions matched in each chunk
+        pool.invoke(new Scan(stores.toArray(new StudentStore[0]), chunks, matches, 0, chunks.size()));
+        for (int k = 0; k < chunks.size(); ) {
+            int c = chunks.get(k)[0], first = k, count = 0;
+            for (; k < chunks.size() && chunks.get(k)[0] == c; k++) {
+                count += matches[k].length;
+            }
+            if (count > 0) {
+                int[] positions = new int[count];
+                for (int i = first, at = 0; i < k; at += matches[i].length, i++) {
+                    System.arraycopy(matches[i], 0, positions, at, matches[i].length);
+                }
+                found.classNames.add(classNames.get(c));
+                found.stores.add(stores.get(c));
+                found.positions.add(positions);
+            }
+        }
+    }
+
+    /**
+     * Checks the students of a chunk and returns the positions of those that match.
+     */
+    private int[] scan(StudentStore store, int from, int to) {
+        long[] bits = new long[BATCH / 64];
+        int[] positions = new int[64];
+        int count = 0;
+        for (int batch = from; batch < to; batch += BATCH) {
+            int n = Math.min(BATCH, to - batch), words = (n + 63) >>> 6;
+            Arrays.fill(bits, 0, words, -1L);
+            if ((n & 63) != 0) { // Clear the bits past the end of a short batch
+                bits[words - 1] = (1L << n) - 1;
+            }
+            predicate.filter(store, batch, n, bits, kernels);
+            for (int w = 0; w < words; w++) {
+                for (long word = bits[w]; word != 0; word &= word - 1) {
+                    if (count == positions.length) {
+                        positions = Arrays.copyOf(positions, count * 2);
+                    }
+                    positions[count++] = batch + (w << 6) + Long.numberOfTrailingZeros(word);
+                }
+            }
+        }
+        return Arrays.copyOf(positions, count);
+    }
+
+    /**
+     * Scans a range of chunks, splitting it in halves until one chunk is left.
+     */
+    private final class Scan extends RecursiveAction {
+        private final StudentStore[] stores; // Students of each class scanned
+        private final List<int[]> chunks; // Class, first and end position of each chunk
+        private final int[][] matches; // Positions matched in each chunk
+        private final int from, to; // Chunks of this task
+
+        Scan(StudentStore[] stores, List<int[]> chunks, int[][] matches, int from, int to) {
+            this.stores = stores;
+            this.chunks = chunks;
+            this.matches = matches;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Scan(stores, chunks, matches, from, mid), new Scan(stores, chunks, matches, mid, to));
+                return;
+            }
+            if (to > from) {
+                if (cancelled.getAsBoolean()) {
+                    throw new CancellationException("Query cancelled");
+                }
+                int[] chunk = chunks.get(from);
+                matches[from] = scan(stores[chunk[0]], chunk[1], chunk[2]);
+            }
+        }
+    }
+
+    /**
+     * The students a query matched, as rows of a table: by class in roster order, and by position within each class.
+     * Rows read the students from the stores queried, so they show the students as they are while the stores are
+     * unchanged; query a copy of a roster that may change.
+     */
+    public static class Result {
+        private final String[] classNames; // Classes with matches
+        private final StudentStore[] stores; // Students of each class with matches
+        private final int[] offsets; // First row of each class, and the number of rows at the end
+        private final int[] positions; // Position of the student of each row in its class
+        private final long scanned; // Students checked
+
+        Result(String[] classNames, StudentStore[] stores, int[] offsets, int[] positions, long scanned) {
+            this.classNames = classNames;
+            this.stores = stores;
+            this.offsets = offsets;
+            this.positions = positions;
+            this.scanned = scanned;
+        }
+
+        /**
+         * Returns the number of students matched.
+         * @return The number of rows.
+         */
+        public int size() {
+            return positions.length;
+        }
+
+        /**
+         * Returns the number of students checked, in the classes scanned.
+         * @return The number of students scanned.
+         */
+        public long getScanned() {
+            return scanned;
+        }
+
+        // Getters for the class, the students of the class and the position of the student of a row
+
+        public String getClassName(int row) {
+            return classNames[classOf(row)];
+        }
+
+        public StudentStore getStudents(int row) {
+            return stores[classOf(row)];
+        }
+
+        public int getPosition(int row) {
+            return positions[row];
+        }
+
+        /**
+         * Returns the student of a row.
+         * @param row The row.
+         * @return A copy of the student.
+         */
+        public Student getStudent(int row) {
+            return getStudents(row).get(positions[row]);
+        }
+
+        /**
+         * Returns the class holding a row.
+         */
+        private int classOf(int row) {
+            if (row < 0 || row >= positions.length) {
+                throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + positions.length);
+            }
+            int index = Arrays.binarySearch(offsets, row); // Every class kept has a match, so the offsets are distinct
+            return index < 0 ? -index - 2 : index;
+        }
+    }
+}
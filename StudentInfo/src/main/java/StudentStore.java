@@ -0,0 +1,574 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A column-oriented list of the students of one class.
+ * Roll numbers are kept in an int array and names and addresses as references into a shared {@link StringArena},
+ * so a student costs 12 bytes plus its UTF-8 text instead of a Student object and two String objects.
+ * {@link #get} hands out lightweight Student views that are created on demand; setting the name or address of a
+ * view writes through to the store. Lookups by roll number and name go through the {@link #index}, and sorted
+ * orders through {@link SortedView}s, both of which the store keeps up to date.
+ */
+public class StudentStore extends AbstractList<Student> implements RandomAccess {
+    private static final int INITIAL_CAPACITY = 16; // Rows allocated for a new store
+
+    private StringArena arena; // Text of the names and addresses
+    private int[] rollnos; // Roll number column
+    private int[] names; // Name column, as arena references
+    private int[] addresses; // Address column, as arena references
+    private int size; // Number of students
+    private boolean shared; // Whether the columns are shared with a copy, so must be copied before writing
+    private StudentIndex index; // Lookup index, built on first use and dropped when a student is inserted before others
+    private List<SortedView> sortedViews; // Sorted views kept in sync, or null if none; detached when positions shift
+    private long version; // Number of changes made, so work done on a copy can tell whether it is out of date
+
+    /**
+     * Constructor to create an empty store.
+     */
+    public StudentStore() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Constructor to create an empty store with room for the given number of students.
+     * @param capacity The initial capacity in students.
+     */
+    public StudentStore(int capacity) {
+        this(new StringArena(Math.max(capacity, 1) * 24), new int[capacity], new int[capacity], new int[capacity], 0);
+    }
+
+    private StudentStore(StringArena arena, int[] rollnos, int[] names, int[] addresses, int size) {
+        this.arena = arena;
+        this.rollnos = rollnos;
+        this.names = names;
+        this.addresses = addresses;
+        this.size = size;
+    }
+
+    /**
+     * Creates a store over existing columns, taking them over without copying.
+     * @param arena The text of the names and addresses.
+     * @param rollnos The roll number column.
+     * @param names The name column, as references into the arena.
+     * @param addresses The address column, as references into the arena.
+     * @param size The number of students, at most the length of the columns.
+     * @return The new store.
+     */
+    static StudentStore wrap(StringArena arena, int[] rollnos, int[] names, int[] addresses, int size) {
+        return new StudentStore(arena, rollnos, names, addresses, size);
+    }
+
+    /**
+     * Creates a store holding copies of the given students.
+     * @param students The students to copy.
+     * @return The new store.
+     */
+    public static StudentStore of(Iterable<Student> students) {
+        StudentStore store = new StudentStore();
+        for (Student student : students) {
+            store.add(student);
+        }
+        return store;
+    }
+
+    /**
+     * Copies this store in constant time. The copy shares the columns and a snapshot of the arena, and whichever store
+     * changes first copies the columns then, so either can change freely and the copy can be handed to another thread
+     * while this store keeps changing. Copying a whole roster to save it in the background therefore costs nothing
+     * until a class that is still being saved is changed.
+     * @return The copy.
+     */
+    public StudentStore copy() {
+        shared = true; // Copy the columns before the next change
+        StudentStore copy = new StudentStore(arena.snapshot(), rollnos, names, addresses, size);
+        copy.shared = true;
+        return copy;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of changes made to this store so far. A result computed from a {@link #copy} still applies to
+     * this store if the version has not changed since the copy was taken.
+     * @return The version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns a view of the student at the given position.
+     * The view captures the student's current values and writes changes to its name, address and roll number back to
+     * this position, so it must not be kept across changes that move students around.
+     * @param index The position of the student.
+     * @return A view of the student.
+     */
+    @Override
+    public Student get(int index) {
+        checkIndex(index);
+        return new View(this, index);
+    }
+
+    // Column accessors that read and write a row without creating a view
+
+    public int getRollno(int index) {
+        checkIndex(index);
+        return rollnos[index];
+    }
+
+    public String getName(int index) {
+        checkIndex(index);
+        return arena.get(names[index]);
+    }
+
+    public String getAddress(int index) {
+        checkIndex(index);
+        return arena.get(addresses[index]);
+    }
+
+    public void setRollno(int index, int rollno) {
+        checkIndex(index);
+        writable();
+        studentChanging(index);
+        rollnos[index] = rollno;
+        studentChanged(index);
+    }
+
+    public void setName(int index, String name) {
+        checkIndex(index);
+        writable();
+        studentChanging(index);
+        names[index] = arena.add(name);
+        studentChanged(index);
+    }
+
+    public void setAddress(int index, String address) {
+        checkIndex(index);
+        writable();
+        sortedViewsChanging(index); // The index does not cover addresses, but a sorted view may
+        addresses[index] = arena.add(address);
+        sortedViewsChanged(index);
+        version++;
+    }
+
+    /**
+     * Returns the lookup index of this store, building it on first use.
+     * Must be called on the thread that changes the store.
+     * @return The index.
+     */
+    public StudentIndex index() {
+        if (index == null) {
+            index = new StudentIndex(this);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the lookup index of this store if it has one, without building it.
+     * @return The index, or null.
+     */
+    StudentIndex builtIndex() {
+        return index;
+    }
+
+    /**
+     * Gives this store an index to keep in sync, such as one copied from the store it is a copy of.
+     * @param index The index, which must cover this store's students as they are now.
+     */
+    void useIndex(StudentIndex index) {
+        this.index = index;
+    }
+
+    // Raw access to the text for writers that copy it without decoding
+
+    StringArena arena() {
+        return arena;
+    }
+
+    int nameRef(int index) {
+        checkIndex(index);
+        return names[index];
+    }
+
+    int addressRef(int index) {
+        checkIndex(index);
+        return addresses[index];
+    }
+
+    int[] nameColumn() { // Only the first size() entries are in use, see rollnoColumn
+        return names;
+    }
+
+    int[] addressColumn() { // Only the first size() entries are in use, see rollnoColumn
+        return addresses;
+    }
+
+    /**
+     * Returns the roll number column. Only the first {@link #size()} entries are in use and the array is replaced when
+     * the store grows, so callers must not keep it across additions.
+     * @return The roll number column.
+     */
+    public int[] rollnoColumn() {
+        return rollnos;
+    }
+
+    @Override
+    public Student set(int index, Student student) {
+        checkIndex(index);
+        Student previous = detach(index); // Keep the old values for the caller
+        writable();
+        studentChanging(index);
+        storeRow(index, student);
+        studentChanged(index);
+        return previous;
+    }
+
+    @Override
+    public void add(int index, Student student) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        ensureCapacity(size + 1);
+        writable();
+        int moved = size - index; // Rows after the insertion point
+        System.arraycopy(rollnos, index, rollnos, index + 1, moved);
+        System.arraycopy(names, index, names, index + 1, moved);
+        System.arraycopy(addresses, index, addresses, index + 1, moved);
+        size++;
+        if (index == size - 1) { // Appended, so the index can be extended
+            storeRow(index, student);
+            studentChanged(index);
+        } else { // Later students moved
+            this.index = null;
+            detachSortedViews();
+            storeRow(index, student);
+            version++;
+        }
+        modCount++;
+    }
+
+    /**
+     * Appends a student whose name and address are already encoded as UTF-8, without creating strings.
+     * @param rollno The roll number of the student.
+     * @param source The array holding the encoded name and address.
+     * @param nameOffset The index of the first byte of the name.
+     * @param nameLength The number of bytes of the name.
+     * @param addressOffset The index of the first byte of the address.
+     * @param addressLength The number of bytes of the address.
+     */
+    public void add(int rollno, byte[] source, int nameOffset, int nameLength, int addressOffset, int addressLength) {
+        ensureCapacity(size + 1);
+        writable();
+        rollnos[size] = rollno;
+        names[size] = arena.add(source, nameOffset, nameLength);
+        addresses[size] = arena.add(source, addressOffset, addressLength);
+        size++;
+        studentChanged(size - 1);
+        modCount++;
+    }
+
+    /**
+     * Appends all students of another store, copying their text into this store's arena.
+     * @param other The store to append.
+     */
+    public void addAll(StudentStore other) {
+        ensureCapacity(size + other.size);
+        writable();
+        for (int i = 0; i < other.size; i++) {
+            rollnos[size] = other.rollnos[i];
+            names[size] = arena.copyFrom(other.arena, other.names[i]);
+            addresses[size] = arena.copyFrom(other.arena, other.addresses[i]);
+            size++;
+            studentChanged(size - 1);
+        }
+        modCount++;
+    }
+
+    @Override
+    public Student remove(int index) {
+        checkIndex(index);
+        Student previous = detach(index); // Keep the old values for the caller
+        if (this.index != null) { // While the student is still there to be found
+            this.index.studentRemoving(index);
+        }
+        writable();
+        int moved = size - index - 1; // Rows after the removed one
+        System.arraycopy(rollnos, index + 1, rollnos, index, moved);
+        System.arraycopy(names, index + 1, names, index, moved);
+        System.arraycopy(addresses, index + 1, addresses, index, moved);
+        size--;
+        detachSortedViews(); // Later students moved
+        version++;
+        modCount++;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        arena = new StringArena(); // Release the text of the removed students
+        if (shared) { // Leave the columns to the copy
+            rollnos = new int[INITIAL_CAPACITY];
+            names = new int[INITIAL_CAPACITY];
+            addresses = new int[INITIAL_CAPACITY];
+            shared = false;
+        }
+        index = null;
+        detachSortedViews();
+        version++;
+        modCount++;
+    }
+
+    /**
+     * Sorts the store with {@link SelectionSort}, which reorders the columns directly.
+     * @param comparator The comparator to use for sorting.
+     */
+    @Override
+    public void sort(Comparator<? super Student> comparator) {
+        @SuppressWarnings("unchecked")
+        Comparator<Student> studentComparator = (Comparator<Student>) comparator; // Students are the only element type
+        SelectionSort.sort(this, studentComparator);
+    }
+
+    /**
+     * Reorders the store so that position i holds the student previously at position order[i].
+     * @param order A permutation of the positions of the store.
+     */
+    public void permute(int[] order) {
+        if (order.length != size) {
+            throw new IllegalArgumentException("Permutation has " + order.length + " entries but the store has " + size + " students");
+        }
+        int[] newRollnos = new int[Math.max(size, INITIAL_CAPACITY)];
+        int[] newNames = new int[newRollnos.length];
+        int[] newAddresses = new int[newRollnos.length];
+        for (int i = 0; i < size; i++) { // Gather each column in the new order
+            int from = order[i];
+            newRollnos[i] = rollnos[from];
+            newNames[i] = names[from];
+            newAddresses[i] = addresses[from];
+        }
+        rollnos = newRollnos;
+        names = newNames;
+        addresses = newAddresses;
+        shared = false;
+        if (index != null) {
+            index.studentsPermuted(order);
+        }
+        detachSortedViews(); // Views order positions, which all changed
+        version++;
+        modCount++;
+    }
+
+    /**
+     * Releases the unused capacity of the columns and the arena, for stores that are loaded once and then mostly read.
+     */
+    public void trimToSize() {
+        if (size < rollnos.length) {
+            rollnos = Arrays.copyOf(rollnos, size);
+            names = Arrays.copyOf(names, size);
+            addresses = Arrays.copyOf(addresses, size);
+            shared = false;
+        }
+        arena.trimToSize();
+    }
+
+    /**
+     * Estimates the heap used by this store, counting the whole arena even if it is shared with copies.
+     * @return The estimated size in bytes.
+     */
+    public long estimatedBytes() {
+        return 3L * 4 * rollnos.length + arena.bytes().length + 64;
+    }
+
+    /**
+     * Starts keeping a sorted view in sync with this store.
+     * @param view The view, computed from this store's current positions.
+     */
+    void attachSortedView(SortedView view) {
+        if (sortedViews == null) {
+            sortedViews = new ArrayList<>(2);
+        }
+        sortedViews.add(view);
+    }
+
+    /**
+     * Stops keeping a sorted view in sync with this store.
+     * @param view The view.
+     */
+    void detachSortedView(SortedView view) {
+        if (sortedViews != null && sortedViews.remove(view) && sortedViews.isEmpty()) {
+            sortedViews = null;
+        }
+    }
+
+    /**
+     * Detaches every sorted view, since positions shifted.
+     */
+    private void detachSortedViews() {
+        List<SortedView> views = sortedViews;
+        sortedViews = null; // Before detaching, so the views do not remove themselves from the list being walked
+        if (views != null) {
+            for (SortedView view : views) {
+                view.detach();
+            }
+        }
+    }
+
+    /**
+     * Tells the index and the sorted views that a student is about to change in place.
+     */
+    private void studentChanging(int position) {
+        if (index != null) {
+            index.studentChanging(position);
+        }
+        sortedViewsChanging(position);
+    }
+
+    /**
+     * Tells the index and the sorted views that a student was appended or has changed in place.
+     */
+    private void studentChanged(int position) {
+        if (index != null) {
+            index.studentAdded(position);
+        }
+        sortedViewsChanged(position);
+        version++;
+    }
+
+    private void sortedViewsChanging(int position) {
+        if (sortedViews != null) {
+            for (SortedView view : sortedViews) {
+                view.studentChanging(position);
+            }
+        }
+    }
+
+    private void sortedViewsChanged(int position) {
+        if (sortedViews != null) {
+            for (SortedView view : sortedViews) {
+                view.studentAdded(position);
+            }
+        }
+    }
+
+    /**
+     * Writes a student's values into a row, sharing the text if the student is a view of the same arena.
+     */
+    private void storeRow(int index, Student student) {
+        if (student instanceof View && ((View) student).store.arena == arena) { // No need to encode the text again
+            View view = (View) student;
+            rollnos[index] = view.rollno;
+            names[index] = view.nameRef;
+            addresses[index] = view.addressRef;
+        } else {
+            rollnos[index] = student.getRollno();
+            names[index] = arena.add(student.getName());
+            addresses[index] = arena.add(student.getAddress());
+        }
+    }
+
+    /**
+     * Creates a standalone Student holding the values of a row.
+     */
+    private Student detach(int index) {
+        return new Student(rollnos[index], arena.get(names[index]), arena.get(addresses[index]));
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > rollnos.length) { // Grow by half
+            int newCapacity = Math.max(capacity, rollnos.length + (rollnos.length >> 1) + 1);
+            rollnos = Arrays.copyOf(rollnos, newCapacity);
+            names = Arrays.copyOf(names, newCapacity);
+            addresses = Arrays.copyOf(addresses, newCapacity);
+            shared = false;
+        }
+    }
+
+    /**
+     * Copies the columns if they are shared with a copy of this store, before they are written.
+     */
+    private void writable() {
+        if (shared) {
+            rollnos = Arrays.copyOf(rollnos, rollnos.length);
+            names = Arrays.copyOf(names, names.length);
+            addresses = Arrays.copyOf(addresses, addresses.length);
+            shared = false;
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    /**
+     * A student view of one row of a store.
+     * It captures the row's values when it is created; setters update both the view and the row.
+     */
+    private static class View extends Student {
+        private final StudentStore store; // Store the row belongs to
+        private final int index; // Position of the row
+        private int rollno; // Captured roll number
+        private int nameRef; // Captured name reference
+        private int addressRef; // Captured address reference
+
+        View(StudentStore store, int index) {
+            super(0, null, null); // The values live in the store, not in the Student fields
+            this.store = store;
+            this.index = index;
+            this.rollno = store.rollnos[index];
+            this.nameRef = store.names[index];
+            this.addressRef = store.addresses[index];
+        }
+
+        @Override
+        public int getRollno() {
+            return rollno;
+        }
+
+        @Override
+        public void setRollno(int rollno) {
+            this.rollno = rollno;
+            store.setRollno(index, rollno);
+        }
+
+        @Override
+        public String getName() {
+            return store.arena.get(nameRef);
+        }
+
+        @Override
+        public void setName(String name) {
+            store.setName(index, name);
+            nameRef = store.names[index];
+        }
+
+        @Override
+        public String getAddress() {
+            return store.arena.get(addressRef);
+        }
+
+        @Override
+        public void setAddress(String address) {
+            store.setAddress(index, address);
+            addressRef = store.addresses[index];
+        }
+
+        @Override
+        public String toString() {
+            return "Student{" +
+                    "rollno=" + rollno +
+                    ", name='" + getName() + '\'' +
+                    ", address='" + getAddress() + '\'' +
+                    '}';
+        }
+    }
+}
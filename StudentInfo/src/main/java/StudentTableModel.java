@@ -0,0 +1,194 @@
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Table model that shows the students of one class straight from its {@link StudentStore}, in insertion order, in
+ * the order of a {@link SortedView}, or in the order of an {@link IncrementalSort} that sorts the rows as they are
+ * painted while the view of a large class is computed.
+ * Rows are never copied: the table asks for the cells it paints and they are read from the store's columns.
+ * Switching class or order is O(1), and changes to the store are announced with the narrowest row event that covers
+ * them.
+ */
+public class StudentTableModel extends AbstractTableModel {
+    private static final String[] COLUMN_NAMES = {"Roll Number", "Name", "Address"}; // Column headers
+    private static final Class<?>[] COLUMN_CLASSES = {Integer.class, String.class, String.class}; // Column types, for sorting and alignment
+
+    private StudentStore students = new StudentStore(); // Students being shown
+    private SortedView view; // Order the students are shown in, or null for insertion order
+    private IncrementalSort sort; // Order being sorted as rows are painted, used instead of a view, or null
+
+    /**
+     * Shows the students of a class.
+     * @param students The students to show.
+     */
+    public void setStudents(StudentStore students) {
+        setStudents(students, null);
+    }
+
+    /**
+     * Shows the students of a class in the order of a view.
+     * @param students The students to show.
+     * @param view A view of the students, or null for insertion order.
+     */
+    public void setStudents(StudentStore students, SortedView view) {
+        if (view != null && view.getStore() != students) {
+            throw new IllegalArgumentException("The view is of another class");
+        }
+        show(students, view, null);
+    }
+
+    /**
+     * Shows the students of a class in an order that is sorted as its rows are painted, until its sorted view is
+     * ready. The rows follow the sort while the class is unchanged and insertion order once it changes.
+     * @param students The students to show.
+     * @param sort A sort of a copy of the students, started at their current version.
+     */
+    public void setStudentsSorting(StudentStore students, IncrementalSort sort) {
+        if (sort.size() != students.size()) {
+            throw new IllegalArgumentException("The sort has " + sort.size() + " rows but the class has " + students.size() + " students");
+        }
+        show(students, null, sort);
+    }
+
+    /**
+     * Switches to a class and order and announces the change.
+     */
+    private void show(StudentStore students, SortedView view, IncrementalSort sort) {
+        boolean sameStudents = this.students == students;
+        this.students = students;
+        this.view = view;
+        this.sort = sort;
+        if (sameStudents && students.size() > 0) {
+            fireTableRowsUpdated(0, students.size() - 1); // Same rows in a new order; the selection is kept
+        } else {
+            fireTableDataChanged(); // Only the row count is recomputed; cells are read when painted
+        }
+    }
+
+    /**
+     * Shows no students.
+     */
+    public void clear() {
+        setStudents(new StudentStore());
+    }
+
+    /**
+     * Returns the students being shown.
+     * @return The store the rows are read from.
+     */
+    public StudentStore getStudents() {
+        return students;
+    }
+
+    /**
+     * Returns the order the students are shown in.
+     * @return The view, or null for insertion order.
+     */
+    public SortedView getView() {
+        return view;
+    }
+
+    /**
+     * Returns the row a student is shown in.
+     * @param position The position of the student in the store.
+     * @return The row in the model, before any sorting by the table's column headers, or -1 while the class is being
+     *         sorted as its rows are painted, since the rows of students not painted yet are not known.
+     */
+    public int rowOf(int position) {
+        return isSorted() ? view.rowOf(position) : isSorting() ? -1 : position;
+    }
+
+    /**
+     * Checks whether the given store is the one being shown, so that its changes need to be announced.
+     * @param store The store to check.
+     * @return True if the rows are read from the store.
+     */
+    public boolean isShowing(StudentStore store) {
+        return students == store;
+    }
+
+    /**
+     * Announces that students were appended or inserted.
+     * @param first The position of the first new student.
+     * @param last The position of the last new student.
+     */
+    public void studentsInserted(int first, int last) {
+        if (isSorted() || sort != null) { // The new students are spread over the view, or the rows fell back to insertion order
+            fireTableDataChanged();
+        } else {
+            fireTableRowsInserted(first, last);
+        }
+    }
+
+    /**
+     * Announces that students changed in place.
+     * @param first The position of the first changed student.
+     * @param last The position of the last changed student.
+     */
+    public void studentsUpdated(int first, int last) {
+        if (isSorted() || sort != null) { // Changed students may have moved to other rows
+            fireTableRowsUpdated(0, students.size() - 1);
+        } else {
+            fireTableRowsUpdated(first, last);
+        }
+    }
+
+    /**
+     * Announces that students were removed.
+     * @param first The former position of the first removed student.
+     * @param last The former position of the last removed student.
+     */
+    public void studentsRemoved(int first, int last) {
+        if (view != null || sort != null) { // Removing detached the view or outdated the sort, so every row may show another student now
+            fireTableDataChanged();
+        } else {
+            fireTableRowsDeleted(first, last);
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        return students.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return COLUMN_CLASSES[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) { // Read the cell straight from the store's columns
+        int position = isSorted() ? view.position(row) : isSorting() ? sort.position(row) : row; // Position of the student in the store
+        switch (column) {
+            case 0:
+                return students.getRollno(position);
+            case 1:
+                return students.getName(position);
+            default:
+                return students.getAddress(position);
+        }
+    }
+
+    /**
+     * Checks whether the rows follow a view; a view that was detached because positions shifted is no longer used.
+     */
+    private boolean isSorted() {
+        return view != null && view.isAttached();
+    }
+
+    /**
+     * Checks whether the rows follow an incremental sort; one started before the class changed is no longer used.
+     */
+    private boolean isSorting() {
+        return sort != null && sort.getVersion() == students.getVersion();
+    }
+}
@@ -0,0 +1,246 @@
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+
+/**
+ * Runs slow roster operations such as loading, saving and sorting on virtual threads so the Swing event dispatch
+ * thread stays responsive.
+ * Tasks are grouped by key. {@link #submitLatest} coalesces: a task that has not started yet is replaced by a newer
+ * one with the same key, and a running one is asked to cancel. {@link #submitInOrder} runs every task of a key one
+ * after the other, which suits appends to the journal. Completion callbacks and progress updates are delivered on the
+ * event dispatch thread; all other methods must also be called on it.
+ */
+public class TaskScheduler {
+    /**
+     * Work to run in the background.
+     * @param <T> The type of the result.
+     */
+    public interface Task<T> {
+        /**
+         * Runs the task. Long tasks should report progress and stop early when cancelled.
+         * @param progress The handle to report progress to and to check for cancellation.
+         * @return The result, passed to the success callback.
+         * @throws Exception If the task fails; the exception is passed to the failure callback.
+         */
+        T run(Progress progress) throws Exception;
+    }
+
+    /**
+     * Handle a running task uses to report progress and to check whether it was cancelled.
+     */
+    public interface Progress {
+        /**
+         * Reports progress. May be called from any thread and as often as convenient.
+         * @param percent The percentage done, or -1 if unknown.
+         */
+        void update(int percent);
+
+        /**
+         * Checks whether the task has been cancelled.
+         * @return True if the task should stop.
+         */
+        boolean isCancelled();
+    }
+
+    /**
+     * Receives progress of the task that is currently shown in the user interface.
+     */
+    public interface Listener {
+        /**
+         * Called on the event dispatch thread when the shown task or its progress changes.
+         * @param description The description of the task, or null if no task is running.
+         * @param percent The percentage done, or -1 if unknown.
+         */
+        void taskProgress(String description, int percent);
+    }
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor(); // One virtual thread per task
+    private final Map<String, Queue> queues = new HashMap<>(); // Tasks by key
+    private final Listener listener; // Shows progress in the user interface
+    private Job<?> shown; // Task whose progress is shown
+
+    /**
+     * Constructor to create a scheduler that reports progress to the given listener.
+     * @param listener The listener to report progress to.
+     */
+    public TaskScheduler(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Runs a task in the background, replacing any task with the same key that has not started yet and cancelling the
+     * one that is running. Superseded tasks call neither callback.
+     * @param key The key of the task, for example "sort".
+     * @param description The description shown while the task runs.
+     * @param task The work to run.
+     * @param onSuccess Called with the result if the task completes without being cancelled.
+     * @param onFailure Called with the exception if the task fails.
+     * @param <T> The type of the result.
+     */
+    public <T> void submitLatest(String key, String description, Task<T> task, Consumer<T> onSuccess, Consumer<Exception> onFailure) {
+        Queue queue = queues.computeIfAbsent(key, k -> new Queue());
+        queue.pending.clear(); // Drop tasks that were waiting; the new one supersedes them
+        if (queue.running != null) {
+            queue.running.cancelled.set(true); // Ask the running task to stop early
+        }
+        queue.pending.add(new Job<>(description, true, task, onSuccess, onFailure));
+        startNext(queue);
+    }
+
+    /**
+     * Runs a task in the background after all earlier tasks with the same key have finished.
+     * @param key The key of the task, for example "journal".
+     * @param description The description shown while the task runs, or null to run it without showing progress.
+     * @param task The work to run; it cannot be cancelled.
+     * @param onSuccess Called with the result if the task completes.
+     * @param onFailure Called with the exception if the task fails.
+     * @param <T> The type of the result.
+     */
+    public <T> void submitInOrder(String key, String description, Task<T> task, Consumer<T> onSuccess, Consumer<Exception> onFailure) {
+        Queue queue = queues.computeIfAbsent(key, k -> new Queue());
+        queue.pending.add(new Job<>(description, false, task, onSuccess, onFailure));
+        startNext(queue);
+    }
+
+    /**
+     * Cancels the task whose progress is shown, if any.
+     */
+    public void cancelShown() {
+        if (shown != null && shown.cancellable) {
+            shown.cancelled.set(true);
+        }
+    }
+
+    /**
+     * Checks whether any task is queued or running.
+     * @return True if there is work in the background.
+     */
+    public boolean isBusy() {
+        for (Queue queue : queues.values()) {
+            if (queue.running != null || !queue.pending.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Starts the next task of a queue if none of its tasks is running.
+     */
+    private void startNext(Queue queue) {
+        if (queue.running != null || queue.pending.isEmpty()) {
+            return;
+        }
+        Job<?> job = queue.pending.poll();
+        queue.running = job;
+        if (job.description != null) { // Tasks without a description run silently
+            show(job);
+        }
+        executor.execute(() -> {
+            Object result = null;
+            Exception failure = null;
+            try {
+                result = job.task.run(job);
+            } catch (Exception e) {
+                failure = e;
+            }
+            Object finalResult = result;
+            Exception finalFailure = failure;
+            SwingUtilities.invokeLater(() -> finish(queue, job, finalResult, finalFailure)); // Report back on the event dispatch thread
+        });
+    }
+
+    /**
+     * Delivers the outcome of a task and starts the next one of its queue.
+     */
+    private void finish(Queue queue, Job<?> job, Object result, Exception failure) {
+        queue.running = null;
+        if (shown == job) { // Stop showing the finished task
+            shown = null;
+            listener.taskProgress(null, -1);
+        }
+        if (failure instanceof CancellationException || (failure == null && job.cancelled.get())) {
+            // Cancelled tasks have no outcome to deliver
+        } else if (failure != null) {
+            job.onFailure.accept(failure);
+        } else {
+            job.succeed(result);
+        }
+        startNext(queue);
+        if (shown == null) { // Show another task that is still running
+            for (Queue other : queues.values()) {
+                if (other.running != null && other.running.description != null) {
+                    show(other.running);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Shows the progress of a task in the user interface.
+     */
+    private void show(Job<?> job) {
+        shown = job;
+        listener.taskProgress(job.description, job.percent);
+    }
+
+    /**
+     * The tasks of one key: the one running and the ones waiting.
+     */
+    private static class Queue {
+        Job<?> running; // Task running in the background, or null
+        final ArrayDeque<Job<?>> pending = new ArrayDeque<>(); // Tasks waiting to start
+    }
+
+    /**
+     * A submitted task together with its callbacks and progress.
+     */
+    private class Job<T> implements Progress {
+        final String description; // Shown while the task runs
+        final boolean cancellable; // Whether the task may be cancelled
+        final Task<T> task; // Work to run
+        final Consumer<T> onSuccess; // Called with the result
+        final Consumer<Exception> onFailure; // Called with the failure
+        final AtomicBoolean cancelled = new AtomicBoolean(); // Set when the task should stop
+        final AtomicBoolean updateScheduled = new AtomicBoolean(); // Whether a progress update is waiting for the event dispatch thread
+        volatile int percent = -1; // Last progress reported
+
+        Job(String description, boolean cancellable, Task<T> task, Consumer<T> onSuccess, Consumer<Exception> onFailure) {
+            this.description = description;
+            this.cancellable = cancellable;
+            this.task = task;
+            this.onSuccess = onSuccess;
+            this.onFailure = onFailure;
+        }
+
+        @SuppressWarnings("unchecked")
+        void succeed(Object result) {
+            onSuccess.accept((T) result);
+        }
+
+        @Override
+        public void update(int percent) {
+            this.percent = percent;
+            if (updateScheduled.compareAndSet(false, true)) { // At most one pending update, however often progress is reported
+                SwingUtilities.invokeLater(() -> {
+                    updateScheduled.set(false);
+                    if (shown == this) {
+                        listener.taskProgress(description, this.percent);
+                    }
+                });
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link QueryKernels} on the incubating Vector API, which compiles to SIMD instructions.
+ * Roll numbers are compared a vector at a time and the lane masks written straight into the bitmap. Text is searched
+ * with the first and last byte filter: the needle's first byte is compared with a vector of the string's bytes and its
+ * last byte with the bytes a needle's length further on, so one compare of each checks a vector's worth of starting
+ * points, and only the few starting points where both match are compared in full. A letter is compared in both cases
+ * rather than folding the string's bytes. Strings with at most 16 starting points, most names and addresses, are
+ * searched with one 128-bit vector, since a wider one would be mostly empty lanes; longer ones with the widest vectors
+ * the CPU has. Strings too near the end of the arena to load a whole vector are searched by the scalar kernels.
+ * Only {@link QueryKernels#get} creates this class, by name, so that the application runs without the module.
+ */
+class VectorQueryKernels extends QueryKernels {
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED; // Roll numbers per compare
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED; // Starting points per compare
+    private static final VectorSpecies<Byte> SHORT_BYTES = ByteVector.SPECIES_128; // Starting points per compare in short strings
+
+    @Override
+    public String getName() {
+        return "vector " + BYTES.vectorBitSize() + "-bit";
+    }
+
+    @Override
+    public void rollnoBetween(int[] rollnos, int from, int count, int low, int high, long[] bits) {
+        int lanes = INTS.length(); // A power of two dividing 64, so a vector never spans two words
+        int vectorCount = count - count % lanes; // Students compared a vector at a time
+        int j = 0;
+        for (; j < vectorCount; j += lanes) {
+            IntVector v = IntVector.fromArray(INTS, rollnos, from + j);
+            long in = v.compare(VectorOperators.GE, low).and(v.compare(VectorOperators.LE, high)).toLong(); // One bit per lane
+            bits[j >>> 6] &= ~(((1L << lanes) - 1 & ~in) << (j & 63)); // Clear the lanes out of range
+        }
+        for (; j < count; j++) { // The rest one at a time
+            int rollno = rollnos[from + j];
+            if (rollno < low || rollno > high) {
+                bits[j >>> 6] &= ~(1L << j);
+            }
+        }
+    }
+
+    @Override
+    public boolean contains(byte[] bytes, int start, int length, byte[] needle) {
+        int m = needle.length;
+        if (m < 2 || length < m) { // No last byte to filter on, or no room for the text
+            return super.contains(bytes, start, length, needle);
+        }
+        int starts = length - m + 1; // Starting points of the text in the string
+        if (starts <= SHORT_BYTES.length()) { // Most names and addresses: one short vector, not mostly empty lanes of a wide one
+            return searchShort(bytes, start, starts, needle);
+        }
+        return search(bytes, start, starts, needle);
+    }
+
+    /**
+     * Searches the starting points of a string that fit in one short vector, which most names and addresses do.
+     */
+    private boolean searchShort(byte[] bytes, int start, int starts, byte[] needle) {
+        int m = needle.length;
+        if (start + m - 1 + SHORT_BYTES.length() > bytes.length) { // The load would pass the end of the array
+            return super.contains(bytes, start, starts + m - 1, needle);
+        }
+        ByteVector heads = ByteVector.fromArray(SHORT_BYTES, bytes, start); // First byte at each starting point
+        ByteVector tails = ByteVector.fromArray(SHORT_BYTES, bytes, start + m - 1); // Last byte at each starting point
+        long mask = matches(heads, needle[0]).and(matches(tails, needle[m - 1])).toLong() & ((1L << starts) - 1); // Starting points in the string
+        for (; mask != 0; mask &= mask - 1) { // Compare the middle of each candidate
+            if (regionMatches(bytes, start + Long.numberOfTrailingZeros(mask) + 1, needle, 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Searches the starting points of a string a vector at a time, falling back to the scalar kernels if the last load
+     * would pass the end of the array.
+     */
+    private boolean search(byte[] bytes, int start, int starts, byte[] needle) {
+        int m = needle.length, lanes = BYTES.length();
+        if (start + m - 1 + ((starts + lanes - 1) / lanes) * lanes > bytes.length) { // The last load would pass the end of the array
+            return super.contains(bytes, start, starts + m - 1, needle);
+        }
+        for (int i = 0; i < starts; i += lanes) {
+            ByteVector heads = ByteVector.fromArray(BYTES, bytes, start + i); // First byte at each starting point
+            ByteVector tails = ByteVector.fromArray(BYTES, bytes, start + i + m - 1); // Last byte at each starting point
+            VectorMask<Byte> candidates = matches(heads, needle[0]).and(matches(tails, needle[m - 1]));
+            if (starts - i < lanes) { // Starting points past the string are not candidates
+                candidates = candidates.and(BYTES.indexInRange(i, starts));
+            }
+            long mask = candidates.toLong();
+            while (mask != 0) { // Compare the middle of each candidate
+                int k = i + Long.numberOfTrailingZeros(mask);
+                if (regionMatches(bytes, start + k + 1, needle, 1)) {
+                    return true;
+                }
+                mask &= mask - 1;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the lanes of a vector holding a folded byte of a needle, in lower case or, for a letter, in upper case,
+     * so the string's bytes need not be folded.
+     */
+    private static VectorMask<Byte> matches(ByteVector v, byte folded) {
+        byte upper = (byte) (folded >= 'a' && folded <= 'z' ? folded - 0x20 : folded);
+        return v.eq(folded).or(v.eq(upper));
+    }
+}
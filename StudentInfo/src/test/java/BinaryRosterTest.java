@@ -0,0 +1,100 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that binary rosters read back what was written, load classes lazily and notice damage.
+ */
+class BinaryRosterTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsBackWhatWasWritten() throws IOException {
+        Path path = dir.resolve("roster.roster");
+        Map<String, StudentStore> roster = roster();
+        BinaryRoster.write(path, roster);
+        BinaryRoster binary = BinaryRoster.open(path);
+        assertEquals(List.copyOf(roster.keySet()), List.of(binary.className(0), binary.className(1), binary.className(2)));
+        Map<String, StudentStore> loaded = new LinkedHashMap<>();
+        for (int c = 0; c < binary.classCount(); c++) {
+            assertEquals(roster.get(binary.className(c)).size(), binary.studentCount(c));
+            loaded.put(binary.className(c), binary.load(c));
+        }
+        assertEquals(RosterJournalTest.describe(roster), RosterJournalTest.describe(loaded));
+    }
+
+    @Test
+    void loadsClassesOnFirstAccess() throws IOException {
+        Path path = dir.resolve("roster.roster");
+        BinaryRoster.write(path, roster());
+        BinaryRoster.ClassMap classes = BinaryRoster.open(path).classMap();
+        assertEquals(3, classes.size());
+        assertFalse(classes.isLoaded("Art, \"Evening\""));
+        assertEquals(3, classes.get("Art, \"Evening\"").size());
+        assertTrue(classes.isLoaded("Art, \"Evening\""));
+        assertFalse(classes.isLoaded("Émile"));
+        assertEquals(RosterJournalTest.describe(roster()), RosterJournalTest.describe(classes));
+    }
+
+    @Test
+    void convertsToCsvAndBack() throws IOException {
+        Map<String, StudentStore> roster = roster();
+        roster.remove("Empty"); // A CSV roster has no line for a class without students
+        Path binary = dir.resolve("roster.roster"), csv = dir.resolve("roster.csv"), again = dir.resolve("again.roster");
+        BinaryRoster.write(binary, roster);
+        assertEquals(4, RosterEngine.convert(binary, csv, new RosterReader()));
+        assertEquals(4, RosterEngine.convert(csv, again, new RosterReader()));
+        assertEquals(RosterJournalTest.describe(roster), RosterJournalTest.describe(BinaryRoster.open(again).classMap()));
+    }
+
+    @Test
+    void noticesDamagedClassData() throws IOException {
+        Path path = dir.resolve("roster.roster");
+        BinaryRoster.write(path, roster());
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[bytes.length - 2] ^= 0x20; // Inside the last class's data
+        Files.write(path, bytes);
+        BinaryRoster binary = BinaryRoster.open(path); // The header and the table are intact
+        binary.load(0);
+        assertThrows(IOException.class, () -> binary.load(binary.classCount() - 1));
+    }
+
+    @Test
+    void noticesADamagedClassTable() throws IOException {
+        Path path = dir.resolve("roster.roster");
+        BinaryRoster.write(path, roster());
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[25] ^= 0x01; // Inside the class table
+        Files.write(path, bytes);
+        assertThrows(IOException.class, () -> BinaryRoster.open(path));
+    }
+
+    /**
+     * A roster with text and roll numbers that stretch the encoding: separators and quotes, non-ASCII and long text,
+     * negative and repeated roll numbers, empty fields and a class without students.
+     */
+    private static Map<String, StudentStore> roster() {
+        StudentStore art = new StudentStore();
+        art.add(new Student(1, "Ann, \"Annie\" Lee", "1 Main St, Apt 2"));
+        art.add(new Student(1, "", ""));
+        art.add(new Student(Integer.MIN_VALUE, "x".repeat(300), "y".repeat(20000)));
+        StudentStore accents = new StudentStore();
+        accents.add(new Student(-7, "Zoë Ångström", "東京都 1-2"));
+        Map<String, StudentStore> roster = new LinkedHashMap<>();
+        roster.put("Art, \"Evening\"", art);
+        roster.put("Empty", new StudentStore());
+        roster.put("Émile", accents);
+        return roster;
+    }
+}
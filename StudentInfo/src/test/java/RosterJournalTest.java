@@ -0,0 +1,224 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Checks that replaying the journal gives the roster the changes left in memory, including after a crash at each step
+ * of a compaction.
+ */
+class RosterJournalTest {
+    private static final List<RosterChange> COMPACTED = List.of( // Changes being compacted; replaying them twice adds Bob twice
+            RosterChange.appendStudent("Art", new Student(2, "Bob", "2 Main St")),
+            RosterChange.renameClass("Art", "Music"));
+    private static final List<RosterChange> LATER = List.of( // Changes logged after the compaction started
+            RosterChange.addClass("Art"),
+            RosterChange.addStudent("Art", new Student(3, "Cy", "3 Main St")));
+
+    private static final RosterReader.MalformedLineHandler FAIL = (lineNumber, line, reason) -> {
+        throw new AssertionError("Malformed line " + lineNumber + ": " + line + " - " + reason);
+    };
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void undoingAClassDeletionReplaysStudentsThatShareARollNumber() throws IOException {
+        Path base = dir.resolve("roster.csv");
+        RosterEngine.save(base, roster());
+        RosterHistory history = new RosterHistory();
+        Map<String, StudentStore> classMap;
+        try (RosterJournal journal = new RosterJournal(base)) {
+            classMap = journal.open(FAIL);
+            record(history, journal, classMap, RosterChange.deleteClass("Art"));
+            journal.append(RosterChange.expandRestores(history.undo(classMap)));
+            assertEquals(3, classMap.get("Art").size());
+        }
+        assertEquals(describe(classMap), describe(reopen(base)));
+    }
+
+    @Test
+    void undoingAClassDeletionReplacesAClassCreatedAgain() throws IOException {
+        Path base = dir.resolve("roster.roster");
+        RosterEngine.save(base, roster());
+        RosterHistory history = new RosterHistory();
+        Map<String, StudentStore> classMap;
+        try (RosterJournal journal = new RosterJournal(base)) {
+            classMap = journal.open(FAIL);
+            record(history, journal, classMap, RosterChange.deleteClass("Art"));
+            List<RosterChange> recreated = List.of(RosterChange.addStudent("Art", new Student(1, "Dee", "4 Elm St"))); // As a watched file might
+            RosterChange.applyAll(recreated, classMap);
+            journal.append(recreated);
+            journal.append(RosterChange.expandRestores(history.undo(classMap)));
+            journal.append(RosterChange.expandRestores(history.redo(classMap)));
+            journal.append(RosterChange.expandRestores(history.undo(classMap)));
+        }
+        assertEquals(describe(classMap), describe(reopen(base)));
+        assertEquals(List.of("Bio", "Art"), new ArrayList<>(classMap.keySet()));
+        assertEquals("1,Ann,1 Main St;1,Bob,2 Main St;2,Cy,3 Main St;", describe(classMap).get("Art"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"roster.csv", "roster.roster"})
+    void crashBeforeTheNextSnapshotIsCompleteReplaysTheCompactingLog(String name) throws IOException {
+        Path base = dir.resolve(name);
+        RosterEngine.save(base, roster());
+        writeLog(sibling(base, name + ".log.compacting"), COMPACTED);
+        Files.write(sibling(base, "next-" + name), "torn".getBytes(StandardCharsets.UTF_8)); // Written partly
+        writeLog(sibling(base, name + ".log"), LATER);
+        assertRecovered(base);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"roster.csv", "roster.roster"})
+    void crashBeforeTheNextSnapshotReplacesTheBaseUsesTheNextSnapshot(String name) throws IOException {
+        Path base = dir.resolve(name);
+        RosterEngine.save(base, roster());
+        RosterEngine.save(sibling(base, "next-" + name), compacted());
+        writeLog(sibling(base, name + ".log.compacted"), COMPACTED);
+        writeLog(sibling(base, name + ".log"), LATER);
+        assertRecovered(base);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"roster.csv", "roster.roster"})
+    void crashBeforeTheCompactedLogIsDeletedDoesNotReplayIt(String name) throws IOException {
+        Path base = dir.resolve(name);
+        RosterEngine.save(base, compacted());
+        writeLog(sibling(base, name + ".log.compacted"), COMPACTED);
+        writeLog(sibling(base, name + ".log"), LATER);
+        assertRecovered(base);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"roster.csv", "roster.roster"})
+    void tornLastRecordIsSkippedAndCutOff(String name) throws IOException {
+        Path base = dir.resolve(name);
+        RosterEngine.save(base, compacted());
+        writeLog(sibling(base, name + ".log"), LATER);
+        Files.write(sibling(base, name + ".log"), "ADD_STUDENT,Art,4,D".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        List<String> skipped = new ArrayList<>();
+        try (RosterJournal journal = new RosterJournal(base)) {
+            Map<String, StudentStore> classMap = journal.open((lineNumber, line, reason) -> skipped.add(line));
+            assertEquals(describe(expected()), describe(classMap));
+            journal.append(RosterChange.addStudent("Art", new Student(4, "Dee", "4 Main St")));
+        }
+        assertEquals(List.of("ADD_STUDENT,Art,4,D"), skipped);
+        assertEquals("3,Cy,3 Main St;4,Dee,4 Main St;", describe(reopen(base)).get("Art"));
+    }
+
+    /**
+     * Opens the journal after a crash, and again after the compaction that opening starts, checking the roster both
+     * times and that no file of the compaction is left behind.
+     */
+    private void assertRecovered(Path base) throws IOException {
+        assertEquals(describe(expected()), describe(reopen(base)));
+        assertEquals(describe(expected()), describe(reopen(base)));
+        String name = base.getFileName().toString();
+        for (String leftOver : List.of(name + ".log.compacting", name + ".log.compacted", "next-" + name)) {
+            assertFalse(Files.exists(sibling(base, leftOver)), leftOver);
+        }
+    }
+
+    /**
+     * The roster once the compacted changes are applied.
+     */
+    private static Map<String, StudentStore> compacted() {
+        Map<String, StudentStore> roster = roster();
+        RosterChange.applyAll(COMPACTED, roster);
+        return roster;
+    }
+
+    /**
+     * The roster once every change is applied exactly once.
+     */
+    private static Map<String, StudentStore> expected() {
+        Map<String, StudentStore> roster = compacted();
+        RosterChange.applyAll(LATER, roster);
+        return roster;
+    }
+
+    private static Path sibling(Path base, String name) {
+        return base.resolveSibling(name);
+    }
+
+    private static void writeLog(Path path, List<RosterChange> changes) throws IOException {
+        StringBuilder records = new StringBuilder();
+        for (RosterChange change : changes) {
+            records.append(change.toCsv()).append('\n');
+        }
+        Files.write(path, records.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void rosterServiceFollowsRestoredClasses() throws IOException {
+        Map<String, StudentStore> classMap = roster();
+        RosterHistory history = new RosterHistory();
+        try (RosterService service = new RosterService(RosterJournal.copyOf(classMap))) {
+            List<RosterChange> delete = List.of(RosterChange.deleteClass("Art"));
+            history.record("Delete Class Art", RosterChange.applyAllAndInvert(delete, classMap));
+            service.apply(delete);
+            service.apply(RosterChange.expandRestores(history.undo(classMap))).join();
+            assertEquals(describe(classMap), describe(service.snapshot().getClasses()));
+        }
+    }
+
+    /**
+     * Applies changes as an undoable step and journals them, as the Student Manager window does.
+     */
+    private static void record(RosterHistory history, RosterJournal journal, Map<String, StudentStore> classMap, RosterChange... changes) throws IOException {
+        history.record("Step", RosterChange.applyAllAndInvert(List.of(changes), classMap));
+        journal.append(changes);
+    }
+
+    private static Map<String, StudentStore> reopen(Path base) throws IOException {
+        try (RosterJournal journal = new RosterJournal(base)) {
+            return journal.open(FAIL);
+        }
+    }
+
+    /**
+     * A roster whose first class repeats a roll number.
+     */
+    private static Map<String, StudentStore> roster() {
+        StudentStore art = new StudentStore();
+        art.add(new Student(1, "Ann", "1 Main St"));
+        art.add(new Student(1, "Bob", "2 Main St"));
+        art.add(new Student(2, "Cy", "3 Main St"));
+        StudentStore bio = new StudentStore();
+        bio.add(new Student(1, "Eve", "5 Oak Ave"));
+        Map<String, StudentStore> roster = new LinkedHashMap<>();
+        roster.put("Art", art);
+        roster.put("Bio", bio);
+        return roster;
+    }
+
+    /**
+     * Describes a roster as class names, in order, mapped to their students, in order.
+     */
+    static Map<String, String> describe(Map<String, StudentStore> roster) {
+        Map<String, String> description = new LinkedHashMap<>();
+        for (Map.Entry<String, StudentStore> entry : roster.entrySet()) {
+            StudentStore students = entry.getValue();
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < students.size(); i++) {
+                text.append(students.getRollno(i)).append(',').append(students.getName(i)).append(',').append(students.getAddress(i)).append(';');
+            }
+            description.put(entry.getKey(), text.toString());
+        }
+        return description;
+    }
+}
@@ -0,0 +1,79 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the writes of the roster service and the indexes it publishes with each snapshot.
+ */
+class RosterServiceTest {
+    @Test
+    void writtenClassesPublishIndexesThatMatchTheirStudents() {
+        StudentStore art = new StudentStore();
+        for (int rollno = 0; rollno < 500; rollno++) {
+            art.add(new Student(rollno, "Name " + (rollno * 7919 % 500), rollno + " Main St"));
+        }
+        art.add(new Student(5, "Repeated", "5 Side St")); // The service finds the first student with a roll number
+        try (RosterService service = new RosterService(Map.of("Art", art))) {
+            StudentIndex first = service.snapshot().index("Art");
+            SplittableRandom random = new SplittableRandom(3);
+            for (int batch = 0; batch < 40; batch++) {
+                List<RosterChange> changes = new ArrayList<>();
+                for (int i = 0; i < 20; i++) {
+                    int rollno = random.nextInt(520);
+                    int pick = random.nextInt(3);
+                    changes.add(pick == 0 ? RosterChange.deleteStudent("Art", rollno)
+                            : pick == 1 ? RosterChange.editStudent("Art", new Student(rollno, (random.nextBoolean() ? "a" : "B") + random.nextInt(50), "Edited"))
+                            : RosterChange.addStudent("Art", new Student(rollno, "Added " + random.nextInt(50), "Added")));
+                }
+                service.apply(changes).join();
+                RosterSnapshot snapshot = service.snapshot();
+                StudentIndex index = snapshot.index("Art");
+                assertSame(index, snapshot.students("Art").builtIndex(), "The writer's index is published");
+                assertIndexMatches(snapshot.students("Art"), index);
+            }
+            assertIndexMatches(art, first); // The first snapshot's store and index were left alone
+        }
+    }
+
+    @Test
+    void submittedChangesAreCheckedThroughTheIndex() {
+        StudentStore art = new StudentStore();
+        art.add(new Student(1, "Ann", "1 Main St"));
+        try (RosterService service = new RosterService(Map.of("Art", art))) {
+            assertEquals(409, service.submit(RosterChange.addStudent("Art", new Student(1, "Bob", "2 Main St"))).join());
+            assertEquals(201, service.submit(RosterChange.addStudent("Art", new Student(2, "Bob", "2 Main St"))).join());
+            assertEquals(200, service.submit(RosterChange.deleteStudent("Art", 1)).join());
+            assertEquals(404, service.submit(RosterChange.editStudent("Art", new Student(1, "Ann", "1 Main St"))).join());
+            assertEquals(404, service.submit(RosterChange.deleteStudent("Bio", 1)).join());
+            assertEquals(0, service.snapshot().index("Art").positionOf(2));
+        }
+    }
+
+    /**
+     * Checks an index against a scan of its store.
+     */
+    private static void assertIndexMatches(StudentStore students, StudentIndex index) {
+        for (int rollno = -1; rollno < 530; rollno++) {
+            assertEquals(RosterChange.indexOf(students, rollno), index.positionOf(rollno), "Roll number " + rollno);
+        }
+        int[] byName = IntStream.range(0, students.size()).boxed()
+                .sorted((a, b) -> String.CASE_INSENSITIVE_ORDER.compare(students.getName(a), students.getName(b)))
+                .mapToInt(Integer::intValue).toArray(); // Stable, so students with the same name stay in order
+        String[] expected = new String[byName.length], actual = new String[byName.length];
+        int[] positions = index.positionsWithNamePrefix("", Integer.MAX_VALUE);
+        assertEquals(byName.length, positions.length);
+        for (int i = 0; i < byName.length; i++) { // Compare names, since equal names may be in either order after edits
+            expected[i] = students.getName(byName[i]).toLowerCase();
+            actual[i] = students.getName(positions[i]).toLowerCase();
+        }
+        assertArrayEquals(expected, actual);
+        assertEquals(students.size(), IntStream.of(positions).distinct().count());
+    }
+}
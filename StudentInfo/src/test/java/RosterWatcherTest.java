@@ -0,0 +1,124 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that the changes the watcher finds in a file, however it was edited, bring the roster in line with the file.
+ */
+class RosterWatcherTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void unchangedFileHasNoChangesAndAnEditedLineHasOne() throws IOException {
+        Path file = dir.resolve("roster.csv");
+        List<String> lines = lines(3, 2000);
+        write(file, lines);
+        RosterWatcher watcher = new RosterWatcher(dir);
+        assertEquals(6000, watcher.refresh(file).size());
+        assertEquals(List.of(), watcher.refresh(file));
+        lines.set(3100, CsvCodec.join("Class 1", "1100", "Renamed, \"Student\"", "1100 Main St"));
+        write(file, lines);
+        assertEquals(List.of(RosterChange.addStudent("Class 1", new Student(1100, "Renamed, \"Student\"", "1100 Main St")).toCsv()),
+                csv(watcher.refresh(file)));
+    }
+
+    @Test
+    void changesBringTheRosterInLineWithTheFile() throws IOException {
+        Path file = dir.resolve("roster.csv");
+        List<String> lines = lines(4, 1500);
+        SplittableRandom random = new SplittableRandom(11);
+        RosterWatcher watcher = new RosterWatcher(dir);
+        Map<String, StudentStore> roster = new LinkedHashMap<>();
+        int nextRollno = 10000; // New students get roll numbers no class has yet
+        for (int round = 0; round < 60; round++) {
+            write(file, lines);
+            RosterChange.applyAll(watcher.refresh(file), roster);
+            roster.values().removeIf(StudentStore::isEmpty); // A class whose lines are all gone stays behind, empty
+            assertEquals(students(new RosterReader().read(file)), students(roster), "Round " + round);
+
+            int at = random.nextInt(lines.size());
+            String className = "Class " + random.nextInt(5); // Sometimes a class the file does not have yet
+            switch (random.nextInt(5)) {
+                case 0: // Edit a student
+                    String[] fields = lines.get(at).split(",");
+                    lines.set(at, CsvCodec.join(fields[0], fields[1], "Edited " + round, fields[3]));
+                    break;
+                case 1: // Insert students, shifting the rest of the file
+                    for (int i = random.nextInt(1, 40); i > 0; i--) {
+                        lines.add(at, CsvCodec.join(className, String.valueOf(nextRollno), "New " + nextRollno, nextRollno++ + " New St"));
+                    }
+                    break;
+                case 2: // Delete students
+                    lines.subList(at, Math.min(lines.size(), at + random.nextInt(1, 200))).clear();
+                    break;
+                case 3: // Append students at the end
+                    for (int i = random.nextInt(1, 40); i > 0; i--) {
+                        lines.add(CsvCodec.join(className, String.valueOf(nextRollno), "Late " + nextRollno, nextRollno++ + " Late St"));
+                    }
+                    break;
+                default: // Edit students near both ends at once
+                    int first = random.nextInt(Math.min(50, lines.size()));
+                    lines.set(first, lines.get(first).replace("Main", "Side"));
+                    lines.set(lines.size() - 1, lines.get(lines.size() - 1).replace("St", "Ave"));
+            }
+            if (lines.isEmpty()) {
+                lines.add(CsvCodec.join("Class 0", String.valueOf(nextRollno), "Only", nextRollno++ + " Only St"));
+            }
+        }
+    }
+
+    /**
+     * Lines of classes written one after another, each numbering its students from 0.
+     */
+    private static List<String> lines(int classes, int students) {
+        List<String> lines = new ArrayList<>();
+        for (int c = 0; c < classes; c++) {
+            for (int s = 0; s < students; s++) {
+                lines.add(CsvCodec.join("Class " + c, String.valueOf(s), "Student " + c + "-" + s, s + " Main St"));
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Lists the students of each class in a roster in roll number order, since merged students go to the end of their
+     * class and new classes to the end of the roster.
+     */
+    private static Map<String, List<String>> students(Map<String, StudentStore> roster) {
+        Map<String, List<String>> students = new TreeMap<>();
+        for (Map.Entry<String, StudentStore> entry : roster.entrySet()) {
+            List<String> lines = new ArrayList<>();
+            for (Student student : entry.getValue()) {
+                lines.add(student.getRollno() + "," + student.getName() + "," + student.getAddress());
+            }
+            lines.sort(Comparator.comparingInt(line -> Integer.parseInt(line.substring(0, line.indexOf(',')))));
+            students.put(entry.getKey(), lines);
+        }
+        return students;
+    }
+
+    private static void write(Path file, List<String> lines) throws IOException {
+        Files.write(file, (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> csv(List<RosterChange> changes) {
+        List<String> lines = new ArrayList<>();
+        for (RosterChange change : changes) {
+            lines.add(change.toCsv());
+        }
+        return lines;
+    }
+}
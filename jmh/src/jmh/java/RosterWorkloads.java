@@ -0,0 +1,122 @@
+import benchmarks.RosterWorkload;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import javax.swing.table.DefaultTableModel;
+
+/**
+ * Implements the benchmarked operations against the application classes, see {@link RosterWorkload}.
+ */
+public class RosterWorkloads implements RosterWorkload {
+    private static final int CLASS_SIZE = 1000; // Students per class of the roster that is loaded and saved
+
+    private StudentStore students; // Class that is sorted and shown
+    private Map<String, StudentStore> roster; // Roster that is saved
+    private final StudentTableModel tableModel = new StudentTableModel(); // Model displayClass shows classes in
+
+    @Override
+    public void generate(int rows, long seed) {
+        students = RosterGenerator.generateClass(rows, seed);
+        roster = RosterGenerator.generate(rows, Math.max(1, rows / CLASS_SIZE), seed);
+    }
+
+    @Override
+    public Object copyClass() {
+        return students.copy();
+    }
+
+    @Override
+    public Object sortByName() {
+        StudentStore copy = students.copy();
+        SelectionSort.sort(copy, new NameComparator());
+        return copy;
+    }
+
+    @Override
+    public Object sortByRollno() {
+        StudentStore copy = students.copy();
+        SelectionSort.sort(copy, new RollnoComparator());
+        return copy;
+    }
+
+    @Override
+    public long showFirstSortedByName(int visibleRows) {
+        tableModel.setStudentsSorting(students, new IncrementalSort(students.copy(), new NameComparator(), students.getVersion()));
+        return readCells(visibleRows);
+    }
+
+    @Override
+    public void save(Path file) throws IOException {
+        RosterEngine.save(file, roster);
+    }
+
+    @Override
+    public Object load(Path file) throws IOException {
+        Map<String, StudentStore> loaded = RosterEngine.load(file);
+        long students = 0;
+        for (StudentStore store : loaded.values()) { // Loads every class of a binary roster
+            students += store.size();
+        }
+        return students;
+    }
+
+    @Override
+    public Object openFirstClass(Path file) throws IOException {
+        Map<String, StudentStore> loaded = RosterEngine.load(file);
+        return loaded.get(loaded.keySet().iterator().next());
+    }
+
+    @Override
+    public long showClass(int visibleRows) {
+        try (RosterMetrics.Sample sample = RosterMetrics.REFRESH.start(null)) { // Timed as displayClass times it
+            sample.rows(students.size());
+            tableModel.setStudents(students);
+        }
+        return readCells(visibleRows);
+    }
+
+    /**
+     * Reads the cells of the first rows of the table model, the cells a table of that height paints.
+     */
+    private long readCells(int visibleRows) {
+        long hash = 0; // Consume the cells so they are not optimized away
+        int rows = Math.min(visibleRows, tableModel.getRowCount());
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < tableModel.getColumnCount(); column++) {
+                hash = 31 * hash + tableModel.getValueAt(row, column).hashCode();
+            }
+        }
+        return hash;
+    }
+
+    @Override
+    public long recordSample() {
+        try (RosterMetrics.Sample sample = RosterMetrics.REFRESH.start(null)) {
+            sample.rows(1);
+        }
+        return RosterMetrics.REFRESH.getName().length();
+    }
+
+    @Override
+    public Object findDuplicates() {
+        return new DuplicateFinder().find(roster);
+    }
+
+    @Override
+    public long queryNames(String text, boolean vector) {
+        return new StudentQuery()
+                .where(StudentPredicate.nameContains(text))
+                .kernels(vector ? QueryKernels.get() : new QueryKernels())
+                .run(roster)
+                .size();
+    }
+
+    @Override
+    public long fillDefaultTableModel() {
+        DefaultTableModel model = new DefaultTableModel(new String[] {"Roll Number", "Name", "Address"}, 0);
+        for (Student student : students) {
+            model.addRow(new Object[] {student.getRollno(), student.getName(), student.getAddress()});
+        }
+        return model.getRowCount();
+    }
+}
@@ -0,0 +1,20 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+/**
+ * Measures finding duplicate students across the classes of a roster, the work behind Tools &gt; Find Duplicates and
+ * App duplicates. The time per student should stay about the same from 1000 to 10,000,000 students.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DuplicateBenchmark {
+    @Benchmark
+    public Object findDuplicates(RosterState state) {
+        return state.workload.findDuplicates();
+    }
+}
@@ -0,0 +1,29 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+/**
+ * Measures what RosterMetrics costs: one empty sample, and showing a class with metrics turned off to compare with
+ * {@link TableBenchmark#showClass}, the cheapest timed operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsBenchmark {
+    private static final int VISIBLE_ROWS = 40; // Rows of a maximized window, as in TableBenchmark
+
+    @Benchmark
+    public long sample(RosterState state) {
+        return state.workload.recordSample();
+    }
+
+    @Benchmark
+    @Fork(jvmArgsAppend = "-Droster.metrics=false")
+    public long showClassWithoutMetrics(RosterState state) {
+        return state.workload.showClass(VISIBLE_ROWS);
+    }
+}
@@ -0,0 +1,27 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+/**
+ * Measures a query for text in the names of every student of a roster, the work behind Tools &gt; Query and App query,
+ * with the vectorized and the scalar kernels. A scan of 10,000,000 students should take well under a second.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class QueryBenchmark {
+    private static final String TEXT = "an"; // In about one name in six of the generated roster
+
+    @Benchmark
+    public long queryVector(RosterState state) {
+        return state.workload.queryNames(TEXT, true);
+    }
+
+    @Benchmark
+    public long queryScalar(RosterState state) {
+        return state.workload.queryNames(TEXT, false);
+    }
+}
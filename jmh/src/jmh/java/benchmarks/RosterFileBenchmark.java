@@ -0,0 +1,86 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures loading and saving a roster as a CSV file and as a binary roster, the work behind File &gt; Load and
+ * File &gt; Save. Saving includes the fsync and atomic rename, as it does in the application.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RosterFileBenchmark {
+    /**
+     * A directory with the roster saved once in each format, for loading, and files to save to.
+     */
+    @State(Scope.Benchmark)
+    public static class RosterFiles {
+        public Path directory; // Scratch directory of the trial
+        public Path saved; // Roster written during setup
+        public Path target; // File the save benchmark writes
+        public Path savedBinary; // Binary roster written during setup
+        public Path targetBinary; // Binary roster the save benchmark writes
+
+        @Setup
+        public void create(RosterState state) throws IOException {
+            directory = Files.createTempDirectory("roster-bench");
+            saved = directory.resolve("saved.csv");
+            target = directory.resolve("target.csv");
+            savedBinary = directory.resolve("saved.roster");
+            targetBinary = directory.resolve("target.roster");
+            state.workload.save(saved);
+            state.workload.save(savedBinary);
+        }
+
+        @TearDown
+        public void delete() throws IOException {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public Object load(RosterState state, RosterFiles files) throws IOException {
+        return state.workload.load(files.saved);
+    }
+
+    @Benchmark
+    public void save(RosterState state, RosterFiles files) throws IOException {
+        state.workload.save(files.target);
+    }
+
+    @Benchmark
+    public Object loadBinary(RosterState state, RosterFiles files) throws IOException {
+        return state.workload.load(files.savedBinary);
+    }
+
+    @Benchmark
+    public Object openFirstClass(RosterState state, RosterFiles files) throws IOException {
+        return state.workload.openFirstClass(files.saved);
+    }
+
+    @Benchmark
+    public Object openFirstClassBinary(RosterState state, RosterFiles files) throws IOException {
+        return state.workload.openFirstClass(files.savedBinary);
+    }
+
+    @Benchmark
+    public void saveBinary(RosterState state, RosterFiles files) throws IOException {
+        state.workload.save(files.targetBinary);
+    }
+}
@@ -0,0 +1,26 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A synthetic roster shared by the benchmarks of one trial, generated from a fixed seed so runs are comparable.
+ */
+@State(Scope.Benchmark)
+public class RosterState {
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int rows; // Students in the roster
+
+    @Param("42")
+    public long seed; // Seed of the generator
+
+    public RosterWorkload workload; // Operations on the roster
+
+    @Setup
+    public void generate() {
+        workload = RosterWorkload.create();
+        workload.generate(rows, seed);
+    }
+}
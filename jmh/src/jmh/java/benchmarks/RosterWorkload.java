@@ -0,0 +1,117 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * The operations of the Student Manager that the benchmarks measure.
+ * The application lives in the default package, which JMH benchmarks cannot use and named packages cannot import,
+ * so the operations are implemented by {@code RosterWorkloads} in the default package and reached through this
+ * interface. The class is looked up once per trial, so each measured call is a plain interface call.
+ */
+public interface RosterWorkload {
+    /**
+     * Creates the workload implementation.
+     * @return A new workload.
+     */
+    static RosterWorkload create() {
+        try {
+            return (RosterWorkload) Class.forName("RosterWorkloads").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("RosterWorkloads is missing from the benchmark classpath", e);
+        }
+    }
+
+    /**
+     * Generates the synthetic roster the other operations work on.
+     * @param rows The number of students; a single class for sorting and table population, spread over classes of
+     *             1000 students for loading and saving.
+     * @param seed The seed of the generator.
+     */
+    void generate(int rows, long seed);
+
+    /**
+     * Copies the generated class, which every sort does first so that it never sorts sorted input.
+     * @return The copy.
+     */
+    Object copyClass();
+
+    /**
+     * Copies the generated class and sorts the copy by name with SelectionSort and NameComparator.
+     * @return The sorted copy.
+     */
+    Object sortByName();
+
+    /**
+     * Copies the generated class and sorts the copy by roll number with SelectionSort and RollnoComparator.
+     * @return The sorted copy.
+     */
+    Object sortByRollno();
+
+    /**
+     * Shows the generated class sorted by name the way sortClass does before the whole class is sorted, with an
+     * IncrementalSort, and reads the cells a table of the given height paints.
+     * @param visibleRows The number of rows to read.
+     * @return A value derived from the cells read.
+     */
+    long showFirstSortedByName(int visibleRows);
+
+    /**
+     * Saves the generated roster the way File &gt; Save does.
+     * @param file The file to write, binary if it ends in .roster and CSV otherwise.
+     * @throws IOException If the file cannot be written.
+     */
+    void save(Path file) throws IOException;
+
+    /**
+     * Loads a roster the way File &gt; Load does, including every class of a binary roster.
+     * @param file The file to read, binary if it ends in .roster and CSV otherwise.
+     * @return The number of students loaded.
+     * @throws IOException If the file cannot be read.
+     */
+    Object load(Path file) throws IOException;
+
+    /**
+     * Opens a roster and loads its first class, the work before the application shows a class at startup.
+     * @param file The file to read, binary if it ends in .roster and CSV otherwise.
+     * @return The first class.
+     * @throws IOException If the file cannot be read.
+     */
+    Object openFirstClass(Path file) throws IOException;
+
+    /**
+     * Shows the generated class in a table model the way displayClass does, timed by RosterMetrics, and reads the
+     * cells a table of the given height paints.
+     * @param visibleRows The number of rows to read.
+     * @return A value derived from the cells read.
+     */
+    long showClass(int visibleRows);
+
+    /**
+     * Fills a DefaultTableModel with every student of the generated class, the way displayClass worked before it read
+     * rows from the store, as a baseline for {@link #showClass}.
+     * @return The number of rows added.
+     */
+    long fillDefaultTableModel();
+
+    /**
+     * Records one empty RosterMetrics sample, the cost the metrics add to every timed operation.
+     * @return A value derived from the timer, so the call is not optimized away.
+     */
+    long recordSample();
+
+    /**
+     * Finds the duplicate students of the generated roster the way Tools &gt; Find Duplicates does.
+     * @return The clusters found.
+     */
+    Object findDuplicates();
+
+    /**
+     * Queries every class of the generated roster for the students with text in their names, the way Tools &gt; Query
+     * and App query do.
+     * @param text The text to find in the names.
+     * @param vector Whether to use the vectorized kernels, if the Vector API is available, or the scalar ones.
+     * @return The number of students found.
+     */
+    long queryNames(String text, boolean vector);
+}
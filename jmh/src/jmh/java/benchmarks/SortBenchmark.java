@@ -0,0 +1,37 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+/**
+ * Measures SelectionSort on one class, by name and by roll number, and the first sorted screen of an IncrementalSort.
+ * Each operation sorts a fresh copy of the class; {@link #copy} measures the copy alone so it can be subtracted.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SortBenchmark {
+    private static final int VISIBLE_ROWS = 40; // Rows of a maximized window
+
+    @Benchmark
+    public Object copy(RosterState state) {
+        return state.workload.copyClass();
+    }
+
+    @Benchmark
+    public Object sortByName(RosterState state) {
+        return state.workload.sortByName();
+    }
+
+    @Benchmark
+    public Object sortByRollno(RosterState state) {
+        return state.workload.sortByRollno();
+    }
+
+    @Benchmark
+    public long firstScreenByName(RosterState state) {
+        return state.workload.showFirstSortedByName(VISIBLE_ROWS);
+    }
+}
@@ -0,0 +1,26 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+/**
+ * Measures showing a class in the student table, the work behind displayClass.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TableBenchmark {
+    private static final int VISIBLE_ROWS = 40; // Rows of a maximized window
+
+    @Benchmark
+    public long showClass(RosterState state) {
+        return state.workload.showClass(VISIBLE_ROWS);
+    }
+
+    @Benchmark
+    public long fillDefaultTableModel(RosterState state) {
+        return state.workload.fillDefaultTableModel();
+    }
+}